@@ -0,0 +1,58 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import personal.mrxdhlxpb.server.https.error.HttpErrorException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A request handler which may complete the response after returning, such as one which fans out
+ * to several backends, so that no thread is blocked while the response is produced.
+ * <p> The returned stage completes with the response to be sent, which is normally
+ * {@code httpResponse} once it has been filled, or completes exceptionally with an
+ * {@link HttpErrorException}, which is handled as if it had been thrown by an
+ * {@link HTTPRequestHandler}. The response is generated by the thread which completes the stage.
+ *
+ * @author mrxdhlxpb
+ * @see InternalResource#getAsyncHTTPRequestHandler()
+ */
+@FunctionalInterface
+public interface AsyncHTTPRequestHandler {
+
+    CompletionStage<HTTPResponse> handle(HTTPRequest httpRequest, HTTPResponse httpResponse);
+
+    /**
+     * Adapts a blocking request handler, which is called by the thread calling
+     * {@link #handle(HTTPRequest, HTTPResponse)} of the returned handler.
+     *
+     * @param httpRequestHandler the blocking request handler
+     * @return a request handler which returns a completed stage
+     */
+    static AsyncHTTPRequestHandler of(HTTPRequestHandler httpRequestHandler) {
+        return (httpRequest, httpResponse) -> {
+            try {
+                httpRequestHandler.handle(httpRequest, httpResponse);
+                return CompletableFuture.completedStage(httpResponse);
+            } catch (HttpErrorException httpErrorException) {
+                return CompletableFuture.failedStage(httpErrorException);
+            }
+        };
+    }
+
+}
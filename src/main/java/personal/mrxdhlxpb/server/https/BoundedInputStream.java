@@ -0,0 +1,96 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream from which at most {@code length} bytes of the underlying input stream are
+ * read. The underlying input stream is closed as soon as {@code length} bytes have been read or
+ * end of stream is detected, as well as when this input stream is closed.
+ *
+ * @author mrxdhlxpb
+ */
+class BoundedInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    private boolean closed = false;
+
+    BoundedInputStream(InputStream in, long length) throws IOException {
+        super(in);
+        this.remaining = length;
+        if (length <= 0)
+            close();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0)
+            return -1;
+        final int data = in.read();
+        if (data == -1)
+            close();
+        else if (--remaining == 0)
+            close();
+        return data;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (remaining <= 0)
+            return -1;
+        final int n = in.read(b, off, (int) Math.min(len, remaining));
+        if (n == -1)
+            close();
+        else if ((remaining -= n) == 0)
+            close();
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (remaining <= 0)
+            return 0;
+        final long skipped = in.skip(Math.min(n, remaining));
+        if ((remaining -= skipped) == 0)
+            close();
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return remaining <= 0 ? 0 : (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public void close() throws IOException {
+        remaining = 0;
+        if (closed)
+            return;
+        closed = true;
+        in.close();
+    }
+
+    @Override
+    public boolean markSupported() { return false; }
+
+}
@@ -0,0 +1,286 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of buffers, organized in size classes whose sizes are powers of two.
+ * <p> A buffer is leased with {@code acquire} and returned with {@code release}. The buffer
+ * returned by {@code acquire} may be longer than requested, and may hold data written by its
+ * previous lessee. A buffer must not be used after it has been released, and must not be released
+ * more than once. A request for a buffer larger than the largest size class is served by
+ * allocating a new buffer, which is dropped when released. Each size class retains at most
+ * {@code maximumRetainedPerSizeClass} buffers; any buffer released beyond that is dropped.
+ * <p> Direct byte buffers, for the I/O layer, are pooled only if enabled. Otherwise
+ * {@code acquireDirect} allocates a new direct byte buffer of exactly the requested capacity.
+ * <p> This class is lock-free, so that a virtual thread never blocks or gets pinned in it.
+ * <p> The counters are approximate while buffers are being leased and released concurrently.
+ *
+ * @author mrxdhlxpb
+ */
+public final class BufferPool {
+
+    /**
+     * A pool which retains no buffer, so that every buffer is newly allocated. It still counts
+     * leases.
+     */
+    public static final BufferPool UNPOOLED = new BufferPool(1, 1, 0, false);
+
+    private final int minimumShift;
+
+    private final int maximumShift;
+
+    private final SizeClass<byte[]>[] heapSizeClasses;
+
+    /**
+     * {@code null} if direct byte buffers are not pooled
+     */
+    private final SizeClass<ByteBuffer>[] directSizeClasses;
+
+    private final LongAdder acquisitions = new LongAdder();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder releases = new LongAdder();
+
+    /**
+     * @param minimumBufferSize the size of the smallest size class, rounded up to a power of two
+     * @param maximumBufferSize the size of the largest size class, rounded up to a power of two
+     * @param maximumRetainedPerSizeClass the maximum number of buffers retained by each size
+     *                                    class
+     * @param directBuffersPooled whether direct byte buffers are pooled
+     * @throws IllegalArgumentException if {@code minimumBufferSize} is not positive,
+     *                                  {@code maximumBufferSize} is less than
+     *                                  {@code minimumBufferSize} or greater than
+     *                                  {@code 1 << 30}, or
+     *                                  {@code maximumRetainedPerSizeClass} is negative
+     */
+    public BufferPool(int minimumBufferSize,
+                      int maximumBufferSize,
+                      int maximumRetainedPerSizeClass,
+                      boolean directBuffersPooled) {
+        if (minimumBufferSize <= 0
+                || maximumBufferSize < minimumBufferSize
+                || maximumBufferSize > 1 << 30
+                || maximumRetainedPerSizeClass < 0)
+            throw new IllegalArgumentException();
+        this.minimumShift = shiftOf(minimumBufferSize);
+        this.maximumShift = shiftOf(maximumBufferSize);
+        final int sizeClassCount = maximumShift - minimumShift + 1;
+        this.heapSizeClasses = newSizeClasses(sizeClassCount, maximumRetainedPerSizeClass);
+        this.directSizeClasses = directBuffersPooled ?
+                newSizeClasses(sizeClassCount, maximumRetainedPerSizeClass) :
+                null;
+    }
+
+    /**
+     * @return a byte array, the length of which is at least {@code minimumLength}
+     * @throws IllegalArgumentException if {@code minimumLength} is negative
+     */
+    public byte[] acquire(int minimumLength) {
+        if (minimumLength < 0)
+            throw new IllegalArgumentException();
+        acquisitions.increment();
+        final int index = sizeClassIndexOf(minimumLength);
+        if (index == -1)
+            return new byte[minimumLength];
+        final byte[] buffer = heapSizeClasses[index].poll();
+        if (buffer != null) {
+            hits.increment();
+            return buffer;
+        }
+        return new byte[1 << (minimumShift + index)];
+    }
+
+    /**
+     * Returns a byte array to this pool. The byte array is retained only if its length is the
+     * size of a size class, which need not have been acquired from this pool.
+     *
+     * @param buffer non-null required
+     * @throws NullPointerException if {@code buffer} is {@code null}
+     */
+    public void release(byte[] buffer) {
+        Objects.requireNonNull(buffer);
+        releases.increment();
+        final int index = exactSizeClassIndexOf(buffer.length);
+        if (index != -1)
+            heapSizeClasses[index].offer(buffer);
+    }
+
+    /**
+     * @return a cleared direct byte buffer, the capacity of which is at least
+     *         {@code minimumCapacity}
+     * @throws IllegalArgumentException if {@code minimumCapacity} is negative
+     */
+    public ByteBuffer acquireDirect(int minimumCapacity) {
+        if (minimumCapacity < 0)
+            throw new IllegalArgumentException();
+        acquisitions.increment();
+        final int index = directSizeClasses == null ? -1 : sizeClassIndexOf(minimumCapacity);
+        if (index == -1)
+            return ByteBuffer.allocateDirect(minimumCapacity);
+        final ByteBuffer buffer = directSizeClasses[index].poll();
+        if (buffer != null) {
+            hits.increment();
+            return buffer.clear();
+        }
+        return ByteBuffer.allocateDirect(1 << (minimumShift + index));
+    }
+
+    /**
+     * Returns a direct byte buffer to this pool. The byte buffer is retained only if direct byte
+     * buffers are pooled, and its capacity is the size of a size class.
+     *
+     * @param buffer non-null required
+     * @throws NullPointerException if {@code buffer} is {@code null}
+     */
+    public void releaseDirect(ByteBuffer buffer) {
+        Objects.requireNonNull(buffer);
+        releases.increment();
+        if (directSizeClasses == null || !buffer.isDirect())
+            return;
+        final int index = exactSizeClassIndexOf(buffer.capacity());
+        if (index != -1)
+            directSizeClasses[index].offer(buffer);
+    }
+
+    /**
+     * Creates an input stream that reads {@code buffer[0..length)}, and releases {@code buffer}
+     * to this pool when closed, after which it contains no more bytes.
+     *
+     * @throws IndexOutOfBoundsException if {@code length} is out of range
+     */
+    public InputStream newInputStream(byte[] buffer, int length) {
+        Objects.checkFromIndexSize(0, length, buffer.length);
+        return new ReleasingByteArrayInputStream(buffer, length);
+    }
+
+    /**
+     * @return the number of leases so far
+     */
+    public long getAcquisitionCount() { return acquisitions.sum(); }
+
+    /**
+     * @return the number of leases served by a retained buffer so far
+     */
+    public long getHitCount() { return hits.sum(); }
+
+    /**
+     * @return the ratio of the number of leases served by a retained buffer to the number of
+     *         leases, or {@code 0} if there has been no lease
+     */
+    public double getHitRate() {
+        final long acquisitionCount = getAcquisitionCount();
+        return acquisitionCount == 0 ? 0 : (double) getHitCount() / acquisitionCount;
+    }
+
+    /**
+     * @return the number of buffers leased but not released yet
+     */
+    public long getOutstandingLeaseCount() { return acquisitions.sum() - releases.sum(); }
+
+    @SuppressWarnings("unchecked")
+    private static <T> SizeClass<T>[] newSizeClasses(int count, int maximumRetained) {
+        // an array of a parameterized type cannot be created directly
+        final SizeClass<T>[] sizeClasses = (SizeClass<T>[]) new SizeClass<?>[count];
+        for (int i = 0; i < count; i++)
+            sizeClasses[i] = new SizeClass<>(maximumRetained);
+        return sizeClasses;
+    }
+
+    private static int shiftOf(int size) {
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /**
+     * @return the index of the smallest size class which can hold {@code length} bytes, or
+     *         {@code -1} if there is none
+     */
+    private int sizeClassIndexOf(int length) {
+        final int shift = Math.max(shiftOf(Math.max(length, 1)), minimumShift);
+        return shift > maximumShift ? -1 : shift - minimumShift;
+    }
+
+    /**
+     * @return the index of the size class whose size is {@code length}, or {@code -1} if there is
+     *         none
+     */
+    private int exactSizeClassIndexOf(int length) {
+        if (length <= 0 || Integer.bitCount(length) != 1)
+            return -1;
+        final int shift = Integer.numberOfTrailingZeros(length);
+        return shift < minimumShift || shift > maximumShift ? -1 : shift - minimumShift;
+    }
+
+    private static final class SizeClass<T> {
+
+        private final ConcurrentLinkedQueue<T> retained = new ConcurrentLinkedQueue<>();
+
+        /**
+         * the number of buffers in {@code retained}, as {@code ConcurrentLinkedQueue.size()}
+         * is not a constant-time operation
+         */
+        private final AtomicInteger retainedCount = new AtomicInteger();
+
+        private final int maximumRetained;
+
+        private SizeClass(int maximumRetained) {
+            this.maximumRetained = maximumRetained;
+        }
+
+        private T poll() {
+            final T buffer = retained.poll();
+            if (buffer != null)
+                retainedCount.decrementAndGet();
+            return buffer;
+        }
+
+        private void offer(T buffer) {
+            if (retainedCount.incrementAndGet() > maximumRetained) {
+                retainedCount.decrementAndGet();
+                return;
+            }
+            retained.offer(buffer);
+        }
+    }
+
+    private final class ReleasingByteArrayInputStream extends ByteArrayInputStream {
+
+        private static final byte[] EMPTY = new byte[0];
+
+        private ReleasingByteArrayInputStream(byte[] buffer, int length) {
+            super(buffer, 0, length);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (buf == EMPTY)
+                return;
+            final byte[] buffer = buf;
+            buf = EMPTY;
+            pos = count = mark = 0;
+            release(buffer);
+        }
+    }
+}
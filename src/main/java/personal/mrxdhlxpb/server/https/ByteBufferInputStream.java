@@ -0,0 +1,63 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * An input stream reading the remaining bytes of a byte buffer, such as a mapped file, which are
+ * copied straight into the array passed to {@code read}. Reading advances the position of the
+ * buffer, so a buffer shared by several readers is to be duplicated for each.
+ *
+ * @author mrxdhlxpb
+ */
+final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) { this.buffer = Objects.requireNonNull(buffer); }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0XFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0)
+            return 0;
+        if (!buffer.hasRemaining())
+            return -1;
+        final int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() { return buffer.remaining(); }
+
+}
@@ -0,0 +1,342 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import personal.mrxdhlxpb.server.https.error.concrete.client.RangeNotSatisfiableException;
+import personal.mrxdhlxpb.server.https.error.concrete.server.InternalServerErrorException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Serves range requests, as defined in <em>RFC 9110: HTTP Semantics Section 14. Range
+ * Requests</em>, for responses whose content is seekable.
+ * <p> A 200 (OK) response which has {@linkplain HTTPResponse#getSeekableContent() seekable
+ * content} advertises {@code Accept-Ranges: bytes}. If the request is a GET request with a
+ * valid Range header field in the bytes range unit, and its If-Range header field, if any,
+ * matches the Last-Modified or strong ETag header field of the response, the content is replaced
+ * by the requested ranges:
+ * <ul>
+ *     <li>a single satisfiable range is sent as the content of a 206 (Partial Content) response
+ *         with a Content-Range header field;</li>
+ *     <li>several satisfiable ranges are sorted, overlapping and adjacent ones are coalesced, and
+ *         the rest are sent as a multipart/byteranges content whose parts are read from the
+ *         seekable content one after another, so that nothing is buffered;</li>
+ *     <li>if no range is satisfiable, a {@link RangeNotSatisfiableException} is thrown.</li>
+ * </ul>
+ * <p> A Range header field with more than {@link #MAXIMUM_RANGE_COUNT} ranges is ignored, so that
+ * a request cannot make the server send many small parts.
+ *
+ * @author mrxdhlxpb
+ */
+@CompliantWith("RFC 9110: HTTP Semantics Section 14. Range Requests")
+public final class ByteRanges {
+
+    public static final String BYTES = "bytes";
+
+    public static final int MAXIMUM_RANGE_COUNT = 16;
+
+    private static final String CRLF = "\r\n";
+
+    /**
+     * A satisfiable byte range, from {@code first} to {@code last}, inclusive.
+     */
+    public record ByteRange(long first, long last) {
+
+        public long length() { return last - first + 1; }
+
+        /**
+         * @param completeLength the number of octets in the selected representation
+         * @return the value of the Content-Range header field for this range
+         */
+        public String toContentRange(long completeLength) {
+            return BYTES + ' ' + first + '-' + last + '/' + completeLength;
+        }
+
+    }
+
+    /**
+     * The body of a part, which is opened on its first read, so that a multipart response holds
+     * open only the part being sent rather than all of them at once, and a response which is not
+     * sent opens none. It is also the content of a {@link StaticFileInternalResource} which is
+     * read from a file which is not mapped, as a single part spanning the whole file.
+     */
+    static final class PartInputStream extends InputStream {
+
+        private final SeekableContent seekableContent;
+
+        private final ByteRange byteRange;
+
+        private InputStream inputStream;
+
+        private boolean closed;
+
+        PartInputStream(SeekableContent seekableContent, ByteRange byteRange) {
+            this.seekableContent = seekableContent;
+            this.byteRange = byteRange;
+        }
+
+        @Override
+        public int read() throws IOException { return open().read(); }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return open().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return inputStream == null ? 0 : inputStream.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            if (inputStream != null)
+                inputStream.close();
+        }
+
+        private InputStream open() throws IOException {
+            if (closed)
+                throw new IOException("closed");
+            if (inputStream == null)
+                inputStream = seekableContent.newInputStream(byteRange.first(), byteRange.length());
+            return inputStream;
+        }
+
+    }
+
+    private ByteRanges() {}
+
+    /**
+     * Serves the range request, if any, as described in the class description.
+     *
+     * @param httpRequest the request
+     * @param httpResponse the response, after the request handler has handled the request
+     * @throws RangeNotSatisfiableException if none of the ranges is satisfiable
+     * @throws InternalServerErrorException to wrap an {@code IOException}
+     */
+    public static void apply(HTTPRequest httpRequest, HTTPResponse httpResponse)
+            throws RangeNotSatisfiableException, InternalServerErrorException {
+        final Optional<SeekableContent> seekableContentOptional =
+                httpResponse.getSeekableContent();
+        if (seekableContentOptional.isEmpty() || httpResponse.getStatusCode() != 200)
+            return;
+        final Fields headerSection = httpResponse.getHeaderSection();
+        if (!headerSection.contains("accept-ranges"))
+            headerSection.set("accept-ranges", BYTES);
+
+        final Fields requestHeaderSection = httpRequest.headerSection();
+        // range handling is only defined for GET
+        if (httpRequest.requestMessageControlData().requestMethod() != RequestMethod.GET
+                || requestHeaderSection == null)
+            return;
+        final Optional<String> rangeOptional = requestHeaderSection.getFieldValueString("range");
+        if (rangeOptional.isEmpty()
+                || !isIfRangeSatisfied(requestHeaderSection.getFieldValueString("if-range")
+                        .orElse(null), headerSection))
+            return;
+        final SeekableContent seekableContent = seekableContentOptional.get();
+        final long completeLength = seekableContent.size();
+        final List<ByteRange> byteRanges = parse(rangeOptional.get(), completeLength).orElse(null);
+        if (byteRanges == null)
+            return;
+
+        try {
+            if (httpResponse.getContentInputStream() != null)
+                httpResponse.getContentInputStream().close();
+            httpResponse.setContentInputStream(null);
+            httpResponse.setContentWriter(null);
+            if (byteRanges.isEmpty())
+                throw new RangeNotSatisfiableException(completeLength);
+
+            httpResponse.setStatusCode((short) 206);
+            if (byteRanges.size() == 1) {
+                final ByteRange byteRange = byteRanges.getFirst();
+                headerSection.set("content-range", byteRange.toContentRange(completeLength));
+                setContent(httpResponse,
+                        seekableContent.newInputStream(byteRange.first(), byteRange.length()),
+                        byteRange.length());
+                return;
+            }
+
+            final String boundary = newBoundary();
+            final String contentType =
+                    headerSection.getFieldValueString("content-type").orElse(null);
+            final List<InputStream> parts = new ArrayList<>(byteRanges.size() * 2 + 1);
+            long length = 0;
+            for (ByteRange byteRange : byteRanges) {
+                final byte[] partHead = ((parts.isEmpty() ? "" : CRLF) + "--" + boundary + CRLF
+                        + (contentType == null ? "" : "content-type: " + contentType + CRLF)
+                        + "content-range: " + byteRange.toContentRange(completeLength) + CRLF
+                        + CRLF).getBytes(StandardCharsets.US_ASCII);
+                parts.add(new ByteArrayInputStream(partHead));
+                parts.add(new PartInputStream(seekableContent, byteRange));
+                length += partHead.length + byteRange.length();
+            }
+            final byte[] closeDelimiter =
+                    (CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+            parts.add(new ByteArrayInputStream(closeDelimiter));
+            length += closeDelimiter.length;
+
+            headerSection.set("content-type", "multipart/byteranges; boundary=" + boundary);
+            setContent(httpResponse,
+                    new SequenceInputStream(Collections.enumeration(parts)),
+                    length);
+        } catch (IOException ioException) {
+            throw new InternalServerErrorException(ioException);
+        }
+    }
+
+    /**
+     * Parses the value of a Range header field.
+     *
+     * @param range the value of the Range header field
+     * @param completeLength the number of octets in the selected representation
+     * @return an empty optional if the Range header field is to be ignored, as its syntax is
+     *         invalid, its range unit is not bytes, or it has more than
+     *         {@link #MAXIMUM_RANGE_COUNT} ranges; or else the satisfiable ranges, sorted and
+     *         coalesced, which are empty if none of the ranges is satisfiable
+     */
+    static Optional<List<ByteRange>> parse(String range, long completeLength) {
+//        ranges-specifier = range-unit "=" range-set
+//        range-set        = 1#range-spec
+//        range-spec       = int-range / suffix-range
+//        int-range        = first-pos "-" [ last-pos ]
+//        suffix-range     = "-" suffix-length
+        final int equalsSign = range.indexOf('=');
+        if (equalsSign == -1 || !range.substring(0, equalsSign).strip().equalsIgnoreCase(BYTES))
+            return Optional.empty();
+        final String[] rangeSpecs = range.substring(equalsSign + 1).split(",", -1);
+        if (rangeSpecs.length > MAXIMUM_RANGE_COUNT)
+            return Optional.empty();
+
+        final List<ByteRange> byteRanges = new ArrayList<>(rangeSpecs.length);
+        boolean empty = true;
+        for (String rangeSpec : rangeSpecs) {
+            rangeSpec = rangeSpec.strip();
+            // the list syntax allows empty elements
+            if (rangeSpec.isEmpty())
+                continue;
+            empty = false;
+            final int hyphen = rangeSpec.indexOf('-');
+            if (hyphen == -1)
+                return Optional.empty();
+            final long first = parseDigits(rangeSpec.substring(0, hyphen));
+            final long last = parseDigits(rangeSpec.substring(hyphen + 1));
+            if (hyphen == 0) {
+                // suffix-range
+                if (last < 0)
+                    return Optional.empty();
+                if (last > 0 && completeLength > 0)
+                    byteRanges.add(new ByteRange(Math.max(0, completeLength - last),
+                            completeLength - 1));
+                continue;
+            }
+            if (first < 0 || hyphen + 1 < rangeSpec.length() && (last < 0 || last < first))
+                return Optional.empty();
+            if (first < completeLength)
+                byteRanges.add(new ByteRange(first, hyphen + 1 == rangeSpec.length() ?
+                        completeLength - 1 : Math.min(last, completeLength - 1)));
+        }
+        if (empty)
+            return Optional.empty();
+        if (byteRanges.size() < 2)
+            return Optional.of(byteRanges);
+
+        byteRanges.sort(Comparator.comparingLong(ByteRange::first));
+        final List<ByteRange> coalesced = new ArrayList<>(byteRanges.size());
+        ByteRange current = byteRanges.getFirst();
+        for (ByteRange byteRange : byteRanges.subList(1, byteRanges.size())) {
+            if (byteRange.first() <= current.last() + 1) {
+                current = new ByteRange(current.first(),
+                        Math.max(current.last(), byteRange.last()));
+            } else {
+                coalesced.add(current);
+                current = byteRange;
+            }
+        }
+        coalesced.add(current);
+        return Optional.of(coalesced);
+    }
+
+    /**
+     * @return the value of the digits, {@code Long.MAX_VALUE} if it overflows, or -1 if
+     *         {@code str} is not a nonempty sequence of digits
+     */
+    private static long parseDigits(String str) {
+        if (str.isEmpty())
+            return -1;
+        long value = 0;
+        for (int i = 0; i < str.length(); i++) {
+            final char c = str.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            value = value > (Long.MAX_VALUE - (c - '0')) / 10 ?
+                    Long.MAX_VALUE : value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * An If-Range header field with an entity tag is satisfied only if the response has the
+     * same strong entity tag, and one with an HTTP-date only if the response has a Last-Modified
+     * header field of the same date, as defined in <em>RFC 9110: HTTP Semantics Section 13.1.5.
+     * If-Range</em>.
+     */
+    private static boolean isIfRangeSatisfied(String ifRange, Fields headerSection) {
+        if (ifRange == null)
+            return true;
+        ifRange = ifRange.strip();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            final Optional<String> eTag = headerSection.getFieldValueString("etag");
+            return ifRange.startsWith("\"") && eTag.isPresent() && eTag.get().equals(ifRange);
+        }
+        final Optional<Instant> date = Validators.parseHTTPDate(ifRange);
+        return date.isPresent() && date.equals(headerSection.getFieldValueString("last-modified")
+                .flatMap(Validators::parseHTTPDate));
+    }
+
+    /**
+     * Sets {@code content}, of {@code length} octets, as the content of {@code httpResponse},
+     * along with the Content-Length header field. Content longer than {@code Integer.MAX_VALUE}
+     * octets is of unknown length to the message body generator, so the response generator
+     * decides its framing, and removes the Content-Length header field if it applies a transfer
+     * coding.
+     */
+    private static void setContent(HTTPResponse httpResponse, InputStream content, long length) {
+        httpResponse.setContentInputStream(content);
+        httpResponse.setContentLength(length <= Integer.MAX_VALUE ? (int) length : -1);
+        httpResponse.getHeaderSection().set("content-length", String.valueOf(length));
+    }
+
+    private static String newBoundary() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        return String.format("%016x%016x", random.nextLong(), random.nextLong());
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import personal.mrxdhlxpb.server.https.error.concrete.server.InternalServerErrorException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A message body generator which applies the chunked transfer coding to content of unknown
+ * length, including content pushed by a {@link ContentWriter}, and sends the trailer section
+ * after it. Content of known length is sent as is, like {@link
+ * HTTP1_1ResponseMessageBodyGeneratorImpl} does.
+ * <p> The content is streamed through the buffer of the {@link HTTP1_1ResponseOutputStream} of the
+ * connection, which is reused for every response, so that large or generated content never has to
+ * fit in memory. The response message generator sets the Transfer-Encoding header field according
+ * to {@link #getTransferEncodingChain(int)}.
+ *
+ * @author mrxdhlxpb
+ */
+@CompliantWith("RFC 9112: HTTP/1.1 Section 7.1. Chunked Transfer Coding")
+public class ChunkedHTTP1_1ResponseMessageBodyGenerator
+        extends HTTP1_1ResponseMessageBodyGeneratorImpl {
+
+    private static final String[] CHUNKED = {"chunked"};
+
+    /**
+     * @return {@code {"chunked"}}, the transfer codings applied to content of unknown length
+     */
+    @Override
+    public String[] getTransferEncodingChain() {
+        return CHUNKED.clone();
+    }
+
+    /**
+     * @return {@code {"chunked"}} if {@code contentLength} is negative, or else an empty array
+     */
+    @Override
+    public String[] getTransferEncodingChain(int contentLength) {
+        return contentLength < 0 ? getTransferEncodingChain() : new String[0];
+    }
+
+    /**
+     * Applies the chunked transfer coding to the content if {@code contentLength} is negative,
+     * followed by {@code trailerSection}. Otherwise, works like the superclass does.
+     */
+    @Override
+    public void generateResponseMessageBody(InputStream contentInputStream,
+                                            int contentLength,
+                                            Fields trailerSection,
+                                            OutputStream destination)
+            throws InternalServerErrorException {
+        if (contentLength >= 0) {
+            super.generateResponseMessageBody(
+                    contentInputStream,
+                    contentLength,
+                    trailerSection,
+                    destination);
+            return;
+        }
+
+        try {
+            final HTTP1_1ResponseOutputStream responseOutputStream =
+                    asResponseOutputStream(destination);
+            if (contentInputStream != null)
+                responseOutputStream.transferChunkedFrom(contentInputStream);
+            responseOutputStream.writeLastChunk(trailerSection);
+            responseOutputStream.flush();
+        } catch (IOException ioException) {
+            throw new InternalServerErrorException(ioException);
+        }
+    }
+
+    /**
+     * Applies the chunked transfer coding to the content pushed by {@code contentWriter}, followed
+     * by {@code trailerSection}. Each flush of the output stream passed to {@code contentWriter}
+     * sends the chunk accumulated so far to the client.
+     */
+    @Override
+    public void generateResponseMessageBodyFrom(ContentWriter contentWriter,
+                                                Fields trailerSection,
+                                                OutputStream destination)
+            throws InternalServerErrorException {
+        try {
+            final HTTP1_1ResponseOutputStream responseOutputStream =
+                    asResponseOutputStream(destination);
+            try (OutputStream chunkedOutputStream = responseOutputStream.newChunkedOutputStream()) {
+                contentWriter.writeTo(chunkedOutputStream);
+            }
+            responseOutputStream.writeLastChunk(trailerSection);
+            responseOutputStream.flush();
+        } catch (IOException ioException) {
+            throw new InternalServerErrorException(ioException);
+        }
+    }
+
+}
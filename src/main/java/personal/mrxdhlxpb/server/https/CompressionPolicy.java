@@ -0,0 +1,116 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Determines which responses of an internal resource are worth compressing, by the media type of
+ * the Content-Type header field and by the content length.
+ * <p> A media range is one of {@code type/subtype}, {@code type/*} and {@code *}{@code /*+suffix},
+ * the last matching any subtype with the structured syntax suffix, such as
+ * {@code application/problem+json} for {@code *}{@code /*+json}. Content whose length is known to
+ * be less than {@code minimumLength} is not compressed, as the gzip header and trailer would
+ * outweigh the saving.
+ *
+ * @author mrxdhlxpb
+ * @see InternalResource#getCompressionPolicy()
+ */
+public final class CompressionPolicy {
+
+    /**
+     * the policy under which no response is compressed
+     */
+    public static final CompressionPolicy DISABLED = new CompressionPolicy(List.of(), 0);
+
+    /**
+     * the policy under which textual content of at least 1 KiB is compressed
+     */
+    public static final CompressionPolicy TEXT = new CompressionPolicy(
+            List.of("text/*", "application/json", "application/javascript", "application/xml",
+                    "application/xhtml+xml", "image/svg+xml", "*/*+json", "*/*+xml"),
+            1024);
+
+    private final List<String> mediaRanges;
+
+    private final int minimumLength;
+
+    /**
+     * @param mediaRanges the media ranges of compressible content, case-insensitive
+     * @param minimumLength the minimum content length to be compressed
+     * @throws NullPointerException if {@code mediaRanges} or any element is {@code null}
+     * @throws IllegalArgumentException if {@code minimumLength} is negative
+     */
+    public CompressionPolicy(List<String> mediaRanges, int minimumLength) {
+        if (minimumLength < 0)
+            throw new IllegalArgumentException();
+        this.mediaRanges = mediaRanges.stream()
+                .map(mediaRange -> mediaRange.toLowerCase(Locale.ROOT))
+                .toList();
+        this.minimumLength = minimumLength;
+    }
+
+    public boolean isEnabled() { return !mediaRanges.isEmpty(); }
+
+    public List<String> getMediaRanges() { return mediaRanges; }
+
+    public int getMinimumLength() { return minimumLength; }
+
+    /**
+     * @param contentType the value of the Content-Type header field, or {@code null} if absent
+     * @return whether content of {@code contentType} is compressible, which is {@code false} if
+     *         {@code contentType} is {@code null} or cannot be parsed
+     */
+    public boolean isCompressible(String contentType) {
+        if (contentType == null)
+            return false;
+        final MIMEType mimeType;
+        try {
+            mimeType = new MIMEType(contentType.strip());
+        } catch (MIMEType.MIMETypeParseException e) {
+            return false;
+        }
+        final String mediaType = mimeType.getMediaType();
+        final String subtype = mimeType.getSubtype().strip();
+        for (String mediaRange : mediaRanges) {
+            if (mediaRange.startsWith("*/*+")) {
+                if (subtype.endsWith(mediaRange.substring(3)))
+                    return true;
+                continue;
+            }
+            final int slash = mediaRange.indexOf('/');
+            if (slash == -1 || !mediaRange.regionMatches(0, mediaType, 0, slash)
+                    || mediaType.length() != slash)
+                continue;
+            final String rangeSubtype = mediaRange.substring(slash + 1);
+            if (rangeSubtype.equals("*") || rangeSubtype.equals(subtype))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param contentLength the content length, negative if unknown
+     * @return whether content of {@code contentLength} is long enough to be compressed, which is
+     *         {@code true} if {@code contentLength} is unknown
+     */
+    public boolean isLongEnough(long contentLength) {
+        return contentLength < 0 || contentLength >= minimumLength;
+    }
+
+}
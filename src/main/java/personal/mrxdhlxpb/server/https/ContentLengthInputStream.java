@@ -0,0 +1,121 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream from which the content of a request message, whose length is determined by a
+ * valid Content-Length header field, is read.
+ * <p> At most {@code contentLength} bytes can be read from this input stream. Closing this input
+ * stream discards the unread part of the content instead of closing the underlying input stream,
+ * so that the next request message on the same connection can be read from the underlying input
+ * stream afterwards.
+ *
+ * @author mrxdhlxpb
+ */
+class ContentLengthInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    private boolean closed = false;
+
+    ContentLengthInputStream(InputStream in, long contentLength) {
+        super(in);
+        this.remaining = contentLength;
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (remaining <= 0)
+            return -1;
+        int data = in.read();
+        if (data != -1)
+            remaining--;
+        return data;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0)
+            return 0;
+        if (remaining <= 0)
+            return -1;
+        int read = in.read(b, off, (int) Math.min(len, remaining));
+        if (read > 0)
+            remaining -= read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        long skipped = in.skip(Math.min(n, remaining));
+        if (skipped > 0)
+            remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {}
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Discards the unread part of the content. The underlying input stream is not closed.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() == -1)
+                    break;
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import personal.mrxdhlxpb.server.https.error.HttpErrorIOException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.ContentTooLargeException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream from which the content of a request message, whose length is not known in
+ * advance, is read.
+ * <p> If more than {@code maximumContentLength} bytes can be read from the underlying input
+ * stream, an {@link HttpErrorIOException} wrapping a {@link ContentTooLargeException} is thrown
+ * instead of returning the excess bytes. Closing this input stream closes the underlying input
+ * stream.
+ *
+ * @author mrxdhlxpb
+ */
+class ContentLimitInputStream extends FilterInputStream {
+
+    private final long maximumContentLength;
+
+    private long count;
+
+    ContentLimitInputStream(InputStream in, long maximumContentLength) {
+        super(in);
+        this.maximumContentLength = maximumContentLength;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int data = in.read();
+        if (data != -1)
+            count(1);
+        return data;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int read = in.read(b, off, len);
+        if (read > 0)
+            count(read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final long skipped = in.skip(n);
+        if (skipped > 0)
+            count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {}
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    private void count(long n) throws HttpErrorIOException {
+        count += n;
+        if (count > maximumContentLength)
+            throw new HttpErrorIOException(new ContentTooLargeException());
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Pushes the content of a response message incrementally, as an alternative to a content input
+ * stream. A content writer set by {@link HTTPResponse#setContentWriter(ContentWriter)} is called
+ * when the message body is generated, after the response head has been written, so that content
+ * generated on the fly need not be held in memory.
+ *
+ * @author mrxdhlxpb
+ */
+@FunctionalInterface
+public interface ContentWriter {
+
+    /**
+     * Writes the content to {@code outputStream}. Flushing {@code outputStream} sends the content
+     * written so far to the client. {@code outputStream} must not be used after this method
+     * returns.
+     *
+     * @param outputStream the output stream into which the content is written
+     * @throws IOException if an I/O error occurs
+     */
+    void writeTo(OutputStream outputStream) throws IOException;
+
+}
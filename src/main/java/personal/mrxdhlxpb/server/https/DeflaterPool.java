@@ -0,0 +1,98 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * A pool of {@code Deflater} instances created with the {@code nowrap} option, that is, for raw
+ * deflate data without zlib header or checksum fields.
+ * <p> A {@code Deflater} holds native memory which is freed only when {@code end()} is called,
+ * and its compression state is about a quarter of a megabyte at the default level, so reusing
+ * instances saves both the allocation and the cleanup per response. At most
+ * {@code maximumRetained} instances are retained; any instance released beyond that is ended.
+ * <p> This class is lock-free, so that a virtual thread never blocks or gets pinned in it.
+ *
+ * @author mrxdhlxpb
+ */
+public final class DeflaterPool {
+
+    private final ConcurrentLinkedQueue<Deflater> retained = new ConcurrentLinkedQueue<>();
+
+    /**
+     * the number of instances in {@code retained}, as {@code ConcurrentLinkedQueue.size()} is not
+     * a constant-time operation
+     */
+    private final AtomicInteger retainedCount = new AtomicInteger();
+
+    private final int maximumRetained;
+
+    /**
+     * @param maximumRetained the maximum number of instances retained
+     * @throws IllegalArgumentException if {@code maximumRetained} is negative
+     */
+    public DeflaterPool(int maximumRetained) {
+        if (maximumRetained < 0)
+            throw new IllegalArgumentException();
+        this.maximumRetained = maximumRetained;
+    }
+
+    /**
+     * @param level the compression level, from {@code Deflater.BEST_SPEED} to
+     *              {@code Deflater.BEST_COMPRESSION}
+     * @return a {@code Deflater} created with the {@code nowrap} option, ready to deflate a new
+     *         data stream at {@code level}
+     * @throws IllegalArgumentException if {@code level} is invalid
+     */
+    public Deflater acquire(int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException();
+        final Deflater deflater = retained.poll();
+        if (deflater == null)
+            return new Deflater(level, true);
+        retainedCount.decrementAndGet();
+        // takes effect on the first call to deflate, since no input has been set since reset
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    /**
+     * Returns a {@code Deflater} acquired from this pool. It must not be used afterwards.
+     *
+     * @param deflater non-null required
+     * @throws NullPointerException if {@code deflater} is {@code null}
+     */
+    public void release(Deflater deflater) {
+        Objects.requireNonNull(deflater);
+        if (retainedCount.incrementAndGet() > maximumRetained) {
+            retainedCount.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        retained.offer(deflater);
+    }
+
+    /**
+     * @return the number of instances retained, for monitoring
+     */
+    public int getRetainedCount() { return retainedCount.get(); }
+
+}
@@ -0,0 +1,186 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream that deflates the data written to it into the underlying output stream, in the
+ * gzip or the zlib format.
+ * <p> The gzip and zlib header and trailer fields are written here rather than by the
+ * {@code Deflater}, so that a single kind of {@code Deflater}, created with the {@code nowrap}
+ * option, can be pooled for both formats.
+ * <p> Flushing this output stream performs a sync flush, so that all the data written so far can
+ * be inflated by the client, before flushing the underlying output stream. Closing this output
+ * stream writes the rest of the data and the trailer, and returns the {@code Deflater} to the
+ * pool, but does not close the underlying output stream.
+ *
+ * @author mrxdhlxpb
+ */
+@CompliantWith("RFC 1950: ZLIB Compressed Data Format Specification version 3.3")
+@CompliantWith("RFC 1952: GZIP file format specification version 4.3")
+final class DeflatingOutputStream extends OutputStream {
+
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+    /**
+     * ID1, ID2, CM (deflate), FLG (none), MTIME (not available), XFL (none) and OS (unknown)
+     */
+    private static final byte[] GZIP_HEADER = {
+            0X1F, (byte) 0X8B, 8, 0, 0, 0, 0, 0, 0, (byte) 0XFF
+    };
+
+    /**
+     * CMF (deflate with a 32K window) and FLG (default level, no preset dictionary)
+     */
+    private static final byte[] ZLIB_HEADER = {0X78, (byte) 0X9C};
+
+    private final OutputStream out;
+
+    private final ResponseCompressor.ContentCoding contentCoding;
+
+    private final DeflaterPool deflaterPool;
+
+    private final Deflater deflater;
+
+    private final Checksum checksum;
+
+    private final byte[] outputBuffer = new byte[OUTPUT_BUFFER_SIZE];
+
+    private final byte[] singleByte = new byte[1];
+
+    private boolean headerWritten;
+
+    private boolean closed;
+
+    /**
+     * @param out the underlying output stream
+     * @param contentCoding the content coding which determines the format
+     * @param deflaterPool the pool from which the {@code Deflater} is acquired
+     * @param level the compression level
+     */
+    DeflatingOutputStream(OutputStream out,
+                          ResponseCompressor.ContentCoding contentCoding,
+                          DeflaterPool deflaterPool,
+                          int level) {
+        this.out = Objects.requireNonNull(out);
+        this.contentCoding = contentCoding;
+        this.deflaterPool = deflaterPool;
+        this.checksum = switch (contentCoding) {
+            case GZIP -> new CRC32();
+            case DEFLATE -> new Adler32();
+        };
+        this.deflater = deflaterPool.acquire(level);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ensureOpen();
+        if (len == 0)
+            return;
+        writeHeader();
+        checksum.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput())
+            deflate(Deflater.NO_FLUSH);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (headerWritten) {
+            // the output buffer has been filled up if there may be more output pending
+            while (deflate(Deflater.SYNC_FLUSH) == outputBuffer.length);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the rest of the data and the trailer, and returns the {@code Deflater} to the pool.
+     * The underlying output stream is neither flushed nor closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            writeHeader();
+            deflater.finish();
+            while (!deflater.finished())
+                deflate(Deflater.NO_FLUSH);
+            writeTrailer();
+        } finally {
+            deflaterPool.release(deflater);
+        }
+    }
+
+    private int deflate(int flush) throws IOException {
+        final int n = deflater.deflate(outputBuffer, 0, outputBuffer.length, flush);
+        if (n > 0)
+            out.write(outputBuffer, 0, n);
+        return n;
+    }
+
+    private void writeHeader() throws IOException {
+        if (headerWritten)
+            return;
+        headerWritten = true;
+        out.write(contentCoding == ResponseCompressor.ContentCoding.GZIP ?
+                GZIP_HEADER : ZLIB_HEADER);
+    }
+
+    private void writeTrailer() throws IOException {
+        final int value = (int) checksum.getValue();
+        final byte[] trailer;
+        if (contentCoding == ResponseCompressor.ContentCoding.GZIP) {
+            // CRC32 and ISIZE, both in little-endian order
+            final int size = (int) deflater.getBytesRead();
+            trailer = new byte[]{
+                    (byte) value, (byte) (value >>> 8), (byte) (value >>> 16),
+                    (byte) (value >>> 24),
+                    (byte) size, (byte) (size >>> 8), (byte) (size >>> 16), (byte) (size >>> 24)
+            };
+        } else {
+            // ADLER32 in big-endian order
+            trailer = new byte[]{
+                    (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8),
+                    (byte) value
+            };
+        }
+        out.write(trailer);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+    }
+
+}
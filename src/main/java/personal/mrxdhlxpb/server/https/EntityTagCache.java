@@ -0,0 +1,174 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A least-recently-used cache of the strong entity tags of files, each of which is computed once
+ * per version of the file.
+ * <p> The entity tag of a file is the first 128 bits of a SHA-256 digest, encoded in unpadded
+ * base64url. For a mapped file, the digest is of its content, read from its mapping. A file which
+ * is not mapped may be too large to be read on a request, so the digest is of its file key, such
+ * as its inode number, along with its last modified time and size, as some other servers do;
+ * such an entity tag changes whenever the file is changed, and also when identical content is
+ * written again. An entity tag is cached by the same file key, last modified time and size, so
+ * that it is computed again only after the file has been changed, and a file which is moved over
+ * another one does not take over its entity tag.
+ * <p> This class is thread-safe. Entity tags are computed without holding the lock, and the
+ * entity tag of a file is computed by a single thread while the others looking it up wait for it.
+ *
+ * @author mrxdhlxpb
+ */
+public final class EntityTagCache {
+
+    public static final int DEFAULT_MAXIMUM_ENTRY_COUNT = 4096;
+
+    /**
+     * the number of bytes of the digest in an entity tag
+     */
+    private static final int ENTITY_TAG_LENGTH = 16;
+
+    private record Key(Object file, FileTime lastModifiedTime, long size) {}
+
+    private final int maximumEntryCount;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * the entity tags, which may still be being computed, in access order; guarded by
+     * {@code lock}
+     */
+    private final LinkedHashMap<Key, CompletableFuture<String>> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    public EntityTagCache() { this(DEFAULT_MAXIMUM_ENTRY_COUNT); }
+
+    /**
+     * @param maximumEntryCount the maximum number of entity tags cached
+     * @throws IllegalArgumentException if {@code maximumEntryCount} is not positive
+     */
+    public EntityTagCache(int maximumEntryCount) {
+        if (maximumEntryCount <= 0)
+            throw new IllegalArgumentException();
+        this.maximumEntryCount = maximumEntryCount;
+    }
+
+    /**
+     * @param cachedFile a cached file
+     * @return the strong entity tag of the file
+     */
+    public String getEntityTag(MappedFileCache.CachedFile cachedFile) {
+        final Key key = new Key(
+                Objects.requireNonNullElse(cachedFile.fileKey(), cachedFile.path()),
+                cachedFile.lastModifiedTime(),
+                cachedFile.size());
+        final CompletableFuture<String> entry;
+        final CompletableFuture<String> computation = new CompletableFuture<>();
+        lock.lock();
+        try {
+            entry = entries.putIfAbsent(key, computation);
+            final Iterator<CompletableFuture<String>> iterator = entries.values().iterator();
+            while (entries.size() > maximumEntryCount) {
+                iterator.next();
+                iterator.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (entry != null)
+            try {
+                return entry.join();
+            } catch (CompletionException completionException) {
+                // the other thread has thrown the cause itself
+                throw completionException.getCause() instanceof RuntimeException runtimeException ?
+                        runtimeException : completionException;
+            }
+
+        try {
+            final String entityTag = cachedFile.isMapped() ?
+                    computeEntityTag(cachedFile) :
+                    computeEntityTag(key);
+            computation.complete(entityTag);
+            return entityTag;
+        } catch (RuntimeException | Error throwable) {
+            lock.lock();
+            try {
+                entries.remove(key, computation);
+            } finally {
+                lock.unlock();
+            }
+            computation.completeExceptionally(throwable);
+            throw throwable;
+        }
+    }
+
+    public int getEntryCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the entity tag of the content of a mapped file
+     */
+    private static String computeEntityTag(MappedFileCache.CachedFile cachedFile) {
+        final MessageDigest messageDigest = newMessageDigest();
+        messageDigest.update(cachedFile.mapping().duplicate());
+        return toEntityTag(messageDigest.digest());
+    }
+
+    /**
+     * @return the entity tag of a file which is not mapped, derived from its metadata
+     */
+    private static String computeEntityTag(Key key) {
+        final MessageDigest messageDigest = newMessageDigest();
+        messageDigest.update((key.file() + "\n" + key.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                + "\n" + key.size()).getBytes(StandardCharsets.UTF_8));
+        return toEntityTag(messageDigest.digest());
+    }
+
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
+            // every implementation of the Java platform is required to support SHA-256
+            throw new AssertionError(noSuchAlgorithmException);
+        }
+    }
+
+    private static String toEntityTag(byte[] digest) {
+        return Validators.strongEntityTag(Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(Arrays.copyOf(digest, ENTITY_TAG_LENGTH)));
+    }
+
+}
@@ -20,10 +20,22 @@ import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.regex.Pattern;
 
 /**
+ * A collection of fields, i.e. a header section or a trailer section.
+ * <p> Field names are case-insensitive and are stored in lowercase. Lines of fields with the same
+ * name are combined into one field, whose value is the values of the lines joined by ", ", in the
+ * order in which they are appended.
+ * <p> The fields are kept in an array in the order of insertion, and indexed by an open-addressing
+ * hash table keyed on the field name, whose hash and comparison ignore ASCII case, so that a
+ * lookup does not allocate. The names of common fields are resolved from a static table without
+ * allocating a new string either.
+ * <p> Field lines may also be appended lazily, in which case only the bounds of the field name
+ * and the field value within a byte array are recorded, and the field is decoded when it is
+ * first accessed. Looking up a field by name does not decode it.
+ *
  * @author mrxdhlxpb
  */
 //TODO: cookie
@@ -31,22 +43,78 @@ import java.util.regex.Pattern;
 public class Fields {
     private static final byte[] CRLF = {0XD, 0XA};
 
-    private static final Pattern FIELD_LINE_NAME_VALUE_DELIMITER_PATTERN = Pattern
-            .compile(":\\x20*");
+    private static final byte COLON = ':';
+
+    private static final byte SP = 0X20;
+
+    private static final byte HTAB = 0X09;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * the lowercase names of common fields, mostly taken from the static table of
+     * <em>RFC 7541: HPACK: Header Compression for HTTP/2 Appendix A</em>
+     */
+    private static final String[] WELL_KNOWN_FIELD_NAMES = {
+            "accept", "accept-charset", "accept-encoding", "accept-language", "accept-ranges",
+            "access-control-allow-origin", "age", "allow", "authorization", "cache-control",
+            "connection", "content-disposition", "content-encoding", "content-language",
+            "content-length", "content-location", "content-range", "content-type", "cookie",
+            "date", "dnt", "etag", "expect", "expires", "forwarded", "from", "host", "if-match",
+            "if-modified-since", "if-none-match", "if-range", "if-unmodified-since", "keep-alive",
+            "last-modified", "link", "location", "max-forwards", "origin", "pragma", "priority",
+            "proxy-authenticate", "proxy-authorization", "range", "referer", "refresh",
+            "retry-after", "sec-ch-ua", "sec-ch-ua-mobile", "sec-ch-ua-platform", "sec-fetch-dest",
+            "sec-fetch-mode", "sec-fetch-site", "sec-fetch-user", "server", "set-cookie",
+            "strict-transport-security", "te", "trailer", "transfer-encoding", "upgrade",
+            "upgrade-insecure-requests", "user-agent", "vary", "via", "www-authenticate",
+            "x-forwarded-for", "x-forwarded-host", "x-forwarded-proto", "x-requested-with",
+    };
+
+    /**
+     * an open-addressing hash table of {@code WELL_KNOWN_FIELD_NAMES}
+     */
+    private static final String[] WELL_KNOWN_FIELD_NAME_TABLE = new String[256];
+
+    static {
+        for (String fieldName : WELL_KNOWN_FIELD_NAMES) {
+            int slot = hash(fieldName) & (WELL_KNOWN_FIELD_NAME_TABLE.length - 1);
+            while (WELL_KNOWN_FIELD_NAME_TABLE[slot] != null)
+                slot = (slot + 1) & (WELL_KNOWN_FIELD_NAME_TABLE.length - 1);
+            WELL_KNOWN_FIELD_NAME_TABLE[slot] = fieldName;
+        }
+    }
 
-    // OWS            = *( SP / HTAB )
-    private static final String OWS_REGEX = "[\\x20\\x09]*";
+    /**
+     * the fields in the order of insertion, of which the first {@code size} elements are in use;
+     * an element is {@code null} if the field has been appended lazily and not been decoded yet
+     */
+    private Field[] fields = new Field[INITIAL_CAPACITY];
 
-    private static final Pattern OWS_COMMA_OWS_PATTERN = Pattern
-            .compile(OWS_REGEX + "," + OWS_REGEX);
+    /**
+     * the case-insensitive hashes of the field names in {@code fields}
+     */
+    private int[] hashes = new int[INITIAL_CAPACITY];
 
-    // ArrayList permits null,
-    // but we do not
-    private final List<Field> internalList = new ArrayList<>();
+    private int size;
 
-    // HashMap permits null values and the null key,
-    // but we do not
-    private final Map<String, Field> internalMap = new HashMap<>();
+    /**
+     * the byte array holding the field lines appended lazily, or {@code null} if there is none
+     */
+    private byte[] raw;
+
+    /**
+     * the bounds within {@code raw} of each field appended lazily: the start of the field name,
+     * the end of the field name, the start of the field value and the end of the field value,
+     * at {@code 4 * index}; allocated on first use
+     */
+    private int[] rawBounds;
+
+    /**
+     * an open-addressing hash table, which holds {@code index + 1} of the fields in
+     * {@code fields}, or {@code 0} in an empty slot; at most half full
+     */
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
 
     public Fields() {}
 
@@ -80,17 +148,28 @@ public class Fields {
 
     @Override
     public boolean equals(Object o) {
-        return o instanceof Fields fields && fields.internalList.equals(internalList);
+        if (!(o instanceof Fields that) || that.size != size)
+            return false;
+        for (int i = 0; i < size; i++)
+            if (!field(i).equals(that.field(i)))
+                return false;
+        return true;
     }
 
+    /**
+     * @return the same value as {@code toList().hashCode()}
+     */
     @Override
     public int hashCode() {
-        return internalList.hashCode();
+        int hashCode = 1;
+        for (int i = 0; i < size; i++)
+            hashCode = 31 * hashCode + field(i).hashCode();
+        return hashCode;
     }
 
     @Override
     public String toString() {
-        return internalList.toString();
+        return toList().toString();
     }
 
     public void print(PrintStream printStream) {
@@ -100,6 +179,16 @@ public class Fields {
         }
     }
 
+    /**
+     * Writes every field line followed by CRLF.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(HTTP1_1ResponseOutputStream responseOutputStream) throws IOException {
+        for (int i = 0; i < size; i++)
+            responseOutputStream.writeFieldLine(field(i));
+    }
+
     // Search Operations
 
     /**
@@ -107,34 +196,41 @@ public class Fields {
      * @throws NullPointerException if {@code fieldName} is {@code null}
      */
     public int indexOf(String fieldName) {
-        return getField(fieldName).map(this::indexOf).orElse(-1);
+        return find(fieldName, hash(fieldName));
     }
 
     /**
      * @param field non-null required
      * @throws NullPointerException if {@code field} is {@code null}
      */
-    public int indexOf(Field field) { return internalList.indexOf(Objects.requireNonNull(field)); }
+    public int indexOf(Field field) {
+        Objects.requireNonNull(field);
+        for (int i = 0; i < size; i++)
+            if (field(i).equals(field))
+                return i;
+        return -1;
+    }
 
     // Query Operations
 
-    public int size() { return internalList.size(); }
+    public int size() { return size; }
 
-    public boolean isEmpty() {return internalList.isEmpty();}
+    public boolean isEmpty() { return size == 0; }
 
     /**
      * @param fieldName non-null required
      * @throws NullPointerException if {@code fieldName} is {@code null}
      */
     public boolean contains(String fieldName) {
-        return internalMap.containsKey(Objects.requireNonNull(fieldName).toLowerCase(Locale.ROOT));
+        return indexOf(fieldName) != -1;
     }
 
     /**
      * @throws IndexOutOfBoundsException if the index is out of range
      */
     public Field getField(int index) {
-        return internalList.get(index);
+        Objects.checkIndex(index, size);
+        return field(index);
     }
 
     /**
@@ -142,8 +238,8 @@ public class Fields {
      * @throws NullPointerException if {@code fieldName} is {@code null}
      */
     public Optional<Field> getField(String fieldName) {
-        return Optional.ofNullable(internalMap.get(Objects.requireNonNull(fieldName).toLowerCase(
-                Locale.ROOT)));
+        final int index = indexOf(fieldName);
+        return index == -1 ? Optional.empty() : Optional.of(field(index));
     }
 
     /**
@@ -171,7 +267,8 @@ public class Fields {
      * @throws NullPointerException if {@code fieldName} is {@code null}
      */
     public Optional<String> getFieldValueString(String fieldName) {
-        return getField(fieldName).map(Field::fieldValueString);
+        final int index = indexOf(fieldName);
+        return index == -1 ? Optional.empty() : Optional.of(field(index).fieldValueString());
     }
 
     /**
@@ -189,23 +286,150 @@ public class Fields {
         return getField(fieldName).map(Field::fieldValueMembers);
     }
 
-    public List<Field> toList() { return List.copyOf(internalList); }
+    public List<Field> toList() {
+        final Field[] array = new Field[size];
+        for (int i = 0; i < size; i++)
+            array[i] = field(i);
+        return List.of(array);
+    }
 
     // Modification Operations
 
     /**
+     * Appends a field line in the form of {@code field-name ":" *SP field-value}.
+     *
      * @throws BadRequestException if syntax of the field line is invalid
      */
     public void appendFieldLine(String fieldLine) throws BadRequestException {
-        String[] fieldNameFieldValue = FIELD_LINE_NAME_VALUE_DELIMITER_PATTERN.split(fieldLine, 2);
+        final int colonIndex = fieldLine.indexOf(COLON);
 
-        if (fieldNameFieldValue.length < 2)
+        if (colonIndex == -1)
             throw new BadRequestException("invalid field line syntax");
 
-        String fieldName = fieldNameFieldValue[0];
-        String fieldValue = fieldNameFieldValue[1];
+        int valueStart = colonIndex + 1;
+        while (valueStart < fieldLine.length() && fieldLine.charAt(valueStart) == SP)
+            valueStart++;
+
+        final String fieldName = fieldLine.substring(0, colonIndex);
+        final int hash = hash(fieldName);
+        append(
+                wellKnownFieldNameOrLowerCase(fieldName, hash),
+                hash,
+                fieldLine.substring(valueStart),
+                true
+        );
+    }
+
+    /**
+     * Appends a field line in the form of {@code field-name ":" *SP field-value}, which is read
+     * from {@code bytes[offset..offset+length)} and decoded using US-ASCII.
+     * <p> A well-known field name is resolved by comparing bytes, without decoding it.
+     *
+     * @throws BadRequestException if syntax of the field line is invalid
+     */
+    public void appendFieldLine(byte[] bytes, int offset, int length) throws BadRequestException {
+        final int end = offset + length;
+        int colonIndex = offset;
+        while (colonIndex < end && bytes[colonIndex] != COLON)
+            colonIndex++;
+
+        if (colonIndex == end)
+            throw new BadRequestException("invalid field line syntax");
 
-        append(fieldName, fieldValue);
+        int valueStart = colonIndex + 1;
+        while (valueStart < end && bytes[valueStart] == SP)
+            valueStart++;
+
+        final int hash = hash(bytes, offset, colonIndex);
+        String fieldName = wellKnownFieldName(bytes, offset, colonIndex, hash);
+        if (fieldName == null)
+            fieldName = new String(bytes, offset, colonIndex - offset, StandardCharsets.US_ASCII)
+                    .toLowerCase(Locale.ROOT);
+        append(
+                fieldName,
+                hash,
+                new String(bytes, valueStart, end - valueStart, StandardCharsets.US_ASCII),
+                true
+        );
+    }
+
+    /**
+     * Appends a field line in the form of {@code field-name ":" *SP field-value}, which is
+     * {@code bytes[offset..offset+length)}, without decoding it.
+     * <p> The caller must not modify the bytes of the field line afterwards, unless
+     * {@link #detach()} has been called. Every field line appended lazily to this instance must be
+     * held in the same byte array.
+     *
+     * @throws BadRequestException if syntax of the field line is invalid
+     * @throws IllegalArgumentException if {@code bytes} is not the byte array of the field lines
+     *                                  appended lazily before
+     */
+    void appendFieldLineLazily(byte[] bytes, int offset, int length) throws BadRequestException {
+        if (raw != null && raw != bytes)
+            throw new IllegalArgumentException();
+
+        final int end = offset + length;
+        int colonIndex = offset;
+        while (colonIndex < end && bytes[colonIndex] != COLON)
+            colonIndex++;
+
+        if (colonIndex == end)
+            throw new BadRequestException("invalid field line syntax");
+
+        int valueStart = colonIndex + 1;
+        while (valueStart < end && bytes[valueStart] == SP)
+            valueStart++;
+
+        final int hash = hash(bytes, offset, colonIndex);
+        final int index = find(bytes, offset, colonIndex, hash);
+        if (index != -1) {
+            // combining field lines is rare; decode both
+            field(index).appendValue(
+                    new String(bytes, valueStart, end - valueStart, StandardCharsets.US_ASCII));
+            return;
+        }
+
+        raw = bytes;
+        if (rawBounds == null)
+            rawBounds = new int[fields.length * 4];
+        add(null, hash);
+        final int i = (size - 1) * 4;
+        rawBounds[i] = offset;
+        rawBounds[i + 1] = colonIndex;
+        rawBounds[i + 2] = valueStart;
+        rawBounds[i + 3] = end;
+    }
+
+    /**
+     * Makes this instance independent of the byte array holding the field lines appended lazily,
+     * by copying the bytes of the fields not decoded yet into a new byte array, so that the
+     * original byte array may be reused.
+     */
+    void detach() {
+        if (raw == null)
+            return;
+        int length = 0;
+        for (int i = 0; i < size; i++)
+            if (fields[i] == null)
+                length += rawBounds[i * 4 + 3] - rawBounds[i * 4];
+        if (length == 0) {
+            raw = null;
+            rawBounds = null;
+            return;
+        }
+        final byte[] copy = new byte[length];
+        int position = 0;
+        for (int i = 0; i < size; i++) {
+            if (fields[i] != null)
+                continue;
+            final int start = rawBounds[i * 4];
+            final int end = rawBounds[i * 4 + 3];
+            System.arraycopy(raw, start, copy, position, end - start);
+            for (int j = i * 4; j < i * 4 + 4; j++)
+                rawBounds[j] += position - start;
+            position += end - start;
+        }
+        raw = copy;
     }
 
     /**
@@ -213,15 +437,8 @@ public class Fields {
      */
     public void append(String name, String value) {
         Objects.requireNonNull(value);
-        Optional<StringBuilder> fieldValueOptional = getFieldValue(name);
-        if (fieldValueOptional.isPresent()) {
-            fieldValueOptional.get().append(", ").append(value);
-        } else {
-            final String nameLowerCase = name.toLowerCase(Locale.ROOT);
-            Field field = new Field(nameLowerCase, new StringBuilder(value));
-            internalList.add(field);
-            internalMap.put(nameLowerCase, field);
-        }
+        final int hash = hash(name);
+        append(wellKnownFieldNameOrLowerCase(name, hash), hash, value, true);
     }
 
     /**
@@ -229,49 +446,360 @@ public class Fields {
      */
     public void set(String name, String value) {
         Objects.requireNonNull(value);
-        Optional<StringBuilder> fieldValueOptional = getFieldValue(name);
-        if (fieldValueOptional.isPresent()) {
-            StringBuilder fieldValue = fieldValueOptional.get();
-            fieldValue.replace(0, fieldValue.length(), value);
-        } else {
-            final String nameLowerCase = name.toLowerCase(Locale.ROOT);
-            Field field = new Field(nameLowerCase, new StringBuilder(value));
-            internalList.add(field);
-            internalMap.put(nameLowerCase, field);
+        final int hash = hash(name);
+        append(wellKnownFieldNameOrLowerCase(name, hash), hash, value, false);
+    }
+
+    /**
+     * Removes the field named {@code fieldName}, if any. The fields after it keep their order.
+     *
+     * @param fieldName non-null required
+     * @return whether a field has been removed
+     * @throws NullPointerException if {@code fieldName} is {@code null}
+     */
+    public boolean remove(String fieldName) {
+        final int index = find(fieldName, hash(fieldName));
+        if (index == -1)
+            return false;
+        final int moved = size - index - 1;
+        System.arraycopy(fields, index + 1, fields, index, moved);
+        System.arraycopy(hashes, index + 1, hashes, index, moved);
+        if (rawBounds != null)
+            System.arraycopy(rawBounds, (index + 1) * 4, rawBounds, index * 4, moved * 4);
+        fields[--size] = null;
+        rehash(slots.length);
+        return true;
+    }
+
+    /**
+     * Appends {@code value} to the field named {@code lowerCaseName} if {@code combine}, or
+     * replaces the value of the field otherwise. A new field is added if there is no such field.
+     */
+    private void append(String lowerCaseName, int hash, String value, boolean combine) {
+        final int index = find(lowerCaseName, hash);
+        if (index != -1) {
+            // the field may not have been decoded yet
+            if (combine)
+                field(index).appendValue(value);
+            else
+                field(index).setValue(value);
+            return;
         }
+
+        add(new Field(lowerCaseName, value), hash);
     }
 
+    private void add(Field field, int hash) {
+        if (size == fields.length) {
+            fields = Arrays.copyOf(fields, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+            if (rawBounds != null)
+                rawBounds = Arrays.copyOf(rawBounds, size * 8);
+        }
+        fields[size] = field;
+        hashes[size++] = hash;
+
+        if (size * 2 > slots.length)
+            rehash(slots.length * 2);
+        else
+            insertSlot(hash, size);
+    }
 
     /**
-     * @param fieldName not null
-     * @param fieldValue not null
+     * @return the field at {@code index}, which is decoded if it has been appended lazily
      */
-    public record Field(String fieldName, StringBuilder fieldValue) {
+    private Field field(int index) {
+        Field field = fields[index];
+        if (field == null) {
+            final int i = index * 4;
+            String fieldName = wellKnownFieldName(raw, rawBounds[i], rawBounds[i + 1],
+                    hashes[index]);
+            if (fieldName == null)
+                fieldName = new String(raw, rawBounds[i], rawBounds[i + 1] - rawBounds[i],
+                        StandardCharsets.US_ASCII).toLowerCase(Locale.ROOT);
+            field = fields[index] = new Field(fieldName, new String(raw, rawBounds[i + 2],
+                    rawBounds[i + 3] - rawBounds[i + 2], StandardCharsets.US_ASCII));
+        }
+        return field;
+    }
+
+    /**
+     * @return the index of the field named {@code fieldName}, ignoring case, or {@code -1}
+     */
+    private int find(String fieldName, int hash) {
+        final int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            final int index = slots[slot] - 1;
+            if (hashes[index] != hash)
+                continue;
+            final Field field = fields[index];
+            if (field != null ? equalsIgnoreCase(field.fieldName, fieldName) :
+                    equalsIgnoreCase(raw, rawBounds[index * 4], rawBounds[index * 4 + 1],
+                            fieldName))
+                return index;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the field named {@code bytes[from..to)} decoded using US-ASCII,
+     *         ignoring case, or {@code -1}
+     */
+    private int find(byte[] bytes, int from, int to, int hash) {
+        final int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            final int index = slots[slot] - 1;
+            if (hashes[index] != hash)
+                continue;
+            final Field field = fields[index];
+            if (field != null ? equalsIgnoreCase(bytes, from, to, field.fieldName) :
+                    equalsIgnoreCase(raw, rawBounds[index * 4], rawBounds[index * 4 + 1],
+                            bytes, from, to))
+                return index;
+        }
+        return -1;
+    }
+
+    private void insertSlot(int hash, int indexPlusOne) {
+        final int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0)
+            slot = (slot + 1) & mask;
+        slots[slot] = indexPlusOne;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int i = 0; i < size; i++)
+            insertSlot(hashes[i], i + 1);
+    }
+
+    // Case-insensitive Hashing and Comparison
+
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) :
+                c < 0X80 ? c : Character.toLowerCase(c);
+    }
+
+    /**
+     * @return a hash code of {@code str} that ignores case
+     */
+    private static int hash(String str) {
+        int hash = 0;
+        for (int i = 0; i < str.length(); i++)
+            hash = 31 * hash + toLowerCase(str.charAt(i));
+        return spread(hash);
+    }
+
+    /**
+     * @return a hash code of {@code bytes[from..to)} decoded using US-ASCII that ignores case,
+     *         equal to {@code hash(String)} of the decoded string
+     */
+    private static int hash(byte[] bytes, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++)
+            hash = 31 * hash + toLowerCase(decode(bytes[i]));
+        return spread(hash);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return {@code b} decoded using US-ASCII
+     */
+    private static char decode(byte b) {
+        return b >= 0 ? (char) b : '\uFFFD';
+    }
+
+    private static boolean equalsIgnoreCase(String lowerCase, String str) {
+        if (lowerCase.length() != str.length())
+            return false;
+        for (int i = 0; i < lowerCase.length(); i++)
+            if (lowerCase.charAt(i) != toLowerCase(str.charAt(i)))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return whether {@code bytes[from..to)} decoded using US-ASCII equals {@code str},
+     *         ignoring case
+     */
+    private static boolean equalsIgnoreCase(byte[] bytes, int from, int to, String str) {
+        if (to - from != str.length())
+            return false;
+        for (int i = 0; i < str.length(); i++)
+            if (toLowerCase(decode(bytes[from + i])) != toLowerCase(str.charAt(i)))
+                return false;
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] a, int aFrom, int aTo,
+                                            byte[] b, int bFrom, int bTo) {
+        if (aTo - aFrom != bTo - bFrom)
+            return false;
+        for (int i = 0; i < aTo - aFrom; i++)
+            if (toLowerCase(decode(a[aFrom + i])) != toLowerCase(decode(b[bFrom + i])))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the well-known field name equal to {@code fieldName} ignoring case, or the
+     *         lowercase of {@code fieldName} if it is not well-known
+     */
+    private static String wellKnownFieldNameOrLowerCase(String fieldName, int hash) {
+        final int mask = WELL_KNOWN_FIELD_NAME_TABLE.length - 1;
+        for (int slot = hash & mask;
+             WELL_KNOWN_FIELD_NAME_TABLE[slot] != null;
+             slot = (slot + 1) & mask)
+            if (equalsIgnoreCase(WELL_KNOWN_FIELD_NAME_TABLE[slot], fieldName))
+                return WELL_KNOWN_FIELD_NAME_TABLE[slot];
+        return fieldName.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the well-known field name equal to {@code bytes[from..to)} decoded using US-ASCII
+     *         ignoring case, or {@code null} if it is not well-known
+     */
+    private static String wellKnownFieldName(byte[] bytes, int from, int to, int hash) {
+        final int mask = WELL_KNOWN_FIELD_NAME_TABLE.length - 1;
+        outer:
+        for (int slot = hash & mask;
+             WELL_KNOWN_FIELD_NAME_TABLE[slot] != null;
+             slot = (slot + 1) & mask) {
+            final String candidate = WELL_KNOWN_FIELD_NAME_TABLE[slot];
+            if (candidate.length() != to - from)
+                continue;
+            for (int i = 0; i < candidate.length(); i++)
+                if (candidate.charAt(i) != toLowerCase(decode(bytes[from + i])))
+                    continue outer;
+            return candidate;
+        }
+        return null;
+    }
+
+
+    /**
+     * A field, consisting of a lowercase field name and a field value.
+     * <p> The field value is kept as an immutable string until {@link #fieldValue()} is called
+     * for the first time, from when on the {@code StringBuilder} returned, which may be modified
+     * by the caller, holds the field value.
+     */
+    public static final class Field {
+
+        private final String fieldName;
+
+        private String value;
+
+        private StringBuilder builder;
+
+        /**
+         * @param fieldName not null
+         * @param fieldValue not null
+         */
+        public Field(String fieldName, StringBuilder fieldValue) {
+            this.fieldName = Objects.requireNonNull(fieldName);
+            this.builder = Objects.requireNonNull(fieldValue);
+        }
+
+        private Field(String fieldName, String value) {
+            this.fieldName = fieldName;
+            this.value = value;
+        }
+
+        public String fieldName() { return fieldName; }
+
+        /**
+         * @return a {@code StringBuilder} holding the field value, through which the field value
+         *         may be modified
+         */
+        public StringBuilder fieldValue() {
+            if (builder == null) {
+                builder = new StringBuilder(value);
+                value = null;
+            }
+            return builder;
+        }
+
+        /**
+         * @return the field value, without creating a {@code StringBuilder}
+         */
+        CharSequence fieldValueCharSequence() {
+            return builder == null ? value : builder;
+        }
+
+        public String fieldValueString() { return builder == null ? value : builder.toString(); }
+
+        private void appendValue(String value) {
+            fieldValue().append(", ").append(value);
+        }
+
+        private void setValue(String value) {
+            if (builder == null)
+                this.value = value;
+            else
+                builder.replace(0, builder.length(), value);
+        }
 
         @Override
         public boolean equals(Object obj) {
             return obj instanceof Field field
                     && (CharSequence.compare(field.fieldName, this.fieldName) |
-                    CharSequence.compare(field.fieldValue, this.fieldValue)) == 0;
+                    CharSequence.compare(field.fieldValueCharSequence(),
+                            this.fieldValueCharSequence())) == 0;
         }
 
+        /**
+         * @return the same value as {@code toString().hashCode()}
+         */
         @Override
         public int hashCode() {
-            return toString().hashCode();
+            int hashCode = 0;
+            for (int i = 0; i < fieldName.length(); i++)
+                hashCode = 31 * hashCode + fieldName.charAt(i);
+            hashCode = 31 * (31 * hashCode + ':') + ' ';
+            final CharSequence fieldValue = fieldValueCharSequence();
+            for (int i = 0; i < fieldValue.length(); i++)
+                hashCode = 31 * hashCode + fieldValue.charAt(i);
+            return hashCode;
         }
 
         @Override
         public String toString() {
-            return fieldName + ": " + fieldValue;
+            return fieldName + ": " + fieldValueCharSequence();
         }
 
+        /**
+         * Splits the field value into members separated by commas, with any optional whitespace
+         * around a comma removed. Empty members are omitted.
+         */
         public String[] fieldValueMembers() {
-            return Arrays.stream(OWS_COMMA_OWS_PATTERN.split(fieldValue, 0))
-                    .filter((element) -> !element.isEmpty())
-                    .toArray(String[]::new);
+            // #element => [ element ] *( OWS "," OWS [ element ] )
+            final CharSequence fieldValue = fieldValueCharSequence();
+            final List<String> members = new ArrayList<>();
+            int start = 0;
+            while (start <= fieldValue.length()) {
+                int comma = start;
+                while (comma < fieldValue.length() && fieldValue.charAt(comma) != ',')
+                    comma++;
+                int end = comma;
+                if (comma < fieldValue.length())
+                    while (end > start && isOWS(fieldValue.charAt(end - 1)))
+                        end--;
+                if (end > start)
+                    members.add(fieldValue.subSequence(start, end).toString());
+                start = comma + 1;
+                while (start < fieldValue.length() && isOWS(fieldValue.charAt(start)))
+                    start++;
+            }
+            return members.toArray(String[]::new);
         }
 
-        public String fieldValueString() { return fieldValue.toString(); }
+        private static boolean isOWS(char c) {
+            return c == SP || c == HTAB;
+        }
     }
 
     @FunctionalInterface
@@ -18,46 +18,130 @@ package personal.mrxdhlxpb.server.https;
 
 import personal.mrxdhlxpb.server.https.configuration.Configuration;
 import personal.mrxdhlxpb.server.https.error.HttpErrorException;
-import personal.mrxdhlxpb.server.https.error.concrete.server.InternalServerErrorException;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.util.Optional;
+import java.util.concurrent.CompletionStage;
 
 /**
  * @author mrxdhlxpb
  */
 @CompliantWith("RFC 9112: HTTP/1.1")
-public class HTTP1_1Processor {
+public class HTTP1_1Processor implements Closeable {
+
+    private final Configuration configuration;
 
     private final HTTP1_1RequestParser http1_1RequestParser;
 
     private final HTTP1_1ResponseGenerator http1_1ResponseGenerator;
 
+    /**
+     * completes once the request handler which the last response has abandoned on the response
+     * timeout has completed and the request has been closed, or {@code null}
+     */
+    private CompletionStage<?> abandonedStage;
+
     public HTTP1_1Processor(Configuration configuration, Socket socket) throws IOException {
-        this.http1_1RequestParser = new HTTP1_1RequestParser(
-                configuration,
-                socket.getInputStream());
-        this.http1_1ResponseGenerator = new HTTP1_1ResponseGenerator(
-                configuration,
-                socket.getOutputStream());
+        this(configuration, socket.getInputStream(), socket.getOutputStream());
+    }
+
+    public HTTP1_1Processor(Configuration configuration,
+                            InputStream inputStream,
+                            OutputStream outputStream) {
+        this.configuration = configuration;
+        this.http1_1RequestParser = new HTTP1_1RequestParser(configuration, inputStream);
+        this.http1_1ResponseGenerator = new HTTP1_1ResponseGenerator(configuration, outputStream);
     }
 
     /**
      * @return whether the connection should persist
      */
     public boolean process() {
-        try (HTTPRequest httpRequest = http1_1RequestParser.parseRequest()) {
+        final HTTPRequest httpRequest;
+        try {
+            httpRequest = http1_1RequestParser.parseRequest();
+        } catch (HttpErrorException httpErrorException) {
+            http1_1ResponseGenerator.generateResponse(httpErrorException);
+            return !httpErrorException.isCloseConnection()
+                    && !http1_1ResponseGenerator.isCloseDelimited();
+        }
+
+        boolean persistent;
+        try {
             http1_1ResponseGenerator.generateResponse(Either.of(httpRequest, null));
-            return isPersistent(httpRequest);
+            persistent = isPersistent(httpRequest);
         } catch (HttpErrorException httpErrorException) {
+            abandonedStage = http1_1ResponseGenerator.getAbandonedStage();
             http1_1ResponseGenerator.generateResponse(httpErrorException);
-            return !httpErrorException.isCloseConnection();
+            persistent = !httpErrorException.isCloseConnection();
+        }
+        // the message body of the response is delimited by closing the connection
+        persistent = persistent && !http1_1ResponseGenerator.isCloseDelimited();
+
+        // The request handler has timed out but may still be reading the request content, so the
+        // request is closed once it has completed, and the connection does not persist.
+        if (abandonedStage != null) {
+            http1_1RequestParser.setDiscardLimit(0);
+            abandonedStage = abandonedStage.whenComplete((httpResponse, throwable) -> {
+                try {
+                    httpRequest.close();
+                } catch (IOException ignored) {
+                    // the connection is not used any more
+                }
+            });
+            return false;
+        }
+
+        // Closing the request discards the unread part of the message body, but no more than the
+        // maximum request content length, and nothing if the connection will not persist. If
+        // that fails, a response has already been sent, so the only thing left to do is to close
+        // the connection, since the start of the next request message cannot be located.
+        http1_1RequestParser.setDiscardLimit(persistent ?
+                configuration.getHTTP1_1Configuration().getMaximumRequestContentLength() : 0);
+        try {
+            httpRequest.close();
         } catch (IOException ioException) {
-            http1_1ResponseGenerator
-                    .generateResponse(new InternalServerErrorException(ioException));
             return false;
         }
+        return persistent;
+    }
+
+    /**
+     * @return the bytes which have been read from the connection but have not been processed yet
+     * @see HttpRequestInputStream#takeBufferedBytes()
+     */
+    byte[] takeBufferedBytes() {
+        // the request handler which has timed out may still be reading them
+        if (abandonedStage != null)
+            return new byte[0];
+        return http1_1RequestParser.takeBufferedBytes();
+    }
+
+    /**
+     * Releases the buffers leased for the connection, and closes the input stream. Must be called
+     * after {@link #takeBufferedBytes()}, if at all. If the request handler of the last request
+     * has timed out, this is deferred until it has completed, since it may still be reading the
+     * request content from the buffers.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (abandonedStage != null) {
+            abandonedStage.whenComplete((ignored, throwable) -> {
+                try {
+                    http1_1RequestParser.close();
+                } catch (IOException ioException) {
+                    // the connection is not used any more
+                }
+            });
+            return;
+        }
+        http1_1RequestParser.close();
     }
 
     /**
@@ -17,21 +17,25 @@
 package personal.mrxdhlxpb.server.https;
 
 import personal.mrxdhlxpb.server.https.configuration.Configuration;
+import personal.mrxdhlxpb.server.https.decoder.ChainDecoder;
 import personal.mrxdhlxpb.server.https.decoder.ChainTransferCodingDecoder;
+import personal.mrxdhlxpb.server.https.decoder.ChainedInputStream;
+import personal.mrxdhlxpb.server.https.decoder.ContentCodingDecoder;
 import personal.mrxdhlxpb.server.https.decoder.TransferCodingDecoder;
 import personal.mrxdhlxpb.server.https.error.HttpErrorException;
+import personal.mrxdhlxpb.server.https.error.HttpErrorIOException;
 import personal.mrxdhlxpb.server.https.error.concrete.client.*;
 import personal.mrxdhlxpb.server.https.error.concrete.server.HTTPVersionNotSupportedException;
 import personal.mrxdhlxpb.server.https.error.concrete.server.InternalServerErrorException;
 import personal.mrxdhlxpb.server.https.error.concrete.server.NotImplementedException;
+import personal.mrxdhlxpb.server.https.error.concrete.server.ServiceUnavailableException;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * @author mrxdhlxpb
@@ -40,14 +44,9 @@ import java.util.regex.Pattern;
 @CompliantWith("RFC 9112: HTTP/1.1")
 public class HTTP1_1RequestParser {
 
-    static final String ABSOLUTE_PATH_REGEX = "(?<ABSOLUTEPATH>" + "(" + "/" +
-            HttpsURI.SEGMENT_REGEX + ")+" + ")";
-    static final String ORIGIN_FORM_REGEX = ABSOLUTE_PATH_REGEX + HttpsURI.QUERY_OPTIONAL_REGEX;
-    static final Pattern ORIGIN_FORM_PATTERN = Pattern.compile(ORIGIN_FORM_REGEX);
-    static final String HOST_REGEX = HttpsURI.URI_HOST_REGEX + HttpsURI.PORT_OPTIONAL_REGEX;
-    static final Pattern HOST_PATTERN = Pattern.compile(HOST_REGEX);
-    static final String HTTP_VERSION_REGEX = "HTTP/(?<MAJOR>\\d)\\.(?<MINOR>\\d)";
-    static final Pattern HTTP_VERSION_PATTERN = Pattern.compile(HTTP_VERSION_REGEX);
+    private static final byte SP = 0X20;
+
+    private static final byte[] HTTP_VERSION_PREFIX = {'H', 'T', 'T', 'P', '/', '1', '.'};
 
     private final Configuration configuration;
 
@@ -55,9 +54,32 @@ public class HTTP1_1RequestParser {
 
     private MutableHTTPRequest mutableHTTPRequest;
 
+    /**
+     * holds the request line; leased on first use, reused for every request on the connection,
+     * and released by {@code close()}
+     */
+    private byte[] requestLineBuffer;
+
+    /**
+     * holds the header section in lazy mode; leased on first use, reused for every request on the
+     * connection, and released by {@code close()}
+     */
+    private byte[] headerSectionBuffer;
+
+    /**
+     * the header section read lazily into {@code headerSectionBuffer} most recently
+     */
+    private Fields lazyHeaderSection;
+
     public HTTP1_1RequestParser(Configuration configuration, InputStream inputStream) {
         this.configuration = configuration;
-        this.httpRequestInputStream = new HttpRequestInputStream(inputStream);
+        this.httpRequestInputStream = configuration == null ?
+                new HttpRequestInputStream(inputStream) :
+                new HttpRequestInputStream(
+                        inputStream,
+                        configuration.getBufferPool(),
+                        configuration.getSpoolService(),
+                        configuration.getMemoryBudget());
     }
 
     /**
@@ -74,7 +96,10 @@ public class HTTP1_1RequestParser {
 
         // parse header section
         try {
-            mutableHTTPRequest.headerSection = httpRequestInputStream
+            mutableHTTPRequest.headerSection =
+                    configuration.getHTTP1_1Configuration().isRequestHeaderSectionLazy() ?
+                    readHeaderSectionLazily() :
+                    httpRequestInputStream
                     .readFields(
                             configuration
                                     .getHTTP1_1Configuration()
@@ -142,9 +167,50 @@ public class HTTP1_1RequestParser {
 
         parseBody();
 
+        decodeContent();
+
         return mutableHTTPRequest.toImmutableHTTPRequest();
     }
 
+    /**
+     * @return the bytes which have been read from the underlying input stream but have not been
+     *         parsed yet
+     * @see HttpRequestInputStream#takeBufferedBytes()
+     */
+    byte[] takeBufferedBytes() {
+        return httpRequestInputStream.takeBufferedBytes();
+    }
+
+    /**
+     * @see HttpRequestInputStream#setDiscardLimit(long)
+     */
+    void setDiscardLimit(long discardLimit) {
+        httpRequestInputStream.setDiscardLimit(discardLimit);
+    }
+
+    /**
+     * Releases the buffers of this parser, and closes the input stream. The header section read
+     * lazily most recently is detached from its buffer first.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void close() throws IOException {
+        final BufferPool bufferPool = httpRequestInputStream.getBufferPool();
+        if (requestLineBuffer != null) {
+            bufferPool.release(requestLineBuffer);
+            requestLineBuffer = null;
+        }
+        if (headerSectionBuffer != null) {
+            if (lazyHeaderSection != null) {
+                lazyHeaderSection.detach();
+                lazyHeaderSection = null;
+            }
+            bufferPool.release(headerSectionBuffer);
+            headerSectionBuffer = null;
+        }
+        httpRequestInputStream.close();
+    }
+
 
     /**
      * A routine that parses the request line.
@@ -193,11 +259,16 @@ public class HTTP1_1RequestParser {
         // request-line SHOULD ignore at least one empty line (CRLF) received prior to the
         // request-line.
 
-        byte[] bytes = new byte[configuration.getHTTP1_1Configuration()
-                .getMaximumRequestLineLength()];
-        int len;
+        final int maximumRequestLineLength = configuration.getHTTP1_1Configuration()
+                .getMaximumRequestLineLength();
+        if (requestLineBuffer == null)
+            requestLineBuffer = httpRequestInputStream.getBufferPool()
+                    .acquire(maximumRequestLineLength);
+        final byte[] bytes = requestLineBuffer;
+        final int len;
         try {
-            len = httpRequestInputStream.readLine(bytes);
+            len = httpRequestInputStream.readLine(bytes, 0, maximumRequestLineLength,
+                    HttpRequestInputStream.CannotContainException::new);
         } catch (HttpRequestInputStream.CannotContainException e) {
             throw new BadRequestException("length of the request line exceeds limit");
         } catch (SocketTimeoutException e) {
@@ -205,33 +276,77 @@ public class HTTP1_1RequestParser {
         } catch (IOException e) {
             throw new InternalServerErrorException(e);
         }
-        String requestLineString = new String(bytes, 0, len, StandardCharsets.US_ASCII);
 
         //request-line  = method SP request-target SP HTTP-version
 
-        String[] array = requestLineString.split("\\x20", 3);
-        if (array.length < 3)
+        // The request line is scanned in place. The request target is the only part of it which
+        // is turned into a string.
+
+        final int firstSP = indexOfSP(bytes, 0, len);
+        final int secondSP = firstSP == -1 ? -1 : indexOfSP(bytes, firstSP + 1, len);
+        if (secondSP == -1)
             throw new HTTPVersionNotSupportedException();
-        String method = array[0];
-        String requestTarget = array[1];
-        String httpVersion = array[2];
 
-        this.mutableHTTPRequest.requestMethod = RequestMethod.of(method,
-                HTTPVersionNotSupportedException::new);
+        this.mutableHTTPRequest.requestMethod = RequestMethod.of(bytes, 0, firstSP);
+
+        if (this.mutableHTTPRequest.requestMethod == null)
+            throw new HTTPVersionNotSupportedException();
 
         if (!this.mutableHTTPRequest.requestMethod.isSupported())
             throw new MethodNotAllowedException();
 
-        this.mutableHTTPRequest.requestTarget = requestTarget;
+        this.mutableHTTPRequest.requestTarget = new String(
+                bytes,
+                firstSP + 1,
+                secondSP - firstSP - 1,
+                StandardCharsets.US_ASCII);
 
-        Matcher matcher = HTTP_VERSION_PATTERN.matcher(httpVersion);
-        if (!matcher.matches())
-            throw new HTTPVersionNotSupportedException();
-        byte majorVersion = Byte.parseByte(matcher.group("MAJOR"));
-        byte minorVersion = Byte.parseByte(matcher.group("MINOR"));
-        if (minorVersion != 0 && minorVersion != 1 || majorVersion != 1)
+        // HTTP-version  = HTTP-name "/" DIGIT "." DIGIT
+        // HTTP-name     = %s"HTTP"
+
+        // We support HTTP/1.1 and HTTP/1.0 only.
+
+        final int httpVersionOffset = secondSP + 1;
+        if (len - httpVersionOffset != HTTP_VERSION_PREFIX.length + 1
+                || !Arrays.equals(
+                        HTTP_VERSION_PREFIX, 0, HTTP_VERSION_PREFIX.length,
+                        bytes, httpVersionOffset, len - 1))
             throw new HTTPVersionNotSupportedException();
-        this.mutableHTTPRequest.protocolVersion = new ProtocolVersion(majorVersion, minorVersion);
+        this.mutableHTTPRequest.protocolVersion = switch (bytes[len - 1]) {
+            case '1' -> ProtocolVersion.HTTP__1_1;
+            case '0' -> ProtocolVersion.HTTP__1_0;
+            default -> throw new HTTPVersionNotSupportedException();
+        };
+    }
+
+    /**
+     * @return the index of the first SP in {@code bytes[from..to)}, or {@code -1} if not found
+     */
+    private static int indexOfSP(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (bytes[i] == SP)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Reads the header section lazily into {@code headerSectionBuffer}. The header section read
+     * by the previous call is detached from the buffer first, in case it is still in use.
+     */
+    private Fields readHeaderSectionLazily() throws IOException, BadRequestException {
+        if (lazyHeaderSection != null) {
+            lazyHeaderSection.detach();
+            lazyHeaderSection = null;
+        }
+        final int maximumRequestHeaderSectionLength = configuration.getHTTP1_1Configuration()
+                .getMaximumRequestHeaderSectionLength();
+        if (headerSectionBuffer == null)
+            headerSectionBuffer = httpRequestInputStream.getBufferPool()
+                    .acquire(maximumRequestHeaderSectionLength);
+        return lazyHeaderSection = httpRequestInputStream.readFieldsLazily(
+                headerSectionBuffer,
+                configuration.getHTTP1_1Configuration().getMaximumRequestFieldLineLength(),
+                maximumRequestHeaderSectionLength);
     }
 
 
@@ -273,22 +388,22 @@ public class HTTP1_1RequestParser {
                     .headerSection
                     .getFieldValueString("Host")
                     .orElseThrow(() -> new BadRequestException("Empty authority component"));
-            Matcher hostMatcher = HOST_PATTERN.matcher(hostFieldValue);
-            if (hostFieldValue.isEmpty() || !hostMatcher.matches())
+            String[] uriHostPort = HttpsURI.splitHost(hostFieldValue);
+            if (hostFieldValue.isEmpty() || uriHostPort == null)
                 throw new BadRequestException("Empty authority component");
 
-            String uriHost = hostMatcher.group("URIHOST"); // never null, might be empty
-            String port = hostMatcher.group("PORT"); // nullable
+            String uriHost = uriHostPort[0]; // never null, might be empty
+            String port = uriHostPort[1]; // nullable
 
-            Matcher originFormMatcher = ORIGIN_FORM_PATTERN
-                    .matcher(mutableHTTPRequest.requestTarget);
+            Optional<HttpsURI> originFormOptional;
 
             if (mutableHTTPRequest.requestTarget.equals("*")) {
                 mutableHTTPRequest.targetURI = new HttpsURI(uriHost, port, "", null).normalize();
-            } else if (originFormMatcher.matches()) {
-                String path = originFormMatcher.group("ABSOLUTEPATH");// never null nor empty
-                String query = originFormMatcher.group("QUERY"); // nullable
-                mutableHTTPRequest.targetURI = new HttpsURI(uriHost, port, path, query).normalize();
+            } else if ((originFormOptional = HttpsURI.fromOriginForm(
+                    uriHost,
+                    port,
+                    mutableHTTPRequest.requestTarget)).isPresent()) {
+                mutableHTTPRequest.targetURI = originFormOptional.get().normalize();
             } else {
                 throw new BadRequestException("Invalid request target");
             }
@@ -296,6 +411,56 @@ public class HTTP1_1RequestParser {
     }
 
 
+    /**
+     * Decodes the content codings listed in the Content-Encoding header field, if enabled by
+     * {@code HTTP1_1Configuration.isRequestContentDecoded()}. The content is decoded as it is
+     * read from the request content input stream, closing which also closes the input stream
+     * framing the message body. The Content-Encoding header field is then removed, and the
+     * Content-Length header field is set to the decoded length, or removed if it is unknown, so
+     * that the header section describes the content the request handler reads.
+     *
+     * @throws UnsupportedMediaTypeException if a content coding is not registered
+     * @throws BadRequestException if the content cannot be decoded
+     * @throws InternalServerErrorException if an I/O error occurs
+     */
+    private void decodeContent() throws
+            UnsupportedMediaTypeException,
+            BadRequestException,
+            InternalServerErrorException {
+        if (!configuration.getHTTP1_1Configuration().isRequestContentDecoded()
+                || mutableHTTPRequest.requestContentInputStream == null
+                || mutableHTTPRequest.contentLength == 0)
+            return;
+        final Optional<String[]> contentEncodingHeaderFieldValueMembersOptional =
+                mutableHTTPRequest.headerSection.getFieldValueMembers("Content-Encoding");
+        if (contentEncodingHeaderFieldValueMembersOptional.isEmpty()
+                || contentEncodingHeaderFieldValueMembersOptional.get().length == 0)
+            return;
+
+        final ChainDecoder decoder = ContentCodingDecoder.of(
+                configuration.getHTTPDecoderRegistry(),
+                contentEncodingHeaderFieldValueMembersOptional.get());
+        final InputStream framed = mutableHTTPRequest.requestContentInputStream;
+        try {
+            decoder.decode(framed, mutableHTTPRequest.contentLength);
+        } catch (IOException e) {
+            throw new InternalServerErrorException(e);
+        }
+        mutableHTTPRequest.requestContentInputStream =
+                new ChainedInputStream(framed, decoder.getDecodedInputStream());
+        mutableHTTPRequest.contentLength = decoder.getDecodedLength();
+
+        // every content coding listed has been decoded
+        final Fields headerSection = mutableHTTPRequest.headerSection;
+        headerSection.remove("Content-Encoding");
+        if (mutableHTTPRequest.contentLength < 0)
+            headerSection.remove("Content-Length");
+        else
+            headerSection.set("Content-Length",
+                    String.valueOf(mutableHTTPRequest.contentLength));
+    }
+
+
     /**
      * A routine that parses the message body.
      * @throws BadRequestException if the server should respond with a 400 status code and then
@@ -308,6 +473,7 @@ public class HTTP1_1RequestParser {
             BadRequestException,
             NotImplementedException,
             InternalServerErrorException,
+            ServiceUnavailableException,
             ContentTooLargeException {
 
         Optional<Fields.Field> contentLengthHeaderFieldOptional = mutableHTTPRequest
@@ -354,13 +520,28 @@ public class HTTP1_1RequestParser {
                                 transferEncodingHeaderFieldValueMembers)
                         .decode(httpRequestInputStream);
 
-                mutableHTTPRequest.requestContentInputStream = decoder.getContentInputStream();
-                mutableHTTPRequest.contentLength = decoder.getContentLength();
-                if (mutableHTTPRequest.contentLength > configuration
+                final int maximumRequestContentLength = configuration
                         .getHTTP1_1Configuration()
-                        .getMaximumRequestContentLength())
+                        .getMaximumRequestContentLength();
+
+                mutableHTTPRequest.contentLength = decoder.getContentLength();
+                if (mutableHTTPRequest.contentLength > maximumRequestContentLength)
                     throw new ContentTooLargeException();
+
+                // a streaming decoder does not know the content length in advance,
+                // so the limit is enforced as the content is read
+                mutableHTTPRequest.requestContentInputStream =
+                        mutableHTTPRequest.contentLength < 0 ?
+                                new ContentLimitInputStream(
+                                        decoder.getContentInputStream(),
+                                        maximumRequestContentLength) :
+                                decoder.getContentInputStream();
                 mutableHTTPRequest.trailerSection = decoder.getTrailerFieldsDirectly();
+            } catch (HttpErrorIOException e) {
+                // the spool service is out of quota, or the memory budget is exhausted
+                if (e.getCause() instanceof ServiceUnavailableException serviceUnavailableException)
+                    throw serviceUnavailableException;
+                throw new InternalServerErrorException(e);
             } catch (IOException e) {
                 throw new InternalServerErrorException(e);
             }
@@ -427,7 +608,9 @@ public class HTTP1_1RequestParser {
         // are received, the recipient MUST consider the message to be incomplete and close the
         // connection.
 
-        mutableHTTPRequest.requestContentInputStream = httpRequestInputStream;
+        mutableHTTPRequest.requestContentInputStream = new ContentLengthInputStream(
+                httpRequestInputStream,
+                mutableHTTPRequest.contentLength);
     }
 
     private static class MutableHTTPRequest {
@@ -454,7 +637,10 @@ public class HTTP1_1RequestParser {
                     new RequestMessageControlData(
                             requestMethod,
                             targetResource,
-                            protocolVersion
+                            protocolVersion,
+                            targetURI == null ?
+                                    null :
+                                    targetURI.toInternalResourceIdentifier()
                     ),
                     headerSection,
                     Optional.ofNullable(requestContentInputStream),
@@ -18,73 +18,206 @@ package personal.mrxdhlxpb.server.https;
 
 import personal.mrxdhlxpb.server.https.configuration.Configuration;
 import personal.mrxdhlxpb.server.https.error.HttpErrorException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.RangeNotSatisfiableException;
 import personal.mrxdhlxpb.server.https.error.concrete.server.InternalServerErrorException;
+import personal.mrxdhlxpb.server.https.error.concrete.server.ServiceUnavailableException;
 
+import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintStream;
-import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
+ * Generates HTTP/1.1 response messages.
+ * <p> The response head and, if small enough, the message body are accumulated in the buffer of
+ * an {@link HTTP1_1ResponseOutputStream} and leave it by a single write when the response is
+ * complete. If {@code responseOutputStream} is already an {@code HTTP1_1ResponseOutputStream},
+ * it is used as is, so that the buffer can be shared by all the responses of a connection.
+ * <p> The response to a request is generated once the stage returned by the
+ * {@link AsyncHTTPRequestHandler} of the target resource has completed, by the thread which
+ * completes it. {@link #generateResponse(Either)} waits for it, while
+ * {@link #generateResponseAsync(Either)} does not. If the stage has not completed once the
+ * {@link Configuration#getResponseTimeout() response timeout} has elapsed, the request is
+ * answered with 503 (Service Unavailable) instead, and the stage is reported by
+ * {@link #getAbandonedStage()}, since the request handler may still be using the request.
+ * <p> Content of unknown length, including content pushed by a {@link ContentWriter}, is sent in
+ * the chunked transfer coding, by a {@link ChunkedHTTP1_1ResponseMessageBodyGenerator}, if the
+ * message body generator of the response applies no transfer coding to it. A Content-Length
+ * header field is never sent along with a Transfer-Encoding header field. If the chunked
+ * transfer coding cannot be applied, as the request is not HTTP/1.1 or later, the message body
+ * is delimited by closing the connection instead, as reported by {@link #isCloseDelimited()}.
+ *
  * @author mrxdhlxpb
  */
 public class HTTP1_1ResponseGenerator {
-    private static final byte[] CRLF = {0XD, 0XA};
 
-    private static final byte SP = 0X20;
+    /**
+     * The default time the request handler may take to complete the response.
+     */
+    public static final Duration DEFAULT_RESPONSE_TIMEOUT = Duration.ofSeconds(60);
+
+    private static final HTTP1_1ResponseMessageBodyGenerator CHUNKED =
+            new ChunkedHTTP1_1ResponseMessageBodyGenerator();
 
     private final Configuration configuration;
 
-    private final OutputStream responseOutputStream;
+    private final HTTP1_1ResponseOutputStream responseOutputStream;
+
+    private final Duration responseTimeout;
+
+    /**
+     * whether the message body of the last response is delimited by closing the connection
+     */
+    private volatile boolean closeDelimited;
 
-    private final PrintStream responsePrintStream;
+    /**
+     * the stage of the request handler which the last response has abandoned on the response
+     * timeout, or {@code null}
+     */
+    private volatile CompletableFuture<HTTPResponse> abandonedStage;
 
     public HTTP1_1ResponseGenerator(Configuration configuration,
                                     OutputStream responseOutputStream) {
         this.configuration = configuration;
-        this.responseOutputStream = responseOutputStream;
-        responsePrintStream = new PrintStream(
-                responseOutputStream,
-                false,
-                StandardCharsets.US_ASCII
-        );
+        this.responseOutputStream =
+                responseOutputStream instanceof HTTP1_1ResponseOutputStream bufferedOutputStream ?
+                        bufferedOutputStream :
+                        new HTTP1_1ResponseOutputStream(responseOutputStream);
+        this.responseTimeout = configuration == null ?
+                DEFAULT_RESPONSE_TIMEOUT :
+                configuration.getResponseTimeout();
     }
 
     public void generateResponse(Either<HTTPRequest, HttpErrorException>
                                          eitherHTTPRequestOrHttpErrorException)
         throws HttpErrorException {
+        await(generateResponseAsync(eitherHTTPRequestOrHttpErrorException, true));
+    }
+
+    /**
+     * Generates the response without waiting for the request handler to complete it.
+     *
+     * @return a stage which completes once the response has been generated, or completes
+     *         exceptionally with the {@code HttpErrorException} which
+     *         {@link #generateResponse(Either)} would throw
+     */
+    public CompletionStage<Void> generateResponseAsync(
+            Either<HTTPRequest, HttpErrorException> eitherHTTPRequestOrHttpErrorException) {
+        return generateResponseAsync(eitherHTTPRequestOrHttpErrorException, true);
+    }
+
+    /**
+     * @param lookUp whether the response may be served by the response cache, which is
+     *               {@code false} when a stale response is being refreshed
+     */
+    private CompletionStage<Void> generateResponseAsync(
+            Either<HTTPRequest, HttpErrorException> eitherHTTPRequestOrHttpErrorException,
+            boolean lookUp) {
+        closeDelimited = false;
+        abandonedStage = null;
+        final ResponseCache responseCache = eitherHTTPRequestOrHttpErrorException.hasLeftValue()
+                && eitherHTTPRequestOrHttpErrorException
+                        .getLeftValue()
+                        .requestMessageControlData()
+                        .targetResource()
+                        .isResponseCacheable() ?
+                configuration.getResponseCache() :
+                null;
+        if (responseCache == null || !lookUp)
+            return generateResponseAsync(eitherHTTPRequestOrHttpErrorException, responseCache,
+                    null);
+        return responseCache
+                .lookUp(eitherHTTPRequestOrHttpErrorException.getLeftValue(),
+                        responseOutputStream,
+                        this::refresh)
+                .thenCompose(flight -> flight.isServed() ?
+                        CompletableFuture.completedStage(null) :
+                        generateResponseAsync(eitherHTTPRequestOrHttpErrorException,
+                                responseCache, flight));
+    }
+
+    /**
+     * Generates the response once the response cache has not served it.
+     *
+     * @param flight the flight of the request, or {@code null} if the response cache was not
+     *               looked up
+     */
+    private CompletionStage<Void> generateResponseAsync(
+            Either<HTTPRequest, HttpErrorException> eitherHTTPRequestOrHttpErrorException,
+            ResponseCache responseCache,
+            ResponseCache.Flight flight) {
+        CompletionStage<HTTPResponse> httpResponseStage;
+        try {
+            final HTTPResponse httpResponse = new HTTPResponse(ProtocolVersion.HTTP__1_1);
+            if (eitherHTTPRequestOrHttpErrorException.hasLeftValue())
+                httpResponseStage = withTimeout(
+                        handle(eitherHTTPRequestOrHttpErrorException.getLeftValue(), httpResponse));
+            else {
+                configuration
+                        .getHttpErrorHandlerRegistry()
+                        .getHttpErrorHandler(
+                                eitherHTTPRequestOrHttpErrorException
+                                        .getRightValue()
+                                        .getClass()
+                        )
+                        .handle(
+                                eitherHTTPRequestOrHttpErrorException
+                                        .getRightValue(),
+                                httpResponse
+                        );
+                httpResponseStage = CompletableFuture.completedStage(httpResponse);
+            }
+        } catch (HttpErrorException | RuntimeException exception) {
+            httpResponseStage = CompletableFuture.failedStage(exception);
+        }
+
+        return httpResponseStage
+                .thenCompose(httpResponse -> {
+                    try {
+                        generateResponse(eitherHTTPRequestOrHttpErrorException, httpResponse,
+                                responseCache, flight);
+                        return CompletableFuture.<Void>completedStage(null);
+                    } catch (HttpErrorException httpErrorException) {
+                        return CompletableFuture.failedStage(httpErrorException);
+                    }
+                })
+                .whenComplete((ignored, throwable) -> {
+                    if (flight != null)
+                        flight.close();
+                });
+    }
+
+    /**
+     * Generates the response message once the request handler or the error handler has completed
+     * {@code httpResponse}.
+     */
+    private void generateResponse(Either<HTTPRequest, HttpErrorException>
+                                          eitherHTTPRequestOrHttpErrorException,
+                                  HTTPResponse httpResponse,
+                                  ResponseCache responseCache,
+                                  ResponseCache.Flight flight)
+            throws HttpErrorException {
 
 //        HTTP-message   = status-line CRLF
 //                         *( field-line CRLF )
 //                         CRLF
 //                         [ message-body ]
 
-        final HTTPResponse httpResponse = new HTTPResponse(ProtocolVersion.HTTP__1_1);
-        final HTTP1_1ResponseMessageBodyGenerator messageBodyGenerator;
+        HTTP1_1ResponseMessageBodyGenerator messageBodyGenerator;
 
-        if (eitherHTTPRequestOrHttpErrorException.hasLeftValue())
-            eitherHTTPRequestOrHttpErrorException
-                    .getLeftValue()
-                    .requestMessageControlData()
-                    .targetResource()
-                    .getHTTPRequestHandler()
-                    .handle(
-                            eitherHTTPRequestOrHttpErrorException
-                                    .getLeftValue(),
-                            httpResponse
-                    );
-        else
-            configuration
-                    .getHttpErrorHandlerRegistry()
-                    .getHttpErrorHandler(
-                            eitherHTTPRequestOrHttpErrorException
-                                    .getRightValue()
-                                    .getClass()
-                    )
-                    .handle(
-                            eitherHTTPRequestOrHttpErrorException
-                                    .getRightValue(),
-                            httpResponse
-                    );
+        if (eitherHTTPRequestOrHttpErrorException.hasRightValue()
+                && eitherHTTPRequestOrHttpErrorException.getRightValue()
+                        instanceof RangeNotSatisfiableException rangeNotSatisfiableException
+                && rangeNotSatisfiableException.getCompleteLength() >= 0
+                && !httpResponse.getHeaderSection().contains("content-range"))
+            httpResponse.getHeaderSection().set("content-range", ByteRanges.BYTES + " */"
+                    + rangeNotSatisfiableException.getCompleteLength());
 
         messageBodyGenerator = eitherHTTPRequestOrHttpErrorException.hasLeftValue() ?
                 eitherHTTPRequestOrHttpErrorException
@@ -96,36 +229,261 @@ public class HTTP1_1ResponseGenerator {
                         .getHTTP1_1Configuration()
                         .getHttpErrorHTTP1_1ResponseMessageBodyGenerator();
 
-        // status-line
-        generateStatusLine(httpResponse.getStatusCode());
+        if (eitherHTTPRequestOrHttpErrorException.hasLeftValue()) {
+            final HTTPRequest httpRequest = eitherHTTPRequestOrHttpErrorException.getLeftValue();
+            ByteRanges.apply(httpRequest, httpResponse);
+            final CompressionPolicy compressionPolicy = httpRequest
+                    .requestMessageControlData()
+                    .targetResource()
+                    .getCompressionPolicy();
+            if (compressionPolicy.isEnabled())
+                configuration
+                        .getResponseCompressor()
+                        .compress(httpRequest, httpResponse, compressionPolicy,
+                                messageBodyGenerator);
+        }
 
-        // CRLF
-        responsePrintStream.writeBytes(CRLF);
+        final Optional<ContentWriter> contentWriterOptional = httpResponse.getContentWriter();
+        if ((contentWriterOptional.isPresent() || httpResponse.getContentLength() < 0)
+                && hasMessageBody(httpResponse)
+                && !httpResponse.getHeaderSection().contains("transfer-encoding")
+                && messageBodyGenerator.getTransferEncodingChain(-1).length == 0) {
+            final ProtocolVersion protocolVersion =
+                    eitherHTTPRequestOrHttpErrorException.hasLeftValue() ?
+                            eitherHTTPRequestOrHttpErrorException
+                                    .getLeftValue()
+                                    .requestMessageControlData()
+                                    .protocolVersion() :
+                            null;
+            if (protocolVersion != null && !ProtocolVersion.HTTP__1_1.isLaterThan(protocolVersion))
+                messageBodyGenerator = CHUNKED;
+            else {
+                closeDelimited = true;
+                httpResponse.getHeaderSection().set("connection", "close");
+            }
+        }
+        setTransferEncoding(
+                httpResponse,
+                messageBodyGenerator,
+                contentWriterOptional.isPresent() ? -1 : httpResponse.getContentLength());
 
-        // *( field-line CRLF )
-        httpResponse.getHeaderSection().print(responsePrintStream);
+        if (responseCache != null)
+            responseCache.store(flight, eitherHTTPRequestOrHttpErrorException.getLeftValue(),
+                    httpResponse, messageBodyGenerator);
 
-        // CRLF
-        responsePrintStream.writeBytes(CRLF);
+        try {
+            // status-line CRLF *( field-line CRLF )
+            writeHead(httpResponse, responseOutputStream);
 
-        if (responsePrintStream.checkError())
-            throw new InternalServerErrorException("The print stream has encountered" +
-                    " an IOException.");
+            // CRLF
+            responseOutputStream.writeCRLF();
+        } catch (IOException ioException) {
+            throw new InternalServerErrorException(ioException);
+        }
 
         // [ message-body ]
-        messageBodyGenerator
-                .generateResponseMessageBody(
-                        httpResponse.getContentInputStream(),
-                        httpResponse.getContentLength(),
-                        httpResponse.getTrailerSection().orElse(null),
-                        responseOutputStream
-                );
+        if (contentWriterOptional.isPresent())
+            messageBodyGenerator
+                    .generateResponseMessageBodyFrom(
+                            contentWriterOptional.get(),
+                            httpResponse.getTrailerSection().orElse(null),
+                            responseOutputStream
+                    );
+        else
+            messageBodyGenerator
+                    .generateResponseMessageBody(
+                            httpResponse.getContentInputStream(),
+                            httpResponse.getContentLength(),
+                            httpResponse.getTrailerSection().orElse(null),
+                            responseOutputStream
+                    );
+
+        // the message body generator is not required to flush if there is no message body
+        try {
+            responseOutputStream.flush();
+        } catch (IOException ioException) {
+            throw new InternalServerErrorException(ioException);
+        }
+    }
+
+    /**
+     * Generates a response to {@code httpRequest} without serving it from the response cache and
+     * discards it, so that the response cache stores it in place of a stale response.
+     */
+    private void refresh(HTTPRequest httpRequest) {
+        try {
+            await(new HTTP1_1ResponseGenerator(configuration, OutputStream.nullOutputStream())
+                    .generateResponseAsync(Either.of(httpRequest, null), false));
+        } catch (HttpErrorException ignored) {
+            // the stale response is kept until it is refreshed by another request
+        }
+    }
+
+    /**
+     * Bounds the time the request handler may take to complete its stage, so that a stage which
+     * never completes does not hold the connection forever. The returned stage completes
+     * exceptionally with a {@code ServiceUnavailableException} once the response timeout has
+     * elapsed; a response which is completed later is discarded. The timer is cancelled as soon
+     * as the stage completes, so that it does not keep the response reachable.
+     */
+    private CompletionStage<HTTPResponse> withTimeout(CompletionStage<HTTPResponse> stage) {
+        final CompletableFuture<HTTPResponse> settled = new CompletableFuture<>();
+        stage.whenComplete((httpResponse, throwable) -> {
+            if (throwable == null)
+                settled.complete(httpResponse);
+            else
+                settled.completeExceptionally(unwrap(throwable));
+        });
+        return settled
+                .copy()
+                .orTimeout(responseTimeout.toNanos(), TimeUnit.NANOSECONDS)
+                .exceptionallyCompose(throwable -> {
+                    final Throwable cause = unwrap(throwable);
+                    if (!(cause instanceof TimeoutException))
+                        return CompletableFuture.failedStage(cause);
+                    abandonedStage = settled;
+                    return CompletableFuture.failedStage(new ServiceUnavailableException());
+                });
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null ?
+                throwable.getCause() : throwable;
+    }
+
+    /**
+     * Waits for {@code stage} to complete. Every stage this class waits for is bounded, by the
+     * coalescing timeout of the response cache and the response timeout.
+     *
+     * @throws HttpErrorException if the stage has completed exceptionally with it, or an
+     *                            {@code InternalServerErrorException} wrapping any other checked
+     *                            exception
+     */
+    private static void await(CompletionStage<Void> stage) throws HttpErrorException {
+        try {
+            stage.toCompletableFuture().join();
+        } catch (CompletionException | CancellationException exception) {
+            final Throwable cause = unwrap(exception);
+            if (cause instanceof HttpErrorException httpErrorException)
+                throw httpErrorException;
+            if (cause instanceof RuntimeException runtimeException)
+                throw runtimeException;
+            if (cause instanceof Error error)
+                throw error;
+            throw new InternalServerErrorException(cause);
+        }
+    }
+
+    /**
+     * Returns whether the message body of the last response generated is delimited by closing
+     * the connection, since its length is unknown and the chunked transfer coding cannot be
+     * applied to it. The connection must not persist after such a response.
+     *
+     * @return whether the connection must be closed
+     */
+    boolean isCloseDelimited() { return closeDelimited; }
+
+    /**
+     * Returns the stage of the request handler if the last response has been generated without
+     * waiting for it, as the response timeout has elapsed. The request handler may still be
+     * reading the request content, so the request must not be closed, nor its buffers released,
+     * until the stage has completed.
+     *
+     * @return the stage of the request handler, or {@code null} if the last response has not
+     *         timed out
+     */
+    CompletionStage<HTTPResponse> getAbandonedStage() { return abandonedStage; }
+
+    /**
+     * Calls the request handler of the target resource, unless the request is a conditional
+     * request which is answered with 304 (Not Modified) by {@link Preconditions} according to
+     * the validators of the target resource.
+     *
+     * @return the stage returned by the request handler
+     */
+    private static CompletionStage<HTTPResponse> handle(HTTPRequest httpRequest,
+                                                        HTTPResponse httpResponse)
+            throws HttpErrorException {
+        final InternalResource targetResource =
+                httpRequest.requestMessageControlData().targetResource();
+        final Optional<Validators> validatorsOptional = targetResource.getValidators(httpRequest);
+        if (validatorsOptional.isPresent()
+                && Preconditions.evaluate(httpRequest, validatorsOptional.get(), httpResponse))
+            return CompletableFuture.completedStage(httpResponse);
+
+        final RequestMethod requestMethod =
+                httpRequest.requestMessageControlData().requestMethod();
+        return targetResource.getAsyncHTTPRequestHandler().handle(httpRequest, httpResponse)
+                .thenApply(completedResponse -> {
+                    if (validatorsOptional.isPresent()
+                            && completedResponse.getStatusCode() == 200
+                            && (requestMethod == RequestMethod.GET
+                                    || requestMethod == RequestMethod.HEAD))
+                        validatorsOptional.get().setTo(completedResponse.getHeaderSection());
+                    return completedResponse;
+                });
+    }
+
+    /**
+     * Sets the Transfer-Encoding header field to the transfer codings the message body generator
+     * applies to the content, if any, unless the handler has set it. If a transfer coding is
+     * applied and the response has a trailer section, the Trailer header field is set to the
+     * names of the trailer fields, unless the handler has set it, as recommended by <em>RFC 9110:
+     * HTTP Semantics Section 6.6.2. Processing Trailer Fields</em>.
+     * <p> This is where the framing of the message body is decided: if the response has a
+     * Transfer-Encoding header field, its Content-Length header field is removed, as a sender
+     * must not send both, according to <em>RFC 9112: HTTP/1.1 Section 6.2. Content-Length</em>.
+     */
+    private static void setTransferEncoding(HTTPResponse httpResponse,
+                                            HTTP1_1ResponseMessageBodyGenerator generator,
+                                            int contentLength) {
+        // A server MUST NOT send a Transfer-Encoding header field in any response with a status
+        // code of 1xx (Informational) or 204 (No Content). 304 (Not Modified) has no content.
+        if (!hasMessageBody(httpResponse))
+            return;
+        final Fields headerSection = httpResponse.getHeaderSection();
+        if (!headerSection.contains("transfer-encoding")) {
+            final String[] transferEncodingChain =
+                    generator.getTransferEncodingChain(contentLength);
+            if (transferEncodingChain.length == 0)
+                return;
+            headerSection.set("transfer-encoding", String.join(", ", transferEncodingChain));
+            httpResponse.getTrailerSection()
+                    .filter(trailerSection -> !trailerSection.isEmpty())
+                    .filter(trailerSection -> !headerSection.contains("trailer"))
+                    .ifPresent(trailerSection -> headerSection.set("trailer", String.join(", ",
+                            trailerSection.toList().stream()
+                                    .map(Fields.Field::fieldName)
+                                    .toList())));
+        }
+        headerSection.remove("content-length");
+    }
+
+    /**
+     * @return {@code false} if the status code of the response is 1xx (Informational), 204 (No
+     *         Content) or 304 (Not Modified), which have no message body
+     */
+    private static boolean hasMessageBody(HTTPResponse httpResponse) {
+        final short statusCode = httpResponse.getStatusCode();
+        return statusCode >= 200 && statusCode != 204 && statusCode != 304;
     }
 
-    private void generateStatusLine(short statusCode) {
-        responsePrintStream.print(ProtocolVersion.HTTP__1_1_STRING);
-        responsePrintStream.write(SP);
-        responsePrintStream.print(statusCode);
+    /**
+     * Writes the status line and the header section of {@code httpResponse}, without the empty
+     * line which follows them.
+     */
+    static void writeHead(HTTPResponse httpResponse,
+                          HTTP1_1ResponseOutputStream responseOutputStream) throws IOException {
+        // status-line
+        responseOutputStream.writeASCII(ProtocolVersion.HTTP__1_1_STRING);
+        responseOutputStream.writeSP();
+        responseOutputStream.writeDecimal(httpResponse.getStatusCode());
+
+        // CRLF
+        responseOutputStream.writeCRLF();
+
+        // *( field-line CRLF )
+        httpResponse.getHeaderSection().write(responseOutputStream);
     }
 
     public void generateResponse(HttpErrorException httpErrorException) {
@@ -18,6 +18,8 @@ package personal.mrxdhlxpb.server.https;
 
 import personal.mrxdhlxpb.server.https.error.concrete.server.InternalServerErrorException;
 
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
@@ -28,6 +30,17 @@ public interface HTTP1_1ResponseMessageBodyGenerator {
 
     String[] getTransferEncodingChain();
 
+    /**
+     * Returns the transfer codings applied to content of the given length, for which the
+     * response message generator sets the Transfer-Encoding header field if this is not empty.
+     *
+     * @param contentLength the content length, negative if unknown
+     * @return {@link #getTransferEncodingChain()} by default
+     */
+    default String[] getTransferEncodingChain(int contentLength) {
+        return getTransferEncodingChain();
+    }
+
     /**
      * Generates the message body for an HTTP/1.1 response message.
      * <p> The message body, as defined in <em>RFC 9112: HTTP/1.1 Section 6. Message Body</em>,
@@ -66,4 +79,36 @@ public interface HTTP1_1ResponseMessageBodyGenerator {
                                      OutputStream destination)
         throws InternalServerErrorException;
 
+    /**
+     * Works like {@link #generateResponseMessageBody(InputStream, int, Fields, OutputStream)}
+     * with a negative {@code contentLength}, except that the content is pushed by
+     * {@code contentWriter} instead of being read from an input stream.
+     * <p> The default implementation does not apply any transfer encoding to the content, and
+     * ignores {@code trailerSection}.
+     *
+     * @param contentWriter the content writer which pushes the content
+     * @param trailerSection the trailer section, if any
+     * @param destination the output stream into which the message body is written
+     * @throws InternalServerErrorException to wrap an {@code IOException}
+     */
+    default void generateResponseMessageBodyFrom(ContentWriter contentWriter,
+                                                 Fields trailerSection,
+                                                 OutputStream destination)
+            throws InternalServerErrorException {
+        try {
+            contentWriter.writeTo(new FilterOutputStream(destination) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() {}
+            });
+            destination.flush();
+        } catch (IOException ioException) {
+            throw new InternalServerErrorException(ioException);
+        }
+    }
+
 }
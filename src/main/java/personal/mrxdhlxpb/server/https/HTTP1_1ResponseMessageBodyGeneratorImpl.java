@@ -39,6 +39,9 @@ public class HTTP1_1ResponseMessageBodyGeneratorImpl
     /**
      * This implementation does not apply any transfer encoding to the content. Therefore,
      * the message body is identical to the content.
+     * <p> The content is streamed through the buffer of {@code destination} if it is an
+     * {@link HTTP1_1ResponseOutputStream}, or else through a new one, so that it never has to fit
+     * in memory as a whole.
      * <p> This method ignores {@code trailerSection}.
      *
      * @param contentInputStream the input stream from which the content is read
@@ -60,18 +63,25 @@ public class HTTP1_1ResponseMessageBodyGeneratorImpl
             return;
 
         try {
+            final HTTP1_1ResponseOutputStream responseOutputStream =
+                    asResponseOutputStream(destination);
             if (contentLength > 0) {
-                byte[] contentOctets = contentInputStream.readNBytes(contentLength);
-                if (contentOctets.length != contentLength)
+                if (responseOutputStream.transferFrom(contentInputStream, contentLength)
+                        != contentLength)
                     throw new InternalServerErrorException(new IllegalArgumentException());
-                destination.write(contentOctets);
             } else {
-                contentInputStream.transferTo(destination);
+                responseOutputStream.transferFrom(contentInputStream, Long.MAX_VALUE);
             }
-            destination.flush();
+            responseOutputStream.flush();
         } catch (IOException ioException) {
             throw new InternalServerErrorException(ioException);
         }
     }
 
+    static HTTP1_1ResponseOutputStream asResponseOutputStream(OutputStream destination) {
+        return destination instanceof HTTP1_1ResponseOutputStream responseOutputStream ?
+                responseOutputStream :
+                new HTTP1_1ResponseOutputStream(destination);
+    }
+
 }
@@ -0,0 +1,352 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * This subclass of {@code BufferedOutputStream} provides additional capability to write the
+ * characters of a response message head as US-ASCII octets directly into the buffer.
+ * <p> The status line, the field lines, the terminating CRLF and, if it fits in the remaining
+ * space of the buffer, the message body are accumulated in the buffer, so that a small response
+ * reaches the underlying output stream by a single {@code write} once the stream is flushed.
+ * Since the buffer is kept across flushes, an instance should be created once per connection
+ * and reused for every response sent on that connection.
+ * <p> A character that cannot be encoded in US-ASCII is written as {@code '?'}, the same as
+ * {@link java.io.PrintStream} with charset US-ASCII does.
+ * <p> A message body is streamed through the same buffer, either as is by
+ * {@link #transferFrom(InputStream, long)}, or in the chunked transfer coding by
+ * {@link #transferChunkedFrom(InputStream)} and {@link #newChunkedOutputStream()}, followed by
+ * {@link #writeLastChunk(Fields)}. A chunk is accumulated in the buffer with room reserved for its
+ * chunk-size, which is filled in once the chunk is complete, so that a chunk is as large as the
+ * buffer allows and its data is not copied between buffers.
+ *
+ * @author mrxdhlxpb
+ */
+public class HTTP1_1ResponseOutputStream extends BufferedOutputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    public static final int MINIMUM_BUFFER_SIZE = 16;
+
+    private static final byte CR = 0XD;
+
+    private static final byte LF = 0XA;
+
+    private static final byte SP = 0X20;
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte UNMAPPABLE = '?';
+
+    /**
+     * the room reserved for the chunk-size and CRLF of an open chunk: the hex digits of
+     * {@code Integer.MAX_VALUE}, and CRLF
+     */
+    private static final int CHUNK_HEADER_RESERVE = 8 + 2;
+
+    /**
+     * the index of the room reserved for the chunk-size of the open chunk in {@code buf}, or
+     * {@code -1} if no chunk is open
+     */
+    private int chunkStart = -1;
+
+    public HTTP1_1ResponseOutputStream(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param out the underlying output stream
+     * @param size the buffer size
+     * @throws IllegalArgumentException if {@code size < MINIMUM_BUFFER_SIZE}
+     */
+    public HTTP1_1ResponseOutputStream(OutputStream out, int size) {
+        super(out, size);
+        if (size < MINIMUM_BUFFER_SIZE)
+            throw new IllegalArgumentException("Buffer size < " + MINIMUM_BUFFER_SIZE);
+    }
+
+    /**
+     * Writes the characters of {@code charSequence} as US-ASCII octets.
+     *
+     * @param charSequence the characters to be written
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized void writeASCII(CharSequence charSequence) throws IOException {
+        final int length = charSequence.length();
+        int index = 0;
+        while (index < length) {
+            if (count == buf.length)
+                flushBuffer();
+            final int end = Math.min(length, index + buf.length - count);
+            while (index < end) {
+                final char c = charSequence.charAt(index++);
+                buf[count++] = c < 0X80 ? (byte) c : UNMAPPABLE;
+            }
+        }
+    }
+
+    /**
+     * Writes the decimal representation of a non-negative integer as US-ASCII octets.
+     *
+     * @param value non-negative
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if {@code value} is negative
+     */
+    public synchronized void writeDecimal(int value) throws IOException {
+        if (value < 0)
+            throw new IllegalArgumentException();
+
+        // Integer.MAX_VALUE has 10 digits
+        if (buf.length - count < 10)
+            flushBuffer();
+
+        int digits = 1;
+        for (int i = value; i >= 10; i /= 10)
+            digits++;
+        for (int i = count + digits - 1; i >= count; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        count += digits;
+    }
+
+    /**
+     * Writes a field line in the form of {@code field-name ": " field-value CRLF}.
+     *
+     * @param field the field to be written
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized void writeFieldLine(Fields.Field field) throws IOException {
+        writeASCII(field.fieldName());
+        writeSeparator();
+        writeASCII(field.fieldValueCharSequence());
+        writeCRLF();
+    }
+
+    public synchronized void writeSP() throws IOException {
+        if (count == buf.length)
+            flushBuffer();
+        buf[count++] = SP;
+    }
+
+    public synchronized void writeCRLF() throws IOException {
+        if (buf.length - count < 2)
+            flushBuffer();
+        buf[count++] = CR;
+        buf[count++] = LF;
+    }
+
+    /**
+     * Transfers at most {@code length} bytes from {@code in}, reading them directly into the
+     * buffer, until end of stream is detected.
+     *
+     * @param in the input stream from which the bytes are read
+     * @param length the maximum number of bytes to be transferred
+     * @return the number of bytes transferred
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized long transferFrom(InputStream in, long length) throws IOException {
+        closeChunk();
+        long transferred = 0;
+        while (transferred < length) {
+            if (count == buf.length)
+                flushBuffer();
+            final int n = in.read(buf, count,
+                    (int) Math.min(buf.length - count, length - transferred));
+            if (n < 0)
+                break;
+            count += n;
+            transferred += n;
+        }
+        return transferred;
+    }
+
+    /**
+     * Transfers the bytes read from {@code in} until end of stream is detected, in the chunked
+     * transfer coding. The bytes are read directly into the buffer, each chunk taking up the rest
+     * of the buffer. {@link #writeLastChunk(Fields)} is to be called afterward.
+     *
+     * @param in the input stream from which the bytes are read
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized void transferChunkedFrom(InputStream in) throws IOException {
+        while (true) {
+            if (chunkStart < 0)
+                openChunk();
+            // leave room for the CRLF following chunk-data
+            final int n = in.read(buf, count, buf.length - count - 2);
+            if (n < 0) {
+                closeChunk();
+                return;
+            }
+            count += n;
+            if (buf.length - count == 2)
+                closeChunk();
+        }
+    }
+
+    /**
+     * Returns an output stream which writes the bytes written to it into this output stream, in
+     * the chunked transfer coding. Small writes are accumulated in a chunk, which is closed once
+     * the buffer is full or the returned output stream is flushed. Closing the returned output
+     * stream only closes the open chunk. {@link #writeLastChunk(Fields)} is to be called
+     * afterward. This output stream must not be written otherwise meanwhile.
+     *
+     * @return the output stream
+     */
+    public OutputStream newChunkedOutputStream() {
+        return new ChunkedOutputStream();
+    }
+
+    /**
+     * Writes the last chunk, the trailer section and the final CRLF of the chunked transfer coding,
+     * as defined in <em>RFC 9112: HTTP/1.1 Section 7.1. Chunked Transfer Coding</em>.
+     *
+     * @param trailerSection the trailer section, or {@code null} if none
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized void writeLastChunk(Fields trailerSection) throws IOException {
+        closeChunk();
+        writeASCII("0");
+        writeCRLF();
+        if (trailerSection != null)
+            trailerSection.write(this);
+        writeCRLF();
+    }
+
+    /**
+     * Closes the open chunk, if any, before flushing.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        closeChunk();
+        super.flush();
+    }
+
+    /**
+     * Opens a chunk, reserving room for its chunk-size, and for at least one byte of chunk-data
+     * and the CRLF following it.
+     */
+    private void openChunk() throws IOException {
+        if (buf.length - count < CHUNK_HEADER_RESERVE + 3)
+            flushBuffer();
+        chunkStart = count;
+        count += CHUNK_HEADER_RESERVE;
+    }
+
+    /**
+     * Closes the open chunk, if any, writing its chunk-size before its chunk-data, and CRLF after
+     * it. A chunk without chunk-data is dropped, since it would be the last chunk.
+     */
+    private void closeChunk() {
+        if (chunkStart < 0)
+            return;
+        final int dataStart = chunkStart + CHUNK_HEADER_RESERVE;
+        final int length = count - dataStart;
+        if (length == 0) {
+            count = chunkStart;
+        } else {
+            int digits = 1;
+            for (int i = length >>> 4; i != 0; i >>>= 4)
+                digits++;
+            // move the chunk-data next to the chunk-size
+            System.arraycopy(buf, dataStart, buf, chunkStart + digits + 2, length);
+            for (int i = chunkStart + digits - 1, value = length; i >= chunkStart; i--) {
+                buf[i] = HEX_DIGITS[value & 0XF];
+                value >>>= 4;
+            }
+            buf[chunkStart + digits] = CR;
+            buf[chunkStart + digits + 1] = LF;
+            count = chunkStart + digits + 2 + length;
+            buf[count++] = CR;
+            buf[count++] = LF;
+        }
+        chunkStart = -1;
+    }
+
+    private final class ChunkedOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            synchronized (HTTP1_1ResponseOutputStream.this) {
+                if (len >= buf.length) {
+                    // too large to be buffered, so written as a chunk of its own
+                    closeChunk();
+                    writeASCII(Integer.toHexString(len));
+                    writeCRLF();
+                    flushBuffer();
+                    out.write(b, off, len);
+                    writeCRLF();
+                    return;
+                }
+                while (len > 0) {
+                    if (chunkStart < 0)
+                        openChunk();
+                    final int n = Math.min(len, buf.length - count - 2);
+                    System.arraycopy(b, off, buf, count, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                    if (buf.length - count == 2)
+                        closeChunk();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            HTTP1_1ResponseOutputStream.this.flush();
+        }
+
+        @Override
+        public void close() {
+            synchronized (HTTP1_1ResponseOutputStream.this) {
+                closeChunk();
+            }
+        }
+    }
+
+    private void writeSeparator() throws IOException {
+        if (buf.length - count < 2)
+            flushBuffer();
+        buf[count++] = ':';
+        buf[count++] = SP;
+    }
+
+    private void flushBuffer() throws IOException {
+        closeChunk();
+        if (count > 0) {
+            out.write(buf, 0, count);
+            count = 0;
+        }
+    }
+
+}
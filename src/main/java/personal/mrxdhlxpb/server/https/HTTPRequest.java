@@ -23,6 +23,9 @@ import java.util.Optional;
 
 /**
  * An abstraction of HTTP request messages.
+ * <p> {@code contentLength} is {@code -1} if the length of the content is not known until the
+ * content has been read, which is the case when the chunked transfer coding is decoded as the
+ * content is read.
  *
  * @author mrxdhlxpb
  */
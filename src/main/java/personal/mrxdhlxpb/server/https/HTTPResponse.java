@@ -63,6 +63,18 @@ public class HTTPResponse {
      */
     private int contentLength;
 
+    /**
+     * The content writer which pushes the content, if any, in place of
+     * {@code contentInputStream}. The content length is unknown if it is set.
+     */
+    private ContentWriter contentWriter;
+
+    /**
+     * The content of the whole selected representation, if it is seekable, which allows range
+     * requests to be served from it. See {@link ByteRanges}.
+     */
+    private SeekableContent seekableContent;
+
     /**
      * The trailer section of this message, as defined in <em>RFC 9110: HTTP Semantics Section
      * 6.5. Trailer Fields</em>, if any.
@@ -119,6 +131,37 @@ public class HTTPResponse {
         return contentLength;
     }
 
+    /**
+     * Sets the content writer which pushes the content when the message body is generated, in
+     * place of the content input stream. The content length is then regarded as unknown.
+     *
+     * @param contentWriter the content writer, or {@code null} to read the content from the
+     *                      content input stream
+     */
+    public void setContentWriter(ContentWriter contentWriter) {
+        this.contentWriter = contentWriter;
+    }
+
+    public Optional<ContentWriter> getContentWriter() {
+        return Optional.ofNullable(contentWriter);
+    }
+
+    /**
+     * Sets the seekable content, which allows range requests to be served, in addition to the
+     * content of the whole selected representation, which is sent if the request is not a range
+     * request.
+     *
+     * @param seekableContent the seekable content, or {@code null} if range requests are not
+     *                        allowed
+     */
+    public void setSeekableContent(SeekableContent seekableContent) {
+        this.seekableContent = seekableContent;
+    }
+
+    public Optional<SeekableContent> getSeekableContent() {
+        return Optional.ofNullable(seekableContent);
+    }
+
     public void setTrailerSection(Fields trailerSection) {
         this.trailerSection = trailerSection;
     }
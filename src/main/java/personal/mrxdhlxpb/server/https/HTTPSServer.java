@@ -38,8 +38,25 @@ public class HTTPSServer implements Runnable {
         this.configuration = Objects.requireNonNull(configuration);
     }
 
+    /**
+     * Deletes the stale files of the spool service, and runs the connector.
+     */
     @Override
     public void run() {
+        try {
+            // the default spool service may be used by another server in the same process
+            if (configuration.getSpoolService() != SpoolService.DEFAULT)
+                configuration.getSpoolService().deleteStaleFiles();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        switch (configuration.getNetworkConfiguration().getConnectorMode()) {
+            case BLOCKING -> runBlocking();
+            case NON_BLOCKING -> runNonBlocking();
+        }
+    }
+
+    private void runBlocking() {
         try (var executor = Executors.newVirtualThreadPerTaskExecutor();
              var serverSocket = createSSLServerSocket()) {
             while (true) executor.submit(new SSLSocketTask((SSLSocket) serverSocket.accept()));
@@ -48,7 +65,15 @@ public class HTTPSServer implements Runnable {
         }
     }
 
-    private SSLServerSocket createSSLServerSocket() throws Exception {
+    private void runNonBlocking() {
+        try {
+            new SSLEngineConnector(configuration, createSSLContext()).run();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private SSLContext createSSLContext() throws Exception {
         final char[] password = configuration.getNetworkConfiguration().getKeyStorePassword();
         SSLContext context = SSLContext.getInstance("TLSv1.3");// RFC 8446: TLS version 1.3
         KeyStore keyStore = KeyStore.getInstance(
@@ -58,7 +83,11 @@ public class HTTPSServer implements Runnable {
         keyManagerFactory.init(keyStore, password);
         KeyManager[] keyManagers = keyManagerFactory.getKeyManagers();
         context.init(keyManagers, null, null); // client authentication is not desired
-        return (SSLServerSocket) context
+        return context;
+    }
+
+    private SSLServerSocket createSSLServerSocket() throws Exception {
+        return (SSLServerSocket) createSSLContext()
                 .getServerSocketFactory()
                 .createServerSocket(
                         configuration.getNetworkConfiguration().getPort(),
@@ -80,11 +109,9 @@ public class HTTPSServer implements Runnable {
         @Override
         public void run() {
             try {
-                try {
+                try (socket; http1_1Processor) {
                     socket.startHandshake();
                     while (http1_1Processor.process()) {}
-                } finally {
-                    socket.close();
                 }
             } catch (Exception e) {
                 throw new RuntimeException(e);
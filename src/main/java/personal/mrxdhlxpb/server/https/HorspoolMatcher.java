@@ -0,0 +1,84 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * An object that searches byte arrays for a fixed pattern using the Boyer-Moore-Horspool
+ * algorithm.
+ * <p> The bad-character skip table is precomputed on construction, so that a window that does not
+ * end in a byte of the pattern is skipped at once by the length of the pattern, and the bytes
+ * searched are mostly not examined individually.
+ *
+ * @author mrxdhlxpb
+ */
+final class HorspoolMatcher {
+
+    private final byte[] pattern;
+
+    /**
+     * {@code skipTable[b]} is the distance to shift the window by when the last byte of the
+     * window is {@code b} (as an unsigned value)
+     */
+    private final int[] skipTable = new int[256];
+
+    /**
+     * @param pattern the pattern to be searched for, which is copied
+     * @throws IllegalArgumentException if {@code pattern} is empty
+     */
+    HorspoolMatcher(byte[] pattern) {
+        if (pattern.length == 0)
+            throw new IllegalArgumentException("empty pattern");
+        this.pattern = pattern.clone();
+        final int last = pattern.length - 1;
+        Arrays.fill(skipTable, pattern.length);
+        for (int i = 0; i < last; i++)
+            skipTable[pattern[i] & 0XFF] = last - i;
+    }
+
+    /**
+     * @return the length of the pattern
+     */
+    int length() { return pattern.length; }
+
+    /**
+     * Searches {@code bytes[from..to)} for the first occurrence of the pattern.
+     * <p> If the pattern does not occur, no occurrence of the pattern in a longer sequence of bytes
+     * beginning with {@code bytes[from..to)} can start before index {@code to - length() + 1}.
+     *
+     * @return the index at which the first occurrence starts, or {@code -1} if the pattern does
+     *         not occur
+     * @throws IndexOutOfBoundsException if {@code from} or {@code to} is out of range
+     */
+    int indexOf(byte[] bytes, int from, int to) {
+        Objects.checkFromToIndex(from, to, bytes.length);
+        final byte[] pattern = this.pattern;
+        final int[] skipTable = this.skipTable;
+        final int last = pattern.length - 1;
+        final byte lastByte = pattern[last];
+        for (int i = from; i <= to - pattern.length; ) {
+            final byte b = bytes[i + last];
+            if (b == lastByte && Arrays.equals(bytes, i, i + last, pattern, 0, last))
+                return i;
+            i += skipTable[b & 0XFF];
+        }
+        return -1;
+    }
+
+}
@@ -20,8 +20,10 @@ import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.SocketTimeoutException;
-import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.function.Supplier;
 
 /**
@@ -37,6 +39,28 @@ public class HttpRequestInputStream extends LimitedRecordingBufferedInputStream
 
     private static final byte SP = 0X20;
 
+    /**
+     * the size of the internal buffer leased from a buffer pool
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private BufferPool bufferPool = BufferPool.UNPOOLED;
+
+    private SpoolService spoolService = SpoolService.DEFAULT;
+
+    private MemoryBudget memoryBudget = MemoryBudget.UNLIMITED;
+
+    /**
+     * the number of bytes which may still be discarded by {@link #discard(long)}
+     */
+    private long discardLimit = Long.MAX_VALUE;
+
+    /**
+     * the internal buffer leased from {@code bufferPool}, released when this input stream is
+     * closed; {@code null} if the internal buffer has not been leased
+     */
+    private byte[] leasedBuffer;
+
     public HttpRequestInputStream(InputStream in) {
         super(in);
     }
@@ -57,6 +81,138 @@ public class HttpRequestInputStream extends LimitedRecordingBufferedInputStream
         super(in, recordingEnabled, size);
     }
 
+    /**
+     * Constructs an {@code HttpRequestInputStream} without recording capability, whose internal
+     * buffer is leased from {@code bufferPool} and released when this input stream is closed.
+     * {@code bufferPool} is also used by the methods of this class, and by the decoders reading
+     * from this input stream, to lease their buffers.
+     *
+     * @param in the underlying input stream
+     * @param bufferPool the buffer pool
+     */
+    public HttpRequestInputStream(InputStream in, BufferPool bufferPool) {
+        this(in, bufferPool.acquire(DEFAULT_BUFFER_SIZE));
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Works like {@link #HttpRequestInputStream(InputStream, BufferPool)}, except that
+     * {@code spoolService} is used by the decoders and parsers reading from this input stream to
+     * spool the data which does not fit in memory.
+     *
+     * @param in the underlying input stream
+     * @param bufferPool the buffer pool
+     * @param spoolService the spool service
+     */
+    public HttpRequestInputStream(InputStream in, BufferPool bufferPool, SpoolService spoolService) {
+        this(in, bufferPool);
+        this.spoolService = Objects.requireNonNull(spoolService);
+    }
+
+    /**
+     * Works like {@link #HttpRequestInputStream(InputStream, BufferPool, SpoolService)}, except
+     * that the memory buffers of the decoders and parsers reading from this input stream are
+     * reserved from {@code memoryBudget}.
+     *
+     * @param in the underlying input stream
+     * @param bufferPool the buffer pool
+     * @param spoolService the spool service
+     * @param memoryBudget the memory budget
+     */
+    public HttpRequestInputStream(InputStream in,
+                                  BufferPool bufferPool,
+                                  SpoolService spoolService,
+                                  MemoryBudget memoryBudget) {
+        this(in, bufferPool, spoolService);
+        this.memoryBudget = Objects.requireNonNull(memoryBudget);
+    }
+
+    private HttpRequestInputStream(InputStream in, byte[] leasedBuffer) {
+        super(in, false, leasedBuffer);
+        this.leasedBuffer = leasedBuffer;
+    }
+
+    /**
+     * @return the buffer pool from which buffers used in reading from this input stream are
+     *         leased, {@link BufferPool#UNPOOLED} unless specified on construction
+     */
+    public BufferPool getBufferPool() { return bufferPool; }
+
+    /**
+     * @return the spool service with which the data read from this input stream that does not fit
+     *         in memory is spooled, {@link SpoolService#DEFAULT} unless specified on construction
+     */
+    public SpoolService getSpoolService() { return spoolService; }
+
+    /**
+     * @return the memory budget from which the memory buffers used in reading bodies from this
+     *         input stream are reserved, {@link MemoryBudget#UNLIMITED} unless specified on
+     *         construction
+     */
+    public MemoryBudget getMemoryBudget() { return memoryBudget; }
+
+    /**
+     * Sets the number of bytes which may be discarded by {@link #discard(long)} from now on. The
+     * unread part of a request message body whose length is not known in advance is discarded
+     * with {@code discard}, so that a client cannot keep the connection busy for as long as it
+     * keeps sending the body.
+     *
+     * @param discardLimit the number of bytes, {@code 0} if the connection will not persist, in
+     *                     which case nothing is to be discarded
+     */
+    public void setDiscardLimit(long discardLimit) { this.discardLimit = discardLimit; }
+
+    /**
+     * @return the number of bytes which may still be discarded, {@code Long.MAX_VALUE} unless set
+     */
+    public long getDiscardLimit() { return discardLimit; }
+
+    /**
+     * Skips over and discards {@code n} bytes, or fewer if end of stream is detected first. This
+     * method blocks until the bytes have been discarded.
+     *
+     * @param n the number of bytes to be discarded
+     * @return the number of bytes discarded
+     * @throws IOException if an I/O error occurs, or {@code n} exceeds the discard limit
+     */
+    public long discard(long n) throws IOException {
+        if (n > discardLimit) {
+            discardLimit = 0;
+            throw new IOException("discard limit exceeded");
+        }
+        long discarded = 0;
+        while (discarded < n) {
+            long skipped = skip(n - discarded);
+            if (skipped <= 0) {
+                if (read() == -1)
+                    break;
+                skipped = 1;
+            }
+            discarded += skipped;
+        }
+        discardLimit -= discarded;
+        return discarded;
+    }
+
+    /**
+     * Closes this input stream and the underlying input stream, and releases the internal buffer
+     * if it has been leased from a buffer pool.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (leasedBuffer != null) {
+                final byte[] buffer = leasedBuffer;
+                leasedBuffer = null;
+                bufferPool.release(buffer);
+            }
+        }
+    }
+
     /**
      * <p> Keeps reading into the given byte array from the input stream until <em>CRLF</em> is met,
      * end of stream is detected or an exception is thrown (a {@code read()} call throws an
@@ -81,66 +237,245 @@ public class HttpRequestInputStream extends LimitedRecordingBufferedInputStream
      */
     public <X extends Throwable> int readLine(byte[] bytes, Supplier<? extends X> exceptionSupplier)
             throws IOException, X {
-        int num = 0;
-        int latestCRNum = -5; // value of 'num' when the latest CR was detected
+        return readLine(bytes, 0, bytes.length, exceptionSupplier);
+    }
+
+
+    /**
+     * Works like {@link #readLine(byte[], Supplier)}, except that the k-th byte read is stored
+     * into element {@code bytes[offset+k-1]}, and at most {@code length} elements are affected.
+     *
+     * @throws IndexOutOfBoundsException if {@code offset} or {@code length} is out of range
+     * @see #readLine(byte[], Supplier)
+     */
+    public <X extends Throwable> int readLine(byte[] bytes,
+                                              int offset,
+                                              int length,
+                                              Supplier<? extends X> exceptionSupplier)
+            throws IOException, X {
+        Objects.checkFromIndexSize(offset, length, bytes.length);
+
+        // The internal buffer is scanned in place. Runs of bytes other than CR and LF are copied
+        // at once, and the bytes scanned are accounted for once per buffer. read() is called only
+        // at buffer boundaries (or when the limit is reached), to refill the buffer.
+
         int affected = 0;
+        boolean pendingCR = false; // whether the previous byte is a CR not yet stored
         while (true) {
-            int data = read();
-            num++;
-            // 'num' equals to number of bytes read,
-            // or number of bytes read + 1 if data == -1
-            if (data == -1) {
-                // end of stream detected
-                // if previous byte is CR
-                // bytes[num - 2] = SP
-                if (latestCRNum == num - 1) {
-                    affected++;
-                    bytes[latestCRNum - 1] = SP;
+            int from = pos; // the bytes in buf[from..i) have been scanned but not consumed
+            int i = pos;
+            if (pos >= count || remainingLimit() == 0) {
+                if (read() == -1) {
+                    // end of stream detected
+                    if (pendingCR) {
+                        if (affected == length)
+                            throw exceptionSupplier.get();
+                        bytes[offset + affected++] = SP;
+                    }
+                    return affected;
                 }
-                return affected;
-            } else if (data == CR) {
-                // CR detected
-                // let latestCRNum = num
-                latestCRNum = num;
-                // do not affect 'bytes'
-                // if number of bytes read > bytes.length:
-                // number of bytes read == bytes.length + 1,
-                // let latestCRNum = num, do not affect 'bytes'
-                // number of bytes read == bytes.length + 2, throw exceptionSupplier.get()
-                // number of bytes read > bytes.length + 2, impossible
-                if (num == bytes.length + 2) {
-                    throw exceptionSupplier.get();
+                // the byte at buf[pos - 1] has been consumed by read()
+                from = pos;
+                i = pos - 1;
+            }
+
+            final byte[] buf = this.buf;
+            final int end = pos + (int) Math.min(count - pos, remainingLimit());
+            while (i < end) {
+                final byte b = buf[i];
+                if (pendingCR) {
+                    if (b == LF) {
+                        consume(from, i + 1);
+                        return affected;
+                    }
+                    // bare CR
+                    if (affected == length) {
+                        consume(from, i + 1);
+                        throw exceptionSupplier.get();
+                    }
+                    bytes[offset + affected++] = SP;
+                    pendingCR = false;
                 }
-            } else if (data == LF) {
-                // LF detected
-                // if number of bytes read > bytes.length && previous byte is not CR,
-                // then throw exceptionSupplier.get()
-                // if previous byte is CR, return; or bytes[num - 1] = LF
-                if (latestCRNum == num - 1) {
-                    return affected;
+                if (b == CR) {
+                    pendingCR = true;
+                    i++;
+                } else if (b == LF) {
+                    // bare LF
+                    if (affected == length) {
+                        consume(from, i + 1);
+                        throw exceptionSupplier.get();
+                    }
+                    bytes[offset + affected++] = LF;
+                    i++;
                 } else {
-                    if (num > bytes.length)
+                    int j = i + 1;
+                    while (j < end && buf[j] != CR && buf[j] != LF)
+                        j++;
+                    if (j - i > length - affected) {
+                        consume(from, i + length - affected + 1);
                         throw exceptionSupplier.get();
-                    affected++;
-                    bytes[num - 1] = LF;
-                }
-            } else {
-                // normal data
-                // if number of bytes read > bytes.length, throw exceptionSupplier.get();
-                // bytes[num - 1] = (byte) data;
-                // if previous byte is CR, bytes[num - 2] = SP;
-                if (num > bytes.length)
-                    throw exceptionSupplier.get();
-                affected++;
-                bytes[num - 1] = (byte) data;
-                if (latestCRNum == num - 1) {
-                    affected++;
-                    bytes[num - 2] = SP;
+                    }
+                    System.arraycopy(buf, i, bytes, offset + affected, j - i);
+                    affected += j - i;
+                    i = j;
                 }
             }
+            consume(from, i);
+        }
+    }
+
+    /**
+     * Consumes {@code buf[from..to)}, where {@code from} equals {@code pos}.
+     */
+    private void consume(int from, int to) throws IOException {
+        if (to > from)
+            consumeBuffered(to - from);
+    }
+
+    /**
+     * returned by {@link #readUntil(HorspoolMatcher, byte[], int, int)} if the delimiter is met
+     */
+    static final int DELIMITER_MET = -1;
+
+    /**
+     * returned by {@link #readUntil(HorspoolMatcher, byte[], int, int)} if end of stream is
+     * detected
+     */
+    static final int END_OF_STREAM = -2;
+
+    /**
+     * <p> Keeps reading from the input stream and writing the bytes read to {@code sink} until the
+     * pattern of {@code delimiterMatcher} is met or end of stream is detected. The delimiter is
+     * consumed but not written to {@code sink}. This method blocks if input data is not yet
+     * available.
+     * <p> The internal buffer is searched in place, and the bytes preceding the delimiter are
+     * written to {@code sink} in runs, at most one {@code write} call per buffer. Unconsumed bytes
+     * may be moved to the start of the internal buffer, which invalidates the mark.
+     *
+     * @param delimiterMatcher the matcher of the delimiter
+     * @param sink the output stream to which the bytes preceding the delimiter are written
+     * @return {@code true} if the delimiter is met, or {@code false} if end of stream is detected
+     * @throws IOException if an I/O error occurs, or {@code sink} throws an {@code IOException}
+     */
+    boolean transferUntil(HorspoolMatcher delimiterMatcher, OutputStream sink) throws IOException {
+        while (true) {
+            final int run = nextRun(delimiterMatcher, Integer.MAX_VALUE);
+            if (run == DELIMITER_MET)
+                return true;
+            if (run == END_OF_STREAM)
+                return false;
+            sink.write(buf, pos, run);
+            consumeBuffered(run);
         }
     }
 
+    /**
+     * Works like {@link #transferUntil(HorspoolMatcher, OutputStream)}, except that at most
+     * {@code length} bytes preceding the delimiter are read into {@code bytes}, starting at
+     * element {@code bytes[offset]}, by each call.
+     *
+     * @return the number of bytes read, which is positive unless {@code length} is zero;
+     *         {@link #DELIMITER_MET} if no bytes precede the delimiter, in which case the delimiter
+     *         is consumed; or {@link #END_OF_STREAM} if end of stream is detected
+     * @throws IndexOutOfBoundsException if {@code offset} or {@code length} is out of range
+     * @throws IOException if an I/O error occurs
+     */
+    int readUntil(HorspoolMatcher delimiterMatcher, byte[] bytes, int offset, int length)
+            throws IOException {
+        Objects.checkFromIndexSize(offset, length, bytes.length);
+        if (length == 0)
+            return 0;
+        final int run = nextRun(delimiterMatcher, length);
+        if (run > 0) {
+            System.arraycopy(buf, pos, bytes, offset, run);
+            consumeBuffered(run);
+        }
+        return run;
+    }
+
+    /**
+     * Searches the internal buffer, reading more bytes into it as needed, for the run of bytes at
+     * {@code buf[pos]} that cannot be part of a delimiter.
+     *
+     * @return the length of the run, at most {@code maximumLength}, leaving the run unconsumed;
+     *         {@link #DELIMITER_MET} if the delimiter is at {@code buf[pos]}, in which case the
+     *         delimiter is consumed; or {@link #END_OF_STREAM} if no bytes remain
+     */
+    private int nextRun(HorspoolMatcher delimiterMatcher, int maximumLength) throws IOException {
+        final int m = delimiterMatcher.length();
+        ensureCapacity(m);
+        while (true) {
+            final int available = count - pos;
+            final long limit = remainingLimit();
+            if (available < m && limit > available) {
+                // a delimiter may be split across reads
+                if (fillMore())
+                    continue;
+                // end of stream detected
+                return available == 0 ? END_OF_STREAM : Math.min(available, maximumLength);
+            }
+            final int end = pos + (int) Math.min(available, limit);
+            final int index = delimiterMatcher.indexOf(buf, pos, end);
+            if (index == pos) {
+                consumeBuffered(m);
+                return DELIMITER_MET;
+            }
+            if (index > pos)
+                return Math.min(index - pos, maximumLength);
+            if (end - pos < m) {
+                // the limit is reached
+                if (end == pos)
+                    throw new TryToReadOutOfLimitException();
+                return Math.min(end - pos, maximumLength);
+            }
+            // the bytes from end - m + 1 on may begin a delimiter
+            return Math.min(end - m + 1 - pos, maximumLength);
+        }
+    }
+
+    /**
+     * Makes the internal buffer hold at least {@code capacity} bytes, replacing it with one leased
+     * from {@code bufferPool} if it is smaller.
+     */
+    private void ensureCapacity(int capacity) {
+        if (buf.length >= capacity)
+            return;
+        final byte[] buffer = bufferPool.acquire(capacity);
+        System.arraycopy(buf, pos, buffer, 0, count - pos);
+        count -= pos;
+        pos = 0;
+        markpos = -1;
+        if (leasedBuffer != null)
+            bufferPool.release(leasedBuffer);
+        leasedBuffer = buf = buffer;
+    }
+
+    /**
+     * Moves the unconsumed bytes to the start of the internal buffer, and reads more bytes from
+     * the underlying input stream into the rest of it. Invalidates the mark.
+     *
+     * @return {@code false} if end of stream is detected
+     */
+    private boolean fillMore() throws IOException {
+        final InputStream in = this.in;
+        if (in == null)
+            throw new IOException("Stream closed");
+        markpos = -1;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, count - pos);
+            count -= pos;
+            pos = 0;
+        }
+        int n;
+        do {
+            n = in.read(buf, count, buf.length - count);
+        } while (n == 0);
+        if (n < 0)
+            return false;
+        count += n;
+        return true;
+    }
+
 
     /**
      * <p> Keeps reading into the given byte array from the input stream until <em>CRLF</em> is met,
@@ -168,37 +503,74 @@ public class HttpRequestInputStream extends LimitedRecordingBufferedInputStream
 
 
     /**
-     * Reads the next line (separated by CRLF) from the input stream,
-     * maximum length of which is limited.
-     * @param maximumFieldLineLength maximum length limit
-     * @return the string of the next line, decoded using US-ASCII
-     * @throws IOException if an I/O error occurs
-     * @throws BadRequestException if the length of the next line exceeds the limit
+     * reads {@code *( field-line CRLF ) CRLF}
+     * @return fields
+     * @throws IOException if an i/o error occurs
+     * @throws BadRequestException if length of a field line exceeds limit, or
+     *                             length of the header or trailer section exceeds limit
      */
-    private String readFieldLine(int maximumFieldLineLength)
+    public Fields readFields(int maximumFieldLineLength, int maximumSectionLength)
             throws IOException, BadRequestException {
-        final byte[] b = new byte[maximumFieldLineLength];
-        return new String(
-                b,
-                0,
-                readLine(b, () -> new BadRequestException("length of field line exceeds limit")),
-                StandardCharsets.US_ASCII
-        );
+        enableLimit(maximumSectionLength + 2);
+        try {
+            final Fields fields = new Fields();
+            // one buffer per section; each field line is copied out of it by appendFieldLine
+            final byte[] b = bufferPool.acquire(maximumFieldLineLength);
+            try {
+                int length;
+                while ((length = readLine(b, 0, maximumFieldLineLength, () ->
+                        new BadRequestException("length of field line exceeds limit"))) != 0)
+                    fields.appendFieldLine(b, 0, length);
+            } finally {
+                bufferPool.release(b);
+            }
+            return fields;
+        } catch (TryToReadOutOfLimitException e) {
+            throw new BadRequestException("length of header section exceeds limit");
+        } finally {
+            disableLimit();
+        }
     }
 
 
     /**
-     * reads {@code *( field-line CRLF ) CRLF}
-     * @return fields
+     * reads {@code *( field-line CRLF ) CRLF} into {@code sectionBuffer}, and appends each field
+     * line lazily.
+     * <p> The field lines are stored one after another from the beginning of
+     * {@code sectionBuffer}, without <em>CRLF</em>.
+     * @param sectionBuffer the byte array holding the section, which must not be modified while
+     *                      the fields returned refer to it
+     * @return fields, which refer to {@code sectionBuffer}
      * @throws IOException if an i/o error occurs
      * @throws BadRequestException if length of a field line exceeds limit, or
      *                             length of the header or trailer section exceeds limit
+     * @throws IllegalArgumentException if {@code sectionBuffer} is shorter than
+     *                                  {@code maximumSectionLength}
+     * @see Fields#detach()
      */
-    public Fields readFields(int maximumFieldLineLength, int maximumSectionLength)
+    public Fields readFieldsLazily(byte[] sectionBuffer,
+                                   int maximumFieldLineLength,
+                                   int maximumSectionLength)
             throws IOException, BadRequestException {
+        if (sectionBuffer.length < maximumSectionLength)
+            throw new IllegalArgumentException();
         enableLimit(maximumSectionLength + 2);
         try {
-            return new Fields(() -> readFieldLine(maximumFieldLineLength), String::isEmpty);
+            final Fields fields = new Fields();
+            int position = 0;
+            while (true) {
+                final int maximumLength = Math.min(maximumFieldLineLength,
+                        maximumSectionLength - position);
+                final boolean limitedBySection = maximumLength < maximumFieldLineLength;
+                final int length = readLine(sectionBuffer, position, maximumLength, () ->
+                        new BadRequestException(limitedBySection ?
+                                "length of header section exceeds limit" :
+                                "length of field line exceeds limit"));
+                if (length == 0)
+                    return fields;
+                fields.appendFieldLineLazily(sectionBuffer, position, length);
+                position += length;
+            }
         } catch (TryToReadOutOfLimitException e) {
             throw new BadRequestException("length of header section exceeds limit");
         } finally {
@@ -218,6 +590,26 @@ public class HttpRequestInputStream extends LimitedRecordingBufferedInputStream
     }
 
 
+    /**
+     * Removes the bytes which have been read from the underlying input stream into the internal
+     * buffer, but have not been read from this input stream yet, and returns them. Any mark is
+     * discarded.
+     * <p> This method is used to hand the unread bytes over to another reader of the underlying
+     * input stream when this input stream is about to be discarded.
+     *
+     * @return the unread bytes in the internal buffer, or an empty array if this input stream has
+     *         been closed
+     */
+    public byte[] takeBufferedBytes() {
+        if (buf == null)
+            return new byte[0];
+        final byte[] bytes = Arrays.copyOfRange(buf, pos, count);
+        pos = count;
+        markpos = -1;
+        return bytes;
+    }
+
+
     /**
      * @see HttpRequestInputStream#readLine(byte[])
      */
@@ -18,11 +18,9 @@ package personal.mrxdhlxpb.server.https;
 
 import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -80,6 +78,8 @@ public class HttpsURI {
 
     public static final Pattern PCT_ENCODED_PATTERN = Pattern.compile(PCT_ENCODED_REGEX);
 
+    private static final String SCHEME_PREFIX = "https://";
+
     private final String host;
 
     private final String port;
@@ -115,13 +115,42 @@ public class HttpsURI {
      *                             should reject it.
      */
     public static Optional<HttpsURI> fromString(String str) throws BadRequestException {
-        Matcher httpsURIMatcher = HTTPS_URI_PATTERN.matcher(str);
-        if (!httpsURIMatcher.matches())
+        //https-URI = "https://" host [ ":" port ] path-abempty [ "?" query ]
+
+        // the scheme is case-insensitive
+        if (str.length() < SCHEME_PREFIX.length())
+            return Optional.empty();
+        for (int i = 0; i < SCHEME_PREFIX.length(); i++) {
+            char c = str.charAt(i);
+            if (c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+            if (c != SCHEME_PREFIX.charAt(i))
+                return Optional.empty();
+        }
+
+        final int hostEnd = scanHost(str, SCHEME_PREFIX.length());
+        if (hostEnd == -1)
+            return Optional.empty();
+        final String uriHost = str.substring(SCHEME_PREFIX.length(), hostEnd); // might be empty
+
+        String port = null;
+        int pathStart = hostEnd;
+        if (hostEnd < str.length() && str.charAt(hostEnd) == ':') {
+            pathStart = scan(str, hostEnd + 1, DIGIT, false);
+            port = str.substring(hostEnd + 1, pathStart);
+        }
+
+        final int pathEnd = scanPathAbempty(str, pathStart);
+        if (pathEnd == -1)
             return Optional.empty();
-        String uriHost = httpsURIMatcher.group("URIHOST"); // never null, might be empty
-        String port = httpsURIMatcher.group("PORT"); // nullable
-        String path = httpsURIMatcher.group("PATHABEMPTY"); //  begins with "/" or is empty
-        String query = httpsURIMatcher.group("QUERY"); // nullable
+        final String path = str.substring(pathStart, pathEnd); //  begins with "/" or is empty
+
+        final String query;
+        try {
+            query = scanQueryOptionalToEnd(str, pathEnd);
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
         return Optional.of(new HttpsURI(uriHost, port, path, query));
     }
 
@@ -171,61 +200,232 @@ public class HttpsURI {
         return port == null ? "443" : port;
     }
 
-    private static final Map<String, String> PERCENT_ENCODING_NORMALIZATION_MAP = new HashMap<>();
+    // character classes, as bit flags indexed by US-ASCII characters
 
-    private static int[] range(int min, int max) {
-        int[] ints = new int[max - min + 1];
-        for (int i = 0; i < ints.length; i++)
-            ints[i] = min + i;
-        return ints;
-    }
+    // unreserved    = ALPHA / DIGIT / "-" / "." / "_" / "~"
+    private static final int UNRESERVED = 1;
+
+    // UNRESERVED_OR_SUB_DELIMS_REGEX
+    private static final int UNRESERVED_OR_SUB_DELIMS = 1 << 1;
+
+    // PCHAR_REGEX, excluding pct-encoded
+    private static final int PCHAR = 1 << 2;
+
+    // QUERY_REGEX, excluding pct-encoded
+    private static final int QUERY = 1 << 3;
 
-    private static void put(int i) {
-        PERCENT_ENCODING_NORMALIZATION_MAP.put(String.format("%%%X", i), String.valueOf((char) i));
+    // IP_LITERAL_REGEX, excluding "[" and "]"
+    private static final int IP_LITERAL = 1 << 4;
+
+    private static final int DIGIT = 1 << 5;
+
+    private static final int HEXDIG = 1 << 6;
+
+    private static final byte[] CHARACTER_CLASSES = new byte[128];
+
+    private static void addToCharacterClass(int characterClass, String characters) {
+        for (int i = 0; i < characters.length(); i++)
+            CHARACTER_CLASSES[characters.charAt(i)] |= (byte) characterClass;
     }
 
     static {
-        // ALPHA (%41-%5A and %61-%7A),
-        // DIGIT (%30-%39),
-        // hyphen (%2D),
-        // period (%2E),
-        // underscore (%5F),
-        // tilde (%7E)
-        for (int i : range(0x41, 0x5a))
-            put(i);
-        for (int i : range(0x61, 0x7a))
-            put(i);
-        for (int i : range(0x30, 0x39))
-            put(i);
-        put(0x2d);
-        put(0x2e);
-        put(0x5f);
-        put(0x7e);
+        final String alpha = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+        final String digit = "0123456789";
+        final String unreserved = alpha + digit + "-._~";
+        final String subDelims = "!$&'()*+,;=";
+
+        addToCharacterClass(UNRESERVED, unreserved);
+        addToCharacterClass(UNRESERVED_OR_SUB_DELIMS, unreserved + subDelims);
+        addToCharacterClass(PCHAR, unreserved + subDelims + ":@");
+        addToCharacterClass(QUERY, unreserved + subDelims + ":@/?");
+        addToCharacterClass(IP_LITERAL, unreserved + subDelims + ":");
+        addToCharacterClass(DIGIT, digit);
+        addToCharacterClass(HEXDIG, digit + "ABCDEFabcdef");
+    }
+
+    private static boolean isInCharacterClass(char c, int characterClass) {
+        return c < 128 && (CHARACTER_CLASSES[c] & characterClass) != 0;
+    }
+
+    /**
+     * Scans {@code str} from {@code from} as long as the characters belong to
+     * {@code characterClass}, or, if {@code pctEncodedAllowed}, are part of a pct-encoded triplet.
+     *
+     * @return the index of the first character not scanned, or {@code -1} if a "%" is met which
+     *         is not the beginning of a pct-encoded triplet while {@code pctEncodedAllowed}
+     */
+    private static int scan(String str, int from, int characterClass, boolean pctEncodedAllowed) {
+        final int length = str.length();
+        int i = from;
+        while (i < length) {
+            final char c = str.charAt(i);
+            if (c == '%' && pctEncodedAllowed) {
+                if (i + 2 >= length
+                        || !isInCharacterClass(str.charAt(i + 1), HEXDIG)
+                        || !isInCharacterClass(str.charAt(i + 2), HEXDIG))
+                    return -1;
+                i += 3;
+            } else if (isInCharacterClass(c, characterClass)) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Scans a host, which is either an IP-literal or a reg-name, from {@code from}.
+     *
+     * @return the index of the first character after the host, or {@code -1} if the host is
+     *         invalid
+     */
+    private static int scanHost(String str, int from) {
+        if (from < str.length() && str.charAt(from) == '[') {
+            final int end = scan(str, from + 1, IP_LITERAL, false);
+            return end < str.length() && str.charAt(end) == ']' ? end + 1 : -1;
+        }
+        return scan(str, from, UNRESERVED_OR_SUB_DELIMS, true);
+    }
+
+    /**
+     * Scans a path-abempty from {@code from}.
+     *
+     * @return the index of the first character after the path, or {@code -1} if the path is
+     *         invalid
+     */
+    private static int scanPathAbempty(String str, int from) {
+        int i = from;
+        while (i < str.length() && str.charAt(i) == '/')
+            if ((i = scan(str, i + 1, PCHAR, true)) == -1)
+                return -1;
+        return i;
+    }
+
+    /**
+     * Scans an optional query component, including the leading "?", from {@code from}, which must
+     * be the end of {@code str} if there is no query component.
+     *
+     * @return the query component, or {@code null} if there is no query component
+     * @throws IllegalArgumentException if the rest of {@code str} is not a query component
+     */
+    private static String scanQueryOptionalToEnd(String str, int from) {
+        if (from == str.length())
+            return null;
+        if (str.charAt(from) != '?' || scan(str, from + 1, QUERY, true) != str.length())
+            throw new IllegalArgumentException();
+        return str.substring(from + 1);
+    }
+
+    /**
+     * Tries to reconstruct an https URI from the authority component and a request target in
+     * origin-form, i.e. {@code absolute-path [ "?" query ]}.
+     *
+     * @param host the host component
+     * @param port the port component, nullable
+     * @param requestTarget the request target
+     * @return an {@code Optional} describing the result, or an empty {@code Optional} if the
+     *         request target is not in origin-form
+     * @throws BadRequestException if {@code host} is empty
+     */
+    static Optional<HttpsURI> fromOriginForm(String host, String port, String requestTarget)
+            throws BadRequestException {
+        // absolute-path = 1*( "/" segment )
+        if (requestTarget.isEmpty() || requestTarget.charAt(0) != '/')
+            return Optional.empty();
+        final int pathEnd = scanPathAbempty(requestTarget, 0);
+        if (pathEnd == -1)
+            return Optional.empty();
+        final String query;
+        try {
+            query = scanQueryOptionalToEnd(requestTarget, pathEnd);
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        return Optional.of(new HttpsURI(host, port, requestTarget.substring(0, pathEnd), query));
     }
 
     /**
-     * Performs percent-encoding normalization on the given string.
+     * Splits the field value of a Host header field, i.e. {@code uri-host [ ":" port ]}.
+     *
+     * @param hostFieldValue the field value
+     * @return {@code {uri-host, port}}, where {@code port} is {@code null} if absent, or
+     *         {@code null} if the field value is invalid
+     */
+    static String[] splitHost(String hostFieldValue) {
+        final int hostEnd = scanHost(hostFieldValue, 0);
+        if (hostEnd == -1)
+            return null;
+        if (hostEnd == hostFieldValue.length())
+            return new String[]{hostFieldValue, null};
+        if (hostFieldValue.charAt(hostEnd) != ':'
+                || scan(hostFieldValue, hostEnd + 1, DIGIT, false) != hostFieldValue.length())
+            return null;
+        return new String[]{
+                hostFieldValue.substring(0, hostEnd),
+                hostFieldValue.substring(hostEnd + 1)
+        };
+    }
+
+    /**
+     * Performs percent-encoding normalization on the given string, as described in
+     * <em>RFC 3986: Uniform Resource Identifier (URI): Generic Syntax Section 6.2.2.1. Case
+     * Normalization & 6.2.2.2. Percent-Encoding Normalization</em>: a pct-encoded triplet is
+     * decoded if it corresponds to an unreserved character, otherwise its hexadecimal digits are
+     * uppercased.
      * @param str the given string
-     * @return normalized string
+     * @return normalized string, which is {@code str} itself if nothing needs to be changed
      */
     static String percentEncodingNormalization(String str) {
-        return PCT_ENCODED_PATTERN
-                .matcher(str)
-                .replaceAll(matchResult ->
-                        PERCENT_ENCODING_NORMALIZATION_MAP
-                                .getOrDefault(matchResult.group(), matchResult.group()));
+        int index = str.indexOf('%');
+        if (index == -1)
+            return str;
+
+        final StringBuilder builder = new StringBuilder(str.length());
+        // the index of the first character not appended to builder yet
+        int start = 0;
+        for (; index != -1; index = str.indexOf('%', index + 1)) {
+            if (index + 2 >= str.length()
+                    || !isInCharacterClass(str.charAt(index + 1), HEXDIG)
+                    || !isInCharacterClass(str.charAt(index + 2), HEXDIG))
+                continue;
+            final char high = str.charAt(index + 1);
+            final char low = str.charAt(index + 2);
+            final char decoded = (char) Integer.parseInt(str, index + 1, index + 3, 16);
+            if (isInCharacterClass(decoded, UNRESERVED)) {
+                builder.append(str, start, index).append(decoded);
+                start = index + 3;
+            } else if (Character.isLowerCase(high) || Character.isLowerCase(low)) {
+                builder.append(str, start, index)
+                        .append('%')
+                        .append(Character.toUpperCase(high))
+                        .append(Character.toUpperCase(low));
+                start = index + 3;
+            }
+            index += 2;
+        }
+        if (start == 0)
+            return str;
+        return builder.append(str, start, str.length()).toString();
     }
 
     /**
-     * Normalizes the hexadecimal digits within all percent-encoding triplets in {@code str}
-     * to use uppercase letters for the digits A-F.
-     * @param str the string to be normalized
-     * @return normalized string
+     * @return whether {@code path} has a complete segment that is "." or ".."
      */
-    static String percentEncodingTripletCaseNormalization(String str) {
-        return PCT_ENCODED_PATTERN
-                .matcher(str)
-                .replaceAll(matchResult -> matchResult.group().toUpperCase());
+    static boolean hasDotSegment(String path) {
+        int start = 0;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end == -1)
+                end = path.length();
+            final int segmentLength = end - start;
+            if (segmentLength == 1 && path.charAt(start) == '.'
+                    || segmentLength == 2 && path.charAt(start) == '.'
+                    && path.charAt(start + 1) == '.')
+                return true;
+            start = end + 1;
+        }
+        return false;
     }
 
     /**
@@ -282,21 +482,16 @@ public class HttpsURI {
      * @return normalized https-URI
      */
     static HttpsURI normalize(HttpsURI httpsURI) {
+        // Each step below returns its argument itself if it has nothing to change, so that an
+        // already normalized https URI, which is the usual case, is returned as is.
+
         //syntax-based normalization
-        String host = percentEncodingNormalization(percentEncodingTripletCaseNormalization(httpsURI.
-                host.toLowerCase()));
-        String port = Optional
-                .ofNullable(httpsURI.port)
-                .map(HttpsURI::percentEncodingTripletCaseNormalization)
-                .map(HttpsURI::percentEncodingNormalization)
-                .orElse(null);
-        String path = removeDotSegments(percentEncodingNormalization(
-                percentEncodingTripletCaseNormalization(httpsURI.path)));
-        String query = Optional
-                .ofNullable(httpsURI.query)
-                .map(HttpsURI::percentEncodingTripletCaseNormalization)
-                .map(HttpsURI::percentEncodingNormalization)
-                .orElse(null);
+        String host = percentEncodingNormalization(httpsURI.host.toLowerCase(Locale.ROOT));
+        String port = httpsURI.port == null ? null : percentEncodingNormalization(httpsURI.port);
+        String path = percentEncodingNormalization(httpsURI.path);
+        if (hasDotSegment(path))
+            path = removeDotSegments(path);
+        String query = httpsURI.query == null ? null : percentEncodingNormalization(httpsURI.query);
         // Scheme-Based Normalization
         // 1. empty path should be normalized to "/"
         if (path.isEmpty())
@@ -306,6 +501,9 @@ public class HttpsURI {
         // and thus should be removed by scheme-based normalization.
         if (port != null && (port.isEmpty() || port.equals("443")))
             port = null;
+        if (host == httpsURI.host && port == httpsURI.port && path == httpsURI.path
+                && query == httpsURI.query)
+            return httpsURI;
         try {
             return new HttpsURI(host, port, path, query);
         } catch (BadRequestException e) {
@@ -16,6 +16,11 @@
  */
 package personal.mrxdhlxpb.server.https;
 
+import personal.mrxdhlxpb.server.https.error.HttpErrorException;
+
+import java.util.Map;
+import java.util.Optional;
+
 /**
  * @author mrxdhlxpb
  */
@@ -25,6 +30,63 @@ public interface InternalResource {
 
     HTTPRequestHandler getHTTPRequestHandler();
 
+    /**
+     * Returns the request handler which is called by {@link HTTP1_1ResponseGenerator}. An
+     * internal resource whose responses are completed asynchronously overrides this method; its
+     * {@link #getHTTPRequestHandler()} may then wait for the returned stage to complete.
+     *
+     * @return by default, the blocking request handler adapted by
+     *         {@link AsyncHTTPRequestHandler#of(HTTPRequestHandler)}
+     */
+    default AsyncHTTPRequestHandler getAsyncHTTPRequestHandler() {
+        return AsyncHTTPRequestHandler.of(getHTTPRequestHandler());
+    }
+
     HTTP1_1ResponseMessageBodyGenerator getHTTP1_1ResponseMessageBodyGenerator();
 
+    /**
+     * Returns the parameters captured from the path of the target URI when the internal resource
+     * was looked up, such as those captured by {@link RadixTreeInternalResourceMapper}.
+     *
+     * @return an unmodifiable map from parameter names to the captured path segments, which is
+     *         empty by default
+     */
+    default Map<String, String> getPathParameters() { return Map.of(); }
+
+    /**
+     * Returns the policy which determines whether the content of a response of this internal
+     * resource is compressed by the {@link ResponseCompressor} of the server.
+     *
+     * @return the compression policy, {@link CompressionPolicy#DISABLED} by default
+     */
+    default CompressionPolicy getCompressionPolicy() { return CompressionPolicy.DISABLED; }
+
+    /**
+     * Returns whether the responses to GET requests for this internal resource may be stored in
+     * the {@link ResponseCache} of the server, which stores them according to their Cache-Control
+     * header field.
+     *
+     * @return {@code false} by default
+     */
+    default boolean isResponseCacheable() { return false; }
+
+    /**
+     * Returns the validators of the representation which would be selected for the request. They
+     * are obtained before the request handler is called, so that a conditional request is
+     * answered with 304 (Not Modified) or 412 (Precondition Failed) by {@link Preconditions}
+     * without producing the content or reading the request content. They are also set as the
+     * ETag and Last-Modified header fields of a 200 (OK) response to GET or HEAD, unless the
+     * request handler has set them. They should therefore be cheap to obtain.
+     *
+     * @param httpRequest the request
+     * @return the validators, or an empty optional, by default, if conditional requests are not
+     *         evaluated
+     * @throws HttpErrorException if the request cannot be handled, as the request handler would
+     *                            throw it
+     */
+    default Optional<Validators> getValidators(HTTPRequest httpRequest)
+            throws HttpErrorException {
+        return Optional.empty();
+    }
+
 }
@@ -48,6 +48,12 @@ public class LimitedRecordingBufferedInputStream extends RecordingBufferedInputS
         super(in, recordingEnabled, size);
     }
 
+    protected LimitedRecordingBufferedInputStream(InputStream in,
+                                                  boolean recordingEnabled,
+                                                  byte[] buffer) {
+        super(in, recordingEnabled, buffer);
+    }
+
     public void enableLimit(long limit) {
         if (limit < 0)
             throw new IllegalArgumentException("negative limit");
@@ -63,6 +69,24 @@ public class LimitedRecordingBufferedInputStream extends RecordingBufferedInputS
         this.limitEnabled = false;
     }
 
+    /**
+     * @return the number of bytes which may be read before the limit is reached, or
+     *         {@code Long.MAX_VALUE} if the limit is not enabled
+     */
+    protected long remainingLimit() {
+        return limitEnabled ? limit : Long.MAX_VALUE;
+    }
+
+    @Override
+    protected void consumeBuffered(int n) throws IOException {
+        if (limitEnabled) {
+            if (n > limit)
+                throw new TryToReadOutOfLimitException();
+            limit -= n;
+        }
+        super.consumeBuffered(n);
+    }
+
     @Override
     public int read() throws IOException {
         if (limitEnabled) {
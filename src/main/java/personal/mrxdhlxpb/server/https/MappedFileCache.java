@@ -0,0 +1,474 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A least-recently-used cache of memory-mapped regular files, bounded by the total size of the
+ * files mapped.
+ * <p> A file is opened and mapped once when it is first looked up, and served from the mapping by
+ * every lookup afterward, without opening the file or copying it to the heap. A file larger than
+ * {@code maximumFileSize} is not mapped, and neither is a file which would not fit in
+ * {@code capacity} on its own. The absence of a file is cached as well, so that looking up a
+ * missing file, such as a precompressed variant which has not been generated, does not touch the
+ * file system either. The number of entries is bounded by {@code maximumEntryCount}.
+ * <p> The parent directory of every file looked up is registered with a {@link WatchService}. A
+ * daemon thread invalidates the entry of a file as soon as the file is created, modified or
+ * deleted, and every entry of a directory if events of the directory have been lost. If the file
+ * system does not support watching, the last modified time of a file is checked on every lookup
+ * instead.
+ * <p> A mapping cannot be unmapped explicitly; it is released once the buffer of an evicted or
+ * invalidated entry is no longer referenced. A file should therefore be replaced by moving a new
+ * file over it rather than be rewritten in place, as truncating a file while it is being read
+ * through a mapping causes an error.
+ * <p> This class is thread-safe. Lookups hold a lock only to access the cache, not while opening
+ * or mapping files.
+ *
+ * @author mrxdhlxpb
+ */
+public final class MappedFileCache implements Closeable {
+
+    /**
+     * A cached regular file.
+     *
+     * @param path the absolute and normalized path of the file
+     * @param size the size of the file
+     * @param lastModifiedTime the last modified time of the file
+     * @param fileKey the object which uniquely identifies the file, such as its inode number, or
+     *                {@code null} if not available
+     * @param mapping the read-only mapping of the file, which is {@code null} if the file is not
+     *                mapped
+     */
+    public record CachedFile(Path path,
+                             long size,
+                             FileTime lastModifiedTime,
+                             Object fileKey,
+                             ByteBuffer mapping)
+            implements SeekableContent {
+
+        /**
+         * @return whether the file is mapped
+         */
+        public boolean isMapped() { return mapping != null; }
+
+        /**
+         * Opens an input stream reading the file, from the mapping if the file is mapped, or else
+         * from a new channel.
+         *
+         * @return an input stream which should be closed by the caller
+         * @throws IOException if an I/O error occurs
+         */
+        public InputStream newInputStream() throws IOException {
+            return mapping == null ? Files.newInputStream(path) :
+                    new ByteBufferInputStream(mapping.duplicate());
+        }
+
+        /**
+         * Opens an input stream reading part of the file, from a slice of the mapping if the file
+         * is mapped, or else from a new channel, which is closed once the part has been read.
+         */
+        @Override
+        public InputStream newInputStream(long offset, long length) throws IOException {
+            Objects.checkFromIndexSize(offset, length, size);
+            if (mapping != null)
+                return new ByteBufferInputStream(mapping.slice((int) offset, (int) length));
+            final FileChannel fileChannel = FileChannel.open(path);
+            try {
+                fileChannel.position(offset);
+            } catch (IOException ioException) {
+                fileChannel.close();
+                throw ioException;
+            }
+            return new BoundedInputStream(Channels.newInputStream(fileChannel), length);
+        }
+    }
+
+    public static final int DEFAULT_MAXIMUM_ENTRY_COUNT = 4096;
+
+    /**
+     * the value of an entry of a file which does not exist or is not a regular file
+     */
+    private static final CachedFile ABSENT = new CachedFile(null, -1, null, null, null);
+
+    private final long capacity;
+
+    private final long maximumFileSize;
+
+    private final int maximumEntryCount;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * the entries, in access order; guarded by {@code lock}
+     */
+    private final LinkedHashMap<Path, CachedFile> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * the total size of the files mapped by {@code entries}; guarded by {@code lock}
+     */
+    private long mappedSize;
+
+    /**
+     * the number of invalidations so far, by which a file loaded concurrently with an
+     * invalidation is recognized and not cached; guarded by {@code lock}
+     */
+    private long invalidationCount;
+
+    /**
+     * the directories registered or being registered with {@code watchService}, each mapped to a
+     * future completed with whether the registration succeeded; guarded by {@code lock}
+     */
+    private final Map<Path, CompletableFuture<Boolean>> watchedDirectories = new HashMap<>();
+
+    /**
+     * {@code null} if the file system does not support watching
+     */
+    private final WatchService watchService;
+
+    /**
+     * Constructs a cache of files in the default file system, with at most
+     * {@link #DEFAULT_MAXIMUM_ENTRY_COUNT} entries.
+     *
+     * @param capacity the maximum total size of the files mapped
+     * @param maximumFileSize the maximum size of a file to be mapped
+     * @throws IllegalArgumentException if any argument is negative
+     * @throws IOException if the {@code WatchService} cannot be created
+     */
+    public MappedFileCache(long capacity, long maximumFileSize) throws IOException {
+        this(capacity, maximumFileSize, DEFAULT_MAXIMUM_ENTRY_COUNT, FileSystems.getDefault());
+    }
+
+    /**
+     * @param capacity the maximum total size of the files mapped
+     * @param maximumFileSize the maximum size of a file to be mapped
+     * @param maximumEntryCount the maximum number of entries, including those of files not
+     *                          mapped and of absent files
+     * @param fileSystem the file system of the files
+     * @throws IllegalArgumentException if any argument is negative
+     * @throws IOException if the {@code WatchService} cannot be created
+     */
+    public MappedFileCache(long capacity,
+                           long maximumFileSize,
+                           int maximumEntryCount,
+                           FileSystem fileSystem) throws IOException {
+        if (capacity < 0 || maximumFileSize < 0 || maximumEntryCount < 0)
+            throw new IllegalArgumentException();
+        this.capacity = capacity;
+        this.maximumFileSize = maximumFileSize;
+        this.maximumEntryCount = maximumEntryCount;
+        WatchService watchService;
+        try {
+            watchService = fileSystem.newWatchService();
+        } catch (UnsupportedOperationException unsupportedOperationException) {
+            watchService = null;
+        }
+        this.watchService = watchService;
+        if (watchService != null)
+            Thread.ofPlatform()
+                    .name("mapped-file-cache-watcher")
+                    .daemon()
+                    .start(this::processWatchEvents);
+    }
+
+    public long getCapacity() { return capacity; }
+
+    public long getMaximumFileSize() { return maximumFileSize; }
+
+    public int getMaximumEntryCount() { return maximumEntryCount; }
+
+    /**
+     * @return the total size of the files mapped, for monitoring
+     */
+    public long getMappedSize() {
+        lock.lock();
+        try {
+            return mappedSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of entries, including those of absent files, for monitoring
+     */
+    public int getEntryCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Looks up a regular file, mapping it if it is not cached and is small enough.
+     *
+     * @param path the path of the file
+     * @return the file, or an empty {@code Optional} if it does not exist or is not a regular file
+     * @throws IOException if an I/O error occurs
+     */
+    public Optional<CachedFile> get(Path path) throws IOException {
+        final Path key = path.toAbsolutePath().normalize();
+        CachedFile cachedFile;
+        lock.lock();
+        try {
+            cachedFile = entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+        if (cachedFile != null && (watchService != null || isUpToDate(key, cachedFile)))
+            return cachedFile == ABSENT ? Optional.empty() : Optional.of(cachedFile);
+
+        final long invalidationCountBeforeLoad;
+        lock.lock();
+        try {
+            invalidationCountBeforeLoad = invalidationCount;
+        } finally {
+            lock.unlock();
+        }
+        // watched before the file is read, so that no change after reading goes unnoticed
+        final boolean watched = watch(key.getParent());
+        cachedFile = load(key);
+        lock.lock();
+        try {
+            if (watched && invalidationCount == invalidationCountBeforeLoad) {
+                final CachedFile previous = entries.put(key, cachedFile);
+                if (previous != null && previous.isMapped())
+                    mappedSize -= previous.size();
+                if (cachedFile.isMapped())
+                    mappedSize += cachedFile.size();
+                evict();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return cachedFile == ABSENT ? Optional.empty() : Optional.of(cachedFile);
+    }
+
+    /**
+     * Removes the entry of a file, if any.
+     *
+     * @param path the path of the file
+     */
+    public void invalidate(Path path) {
+        final Path key = path.toAbsolutePath().normalize();
+        lock.lock();
+        try {
+            invalidationCount++;
+            final CachedFile removed = entries.remove(key);
+            if (removed != null && removed.isMapped())
+                mappedSize -= removed.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            invalidationCount++;
+            entries.clear();
+            mappedSize = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes every entry and stops watching for changes.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        invalidateAll();
+        if (watchService != null)
+            watchService.close();
+    }
+
+    private CachedFile load(Path path) throws IOException {
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException noSuchFileException) {
+            return ABSENT;
+        }
+        if (!attributes.isRegularFile())
+            return ABSENT;
+        final long size = attributes.size();
+        // a mapping cannot be larger than Integer.MAX_VALUE bytes
+        if (size > maximumFileSize || size > capacity || size > Integer.MAX_VALUE)
+            return new CachedFile(path, size, attributes.lastModifiedTime(),
+                    attributes.fileKey(), null);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the size may have changed since the attributes were read
+            final long mappedSize = Math.min(size, channel.size());
+            return new CachedFile(path, mappedSize, attributes.lastModifiedTime(),
+                    attributes.fileKey(),
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, mappedSize));
+        } catch (NoSuchFileException noSuchFileException) {
+            return ABSENT;
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries until there are at most {@code maximumEntryCount},
+     * and the least recently used mapped files until {@code mappedSize} fits in
+     * {@code capacity}. Must be called while holding {@code lock}.
+     */
+    private void evict() {
+        final Iterator<CachedFile> iterator = entries.values().iterator();
+        while ((entries.size() > maximumEntryCount || mappedSize > capacity)
+                && iterator.hasNext()) {
+            final CachedFile cachedFile = iterator.next();
+            if (entries.size() > maximumEntryCount || cachedFile.isMapped()) {
+                iterator.remove();
+                if (cachedFile.isMapped())
+                    mappedSize -= cachedFile.size();
+            }
+        }
+    }
+
+    private static boolean isUpToDate(Path path, CachedFile cachedFile) throws IOException {
+        try {
+            final BasicFileAttributes attributes =
+                    Files.readAttributes(path, BasicFileAttributes.class);
+            return cachedFile != ABSENT
+                    && attributes.size() == cachedFile.size()
+                    && attributes.lastModifiedTime().equals(cachedFile.lastModifiedTime());
+        } catch (NoSuchFileException noSuchFileException) {
+            return cachedFile == ABSENT;
+        }
+    }
+
+    /**
+     * Registers {@code directory} with {@code watchService}, unless registered. If another thread
+     * is registering {@code directory}, waits for it to finish, so that no entry is cached before
+     * changes to its file are watched.
+     *
+     * @return whether the entries of files in {@code directory} can be cached, that is, whether
+     *         {@code directory} is watched, or every entry is checked on lookup
+     */
+    private boolean watch(Path directory) throws IOException {
+        if (watchService == null)
+            return true;
+        if (directory == null)
+            return false;
+        final CompletableFuture<Boolean> registered = new CompletableFuture<>();
+        final CompletableFuture<Boolean> registering;
+        lock.lock();
+        try {
+            registering = watchedDirectories.putIfAbsent(directory, registered);
+        } finally {
+            lock.unlock();
+        }
+        if (registering != null)
+            return registering.join();
+        try {
+            directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            registered.complete(true);
+            return true;
+        } catch (NoSuchFileException | NotDirectoryException | ClosedWatchServiceException e) {
+            // nothing in it can be found for now
+            unwatch(directory, registered);
+            return false;
+        } catch (IOException | RuntimeException e) {
+            unwatch(directory, registered);
+            throw e;
+        }
+    }
+
+    private void unwatch(Path directory, CompletableFuture<Boolean> registered) {
+        lock.lock();
+        try {
+            watchedDirectories.remove(directory, registered);
+        } finally {
+            lock.unlock();
+        }
+        registered.complete(false);
+    }
+
+    private void processWatchEvents() {
+        while (true) {
+            final WatchKey watchKey;
+            try {
+                watchKey = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            final Path directory = (Path) watchKey.watchable();
+            for (WatchEvent<?> watchEvent : watchKey.pollEvents()) {
+                if (watchEvent.kind() == StandardWatchEventKinds.OVERFLOW)
+                    invalidateDirectory(directory);
+                else
+                    invalidate(directory.resolve((Path) watchEvent.context()));
+            }
+            if (!watchKey.reset()) {
+                // the directory is no longer accessible
+                invalidateDirectory(directory);
+                lock.lock();
+                try {
+                    watchedDirectories.remove(directory);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private void invalidateDirectory(Path directory) {
+        lock.lock();
+        try {
+            final Iterator<Map.Entry<Path, CachedFile>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<Path, CachedFile> entry = iterator.next();
+                if (directory.equals(entry.getKey().getParent())) {
+                    invalidationCount++;
+                    iterator.remove();
+                    if (entry.getValue().isMapped())
+                        mappedSize -= entry.getValue().size();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
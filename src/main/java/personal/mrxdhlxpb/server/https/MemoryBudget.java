@@ -0,0 +1,216 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import personal.mrxdhlxpb.server.https.error.concrete.server.ServiceUnavailableException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A server-wide budget of the memory in which request content and part bodies are buffered, shared
+ * by all connections, so that the heap used for buffering bodies is bounded by the capacity of
+ * the budget rather than by the number of concurrent requests.
+ * <p> The memory buffer of a body is reserved with {@code reserve} before it is leased, and
+ * released with {@code release} once the buffer is released, or once the data in it has been
+ * moved to a spool file. When the budget is exhausted, a reservation is handled according to the
+ * {@link ExhaustionPolicy} of the budget.
+ * <p> {@link #getUsed()} serves as a gauge of the memory currently reserved.
+ * <p> A waiting reservation waits on a {@link ReentrantLock}, so that a virtual thread does not
+ * get pinned. Otherwise this class is lock-free.
+ *
+ * @author mrxdhlxpb
+ */
+public final class MemoryBudget {
+
+    /**
+     * What happens to a reservation when the budget is exhausted.
+     */
+    public enum ExhaustionPolicy {
+        /**
+         * The reservation fails, and the body is spooled to disk without a memory buffer.
+         */
+        SPOOL,
+        /**
+         * The reservation waits for memory to be released, for at most the wait timeout, after
+         * which a {@code ServiceUnavailableException} is thrown.
+         */
+        WAIT,
+        /**
+         * A {@code ServiceUnavailableException} is thrown.
+         */
+        REJECT
+    }
+
+    /**
+     * A budget that is never exhausted. It still counts the memory reserved.
+     */
+    public static final MemoryBudget UNLIMITED =
+            new MemoryBudget(Long.MAX_VALUE, ExhaustionPolicy.SPOOL, Duration.ZERO);
+
+    private final long capacity;
+
+    private final ExhaustionPolicy exhaustionPolicy;
+
+    private final long waitTimeoutNanos;
+
+    private final AtomicLong used = new AtomicLong();
+
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = lock.newCondition();
+
+    /**
+     * @param capacity the number of bytes that can be reserved at the same time
+     * @param exhaustionPolicy what happens to a reservation when the budget is exhausted
+     * @param waitTimeout the maximum time a reservation waits, used by
+     *                    {@link ExhaustionPolicy#WAIT} only
+     * @throws IllegalArgumentException if {@code capacity} or {@code waitTimeout} is negative
+     */
+    public MemoryBudget(long capacity, ExhaustionPolicy exhaustionPolicy, Duration waitTimeout) {
+        if (capacity < 0 || waitTimeout.isNegative())
+            throw new IllegalArgumentException();
+        this.capacity = capacity;
+        this.exhaustionPolicy = Objects.requireNonNull(exhaustionPolicy);
+        this.waitTimeoutNanos = waitTimeout.toNanos();
+    }
+
+    public long getCapacity() { return capacity; }
+
+    public ExhaustionPolicy getExhaustionPolicy() { return exhaustionPolicy; }
+
+    /**
+     * @return the number of bytes currently reserved
+     */
+    public long getUsed() { return used.get(); }
+
+    /**
+     * @return the number of bytes that can currently be reserved
+     */
+    public long getAvailable() { return capacity - used.get(); }
+
+    /**
+     * Reserves {@code n} bytes, handling exhaustion according to the exhaustion policy.
+     *
+     * @param n non-negative
+     * @return {@code true} if reserved, or {@code false} if the budget is exhausted and the
+     *         exhaustion policy is {@link ExhaustionPolicy#SPOOL}
+     * @throws ServiceUnavailableException if the budget is exhausted and the exhaustion policy is
+     *                                     {@link ExhaustionPolicy#REJECT}, or
+     *                                     {@link ExhaustionPolicy#WAIT} and the wait times out or
+     *                                     is interrupted
+     * @throws IllegalArgumentException if {@code n} is negative
+     */
+    public boolean reserve(long n) throws ServiceUnavailableException {
+        if (n < 0)
+            throw new IllegalArgumentException();
+        if (tryReserve(n))
+            return true;
+        return switch (exhaustionPolicy) {
+            case SPOOL -> false;
+            case REJECT -> throw new ServiceUnavailableException();
+            case WAIT -> awaitReserve(n);
+        };
+    }
+
+    /**
+     * Releases {@code n} bytes reserved before.
+     */
+    public void release(long n) {
+        used.addAndGet(-n);
+        if (waiters.get() > 0) {
+            lock.lock();
+            try {
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Wraps an input stream, so that {@code n} bytes reserved before are released when the
+     * input stream is closed for the first time.
+     */
+    public InputStream releasingOnClose(InputStream inputStream, long n) {
+        return new FilterInputStream(inputStream) {
+            private boolean closed = false;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return in.read(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    in.close();
+                } finally {
+                    if (!closed) {
+                        closed = true;
+                        release(n);
+                    }
+                }
+            }
+        };
+    }
+
+    private boolean tryReserve(long n) {
+        long current;
+        do {
+            current = used.get();
+            if (n > capacity - current)
+                return false;
+        } while (!used.compareAndSet(current, current + n));
+        return true;
+    }
+
+    private boolean awaitReserve(long n) throws ServiceUnavailableException {
+        final long deadline = System.nanoTime() + waitTimeoutNanos;
+        lock.lock();
+        try {
+            // registered before retrying, so that a release after a failed retry signals
+            waiters.incrementAndGet();
+            try {
+                while (!tryReserve(n)) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        throw new ServiceUnavailableException();
+                    released.awaitNanos(remaining);
+                }
+                return true;
+            } finally {
+                waiters.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -16,8 +16,11 @@
  */
 package personal.mrxdhlxpb.server.https;
 
+import personal.mrxdhlxpb.server.https.error.HttpErrorException;
+import personal.mrxdhlxpb.server.https.error.HttpErrorIOException;
 import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException;
 import personal.mrxdhlxpb.server.https.error.concrete.client.ContentTooLargeException;
+import personal.mrxdhlxpb.server.https.error.concrete.server.ServiceUnavailableException;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -26,6 +29,10 @@ import java.util.function.Consumer;
 
 /**
  * An object that parses multipart/form-data data streams.
+ * <p> Parts are either returned one by one by {@link #nextPart()}, with each part body stored into
+ * memory or a temporary file before it is returned, or passed one by one as they arrive to a
+ * {@link PartVisitor} by {@link #visitRemaining(PartVisitor)}, with each part body read straight
+ * from the input stream.
  * <p> Note: The length of data is not limited, which should be concerned by the client programmer.
  *
  * @author mrxdhlxpb
@@ -43,6 +50,15 @@ public class MultipartFormDataParser {
 
     private static final byte DASH = 0X2D;
 
+    private static final byte SP = 0X20;
+
+    private static final byte HTAB = 0X9;
+
+    /**
+     * the maximum length of the linear whitespace allowed after a boundary
+     */
+    private static final int MAXIMUM_TRANSPORT_PADDING_LENGTH = 32;
+
     private static final byte[] DOUBLE_DASH = {DASH, DASH};
 
     private final HttpRequestInputStream httpRequestInputStream;
@@ -63,6 +79,11 @@ public class MultipartFormDataParser {
 
     private final byte[] dashDashBoundary, dashDashBoundaryDashDash;
 
+    /**
+     * the matcher of the delimiter {@code CRLF dashDashBoundary} that ends each part body
+     */
+    private final HorspoolMatcher delimiterMatcher;
+
     private boolean hasNextPart = true;
 
     // Fields below are reset in each nextPart() call.
@@ -102,6 +123,12 @@ public class MultipartFormDataParser {
         System.arraycopy(DOUBLE_DASH, 0, dashDashBoundaryDashDash, 0, 2);
         System.arraycopy(boundary, 0, dashDashBoundaryDashDash, 2, boundary.length);
         System.arraycopy(DOUBLE_DASH, 0, dashDashBoundaryDashDash, boundary.length + 2, 2);
+
+        final byte[] delimiter = new byte[dashDashBoundary.length + 2];
+        delimiter[0] = CR;
+        delimiter[1] = LF;
+        System.arraycopy(dashDashBoundary, 0, delimiter, 2, dashDashBoundary.length);
+        this.delimiterMatcher = new HorspoolMatcher(delimiter);
     }
 
     private void reset() {
@@ -229,12 +256,192 @@ public class MultipartFormDataParser {
         throw new BadRequestException("unexpected syntax");
     }
 
+    /**
+     * reads the rest of the line following a delimiter, which is either empty, or {@code "--"}
+     * if the delimiter is the close delimiter, optionally followed by transport padding
+     *
+     * @return {@code false} if the delimiter is the close delimiter
+     * @throws BadRequestException if the line is neither of the above
+     */
+    private boolean readRestOfDelimiterLine() throws IOException, BadRequestException {
+        final byte[] line = new byte[DOUBLE_DASH.length + MAXIMUM_TRANSPORT_PADDING_LENGTH];
+        int length = httpRequestInputStream
+                .readLine(line, () -> new BadRequestException("unexpected boundary"));
+        while (length > 0 && (line[length - 1] == SP || line[length - 1] == HTAB))
+            length--;
+        if (length == 0)
+            return true;
+        if (Arrays.equals(line, 0, length, DOUBLE_DASH, 0, DOUBLE_DASH.length))
+            return false;
+        throw new BadRequestException("unexpected boundary");
+    }
+
+    /**
+     * Visits the remaining parts one by one as they arrive, without storing their bodies.
+     * <p> For each part, the header section is read and passed to
+     * {@link PartVisitor#onPartStart(Fields)}; the body is then passed to
+     * {@link PartVisitor#onPartBody(PartBodyInputStream)} as an input stream that reads straight
+     * from {@code httpRequestInputStream} up to the next delimiter; and
+     * {@link PartVisitor#onPartEnd()} is called once the part body has been read or skipped.
+     * <p> The mode of this parser is ignored: a nested {@code multipart/mixed} body is passed to
+     * the visitor as it is.
+     *
+     * @param visitor the visitor
+     * @throws IOException if an I/O error occurs
+     * @throws HttpErrorException if the syntax of a part is unexpected, or the visitor throws
+     *                            an {@code HttpErrorException}
+     */
+    public void visitRemaining(PartVisitor visitor) throws IOException, HttpErrorException {
+        Objects.requireNonNull(visitor);
+        try {
+            while (hasNextPart) {
+                reset();
+                visitor.onPartStart(httpRequestInputStream
+                        .readFields(maximumPartFieldLineLength, maximumPartHeaderSectionLength));
+                try (var partBodyInputStream = new PartBodyInputStream()) {
+                    visitor.onPartBody(partBodyInputStream);
+                }
+                visitor.onPartEnd();
+            }
+        } catch (HttpErrorIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * A visitor of parts, called by {@link #visitRemaining(PartVisitor)} as the parts arrive.
+     */
+    public interface PartVisitor {
+
+        /**
+         * Called when the header section of a part has been read.
+         */
+        default void onPartStart(Fields headerSection) throws IOException, HttpErrorException {}
+
+        /**
+         * Called with the body of the part. The body may be read partially or not at all; the
+         * rest is skipped once this method returns. {@code bodyInputStream} must not be used
+         * after this method returns.
+         */
+        void onPartBody(PartBodyInputStream bodyInputStream)
+                throws IOException, HttpErrorException;
+
+        /**
+         * Called when the body of the part has been read or skipped.
+         */
+        default void onPartEnd() throws IOException, HttpErrorException {}
+
+    }
+
+    /**
+     * An input stream that reads a part body straight from {@code httpRequestInputStream},
+     * up to the delimiter that ends it. The body is not stored unless {@link #spool()} is called.
+     * <p> A {@code BadRequestException} detected on reading the delimiter is thrown wrapped in an
+     * {@link HttpErrorIOException}.
+     */
+    public final class PartBodyInputStream extends InputStream {
+
+        private boolean ended = false;
+
+        private PartBodyInputStream() {}
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0XFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (ended)
+                return -1;
+            if (len == 0)
+                return 0;
+            final int n = httpRequestInputStream.readUntil(delimiterMatcher, b, off, len);
+            if (n == HttpRequestInputStream.DELIMITER_MET) {
+                end(true);
+                return -1;
+            }
+            if (n == HttpRequestInputStream.END_OF_STREAM) {
+                end(false);
+                return -1;
+            }
+            return n;
+        }
+
+        /**
+         * Stores the rest of the part body into memory, or into a temporary file if it does not
+         * fit, so that it can be read afterward at any pace, repeatedly (the returned input stream
+         * supports {@code mark} if the body is stored in memory), or after the visit.
+         * This input stream is at end of stream once this method returns.
+         *
+         * @return an input stream of the rest of the part body, which should be closed by the
+         *         caller
+         * @throws IOException if an I/O error occurs
+         * @throws ContentTooLargeException if the rest of the part body is too large to be stored
+         * @throws BadRequestException if the syntax of the delimiter is unexpected
+         */
+        public InputStream spool()
+                throws IOException, ContentTooLargeException, BadRequestException {
+            if (ended)
+                return InputStream.nullInputStream();
+            ended = true;
+            try (var parser = new PartBodyParser()) {
+                return parser.parse();
+            }
+        }
+
+        /**
+         * Skips the rest of the part body without storing it.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!ended)
+                end(httpRequestInputStream.transferUntil(delimiterMatcher,
+                        OutputStream.nullOutputStream()));
+        }
+
+        private void end(boolean delimiterMet) throws IOException {
+            ended = true;
+            try {
+                // a missing close delimiter ends the last part at end of stream
+                hasNextPart = delimiterMet && readRestOfDelimiterLine();
+            } catch (BadRequestException e) {
+                throw new HttpErrorIOException(e);
+            }
+        }
+
+    }
+
     /**
      * An object that parses the bodies of parts.
+     * <p> The body is transferred from the internal buffer of {@code httpRequestInputStream} to
+     * this output stream in runs of bytes, which are stored into the memory buffer, and into a
+     * spool file once the memory buffer is filled.
      */
-    private final class PartBodyParser implements Closeable {
+    private final class PartBodyParser extends OutputStream {
+
+        private final BufferPool bufferPool = httpRequestInputStream.getBufferPool();
 
-        private final byte[] buffer = new byte[partBodyParserMemoryBufferSize];
+        private final MemoryBudget memoryBudget = httpRequestInputStream.getMemoryBudget();
+
+        /**
+         * {@code 0} if the memory budget is exhausted and its policy is to spool
+         */
+        private final int memoryBufferSize;
+
+        /**
+         * the number of bytes reserved from {@code memoryBudget} for {@code buffer}, and not
+         * released or handed out yet
+         */
+        private long reservedMemory;
+
+        /**
+         * leased from {@code bufferPool}; {@code null} if not leased, or once released or handed
+         * out
+         */
+        private byte[] buffer;
 
         private int count = 0; // count of data in buffer
 
@@ -242,80 +449,122 @@ public class MultipartFormDataParser {
 
         private boolean bufferFilled = false;
 
-        private File tempFile;
-
-        private OutputStream outputStreamToTempFile;
+        /**
+         * created from {@code httpRequestInputStream.getSpoolService()} once the memory buffer is
+         * filled; {@code null} once handed out
+         */
+        private SpoolService.SpoolFile spoolFile;
+
+        /**
+         * @throws HttpErrorIOException caused by a {@code ServiceUnavailableException} if the
+         *                              memory budget is exhausted and its policy is not to spool
+         */
+        private PartBodyParser() throws HttpErrorIOException {
+            try {
+                memoryBufferSize = memoryBudget.reserve(partBodyParserMemoryBufferSize) ?
+                        partBodyParserMemoryBufferSize : 0;
+            } catch (ServiceUnavailableException e) {
+                throw new HttpErrorIOException(e);
+            }
+            reservedMemory = memoryBufferSize;
+            buffer = memoryBufferSize == 0 ? null : bufferPool.acquire(memoryBufferSize);
+        }
 
         @Override
         public void close() throws IOException {
-            if (outputStreamToTempFile != null)
-                outputStreamToTempFile.close();
+            try {
+                if (spoolFile != null)
+                    spoolFile.close();
+            } finally {
+                if (buffer != null) {
+                    bufferPool.release(buffer);
+                    buffer = null;
+                }
+                releaseReservedMemory();
+            }
         }
 
-        private InputStream result() throws IOException {
-            if (outputStreamToTempFile != null)
-                outputStreamToTempFile.flush();
-            this.close();
-            return bufferFilled ? new FileInputStream(tempFile) : new ByteArrayInputStream(buffer);
+        private void releaseReservedMemory() {
+            if (reservedMemory > 0) {
+                memoryBudget.release(reservedMemory);
+                reservedMemory = 0;
+            }
         }
 
-        private void store(int data) throws IOException, ContentTooLargeException {
-            if (count < buffer.length) {
-                buffer[count++] = (byte) data;
-                return;
+        private InputStream result() throws IOException {
+            if (bufferFilled) {
+                final InputStream inputStream = spoolFile.toInputStream();
+                spoolFile = null;
+                return inputStream;
             }
-            // buffer is filled with data
+            if (buffer == null)
+                return InputStream.nullInputStream();
+            final InputStream inputStream = memoryBudget
+                    .releasingOnClose(bufferPool.newInputStream(buffer, count), reservedMemory);
+            buffer = null;
+            reservedMemory = 0;
+            return inputStream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        /**
+         * Stores {@code len} bytes of part body.
+         *
+         * @throws HttpErrorIOException caused by a {@code ContentTooLargeException} if the
+         *                              spool file would exceed its maximum size, or by a
+         *                              {@code ServiceUnavailableException} if the spool service
+         *                              is out of quota
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
             if (!bufferFilled) {
-                // first time
-                // create temporary file
-                // TODO: temp file security
-                tempFile = File.createTempFile(
+                final int n = Math.min(len, memoryBufferSize - count);
+                if (n > 0)
+                    System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (len == 0)
+                    return;
+                // buffer is filled with data
+                spoolFile = httpRequestInputStream.getSpoolService().create(
                         partBodyParserTemporaryFilePrefix,
                         partBodyParserTemporaryFileSuffix,
                         partBodyParserTemporaryFileDirectory);
-                tempFile.deleteOnExit();
-                outputStreamToTempFile = new BufferedOutputStream(new FileOutputStream(tempFile));
-                // write buffer to temporary file
-                outputStreamToTempFile.write(buffer);
-                temporaryFileSize += buffer.length;
+                if (buffer != null) {
+                    // write buffer to spool file
+                    spoolFile.write(buffer, 0, count);
+                    temporaryFileSize += count;
+                    bufferPool.release(buffer);
+                    buffer = null;
+                    releaseReservedMemory();
+                }
 
                 bufferFilled = true;
             }
-            if (temporaryFileSize >= maximumPartBodyParserTemporaryFileSize)
-                throw new ContentTooLargeException();
-            outputStreamToTempFile.write(data);
-            temporaryFileSize++;
+            if (len > maximumPartBodyParserTemporaryFileSize - temporaryFileSize)
+                throw new HttpErrorIOException(new ContentTooLargeException());
+            spoolFile.write(b, off, len);
+            temporaryFileSize += len;
         }
 
-        public InputStream parse() throws IOException, ContentTooLargeException {
-            while (true) {
-                int data = httpRequestInputStream.read();
-                if (data == -1)
-                    return result();
-                if (data != CR) {
-                    store(data);
-                    continue;
-                }
-                if (httpRequestInputStream.read() != LF) {
-                    store(CR);
-                    store(data);
-                    continue;
-                }
-                httpRequestInputStream.mark(dashDashBoundaryDashDash.length+2);
-                byte[] line = new byte[dashDashBoundaryDashDash.length];
-                try {
-                    httpRequestInputStream.readLine(line);
-                } catch (HttpRequestInputStream.CannotContainException e) {
-                    httpRequestInputStream.reset();
-                    continue;
-                }
-                if (Arrays.equals(line, 0, dashDashBoundary.length-1,
-                        dashDashBoundary, 0, dashDashBoundary.length-1)) {
-                    hasNextPart = !Arrays.equals(line, dashDashBoundaryDashDash);
-                    return result();
-                }
-                httpRequestInputStream.reset();
+        public InputStream parse()
+                throws IOException, ContentTooLargeException, BadRequestException {
+            final boolean delimiterMet;
+            try {
+                delimiterMet = httpRequestInputStream.transferUntil(delimiterMatcher, this);
+            } catch (HttpErrorIOException e) {
+                if (e.getCause() instanceof ContentTooLargeException contentTooLargeException)
+                    throw contentTooLargeException;
+                throw e;
             }
+            // a missing close delimiter ends the last part at end of stream
+            hasNextPart = delimiterMet && readRestOfDelimiterLine();
+            return result();
         }
 
     }
@@ -0,0 +1,164 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import personal.mrxdhlxpb.server.https.error.concrete.client.PreconditionFailedException;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Evaluates the preconditions of a request against the validators of the selected
+ * representation, in the order defined in <em>RFC 9110: HTTP Semantics Section 13.2.2.
+ * Precedence of Preconditions</em>:
+ * <ol>
+ *     <li>If-Match, or else If-Unmodified-Since, which fails with 412 (Precondition Failed);</li>
+ *     <li>If-None-Match, or else If-Modified-Since for GET and HEAD, which is answered with 304
+ *         (Not Modified) for GET and HEAD, and fails with 412 (Precondition Failed) for other
+ *         methods.</li>
+ * </ol>
+ * <p> If-Range is evaluated by {@link ByteRanges}. A date which cannot be parsed is ignored, and
+ * so is a date condition if the representation has no last modification date.
+ *
+ * @author mrxdhlxpb
+ */
+@CompliantWith("RFC 9110: HTTP Semantics Section 13. Conditional Requests")
+public final class Preconditions {
+
+    private Preconditions() {}
+
+    /**
+     * Evaluates the preconditions of {@code httpRequest}. If the request is answered with 304
+     * (Not Modified), the status code and the validator header fields of {@code httpResponse} are
+     * set, and the request handler is not to be called.
+     *
+     * @param httpRequest the request
+     * @param validators the validators of the representation selected for the request
+     * @param httpResponse the response
+     * @return whether the response has been completed with 304 (Not Modified)
+     * @throws PreconditionFailedException if a precondition fails
+     */
+    public static boolean evaluate(HTTPRequest httpRequest,
+                                   Validators validators,
+                                   HTTPResponse httpResponse)
+            throws PreconditionFailedException {
+        final Fields headerSection = httpRequest.headerSection();
+        if (headerSection == null)
+            return false;
+        final RequestMethod requestMethod =
+                httpRequest.requestMessageControlData().requestMethod();
+        final boolean safe = requestMethod == RequestMethod.GET
+                || requestMethod == RequestMethod.HEAD;
+
+        final Optional<String> ifMatch = headerSection.getFieldValueString("if-match");
+        if (ifMatch.isPresent()) {
+            if (!matches(ifMatch.get(), validators, true))
+                throw new PreconditionFailedException();
+        } else {
+            final Optional<Instant> ifUnmodifiedSince = headerSection
+                    .getFieldValueString("if-unmodified-since")
+                    .flatMap(Validators::parseHTTPDate);
+            if (ifUnmodifiedSince.isPresent() && validators.lastModified() != null
+                    && validators.lastModified().isAfter(ifUnmodifiedSince.get()))
+                throw new PreconditionFailedException();
+        }
+
+        final Optional<String> ifNoneMatch = headerSection.getFieldValueString("if-none-match");
+        final boolean notModified;
+        if (ifNoneMatch.isPresent()) {
+            notModified = matches(ifNoneMatch.get(), validators, false);
+        } else if (safe) {
+            final Optional<Instant> ifModifiedSince = headerSection
+                    .getFieldValueString("if-modified-since")
+                    .flatMap(Validators::parseHTTPDate);
+            notModified = ifModifiedSince.isPresent() && validators.lastModified() != null
+                    && !validators.lastModified().isAfter(ifModifiedSince.get());
+        } else {
+            notModified = false;
+        }
+        if (!notModified)
+            return false;
+        if (!safe)
+            throw new PreconditionFailedException();
+
+        httpResponse.setStatusCode((short) 304);
+        // adjusted by the ResponseCompressor to match a 200 (OK) response with compressed content
+        validators.setTo(httpResponse.getHeaderSection());
+        httpResponse.setContentInputStream(null);
+        httpResponse.setContentLength(0);
+        return true;
+    }
+
+    /**
+     * Evaluates If-Match, with the strong comparison, or If-None-Match, with the weak comparison,
+     * as defined in <em>RFC 9110: HTTP Semantics Section 8.8.3.2. Comparison</em>. {@code "*"}
+     * matches any current representation.
+     */
+    private static boolean matches(String fieldValue, Validators validators, boolean strong) {
+        if (fieldValue.strip().equals("*"))
+            return true;
+        final String entityTag = validators.entityTag();
+        if (entityTag == null || strong && !validators.hasStrongEntityTag())
+            return false;
+        final String opaqueTag = opaqueTag(entityTag);
+        for (String member : parseEntityTags(fieldValue))
+            if ((!strong || !member.startsWith("W/")) && opaqueTag(member).equals(opaqueTag))
+                return true;
+        return false;
+    }
+
+    private static String opaqueTag(String entityTag) {
+        return entityTag.startsWith("W/") ? entityTag.substring(2) : entityTag;
+    }
+
+    /**
+     * Parses a comma-separated list of entity tags. Since an opaque tag may contain commas, the
+     * list is scanned tag by tag rather than split. Scanning stops at the first invalid member.
+     *
+     * @param fieldValue the value of an If-Match or If-None-Match header field
+     * @return the entity tags
+     */
+    static List<String> parseEntityTags(String fieldValue) {
+        final List<String> entityTags = new ArrayList<>();
+        int i = 0;
+        final int length = fieldValue.length();
+        while (true) {
+            // skip OWS and empty list elements
+            while (i < length && (fieldValue.charAt(i) == ' ' || fieldValue.charAt(i) == '\t'
+                    || fieldValue.charAt(i) == ','))
+                i++;
+            if (i == length)
+                return entityTags;
+            final int start = i;
+            if (fieldValue.startsWith("W/", i))
+                i += 2;
+            if (i == length || fieldValue.charAt(i) != '"')
+                return entityTags;
+            final int closingQuote = fieldValue.indexOf('"', i + 1);
+            if (closingQuote == -1)
+                return entityTags;
+            final String entityTag = fieldValue.substring(start, closingQuote + 1);
+            if (!Validators.isEntityTag(entityTag))
+                return entityTags;
+            entityTags.add(entityTag);
+            i = closingQuote + 1;
+        }
+    }
+
+}
@@ -0,0 +1,317 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import personal.mrxdhlxpb.server.https.error.HttpErrorException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.NotFoundException;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An {@code InternalResourceMapper} that looks up internal resources in a tree keyed on the
+ * segments of the path of the target URI.
+ * <p> A route is registered with a path pattern, which begins with "/" and consists of segments
+ * of three kinds:
+ * <ul>
+ *     <li>a literal segment, which matches a path segment equal to it,</li>
+ *     <li>
+ *         a parameter segment in the form of {@code {name}}, which matches any non-empty path
+ *         segment and captures it under {@code name}, and
+ *     </li>
+ *     <li>
+ *         a wildcard segment {@code *}, which may only be the last segment of a pattern and matches
+ *         the rest of the path, including any "/" in it, captured under {@code "*"}.
+ *     </li>
+ * </ul>
+ * <p> When more than one route matches a path, a literal segment takes precedence over a
+ * parameter segment, which in turn takes precedence over a wildcard segment, segment by segment
+ * from left to right. Each level of the tree is looked up by a hash of the path segment, so the
+ * cost of a lookup depends on the number of segments in the path rather than the number of
+ * registered routes, unless backtracking is needed to fall back from a literal segment to a
+ * parameter or wildcard segment.
+ * <p> Path segments are compared and captured as they appear in the normalized target URI, i.e.
+ * without percent-decoding. The captured parameters are available from
+ * {@link InternalResource#getPathParameters()} of the returned internal resource.
+ * <p> If {@code matchCacheCapacity} is positive, up to that number of successful lookups are
+ * cached by path. The cache is cleared whenever it is full or a route is registered.
+ * <p> Routes are expected to be registered before the mapper is used for lookups. Lookups may be
+ * performed concurrently.
+ *
+ * @author mrxdhlxpb
+ */
+public class RadixTreeInternalResourceMapper implements InternalResourceMapper {
+
+    private static final String WILDCARD = "*";
+
+    private final Node root = new Node();
+
+    private final int matchCacheCapacity;
+
+    private final Map<String, InternalResource> matchCache;
+
+    public RadixTreeInternalResourceMapper() {
+        this(0);
+    }
+
+    /**
+     * @param matchCacheCapacity the maximum number of cached lookups, or {@code 0} to disable the
+     *                           cache
+     * @throws IllegalArgumentException if {@code matchCacheCapacity} is negative
+     */
+    public RadixTreeInternalResourceMapper(int matchCacheCapacity) {
+        if (matchCacheCapacity < 0)
+            throw new IllegalArgumentException();
+        this.matchCacheCapacity = matchCacheCapacity;
+        this.matchCache = matchCacheCapacity == 0 ? null : new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Registers a route.
+     *
+     * @param pathPattern the path pattern, as described in the class documentation
+     * @param internalResource the internal resource to which a matching path is mapped
+     * @return {@code this}
+     * @throws IllegalArgumentException if {@code pathPattern} is invalid, or a route with an
+     *                                  equivalent path pattern has been registered
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public synchronized RadixTreeInternalResourceMapper register(String pathPattern,
+                                                                 InternalResource
+                                                                         internalResource) {
+        Objects.requireNonNull(internalResource);
+        if (!pathPattern.startsWith("/"))
+            throw new IllegalArgumentException("Path pattern must begin with \"/\": " +
+                    pathPattern);
+
+        final String[] segments = split(pathPattern);
+        final List<String> parameterNames = new ArrayList<>();
+        Node node = root;
+        for (int i = 0; i < segments.length; i++) {
+            final String segment = segments[i];
+            if (segment.equals(WILDCARD)) {
+                if (i != segments.length - 1)
+                    throw new IllegalArgumentException("Wildcard segment must be the last " +
+                            "segment: " + pathPattern);
+                parameterNames.add(WILDCARD);
+                if (node.wildcardRoute != null)
+                    throw new IllegalArgumentException("Duplicate route: " + pathPattern);
+                node.wildcardRoute = new Route(internalResource, parameterNames);
+                clearMatchCache();
+                return this;
+            }
+            if (segment.length() > 1 && segment.startsWith("{") && segment.endsWith("}")) {
+                final String parameterName = segment.substring(1, segment.length() - 1);
+                if (parameterNames.contains(parameterName) || parameterName.equals(WILDCARD))
+                    throw new IllegalArgumentException("Invalid parameter name: " +
+                            pathPattern);
+                parameterNames.add(parameterName);
+                if (node.parameterChild == null)
+                    node.parameterChild = new Node();
+                node = node.parameterChild;
+            } else {
+                node = node.literalChildren.computeIfAbsent(segment, (key) -> new Node());
+            }
+        }
+        if (node.route != null)
+            throw new IllegalArgumentException("Duplicate route: " + pathPattern);
+        node.route = new Route(internalResource, parameterNames);
+        clearMatchCache();
+        return this;
+    }
+
+    /**
+     * @throws NotFoundException if no registered route matches the path
+     */
+    @Override
+    public InternalResource getInternalResource(InternalResourceIdentifier
+                                                        internalResourceIdentifier)
+            throws NotFoundException {
+        final String path = internalResourceIdentifier.path();
+
+        if (matchCache != null) {
+            final InternalResource cached = matchCache.get(path);
+            if (cached != null)
+                return cached;
+        }
+
+        final String[] segments = split(path.isEmpty() ? "/" : path);
+        final String[] values = new String[segments.length];
+        final InternalResource internalResource = match(root, segments, 0, values, 0, path);
+        if (internalResource == null)
+            throw new NotFoundException();
+
+        if (matchCache != null) {
+            if (matchCache.size() >= matchCacheCapacity)
+                matchCache.clear();
+            matchCache.put(path, internalResource);
+        }
+        return internalResource;
+    }
+
+    /**
+     * Matches {@code segments[index..]} against the subtree of {@code node}, backtracking to
+     * parameter and wildcard segments if a literal segment leads to a dead end.
+     *
+     * @param values the captured parameter values, of which the first {@code valueCount}
+     *               elements are in use
+     * @return the matched internal resource, or {@code null}
+     */
+    private static InternalResource match(Node node,
+                                          String[] segments,
+                                          int index,
+                                          String[] values,
+                                          int valueCount,
+                                          String path) {
+        if (index == segments.length)
+            return node.route == null ? null : node.route.bind(values, valueCount);
+
+        final Node literalChild = node.literalChildren.get(segments[index]);
+        if (literalChild != null) {
+            final InternalResource result =
+                    match(literalChild, segments, index + 1, values, valueCount, path);
+            if (result != null)
+                return result;
+        }
+
+        if (node.parameterChild != null && !segments[index].isEmpty()) {
+            values[valueCount] = segments[index];
+            final InternalResource result =
+                    match(node.parameterChild, segments, index + 1, values, valueCount + 1, path);
+            if (result != null)
+                return result;
+        }
+
+        if (node.wildcardRoute != null) {
+            // the rest of the path, without the "/" preceding it
+            int offset = 0;
+            for (int i = 0; i < index; i++)
+                offset += segments[i].length() + 1;
+            values[valueCount] = path.substring(offset + 1);
+            return node.wildcardRoute.bind(values, valueCount + 1);
+        }
+
+        return null;
+    }
+
+    private void clearMatchCache() {
+        if (matchCache != null)
+            matchCache.clear();
+    }
+
+    /**
+     * Splits a path, which begins with "/", into its segments. For example, "/" is split into
+     * {@code [""]}, and "/a//b/" into {@code ["a", "", "b", ""]}.
+     */
+    private static String[] split(String path) {
+        int segmentCount = 0;
+        for (int i = 0; i < path.length(); i++)
+            if (path.charAt(i) == '/')
+                segmentCount++;
+
+        final String[] segments = new String[segmentCount];
+        int start = 1;
+        for (int i = 0; i < segmentCount; i++) {
+            int end = path.indexOf('/', start);
+            if (end == -1)
+                end = path.length();
+            segments[i] = path.substring(start, end);
+            start = end + 1;
+        }
+        return segments;
+    }
+
+    private static final class Node {
+
+        private final Map<String, Node> literalChildren = new HashMap<>();
+
+        private Node parameterChild;
+
+        private Route route;
+
+        private Route wildcardRoute;
+    }
+
+    private record Route(InternalResource internalResource, List<String> parameterNames) {
+
+        private Route(InternalResource internalResource, List<String> parameterNames) {
+            this.internalResource = internalResource;
+            this.parameterNames = List.copyOf(parameterNames);
+        }
+
+        private InternalResource bind(String[] values, int valueCount) {
+            if (valueCount == 0)
+                return internalResource;
+            final Map<String, String> pathParameters = new HashMap<>(valueCount * 2);
+            for (int i = 0; i < valueCount; i++)
+                pathParameters.put(parameterNames.get(i), values[i]);
+            return new MatchedInternalResource(
+                    internalResource,
+                    Collections.unmodifiableMap(pathParameters));
+        }
+    }
+
+    /**
+     * An internal resource that delegates to the internal resource of a route, along with the
+     * parameters captured from the path.
+     */
+    private record MatchedInternalResource(InternalResource internalResource,
+                                           Map<String, String> pathParameters)
+            implements InternalResource {
+
+        @Override
+        public InternalResourceIdentifier getInternalResourceIdentifier() {
+            return internalResource.getInternalResourceIdentifier();
+        }
+
+        @Override
+        public HTTPRequestHandler getHTTPRequestHandler() {
+            return internalResource.getHTTPRequestHandler();
+        }
+
+        @Override
+        public AsyncHTTPRequestHandler getAsyncHTTPRequestHandler() {
+            return internalResource.getAsyncHTTPRequestHandler();
+        }
+
+        @Override
+        public HTTP1_1ResponseMessageBodyGenerator getHTTP1_1ResponseMessageBodyGenerator() {
+            return internalResource.getHTTP1_1ResponseMessageBodyGenerator();
+        }
+
+        @Override
+        public Map<String, String> getPathParameters() {
+            return pathParameters;
+        }
+
+        @Override
+        public CompressionPolicy getCompressionPolicy() {
+            return internalResource.getCompressionPolicy();
+        }
+
+        @Override
+        public boolean isResponseCacheable() {
+            return internalResource.isResponseCacheable();
+        }
+
+        @Override
+        public Optional<Validators> getValidators(HTTPRequest httpRequest)
+                throws HttpErrorException {
+            return internalResource.getValidators(httpRequest);
+        }
+    }
+}
@@ -48,12 +48,47 @@ public class RecordingBufferedInputStream extends BufferedInputStream {
         this.recording = recording;
     }
 
+    private RecordingBufferedInputStream(InputStream underlyingInputStream,
+                                         boolean recordingEnabled,
+                                         ByteArrayOutputStream recording,
+                                         byte[] buffer) {
+        // the one-byte buffer allocated by the superclass is replaced at once
+        super(underlyingInputStream, 1);
+        this.buf = buffer;
+        this.recordingEnabled = recordingEnabled;
+        this.recording = recording;
+    }
+
+    /**
+     * Constructs a {@code RecordingBufferedInputStream} that uses {@code buffer} as its internal
+     * buffer. Whether to enable recording capability is determined by {@code recordingEnabled}
+     * namely. If {@code recordingEnabled} is {@code true}, the initial buffer size of
+     * {@code recording} will be 32 bytes.
+     *
+     * @param in the underlying input stream
+     * @param recordingEnabled true if you want to enable the recording capability
+     * @param buffer the internal buffer, which must not be empty
+     * @throws IllegalArgumentException if {@code buffer} is empty
+     */
+    protected RecordingBufferedInputStream(InputStream in, boolean recordingEnabled, byte[] buffer) {
+        this(in,
+                recordingEnabled,
+                recordingEnabled ? new ByteArrayOutputStream(32) : null,
+                requireNonEmpty(buffer));
+    }
+
+    private static byte[] requireNonEmpty(byte[] buffer) {
+        if (buffer.length == 0)
+            throw new IllegalArgumentException("empty buffer");
+        return buffer;
+    }
+
     /**
      * Constructs a {@code RecordingBufferedInputStream} without recording capability.
      * @param in the underlying input stream
      */
     public RecordingBufferedInputStream(InputStream in) {
-        this(in, false, null);
+        this(in, false, (ByteArrayOutputStream) null);
     }
 
     /**
@@ -126,6 +161,18 @@ public class RecordingBufferedInputStream extends BufferedInputStream {
      */
     public boolean isRecordingEnabled() { return this.recordingEnabled; }
 
+    /**
+     * Skips {@code n} bytes of the internal buffer, starting at {@code pos}, which a subclass has
+     * examined in place. The bytes are accounted for as if they had been read.
+     *
+     * @param n the number of bytes, which must not exceed {@code count - pos}
+     * @throws IOException if an I/O error occurs
+     */
+    protected void consumeBuffered(int n) throws IOException {
+        if (recordingEnabled) recording.write(buf, pos, n);
+        pos += n;
+    }
+
     @Override
     public int read() throws IOException {
         int result = super.read();
@@ -17,10 +17,27 @@
 package personal.mrxdhlxpb.server.https;
 
 /**
+ * {@code internalResourceIdentifier} is the path and query of the normalized target URI, by which
+ * {@code targetResource} has been looked up. It differs from the identifier of
+ * {@code targetResource} if the internal resource mapper maps more than one target URI to the
+ * same internal resource.
+ *
  * @author mrxdhlxpb
  */
 @CompliantWith("RFC9110 HTTP Semantics Section 6.2 Control Data")
 public record RequestMessageControlData(RequestMethod requestMethod,
                                         InternalResource targetResource,
-                                        ProtocolVersion protocolVersion) {
+                                        ProtocolVersion protocolVersion,
+                                        InternalResourceIdentifier internalResourceIdentifier) {
+
+    /**
+     * Constructs an instance of this class whose {@code internalResourceIdentifier} is the
+     * identifier of {@code targetResource}, if any.
+     */
+    public RequestMessageControlData(RequestMethod requestMethod,
+                                     InternalResource targetResource,
+                                     ProtocolVersion protocolVersion) {
+        this(requestMethod, targetResource, protocolVersion,
+                targetResource == null ? null : targetResource.getInternalResourceIdentifier());
+    }
 }
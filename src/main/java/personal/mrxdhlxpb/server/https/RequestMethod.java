@@ -16,6 +16,8 @@
  */
 package personal.mrxdhlxpb.server.https;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.function.Supplier;
 
 /**
@@ -43,6 +45,16 @@ public enum RequestMethod {
 
     TRACE(false);
 
+    private static final RequestMethod[] VALUES = values();
+
+    /**
+     * the US-ASCII encoded names of the request methods, in the same order as {@code VALUES}
+     */
+    private static final byte[][] NAMES = Arrays
+            .stream(VALUES)
+            .map((requestMethod) -> requestMethod.name().getBytes(StandardCharsets.US_ASCII))
+            .toArray(byte[][]::new);
+
     private final boolean supported;
 
     RequestMethod(boolean supported) {
@@ -60,4 +72,21 @@ public enum RequestMethod {
             throw supplier.get();
         }
     }
+
+    /**
+     * Looks up the request method whose name is the US-ASCII decoding of
+     * {@code bytes[offset..offset+length)}. Unlike {@code valueOf}, this method neither
+     * allocates a string nor throws an exception if no request method matches.
+     *
+     * @param bytes the array that holds the method token
+     * @param offset the index of the first byte of the method token
+     * @param length the length of the method token
+     * @return the request method, or {@code null} if no request method matches
+     */
+    public static RequestMethod of(byte[] bytes, int offset, int length) {
+        for (int i = 0; i < NAMES.length; i++)
+            if (Arrays.equals(NAMES[i], 0, NAMES[i].length, bytes, offset, offset + length))
+                return VALUES[i];
+        return null;
+    }
 }
@@ -0,0 +1,713 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import personal.mrxdhlxpb.server.https.error.concrete.server.InternalServerErrorException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * A shared in-process cache of complete responses to GET requests, which are stored as the bytes
+ * of the response message, so that a request for a fresh cached response is answered by a single
+ * write without calling the request handler.
+ * <p> Only the responses of internal resources whose {@link InternalResource#isResponseCacheable()}
+ * returns {@code true} are considered. A response is stored if
+ * <ul>
+ *     <li>its status code is 200 (OK);</li>
+ *     <li>its Cache-Control header field has a positive {@code s-maxage} or {@code max-age}
+ *         directive, and none of {@code no-store}, {@code no-cache} and {@code private};</li>
+ *     <li>if the request has an Authorization header field, its Cache-Control header field has
+ *         a {@code public}, {@code s-maxage} or {@code must-revalidate} directive, as required of
+ *         a shared cache by <em>RFC 9111: HTTP Caching Section 3.5. Storing Responses to
+ *         Authenticated Requests</em>;</li>
+ *     <li>it has no Set-Cookie, Connection or Transfer-Encoding header field, no trailer
+ *         section and no {@code Vary: *};</li>
+ *     <li>its content, which is read into memory, is of known length, sent as is, and not longer
+ *         than {@code maximumEntrySize}.</li>
+ * </ul>
+ * <p> A response is fresh for its {@code s-maxage} or {@code max-age}, but for at most
+ * {@code maximumTimeToLive}, and is served with an Age header field. If it has a
+ * {@code stale-while-revalidate} directive, it is still served for that many seconds, also at
+ * most {@code maximumTimeToLive}, after it has become stale, while a single background refresh of
+ * it runs on a virtual thread. Responses are keyed by the
+ * {@link RequestMessageControlData#internalResourceIdentifier()} of the request, along with the
+ * values of the request header fields named by the Vary header field of the response. A request
+ * which has a precondition or range header field, or a Cache-Control or Pragma header field with
+ * {@code no-cache}, is not answered from the cache, since it has to be evaluated by the request
+ * handler.
+ * <p> Concurrent identical GET requests which miss the cache are coalesced: the first one is
+ * handled, and the others wait, without blocking a thread, for at most {@code coalescingTimeout}
+ * for its response to be stored and are served from it, so that a popular response which expires
+ * does not make every request call the request handler at once. If the response turns out not to
+ * be stored, or to vary by request header fields whose values differ, the waiting requests are
+ * handled on their own.
+ * <p> The total size of the entries is bounded by {@code capacity}. Entries are evicted by a
+ * segmented LRU policy: a new entry is put in the probationary segment, and an entry which is hit
+ * while it is probationary is promoted to the protected segment, which takes up at most
+ * {@link #PROTECTED_RATIO} of the capacity, when it reaches the end of its segment. A hit is
+ * recorded by setting a flag of the entry, so that lookups take no lock; the lock is only taken
+ * to store an entry.
+ *
+ * @author mrxdhlxpb
+ */
+public final class ResponseCache {
+
+    /**
+     * A cache which stores nothing.
+     */
+    public static final ResponseCache DISABLED =
+            new ResponseCache(0, 0, Duration.ZERO, Duration.ZERO);
+
+    /**
+     * The maximum time for which a request waits for the response to an identical request by
+     * default.
+     */
+    public static final Duration DEFAULT_COALESCING_TIMEOUT = Duration.ofSeconds(10);
+
+    public static final double PROTECTED_RATIO = 0.8;
+
+    /**
+     * the estimated number of bytes an entry takes up in addition to the response message
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private static final String[] NO_VARY = new String[0];
+
+    private static final String[] PRECONDITIONS = {"if-match", "if-none-match",
+            "if-modified-since", "if-unmodified-since", "if-range", "range"};
+
+    private static final Executor FOLLOWER_EXECUTOR =
+            runnable -> Thread.ofVirtual().name("response-cache-follower").start(runnable);
+
+    private record Key(InternalResourceIdentifier internalResourceIdentifier,
+                       List<String> varyingValues) {}
+
+    private static final class Entry {
+
+        private final Key key;
+
+        /**
+         * the status line and the header section, without the empty line
+         */
+        private final byte[] head;
+
+        private final byte[] content;
+
+        private final long storedAt;
+
+        private final long expiresAt;
+
+        /**
+         * the time until which the entry is served while it is refreshed
+         */
+        private final long staleUntil;
+
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private volatile boolean referenced;
+
+        /**
+         * whether the entry is in the protected segment; guarded by {@code lock}
+         */
+        private boolean protectedSegment;
+
+        /**
+         * whether the entry has been removed from {@code entries}; guarded by {@code lock}
+         */
+        private boolean removed;
+
+        private Entry(Key key,
+                      byte[] head,
+                      byte[] content,
+                      long storedAt,
+                      long expiresAt,
+                      long staleUntil) {
+            this.key = key;
+            this.head = head;
+            this.content = content;
+            this.storedAt = storedAt;
+            this.expiresAt = expiresAt;
+            this.staleUntil = staleUntil;
+        }
+
+        private long size() { return ENTRY_OVERHEAD + head.length + content.length; }
+    }
+
+    private final long capacity;
+
+    private final long maximumEntrySize;
+
+    private final long maximumTimeToLiveNanos;
+
+    private final long coalescingTimeoutNanos;
+
+    private final LongSupplier nanoTime;
+
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * the requests being handled whose responses are waited for, by key
+     */
+    private final ConcurrentHashMap<Key, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * the flight of every request which has been answered from the cache
+     */
+    private final Flight served = new Flight(null, null);
+
+    /**
+     * the flight of every request which is handled without others waiting for it
+     */
+    private final Flight uncoalesced = new Flight(null, null);
+
+    /**
+     * the names of the request header fields by which the responses for each identifier vary,
+     * according to the response stored last
+     */
+    private final ConcurrentHashMap<InternalResourceIdentifier, String[]> varyingFieldNames =
+            new ConcurrentHashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * the probationary segment, from the least recently stored or demoted entry; guarded by
+     * {@code lock}
+     */
+    private final ArrayDeque<Entry> probationarySegment = new ArrayDeque<>();
+
+    /**
+     * the protected segment, from the least recently promoted entry; guarded by {@code lock}
+     */
+    private final ArrayDeque<Entry> protectedSegment = new ArrayDeque<>();
+
+    /**
+     * guarded by {@code lock}
+     */
+    private long size;
+
+    /**
+     * guarded by {@code lock}
+     */
+    private long protectedSize;
+
+    /**
+     * The outcome of looking up a request in the cache. Unless the request has been answered from
+     * the cache, the flight is passed to {@link #store(Flight, HTTPRequest, HTTPResponse,
+     * HTTP1_1ResponseMessageBodyGenerator)} and closed once the response has been generated, so
+     * that the requests waiting for the response, if any, stop waiting.
+     */
+    public final class Flight implements AutoCloseable {
+
+        private final Key key;
+
+        /**
+         * the entry stored for the response, or {@code null} if it is not stored; {@code null} if
+         * no request can wait for this flight
+         */
+        private final CompletableFuture<Entry> result;
+
+        private Flight(Key key, CompletableFuture<Entry> result) {
+            this.key = key;
+            this.result = result;
+        }
+
+        /**
+         * @return whether the request has been answered from the cache
+         */
+        public boolean isServed() { return this == served; }
+
+        @Override
+        public void close() { complete(null); }
+
+        private void complete(Entry entry) {
+            if (result == null || result.isDone())
+                return;
+            flights.remove(key, this);
+            result.complete(entry);
+        }
+    }
+
+    /**
+     * Constructs an instance of this class with {@link #DEFAULT_COALESCING_TIMEOUT}.
+     *
+     * @param capacity the maximum total size of the entries
+     * @param maximumEntrySize the maximum size of the content of a response to be stored
+     * @param maximumTimeToLive the maximum time for which a response is fresh
+     * @throws IllegalArgumentException if any argument is negative
+     */
+    public ResponseCache(long capacity, long maximumEntrySize, Duration maximumTimeToLive) {
+        this(capacity, maximumEntrySize, maximumTimeToLive, DEFAULT_COALESCING_TIMEOUT);
+    }
+
+    /**
+     * @param capacity the maximum total size of the entries
+     * @param maximumEntrySize the maximum size of the content of a response to be stored
+     * @param maximumTimeToLive the maximum time for which a response is fresh
+     * @param coalescingTimeout the maximum time for which a request waits for the response to an
+     *                          identical request
+     * @throws IllegalArgumentException if any argument is negative
+     */
+    public ResponseCache(long capacity,
+                         long maximumEntrySize,
+                         Duration maximumTimeToLive,
+                         Duration coalescingTimeout) {
+        this(capacity, maximumEntrySize, maximumTimeToLive, coalescingTimeout, System::nanoTime);
+    }
+
+    /**
+     * @param nanoTime the source of the current time, in the manner of {@link System#nanoTime()}
+     */
+    ResponseCache(long capacity,
+                  long maximumEntrySize,
+                  Duration maximumTimeToLive,
+                  Duration coalescingTimeout,
+                  LongSupplier nanoTime) {
+        if (capacity < 0 || maximumEntrySize < 0 || maximumTimeToLive.isNegative()
+                || coalescingTimeout.isNegative())
+            throw new IllegalArgumentException();
+        this.capacity = capacity;
+        this.maximumEntrySize = Math.min(maximumEntrySize, Integer.MAX_VALUE - 8);
+        this.maximumTimeToLiveNanos = maximumTimeToLive.toNanos();
+        this.coalescingTimeoutNanos = coalescingTimeout.toNanos();
+        this.nanoTime = Objects.requireNonNull(nanoTime);
+    }
+
+    /**
+     * Writes the cached response to {@code httpRequest}, if one which is fresh, or stale but to
+     * be revalidated in the background, is present and the request may be answered from the
+     * cache. The content is not written in response to HEAD. A stale response is refreshed by
+     * calling {@code refresher} on a new virtual thread, unless it is being refreshed already,
+     * with a snapshot of the request: a GET request with a copy of its header section and no
+     * content, which stays valid after the request has been closed and the connection has moved
+     * on to the next request.
+     * <p> If no cached response is present and an identical GET request is being handled, the
+     * returned stage completes once the response to that request has been stored, or the
+     * coalescing timeout has elapsed, as described in the class description. The request is then
+     * served, if possible, on a new virtual thread, so that the thread handling the other request
+     * does not write to the connection of this request. Otherwise, the stage is already complete.
+     *
+     * @param httpRequest a request
+     * @param responseOutputStream the output stream into which the response message is written
+     * @param refresher generates a response to the request, bypassing the cache, and stores it
+     * @return a stage which completes with the flight of the request, or completes exceptionally
+     *         with an {@code InternalServerErrorException} wrapping an {@code IOException}
+     */
+    public CompletionStage<Flight> lookUp(HTTPRequest httpRequest,
+                                          HTTP1_1ResponseOutputStream responseOutputStream,
+                                          Consumer<HTTPRequest> refresher) {
+        final RequestMethod requestMethod =
+                httpRequest.requestMessageControlData().requestMethod();
+        if (capacity == 0 || requestMethod != RequestMethod.GET
+                && requestMethod != RequestMethod.HEAD || !isServable(httpRequest)
+                || httpRequest.requestMessageControlData().internalResourceIdentifier() == null)
+            return CompletableFuture.completedStage(uncoalesced);
+        final Key key = getKey(httpRequest);
+        try {
+            if (serve(entries.get(key), httpRequest, responseOutputStream, refresher))
+                return CompletableFuture.completedStage(served);
+        } catch (IOException ioException) {
+            return CompletableFuture.failedStage(new InternalServerErrorException(ioException));
+        }
+        if (requestMethod != RequestMethod.GET)
+            return CompletableFuture.completedStage(uncoalesced);
+
+        final Flight flight = new Flight(key, new CompletableFuture<>());
+        final Flight leader = flights.putIfAbsent(key, flight);
+        if (leader == null)
+            return CompletableFuture.completedStage(flight);
+        return leader.result
+                .copy()
+                .completeOnTimeout(null, coalescingTimeoutNanos, TimeUnit.NANOSECONDS)
+                .thenApplyAsync(ignored -> {
+                    try {
+                        // the response may vary by request header fields which were not known
+                        // before
+                        return serve(entries.get(getKey(httpRequest)), httpRequest,
+                                responseOutputStream, refresher) ? served : uncoalesced;
+                    } catch (IOException ioException) {
+                        throw new CompletionException(
+                                new InternalServerErrorException(ioException));
+                    }
+                }, FOLLOWER_EXECUTOR);
+    }
+
+    /**
+     * Stores {@code httpResponse} if it is to be stored, as described in the class description,
+     * in which case its content is read into memory and replaced with the bytes read. This is to
+     * be called once the header section of the response is complete, right before the response
+     * message is generated. The requests waiting for {@code flight} are then served from the
+     * stored response, if any.
+     *
+     * @param flight the flight of the request, or {@code null} if the request has not been looked
+     *               up, as it is a refresh of a stale response
+     * @param httpRequest the request
+     * @param httpResponse the response
+     * @param messageBodyGenerator the message body generator of the internal resource
+     * @throws InternalServerErrorException if end of stream is detected before the content has
+     *                                      been read, or to wrap an {@code IOException}
+     */
+    public void store(Flight flight,
+                      HTTPRequest httpRequest,
+                      HTTPResponse httpResponse,
+                      HTTP1_1ResponseMessageBodyGenerator messageBodyGenerator)
+            throws InternalServerErrorException {
+        Entry entry = null;
+        try {
+            entry = put(httpRequest, httpResponse, messageBodyGenerator);
+        } finally {
+            if (flight != null)
+                flight.complete(entry);
+        }
+    }
+
+    /**
+     * @return the entry stored, or {@code null} if the response is not to be stored
+     */
+    private Entry put(HTTPRequest httpRequest,
+                      HTTPResponse httpResponse,
+                      HTTP1_1ResponseMessageBodyGenerator messageBodyGenerator)
+            throws InternalServerErrorException {
+        final Freshness freshness = getFreshness(httpRequest, httpResponse, messageBodyGenerator);
+        if (freshness == null)
+            return null;
+        final InternalResourceIdentifier internalResourceIdentifier =
+                httpRequest.requestMessageControlData().internalResourceIdentifier();
+        final String[] fieldNames = httpResponse.getHeaderSection()
+                .getFieldValueMembers("vary")
+                .map(members -> Arrays.stream(members)
+                        .map(member -> member.strip().toLowerCase(Locale.ROOT))
+                        .distinct()
+                        .sorted()
+                        .toArray(String[]::new))
+                .orElse(NO_VARY);
+
+        final int contentLength = httpResponse.getContentLength();
+        final byte[] content;
+        final byte[] head;
+        try {
+            final InputStream contentInputStream = httpResponse.getContentInputStream();
+            content = contentLength == 0 ? new byte[0] :
+                    contentInputStream.readNBytes(contentLength);
+            if (content.length != contentLength)
+                throw new InternalServerErrorException(new IllegalArgumentException());
+            httpResponse.setContentInputStream(new ByteArrayInputStream(content));
+            head = serializeHead(httpResponse);
+        } catch (IOException ioException) {
+            throw new InternalServerErrorException(ioException);
+        }
+
+        final long now = nanoTime.getAsLong();
+        final Key key = new Key(internalResourceIdentifier,
+                getVaryingValues(httpRequest, fieldNames));
+        final Entry entry = new Entry(key, head, content, now, now + freshness.timeToLiveNanos(),
+                now + freshness.timeToLiveNanos() + freshness.staleWhileRevalidateNanos());
+        if (entry.size() > capacity)
+            return null;
+        lock.lock();
+        try {
+            varyingFieldNames.put(internalResourceIdentifier, fieldNames);
+            final Entry previous = entries.put(key, entry);
+            if (previous != null)
+                previous.removed = true;
+            probationarySegment.addLast(entry);
+            size += entry.size();
+            evict();
+        } finally {
+            lock.unlock();
+        }
+        return entry;
+    }
+
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            entries.clear();
+            varyingFieldNames.clear();
+            probationarySegment.clear();
+            protectedSegment.clear();
+            size = 0;
+            protectedSize = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the total size of the entries, including those which have expired or been
+     *         replaced but have not been evicted yet
+     */
+    public long getSize() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getEntryCount() { return entries.size(); }
+
+    /**
+     * Evicts entries until the total size is within the capacity. Entries which have been
+     * replaced or have expired are evicted first as they reach the end of their segment.
+     */
+    private void evict() {
+        final long now = nanoTime.getAsLong();
+        final long protectedCapacity = (long) (capacity * PROTECTED_RATIO);
+        while (size > capacity) {
+            final Entry entry = probationarySegment.isEmpty() ?
+                    protectedSegment.pollFirst() : probationarySegment.pollFirst();
+            if (entry.protectedSegment) {
+                // demoted
+                entry.protectedSegment = false;
+                protectedSize -= entry.size();
+                entry.referenced = false;
+                probationarySegment.addLast(entry);
+                continue;
+            }
+            if (entry.referenced && !entry.removed && now - entry.staleUntil < 0) {
+                entry.referenced = false;
+                entry.protectedSegment = true;
+                protectedSegment.addLast(entry);
+                protectedSize += entry.size();
+                while (protectedSize > protectedCapacity) {
+                    final Entry demoted = protectedSegment.pollFirst();
+                    demoted.protectedSegment = false;
+                    demoted.referenced = false;
+                    protectedSize -= demoted.size();
+                    probationarySegment.addLast(demoted);
+                }
+                continue;
+            }
+            size -= entry.size();
+            if (!entry.removed) {
+                entry.removed = true;
+                entries.remove(entry.key, entry);
+            }
+        }
+    }
+
+    /**
+     * Writes {@code entry}, unless it is {@code null} or too stale to be served.
+     */
+    private boolean serve(Entry entry,
+                          HTTPRequest httpRequest,
+                          HTTP1_1ResponseOutputStream responseOutputStream,
+                          Consumer<HTTPRequest> refresher)
+            throws IOException {
+        if (entry == null)
+            return false;
+        final long now = nanoTime.getAsLong();
+        if (now - entry.staleUntil >= 0)
+            return false;
+        if (now - entry.expiresAt >= 0 && entry.refreshing.compareAndSet(false, true)) {
+            final HTTPRequest snapshot = snapshot(httpRequest);
+            Thread.ofVirtual().name("response-cache-refresher").start(() -> {
+                try {
+                    refresher.accept(snapshot);
+                } finally {
+                    entry.refreshing.set(false);
+                }
+            });
+        }
+        entry.referenced = true;
+
+        responseOutputStream.write(entry.head, 0, entry.head.length);
+        responseOutputStream.writeASCII("age: ");
+        responseOutputStream.writeDecimal((int) ((now - entry.storedAt) / 1_000_000_000L));
+        responseOutputStream.writeCRLF();
+        responseOutputStream.writeCRLF();
+        if (httpRequest.requestMessageControlData().requestMethod() == RequestMethod.GET)
+            responseOutputStream.write(entry.content, 0, entry.content.length);
+        responseOutputStream.flush();
+        return true;
+    }
+
+    /**
+     * Copies what a refresh needs from {@code httpRequest}, which is owned by the connection. The
+     * header section is decoded eagerly, since a header section read lazily shares its buffer with
+     * the next request on the connection.
+     */
+    private static HTTPRequest snapshot(HTTPRequest httpRequest) {
+        final Fields headerSection = new Fields();
+        if (httpRequest.headerSection() != null)
+            for (Fields.Field field : httpRequest.headerSection().toList())
+                headerSection.append(field.fieldName(), field.fieldValueString());
+        final RequestMessageControlData requestMessageControlData =
+                httpRequest.requestMessageControlData();
+        return new HTTPRequest(
+                new RequestMessageControlData(
+                        RequestMethod.GET,
+                        requestMessageControlData.targetResource(),
+                        requestMessageControlData.protocolVersion(),
+                        requestMessageControlData.internalResourceIdentifier()),
+                headerSection,
+                Optional.empty(),
+                Optional.empty(),
+                0);
+    }
+
+    private Key getKey(HTTPRequest httpRequest) {
+        final InternalResourceIdentifier internalResourceIdentifier =
+                httpRequest.requestMessageControlData().internalResourceIdentifier();
+        return new Key(internalResourceIdentifier, getVaryingValues(httpRequest,
+                varyingFieldNames.getOrDefault(internalResourceIdentifier, NO_VARY)));
+    }
+
+    /**
+     * @param timeToLiveNanos the time for which the response is fresh
+     * @param staleWhileRevalidateNanos the time for which the response is served while it is
+     *                                  revalidated, once it has become stale
+     */
+    private record Freshness(long timeToLiveNanos, long staleWhileRevalidateNanos) {}
+
+    /**
+     * @return the freshness of the response, or {@code null} if the response is not to be stored
+     */
+    private Freshness getFreshness(HTTPRequest httpRequest,
+                                   HTTPResponse httpResponse,
+                                   HTTP1_1ResponseMessageBodyGenerator messageBodyGenerator) {
+        if (capacity == 0
+                || httpRequest.requestMessageControlData().requestMethod() != RequestMethod.GET
+                || httpRequest.requestMessageControlData().internalResourceIdentifier() == null
+                || httpResponse.getStatusCode() != 200
+                || httpResponse.getContentWriter().isPresent()
+                || httpResponse.getTrailerSection().isPresent()
+                || httpResponse.getContentLength() < 0
+                || httpResponse.getContentLength() > maximumEntrySize
+                // rejected before the content is read, as the entry could not fit
+                || ENTRY_OVERHEAD + httpResponse.getContentLength() > capacity
+                || httpResponse.getContentLength() > 0
+                && httpResponse.getContentInputStream() == null
+                || messageBodyGenerator.getTransferEncodingChain(httpResponse.getContentLength())
+                        .length != 0)
+            return null;
+        final Fields headerSection = httpResponse.getHeaderSection();
+        if (headerSection.contains("set-cookie") || headerSection.contains("connection")
+                || headerSection.contains("transfer-encoding"))
+            return null;
+        final Optional<String[]> vary = headerSection.getFieldValueMembers("vary");
+        if (vary.isPresent() && Arrays.stream(vary.get()).anyMatch(member ->
+                member.strip().equals("*")))
+            return null;
+
+        long maxAge = -1;
+        long sMaxAge = -1;
+        long staleWhileRevalidate = 0;
+        boolean storableIfAuthorized = false;
+        for (String directive : headerSection.getFieldValueMembers("cache-control")
+                .orElse(NO_VARY)) {
+            final int equalsSign = directive.indexOf('=');
+            final String name = (equalsSign == -1 ? directive : directive.substring(0, equalsSign))
+                    .strip().toLowerCase(Locale.ROOT);
+            switch (name) {
+                case "no-store", "no-cache", "private" -> { return null; }
+                case "max-age" -> maxAge = parseDeltaSeconds(directive.substring(equalsSign + 1));
+                case "s-maxage" -> {
+                    sMaxAge = parseDeltaSeconds(directive.substring(equalsSign + 1));
+                    storableIfAuthorized = true;
+                }
+                case "public", "must-revalidate" -> storableIfAuthorized = true;
+                case "stale-while-revalidate" -> staleWhileRevalidate =
+                        parseDeltaSeconds(directive.substring(equalsSign + 1));
+                default -> {}
+            }
+        }
+        final long seconds = sMaxAge >= 0 ? sMaxAge : maxAge;
+        if (seconds <= 0)
+            return null;
+        if (!storableIfAuthorized && httpRequest.headerSection() != null
+                && httpRequest.headerSection().contains("authorization"))
+            return null;
+        final long timeToLiveNanos = Math.min(maximumTimeToLiveNanos, toNanos(seconds));
+        if (timeToLiveNanos <= 0)
+            return null;
+        return new Freshness(timeToLiveNanos,
+                Math.min(maximumTimeToLiveNanos, toNanos(staleWhileRevalidate)));
+    }
+
+    private static long toNanos(long seconds) {
+        return seconds <= 0 ? 0 : seconds > Long.MAX_VALUE / 1_000_000_000L ?
+                Long.MAX_VALUE : seconds * 1_000_000_000L;
+    }
+
+    /**
+     * @return the value of the delta-seconds, or -1 if it is invalid
+     */
+    private static long parseDeltaSeconds(String str) {
+        str = str.strip();
+        if (str.length() >= 2 && str.startsWith("\"") && str.endsWith("\""))
+            str = str.substring(1, str.length() - 1);
+        if (str.isEmpty() || str.length() > 18 || !str.chars().allMatch(Character::isDigit))
+            return -1;
+        return Long.parseLong(str);
+    }
+
+    private static boolean isServable(HTTPRequest httpRequest) {
+        final Fields headerSection = httpRequest.headerSection();
+        if (headerSection == null)
+            return true;
+        for (String fieldName : PRECONDITIONS)
+            if (headerSection.contains(fieldName))
+                return false;
+        for (String fieldName : new String[]{"cache-control", "pragma"})
+            for (String directive : headerSection.getFieldValueMembers(fieldName)
+                    .orElse(NO_VARY))
+                if (directive.strip().toLowerCase(Locale.ROOT).startsWith("no-cache"))
+                    return false;
+        return true;
+    }
+
+    private static List<String> getVaryingValues(HTTPRequest httpRequest, String[] fieldNames) {
+        final String[] values = new String[fieldNames.length];
+        final Fields headerSection = httpRequest.headerSection();
+        if (headerSection != null)
+            for (int i = 0; i < fieldNames.length; i++)
+                values[i] = headerSection.getFieldValueString(fieldNames[i]).orElse(null);
+        return Arrays.asList(values);
+    }
+
+    private static byte[] serializeHead(HTTPResponse httpResponse) throws IOException {
+        final ByteArrayOutputStream head = new ByteArrayOutputStream();
+        final HTTP1_1ResponseOutputStream responseOutputStream =
+                new HTTP1_1ResponseOutputStream(head);
+        HTTP1_1ResponseGenerator.writeHead(httpResponse, responseOutputStream);
+        responseOutputStream.flush();
+        return head.toByteArray();
+    }
+
+}
@@ -0,0 +1,454 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import personal.mrxdhlxpb.server.https.error.concrete.server.InternalServerErrorException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the content of responses with the gzip or the deflate content coding, between the
+ * request handler and the message body generator.
+ * <p> A response is compressed if the {@link CompressionPolicy} of its internal resource regards
+ * its content as compressible, and the client accepts one of the content codings according to
+ * the Accept-Encoding header field of the request. The Vary header field of every response whose
+ * content is compressible includes Accept-Encoding, whether it is compressed or not, so that a
+ * cache does not serve compressed content to a client which does not accept it. A 304 (Not
+ * Modified) response gets the ETag and Vary header fields the 200 (OK) response would have had.
+ * <p> If the message body generator frames content of unknown length, the content is deflated as
+ * it is written, through a {@link ContentWriter}. Otherwise, content of known length which is not
+ * longer than {@code maximumInMemorySize} is deflated in memory, so that the Content-Length header
+ * field can be set, and is sent as is if it does not get any shorter. Longer content is not
+ * compressed for such a message body generator, since it would be held in memory twice.
+ * <p> Since deflating costs far more CPU time than anything else per response, the compression
+ * level is lowered from {@code maximumLevel} towards {@code Deflater.BEST_SPEED} as the CPU load
+ * of the process rises, which is sampled at most once per second. The carrier threads of the
+ * virtual threads handling connections are as many as the available processors, so the CPU load
+ * of the process approximates how saturated the carriers are.
+ *
+ * @author mrxdhlxpb
+ */
+@CompliantWith("RFC 9110: HTTP Semantics Section 8.4. Content-Encoding")
+@CompliantWith("RFC 9110: HTTP Semantics Section 12.5.3. Accept-Encoding")
+public final class ResponseCompressor {
+
+    /**
+     * a response compressor at the default compression level, with a pool retaining at most 64
+     * {@code Deflater} instances
+     */
+    public static final ResponseCompressor DEFAULT = new ResponseCompressor(new DeflaterPool(64), 6);
+
+    /**
+     * the default maximum length of content which is deflated in memory, 1 MiB
+     */
+    public static final int DEFAULT_MAXIMUM_IN_MEMORY_SIZE = 1 << 20;
+
+    /**
+     * the CPU load below which {@code maximumLevel} is used
+     */
+    static final double LOW_LOAD = 0.6;
+
+    /**
+     * the CPU load at and above which {@code Deflater.BEST_SPEED} is used
+     */
+    static final double HIGH_LOAD = 0.9;
+
+    private static final long LOAD_SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * the index of the qvalue of identity in the array returned by {@code weigh}
+     */
+    private static final int IDENTITY = ContentCoding.values().length;
+
+    public enum ContentCoding {
+        GZIP("gzip"), DEFLATE("deflate");
+
+        private final String token;
+
+        ContentCoding(String token) { this.token = token; }
+
+        /**
+         * @return the content coding name used in the Content-Encoding header field
+         */
+        public String getToken() { return token; }
+    }
+
+    private final DeflaterPool deflaterPool;
+
+    private final int maximumLevel;
+
+    private final int maximumInMemorySize;
+
+    private final DoubleSupplier cpuLoad;
+
+    private volatile double sampledLoad;
+
+    private volatile long loadSampleTime;
+
+    private volatile boolean loadSampled;
+
+    /**
+     * Constructs a response compressor which samples the CPU load of the process.
+     *
+     * @param deflaterPool the pool from which {@code Deflater} instances are acquired
+     * @param maximumLevel the compression level used when the CPU load is low
+     */
+    public ResponseCompressor(DeflaterPool deflaterPool, int maximumLevel) {
+        this(deflaterPool, maximumLevel, ResponseCompressor::processCpuLoad);
+    }
+
+    /**
+     * @param deflaterPool the pool from which {@code Deflater} instances are acquired
+     * @param maximumLevel the compression level used when the CPU load is low
+     * @param cpuLoad supplies the recent CPU load within the range of 0 to 1, inclusive, or a
+     *                negative value if not available
+     * @throws NullPointerException if {@code deflaterPool} or {@code cpuLoad} is {@code null}
+     * @throws IllegalArgumentException if {@code maximumLevel} is not within the range of
+     *                                  {@code Deflater.BEST_SPEED} to
+     *                                  {@code Deflater.BEST_COMPRESSION}, inclusive
+     */
+    public ResponseCompressor(DeflaterPool deflaterPool, int maximumLevel, DoubleSupplier cpuLoad) {
+        this(deflaterPool, maximumLevel, DEFAULT_MAXIMUM_IN_MEMORY_SIZE, cpuLoad);
+    }
+
+    /**
+     * @param deflaterPool the pool from which {@code Deflater} instances are acquired
+     * @param maximumLevel the compression level used when the CPU load is low
+     * @param maximumInMemorySize the maximum length of content which is deflated in memory
+     * @param cpuLoad supplies the recent CPU load within the range of 0 to 1, inclusive, or a
+     *                negative value if not available
+     * @throws NullPointerException if {@code deflaterPool} or {@code cpuLoad} is {@code null}
+     * @throws IllegalArgumentException if {@code maximumLevel} is not within the range of
+     *                                  {@code Deflater.BEST_SPEED} to
+     *                                  {@code Deflater.BEST_COMPRESSION}, inclusive, or
+     *                                  {@code maximumInMemorySize} is negative
+     */
+    public ResponseCompressor(DeflaterPool deflaterPool,
+                              int maximumLevel,
+                              int maximumInMemorySize,
+                              DoubleSupplier cpuLoad) {
+        if (maximumLevel < Deflater.BEST_SPEED || maximumLevel > Deflater.BEST_COMPRESSION
+                || maximumInMemorySize < 0)
+            throw new IllegalArgumentException();
+        this.deflaterPool = Objects.requireNonNull(deflaterPool);
+        this.maximumLevel = maximumLevel;
+        this.maximumInMemorySize = maximumInMemorySize;
+        this.cpuLoad = Objects.requireNonNull(cpuLoad);
+    }
+
+    public DeflaterPool getDeflaterPool() { return deflaterPool; }
+
+    public int getMaximumLevel() { return maximumLevel; }
+
+    public int getMaximumInMemorySize() { return maximumInMemorySize; }
+
+    /**
+     * @return the compression level to be used for the next response, according to the CPU load
+     */
+    public int getCurrentLevel() {
+        final double load = getSampledLoad();
+        if (load < LOW_LOAD)
+            return maximumLevel;
+        if (load >= HIGH_LOAD)
+            return Deflater.BEST_SPEED;
+        return (int) Math.round(maximumLevel
+                - (maximumLevel - Deflater.BEST_SPEED) * (load - LOW_LOAD) / (HIGH_LOAD - LOW_LOAD));
+    }
+
+    /**
+     * Compresses the content of {@code httpResponse} if it is compressible under
+     * {@code compressionPolicy} and the client accepts a content coding, as described in the class
+     * description. The Content-Encoding, Content-Length and Vary header fields are updated
+     * accordingly, and a strong entity tag is weakened, as the compressed content is no longer
+     * the same representation byte by byte. A 304 (Not Modified) response is completed by
+     * {@link #notModified(HTTPRequest, HTTPResponse)} instead.
+     *
+     * @param httpRequest the request
+     * @param httpResponse the response, after the request handler has handled the request
+     * @param compressionPolicy the compression policy of the internal resource
+     * @param messageBodyGenerator the message body generator of the internal resource
+     * @throws InternalServerErrorException if content of known length is deflated in memory and
+     *                                      end of stream is detected early, or to wrap an
+     *                                      {@code IOException}
+     */
+    public void compress(HTTPRequest httpRequest,
+                         HTTPResponse httpResponse,
+                         CompressionPolicy compressionPolicy,
+                         HTTP1_1ResponseMessageBodyGenerator messageBodyGenerator)
+            throws InternalServerErrorException {
+        final short statusCode = httpResponse.getStatusCode();
+        if (statusCode == 304) {
+            notModified(httpRequest, httpResponse);
+            return;
+        }
+        // 206 (Partial Content) ranges are of the representation as is
+        if (statusCode < 200 || statusCode == 204 || statusCode == 206)
+            return;
+        final Fields headerSection = httpResponse.getHeaderSection();
+        if (headerSection.contains("content-encoding")
+                || !compressionPolicy.isCompressible(
+                        headerSection.getFieldValueString("content-type").orElse(null)))
+            return;
+        final Optional<ContentWriter> contentWriterOptional = httpResponse.getContentWriter();
+        final int contentLength =
+                contentWriterOptional.isPresent() ? -1 : httpResponse.getContentLength();
+        if (contentLength == 0 || !compressionPolicy.isLongEnough(contentLength))
+            return;
+
+        addVary(headerSection);
+
+        final Optional<ContentCoding> contentCodingOptional = negotiate(
+                httpRequest.headerSection() == null ? null :
+                        httpRequest.headerSection().getFieldValueString("accept-encoding")
+                                .orElse(null));
+        if (contentCodingOptional.isEmpty())
+            return;
+        final boolean streaming = messageBodyGenerator.getTransferEncodingChain(-1).length > 0;
+        // content of unknown length, or longer than maximumInMemorySize, is not deflated in memory
+        if (!streaming && (contentLength < 0 || contentLength > maximumInMemorySize))
+            return;
+        final ContentCoding contentCoding = contentCodingOptional.get();
+        final int level = getCurrentLevel();
+
+        if (streaming) {
+            final ContentWriter source = contentWriterOptional.orElseGet(() ->
+                    transferring(httpResponse.getContentInputStream(), contentLength));
+            httpResponse.setContentWriter(outputStream -> {
+                try (DeflatingOutputStream deflatingOutputStream = new DeflatingOutputStream(
+                        outputStream, contentCoding, deflaterPool, level)) {
+                    source.writeTo(deflatingOutputStream);
+                }
+            });
+            headerSection.remove("content-length");
+        } else {
+            final byte[] content;
+            final ByteArrayOutputStream deflated = new ByteArrayOutputStream(contentLength / 4);
+            try {
+                content = httpResponse.getContentInputStream().readNBytes(contentLength);
+                if (content.length != contentLength)
+                    throw new InternalServerErrorException(new IllegalArgumentException());
+                try (DeflatingOutputStream deflatingOutputStream = new DeflatingOutputStream(
+                        deflated, contentCoding, deflaterPool, level)) {
+                    deflatingOutputStream.write(content);
+                }
+            } catch (IOException ioException) {
+                throw new InternalServerErrorException(ioException);
+            }
+            if (deflated.size() >= contentLength) {
+                httpResponse.setContentInputStream(new ByteArrayInputStream(content));
+                return;
+            }
+            httpResponse.setContentInputStream(new ByteArrayInputStream(deflated.toByteArray()));
+            httpResponse.setContentLength(deflated.size());
+            headerSection.set("content-length", String.valueOf(deflated.size()));
+        }
+
+        // ranges are served of the content as is, not of the compressed content
+        headerSection.remove("accept-ranges");
+        headerSection.set("content-encoding", contentCoding.getToken());
+        headerSection.getFieldValueString("etag")
+                .ifPresent(entityTag -> headerSection.set("etag", Validators.weaken(entityTag)));
+    }
+
+    /**
+     * Selects the content coding preferred by the client according to the value of the
+     * Accept-Encoding header field. A content coding with a qvalue of 0 is not acceptable; the
+     * identity coding is acceptable unless excluded. gzip is preferred over deflate when equally
+     * acceptable, and either is selected only if it is at least as acceptable as identity, if
+     * identity is weighted by its name or by {@code "*"}.
+     * <p> No content coding is selected if the header field is absent, since old clients which
+     * do not send it may not be able to decode any.
+     *
+     * @param acceptEncoding the value of the Accept-Encoding header field, or {@code null} if
+     *                       absent
+     * @return the selected content coding, or an empty {@code Optional} for the identity coding
+     */
+    public static Optional<ContentCoding> negotiate(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return Optional.empty();
+        final double[] weights = weigh(acceptEncoding);
+        final double gzip = weights[ContentCoding.GZIP.ordinal()];
+        final double deflate = weights[ContentCoding.DEFLATE.ordinal()];
+        final ContentCoding preferred = gzip >= deflate ? ContentCoding.GZIP : ContentCoding.DEFLATE;
+        final double preferredQvalue = Math.max(gzip, deflate);
+        return preferredQvalue > 0 && preferredQvalue >= weights[IDENTITY] ?
+                Optional.of(preferred) : Optional.empty();
+    }
+
+    /**
+     * Determines whether the client accepts {@code contentCoding}, in the same manner as
+     * {@link #negotiate(String)} does, except that the other content coding is disregarded. This
+     * is useful when content is only available in the content coding, such as a precompressed
+     * file.
+     *
+     * @param acceptEncoding the value of the Accept-Encoding header field, or {@code null} if
+     *                       absent
+     * @param contentCoding the content coding
+     * @return whether {@code contentCoding} is acceptable and at least as acceptable as identity
+     */
+    public static boolean isAcceptable(String acceptEncoding, ContentCoding contentCoding) {
+        if (acceptEncoding == null)
+            return false;
+        final double[] weights = weigh(acceptEncoding);
+        final double qvalue = weights[contentCoding.ordinal()];
+        return qvalue > 0 && qvalue >= weights[IDENTITY];
+    }
+
+    /**
+     * @return the qvalues of the content codings, indexed by their ordinals, followed by that of
+     *         identity at {@code IDENTITY}
+     */
+    private static double[] weigh(String acceptEncoding) {
+        double gzip = -1, deflate = -1, identity = -1, any = -1;
+        for (String member : acceptEncoding.split(",")) {
+            final int semicolon = member.indexOf(';');
+            final String coding = (semicolon == -1 ? member : member.substring(0, semicolon))
+                    .strip().toLowerCase(Locale.ROOT);
+            final double qvalue = semicolon == -1 ? 1 : parseWeight(member.substring(semicolon));
+            if (qvalue < 0)
+                continue;
+            switch (coding) {
+                case "gzip", "x-gzip" -> gzip = Math.max(gzip, qvalue);
+                case "deflate" -> deflate = Math.max(deflate, qvalue);
+                case "identity" -> identity = qvalue;
+                case "*" -> any = qvalue;
+                default -> {}
+            }
+        }
+        final double[] weights = new double[IDENTITY + 1];
+        weights[ContentCoding.GZIP.ordinal()] = gzip < 0 ? Math.max(any, 0) : gzip;
+        weights[ContentCoding.DEFLATE.ordinal()] = deflate < 0 ? Math.max(any, 0) : deflate;
+        // identity, which is always acceptable as the fallback, does not outrank a content coding
+        // unless weighted explicitly
+        weights[IDENTITY] = identity < 0 ? Math.max(any, 0) : identity;
+        return weights;
+    }
+
+    /**
+     * Parses the parameters following a content coding, {@code *( OWS ";" OWS parameter )}, for
+     * the weight {@code "q=" qvalue}.
+     *
+     * @return the qvalue, {@code 1} if absent, or {@code -1} if invalid
+     */
+    private static double parseWeight(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            final String stripped = parameter.strip();
+            if (stripped.length() < 2 || (stripped.charAt(0) | 0X20) != 'q'
+                    || stripped.charAt(1) != '=')
+                continue;
+            final String qvalue = stripped.substring(2);
+            // qvalue = ( "0" [ "." 0*3DIGIT ] ) / ( "1" [ "." 0*3("0") ] )
+            if (!qvalue.matches("0(\\.[0-9]{0,3})?|1(\\.0{0,3})?"))
+                return -1;
+            return Double.parseDouble(qvalue);
+        }
+        return 1;
+    }
+
+    /**
+     * Sets the ETag and Vary header fields of a 304 (Not Modified) response to those of the 200
+     * (OK) response to the same request, as required by <em>RFC 9110: HTTP Semantics Section
+     * 15.4.5. 304 Not Modified</em>. Without the content, whether it would be compressed is not
+     * known, so the Vary header field includes Accept-Encoding, and a strong entity tag is
+     * weakened if the client accepts a content coding, unless the client has validated the
+     * strong entity tag, which is only sent with content which is not compressed.
+     */
+    private static void notModified(HTTPRequest httpRequest, HTTPResponse httpResponse) {
+        final Fields headerSection = httpResponse.getHeaderSection();
+        addVary(headerSection);
+        final Fields requestHeaderSection = httpRequest.headerSection();
+        if (requestHeaderSection == null || negotiate(requestHeaderSection
+                .getFieldValueString("accept-encoding").orElse(null)).isEmpty())
+            return;
+        final Optional<String> entityTag = headerSection.getFieldValueString("etag")
+                .filter(tag -> tag.startsWith("\""));
+        if (entityTag.isPresent() && !requestHeaderSection.getFieldValueString("if-none-match")
+                .map(Preconditions::parseEntityTags)
+                .orElse(List.of())
+                .contains(entityTag.get()))
+            headerSection.set("etag", Validators.weaken(entityTag.get()));
+    }
+
+    private static void addVary(Fields headerSection) {
+        final Optional<String[]> vary = headerSection.getFieldValueMembers("vary");
+        if (vary.isPresent())
+            for (String member : vary.get())
+                if (member.equals("*") || member.equalsIgnoreCase("accept-encoding"))
+                    return;
+        headerSection.append("vary", "accept-encoding");
+    }
+
+    /**
+     * @return a content writer which transfers the content of {@code contentLength}, negative if
+     *         unknown, from {@code contentInputStream}
+     */
+    private static ContentWriter transferring(InputStream contentInputStream, int contentLength) {
+        return outputStream -> {
+            if (contentLength < 0) {
+                contentInputStream.transferTo(outputStream);
+                return;
+            }
+            final byte[] buffer = new byte[Math.min(contentLength, 8192)];
+            int remaining = contentLength;
+            while (remaining > 0) {
+                final int n = contentInputStream.read(buffer, 0, Math.min(remaining, buffer.length));
+                if (n < 0)
+                    throw new IOException("unexpected end of the content");
+                outputStream.write(buffer, 0, n);
+                remaining -= n;
+            }
+        };
+    }
+
+    private double getSampledLoad() {
+        final long now = System.nanoTime();
+        if (!loadSampled || now - loadSampleTime >= LOAD_SAMPLE_INTERVAL_NANOS) {
+            // a race only samples more than once
+            sampledLoad = cpuLoad.getAsDouble();
+            loadSampleTime = now;
+            loadSampled = true;
+        }
+        return sampledLoad;
+    }
+
+    /**
+     * @return the recent CPU load of the process, or the system load average per available
+     *         processor if not available, or a negative value if neither is available
+     */
+    private static double processCpuLoad() {
+        final OperatingSystemMXBean operatingSystemMXBean =
+                ManagementFactory.getOperatingSystemMXBean();
+        if (operatingSystemMXBean instanceof com.sun.management.OperatingSystemMXBean bean)
+            return bean.getProcessCpuLoad();
+        final double systemLoadAverage = operatingSystemMXBean.getSystemLoadAverage();
+        return systemLoadAverage < 0 ? -1 :
+                Math.min(1, systemLoadAverage / operatingSystemMXBean.getAvailableProcessors());
+    }
+
+}
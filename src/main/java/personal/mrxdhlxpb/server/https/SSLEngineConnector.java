@@ -0,0 +1,802 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import personal.mrxdhlxpb.server.https.configuration.Configuration;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A non-blocking connector which accepts connections with a {@link ServerSocketChannel} and
+ * multiplexes them on a small set of {@link Selector} event loops. TLS is handled by
+ * {@link SSLEngine}.
+ * <p> The event loops perform the handshakes and decrypt the received records. The delegated tasks
+ * of the {@link SSLEngine}, which may be expensive, are run by virtual threads, and the handshake
+ * resumes on the event loop once they have finished. Once a connection has received request
+ * data, a virtual thread is dispatched to process the requests on the connection with an
+ * {@link HTTP1_1Processor}. When no request data is pending after a response has been generated,
+ * the virtual thread terminates and the connection is handed back to its event loop. Therefore,
+ * an idle persistent connection holds neither a thread nor a {@code BufferedInputStream}.
+ *
+ * @author mrxdhlxpb
+ */
+class SSLEngineConnector implements Runnable {
+
+    /**
+     * the maximum number of decrypted bytes buffered for a connection before the event loop stops
+     * reading from it
+     */
+    private static final int MAXIMUM_INBOUND_BUFFERED = 64 * 1024;
+
+    private static final long IDLE_CHECK_INTERVAL_MILLIS = 1000;
+
+    private final Configuration configuration;
+
+    private final SSLContext sslContext;
+
+    private final int soTimeout;
+
+    public SSLEngineConnector(Configuration configuration, SSLContext sslContext) {
+        this.configuration = Objects.requireNonNull(configuration);
+        this.sslContext = Objects.requireNonNull(sslContext);
+        this.soTimeout = configuration.getNetworkConfiguration().getSocketSoTimeout();
+    }
+
+    @Override
+    public void run() {
+        final EventLoop[] eventLoops =
+                new EventLoop[Math.max(1, configuration
+                        .getNetworkConfiguration()
+                        .getEventLoopCount())];
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor();
+             var serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.bind(
+                    new InetSocketAddress(
+                            configuration.getNetworkConfiguration().getServerSocketBindAddress(),
+                            configuration.getNetworkConfiguration().getPort()),
+                    configuration.getNetworkConfiguration().getServerSocketBacklog());
+
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new EventLoop(executor);
+                Thread.ofPlatform().name("event-loop-" + i).daemon().start(eventLoops[i]);
+            }
+
+            for (int i = 0; ; i = (i + 1) % eventLoops.length) {
+                final SocketChannel socketChannel = serverSocketChannel.accept();
+                socketChannel.configureBlocking(false);
+                final SSLEngine sslEngine = sslContext.createSSLEngine();
+                sslEngine.setUseClientMode(false);
+                eventLoops[i].register(socketChannel, sslEngine);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (EventLoop eventLoop : eventLoops)
+                if (eventLoop != null)
+                    eventLoop.shutdown();
+        }
+    }
+
+    /**
+     * A selector event loop, which runs on a platform thread.
+     */
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+
+        private final ExecutorService executor;
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        private volatile boolean running = true;
+
+        EventLoop(ExecutorService executor) throws IOException {
+            this.selector = Selector.open();
+            this.executor = executor;
+        }
+
+        void register(SocketChannel socketChannel, SSLEngine sslEngine) {
+            execute(() -> {
+                final Connection connection = new Connection(this, socketChannel, sslEngine);
+                try {
+                    connection.key = socketChannel.register(
+                            selector,
+                            SelectionKey.OP_READ,
+                            connection);
+                    sslEngine.beginHandshake();
+                    connection.handshake();
+                } catch (IOException e) {
+                    connection.close();
+                }
+            });
+        }
+
+        /**
+         * Runs the given task on the event loop thread.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long lastIdleCheck = System.currentTimeMillis();
+            try (selector) {
+                while (running) {
+                    selector.select(IDLE_CHECK_INTERVAL_MILLIS);
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null)
+                        task.run();
+
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        final Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable())
+                                connection.onWritable();
+                            if (key.isValid() && key.isReadable())
+                                connection.onReadable();
+                        } catch (IOException | CancelledKeyException e) {
+                            connection.close();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+
+                    final long now = System.currentTimeMillis();
+                    if (soTimeout > 0 && now - lastIdleCheck >= IDLE_CHECK_INTERVAL_MILLIS) {
+                        lastIdleCheck = now;
+                        for (SelectionKey key : selector.keys())
+                            if (key.attachment() instanceof Connection connection
+                                    && connection.isIdleLongerThan(now, soTimeout))
+                                connection.close();
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private enum ConnectionState { HANDSHAKING, IDLE, DISPATCHED, CLOSED }
+
+    /**
+     * A TLS connection. Inbound records are decrypted on the event loop thread, and the
+     * application data is buffered in {@code inbound} until a virtual thread reads it.
+     * Outbound records are produced by whichever thread writes, and are flushed to the channel
+     * without blocking; a writer waits for the event loop to report writability if the channel
+     * cannot accept all of them.
+     */
+    private final class Connection {
+
+        private final EventLoop eventLoop;
+
+        private final SocketChannel socketChannel;
+
+        private final SSLEngine sslEngine;
+
+        private SelectionKey key;
+
+        private final BufferPool bufferPool = configuration.getBufferPool();
+
+        /**
+         * encrypted inbound data, in write mode; leased from {@code bufferPool}; accessed only on
+         * the event loop thread
+         */
+        private ByteBuffer netInbound;
+
+        /**
+         * whether {@code netInbound} and {@code netOutbound} have been released; accessed only on
+         * the event loop thread
+         */
+        private boolean buffersReleased;
+
+        /**
+         * decrypted inbound data of a single unwrap operation, in write mode; accessed only on
+         * the event loop thread
+         */
+        private ByteBuffer appInbound;
+
+        /**
+         * whether delegated tasks of {@code sslEngine} are being run, during which the handshake
+         * is suspended and no data is read; accessed only on the event loop thread
+         */
+        private boolean delegatedTasksRunning;
+
+        // guarded by inboundLock
+
+        private final ReentrantLock inboundLock = new ReentrantLock();
+
+        private final Condition inboundAvailable = inboundLock.newCondition();
+
+        /**
+         * decrypted inbound data waiting to be read, in write mode
+         */
+        private ByteBuffer inbound;
+
+        private boolean inboundClosed = false;
+
+        private ConnectionState state = ConnectionState.HANDSHAKING;
+
+        // guarded by outboundLock
+
+        private final ReentrantLock outboundLock = new ReentrantLock();
+
+        private final Condition outboundFlushed = outboundLock.newCondition();
+
+        /**
+         * encrypted outbound data waiting to be written to the channel, in write mode; leased
+         * from {@code bufferPool}
+         */
+        private ByteBuffer netOutbound;
+
+        private volatile long lastActivity = System.currentTimeMillis();
+
+        private final InputStream inputStream = new ConnectionInputStream();
+
+        // shared by the responses of the connection, see HTTP1_1ResponseGenerator
+        private final OutputStream outputStream =
+                new HTTP1_1ResponseOutputStream(new ConnectionOutputStream());
+
+        Connection(EventLoop eventLoop, SocketChannel socketChannel, SSLEngine sslEngine) {
+            this.eventLoop = eventLoop;
+            this.socketChannel = socketChannel;
+            this.sslEngine = sslEngine;
+            this.netInbound = bufferPool.acquireDirect(
+                    sslEngine.getSession().getPacketBufferSize());
+            this.appInbound = ByteBuffer.allocate(
+                    sslEngine.getSession().getApplicationBufferSize());
+            this.inbound = ByteBuffer.allocate(
+                    sslEngine.getSession().getApplicationBufferSize());
+            this.netOutbound = bufferPool.acquireDirect(
+                    sslEngine.getSession().getPacketBufferSize());
+        }
+
+        boolean isIdleLongerThan(long now, long millis) {
+            inboundLock.lock();
+            try {
+                return state != ConnectionState.DISPATCHED && now - lastActivity > millis;
+            } finally {
+                inboundLock.unlock();
+            }
+        }
+
+        // event loop thread
+
+        void onReadable() throws IOException {
+            final int read = socketChannel.read(netInbound);
+            if (read == -1) {
+                try {
+                    sslEngine.closeInbound();
+                } catch (SSLException ignored) {
+                    // the peer did not send close_notify
+                }
+                closeInbound();
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            if (sslEngine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus
+                    .NOT_HANDSHAKING)
+                handshake();
+            else
+                unwrap();
+        }
+
+        void onWritable() throws IOException {
+            outboundLock.lock();
+            try {
+                if (flushOutbound())
+                    key.interestOpsAnd(~SelectionKey.OP_WRITE);
+                outboundFlushed.signalAll();
+            } finally {
+                outboundLock.unlock();
+            }
+            if (sslEngine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING)
+                handshake();
+        }
+
+        /**
+         * Advances the handshake as far as possible without blocking.
+         */
+        void handshake() throws IOException {
+            while (!delegatedTasksRunning) {
+                switch (sslEngine.getHandshakeStatus()) {
+                    case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> {
+                        if (!unwrapOnce())
+                            return; // wait for more data
+                    }
+                    case NEED_WRAP -> {
+                        if (!wrapHandshake())
+                            return; // wait for writability
+                    }
+                    case NEED_TASK -> runDelegatedTasks();
+                    case FINISHED, NOT_HANDSHAKING -> {
+                        onHandshakeFinished();
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Runs the delegated tasks of {@code sslEngine} on a virtual thread, and resumes the
+         * handshake on the event loop once they have finished.
+         */
+        private void runDelegatedTasks() {
+            delegatedTasksRunning = true;
+            key.interestOpsAnd(~SelectionKey.OP_READ);
+            eventLoop.executor.execute(() -> {
+                Runnable task;
+                while ((task = sslEngine.getDelegatedTask()) != null)
+                    task.run();
+                eventLoop.execute(this::onDelegatedTasksFinished);
+            });
+        }
+
+        private void onDelegatedTasksFinished() {
+            delegatedTasksRunning = false;
+            if (!key.isValid())
+                return; // closed meanwhile
+            try {
+                inboundLock.lock();
+                try {
+                    if (!inboundClosed && inbound.position() < MAXIMUM_INBOUND_BUFFERED)
+                        key.interestOpsOr(SelectionKey.OP_READ);
+                } finally {
+                    inboundLock.unlock();
+                }
+                handshake();
+            } catch (IOException | CancelledKeyException e) {
+                close();
+            }
+        }
+
+        private void onHandshakeFinished() throws IOException {
+            inboundLock.lock();
+            try {
+                if (state == ConnectionState.HANDSHAKING)
+                    state = ConnectionState.IDLE;
+            } finally {
+                inboundLock.unlock();
+            }
+            // application data may have arrived along with the last handshake message
+            if (netInbound.position() > 0)
+                unwrap();
+            else
+                dispatchIfPending();
+        }
+
+        /**
+         * Decrypts as many records as are available.
+         */
+        private void unwrap() throws IOException {
+            while (netInbound.position() > 0 && unwrapOnce()) {
+                if (sslEngine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus
+                        .NOT_HANDSHAKING) {
+                    // post-handshake message, e.g. key update
+                    handshake();
+                    return;
+                }
+            }
+            dispatchIfPending();
+        }
+
+        /**
+         * @return {@code false} if more data must be received before the engine can proceed
+         */
+        private boolean unwrapOnce() throws IOException {
+            netInbound.flip();
+            final SSLEngineResult result;
+            try {
+                result = sslEngine.unwrap(netInbound, appInbound);
+            } finally {
+                netInbound.compact();
+            }
+            switch (result.getStatus()) {
+                case OK -> {
+                    if (appInbound.position() > 0) {
+                        appInbound.flip();
+                        offerInbound(appInbound);
+                        appInbound.clear();
+                    }
+                    return true;
+                }
+                case BUFFER_UNDERFLOW -> {
+                    final int packetBufferSize = sslEngine.getSession().getPacketBufferSize();
+                    if (netInbound.capacity() < packetBufferSize) {
+                        final ByteBuffer enlarged = bufferPool
+                                .acquireDirect(packetBufferSize)
+                                .put(netInbound.flip());
+                        bufferPool.releaseDirect(netInbound);
+                        netInbound = enlarged;
+                    }
+                    return false;
+                }
+                case BUFFER_OVERFLOW -> {
+                    appInbound = ByteBuffer.allocate(Math.max(
+                            appInbound.capacity() * 2,
+                            sslEngine.getSession().getApplicationBufferSize()));
+                    return true;
+                }
+                case CLOSED -> {
+                    closeInbound();
+                    return false;
+                }
+            }
+            throw new IllegalStateException();
+        }
+
+        /**
+         * @return {@code false} if the produced handshake data could not be written completely
+         */
+        private boolean wrapHandshake() throws IOException {
+            outboundLock.lock();
+            try {
+                wrap(ByteBuffer.allocate(0));
+                if (flushOutbound())
+                    return true;
+                key.interestOpsOr(SelectionKey.OP_WRITE);
+                return false;
+            } finally {
+                outboundLock.unlock();
+            }
+        }
+
+        private void offerInbound(ByteBuffer data) {
+            inboundLock.lock();
+            try {
+                if (inbound.remaining() < data.remaining()) {
+                    final ByteBuffer enlarged = ByteBuffer.allocate(
+                            Math.max(inbound.capacity() * 2, inbound.position() + data.remaining()));
+                    inbound = enlarged.put(inbound.flip());
+                }
+                inbound.put(data);
+                if (inbound.position() >= MAXIMUM_INBOUND_BUFFERED)
+                    key.interestOpsAnd(~SelectionKey.OP_READ);
+                inboundAvailable.signalAll();
+            } finally {
+                inboundLock.unlock();
+            }
+        }
+
+        private void closeInbound() {
+            inboundLock.lock();
+            try {
+                inboundClosed = true;
+                key.interestOpsAnd(~SelectionKey.OP_READ);
+                inboundAvailable.signalAll();
+                // a connection closed during the handshake has no request to process
+                if (state == ConnectionState.HANDSHAKING
+                        || state == ConnectionState.IDLE && inbound.position() == 0) {
+                    state = ConnectionState.CLOSED;
+                    eventLoop.executor.submit(this::close);
+                }
+            } finally {
+                inboundLock.unlock();
+            }
+        }
+
+        private void dispatchIfPending() {
+            inboundLock.lock();
+            try {
+                if (state != ConnectionState.IDLE || inbound.position() == 0)
+                    return;
+                state = ConnectionState.DISPATCHED;
+            } finally {
+                inboundLock.unlock();
+            }
+            eventLoop.executor.submit(this::serve);
+        }
+
+        // virtual thread
+
+        /**
+         * Processes requests until the connection is idle or should be closed.
+         */
+        private void serve() {
+            try {
+                while (true) {
+                    final HTTP1_1Processor http1_1Processor =
+                            new HTTP1_1Processor(configuration, inputStream, outputStream);
+                    final boolean persistent = http1_1Processor.process();
+                    final byte[] unprocessed = http1_1Processor.takeBufferedBytes();
+                    try {
+                        http1_1Processor.close();
+                    } catch (IOException ignored) {
+                        // closing the connection input stream has no effect
+                    }
+
+                    inboundLock.lock();
+                    try {
+                        if (unprocessed.length > 0) {
+                            // put the bytes of pipelined requests back
+                            final ByteBuffer pending = inbound.flip();
+                            inbound = ByteBuffer
+                                    .allocate(Math.max(
+                                            pending.capacity(),
+                                            pending.remaining() + unprocessed.length))
+                                    .put(unprocessed)
+                                    .put(pending);
+                        }
+                        if (!persistent || inboundClosed && inbound.position() == 0) {
+                            state = ConnectionState.CLOSED;
+                        } else if (inbound.position() == 0) {
+                            state = ConnectionState.IDLE;
+                            lastActivity = System.currentTimeMillis();
+                            return;
+                        }
+                    } finally {
+                        inboundLock.unlock();
+                    }
+                    if (state == ConnectionState.CLOSED) {
+                        close();
+                        return;
+                    }
+                }
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Wraps {@code source} into {@code netOutbound}. Must be called with {@code outboundLock}
+         * held.
+         */
+        private void wrap(ByteBuffer source) throws IOException {
+            do {
+                final SSLEngineResult result = sslEngine.wrap(source, netOutbound);
+                switch (result.getStatus()) {
+                    case OK -> {}
+                    case BUFFER_OVERFLOW -> {
+                        if (!flushOutbound()) {
+                            if (Thread.currentThread().isVirtual())
+                                awaitFlushed();
+                            else {
+                                final ByteBuffer enlarged = bufferPool
+                                        .acquireDirect(netOutbound.capacity() * 2)
+                                        .put(netOutbound.flip());
+                                bufferPool.releaseDirect(netOutbound);
+                                netOutbound = enlarged;
+                            }
+                        }
+                    }
+                    case BUFFER_UNDERFLOW -> throw new IllegalStateException();
+                    case CLOSED -> throw new SSLException("engine closed");
+                }
+                // on the event loop thread, the delegated tasks are left to handshake()
+                while (Thread.currentThread().isVirtual()
+                        && sslEngine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus
+                        .NEED_TASK) {
+                    Runnable task;
+                    while ((task = sslEngine.getDelegatedTask()) != null)
+                        task.run();
+                }
+            } while (source.hasRemaining());
+        }
+
+        /**
+         * Writes {@code netOutbound} to the channel without blocking. Must be called with
+         * {@code outboundLock} held.
+         *
+         * @return whether all the data has been written
+         */
+        private boolean flushOutbound() throws IOException {
+            netOutbound.flip();
+            try {
+                while (netOutbound.hasRemaining())
+                    if (socketChannel.write(netOutbound) == 0)
+                        return false;
+                return true;
+            } finally {
+                netOutbound.compact();
+            }
+        }
+
+        /**
+         * Waits until {@code netOutbound} has been written to the channel. Must be called with
+         * {@code outboundLock} held on a thread other than the event loop thread.
+         */
+        private void awaitFlushed() throws IOException {
+            while (!flushOutbound()) {
+                key.interestOpsOr(SelectionKey.OP_WRITE);
+                key.selector().wakeup();
+                try {
+                    if (soTimeout > 0) {
+                        if (!outboundFlushed.await(soTimeout, TimeUnit.MILLISECONDS))
+                            throw new SocketTimeoutException("write timed out");
+                    } else {
+                        outboundFlushed.await();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+                if (!socketChannel.isOpen())
+                    throw new ClosedChannelException();
+            }
+        }
+
+        void close() {
+            inboundLock.lock();
+            try {
+                state = ConnectionState.CLOSED;
+                inboundClosed = true;
+                inboundAvailable.signalAll();
+            } finally {
+                inboundLock.unlock();
+            }
+            if (outboundLock.tryLock()) {
+                try {
+                    // best effort close_notify
+                    sslEngine.closeOutbound();
+                    wrap(ByteBuffer.allocate(0));
+                    flushOutbound();
+                } catch (IOException | RuntimeException ignored) {
+                } finally {
+                    outboundFlushed.signalAll();
+                    outboundLock.unlock();
+                }
+            }
+            if (key != null)
+                key.cancel();
+            closeQuietly(socketChannel);
+            // the event loop may be using netInbound right now
+            eventLoop.execute(this::releaseBuffers);
+        }
+
+        /**
+         * Releases {@code netInbound} and {@code netOutbound}. Runs on the event loop thread after
+         * the channel has been closed, so no other thread uses them any longer: a writer checks
+         * that the channel is open with {@code outboundLock} held before it touches
+         * {@code netOutbound}.
+         */
+        private void releaseBuffers() {
+            if (buffersReleased)
+                return;
+            buffersReleased = true;
+            bufferPool.releaseDirect(netInbound);
+            outboundLock.lock();
+            try {
+                bufferPool.releaseDirect(netOutbound);
+            } finally {
+                outboundLock.unlock();
+            }
+        }
+
+        /**
+         * An input stream from which the decrypted data is read. Closing it has no effect.
+         */
+        private final class ConnectionInputStream extends InputStream {
+
+            @Override
+            public int read() throws IOException {
+                final byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0XFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                Objects.checkFromIndexSize(off, len, b.length);
+                if (len == 0)
+                    return 0;
+                boolean resumeReading = false;
+                inboundLock.lock();
+                try {
+                    while (inbound.position() == 0) {
+                        if (inboundClosed)
+                            return -1;
+                        try {
+                            if (soTimeout > 0) {
+                                if (!inboundAvailable.await(soTimeout, TimeUnit.MILLISECONDS)
+                                        && inbound.position() == 0 && !inboundClosed)
+                                    throw new SocketTimeoutException("read timed out");
+                            } else {
+                                inboundAvailable.await();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException(e);
+                        }
+                    }
+                    inbound.flip();
+                    final int n = Math.min(len, inbound.remaining());
+                    inbound.get(b, off, n);
+                    inbound.compact();
+                    if (!inboundClosed
+                            && inbound.position() < MAXIMUM_INBOUND_BUFFERED
+                            && (key.interestOps() & SelectionKey.OP_READ) == 0)
+                        resumeReading = true;
+                    return n;
+                } finally {
+                    inboundLock.unlock();
+                    if (resumeReading)
+                        eventLoop.execute(() -> {
+                            if (key.isValid())
+                                key.interestOpsOr(SelectionKey.OP_READ);
+                        });
+                }
+            }
+
+            @Override
+            public int available() {
+                inboundLock.lock();
+                try {
+                    return inbound.position();
+                } finally {
+                    inboundLock.unlock();
+                }
+            }
+        }
+
+        /**
+         * An output stream which encrypts the data written to it and writes the result to the
+         * channel. Closing it has no effect.
+         */
+        private final class ConnectionOutputStream extends OutputStream {
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Objects.checkFromIndexSize(off, len, b.length);
+                outboundLock.lock();
+                try {
+                    if (!socketChannel.isOpen())
+                        throw new ClosedChannelException();
+                    wrap(ByteBuffer.wrap(b, off, len));
+                    awaitFlushed();
+                } finally {
+                    outboundLock.unlock();
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
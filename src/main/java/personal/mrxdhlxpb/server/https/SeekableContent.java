@@ -0,0 +1,71 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+/**
+ * Content which can be read from any offset without reading the octets before it, such as a file
+ * or a byte array. A request handler which sets the seekable content of a response by
+ * {@link HTTPResponse#setSeekableContent(SeekableContent)}, along with the content of the whole
+ * representation, allows the response to serve range requests, as described in
+ * {@link ByteRanges}.
+ *
+ * @author mrxdhlxpb
+ */
+public interface SeekableContent {
+
+    /**
+     * @return the number of octets in the content
+     */
+    long size();
+
+    /**
+     * Opens an input stream reading {@code length} octets of the content from {@code offset}.
+     * Since the content input stream of a response is not closed by the message body generator,
+     * the input stream releases any resource it holds once all of these octets have been read.
+     *
+     * @param offset the offset of the first octet, within the range of 0 to {@link #size()}
+     * @param length the number of octets, within the range of 0 to {@code size() - offset}
+     * @return the input stream
+     * @throws IOException if an I/O error occurs
+     */
+    InputStream newInputStream(long offset, long length) throws IOException;
+
+    /**
+     * @param bytes the content, which must not be modified afterward
+     * @return the seekable content of {@code bytes}
+     * @throws NullPointerException if {@code bytes} is {@code null}
+     */
+    static SeekableContent of(byte[] bytes) {
+        Objects.requireNonNull(bytes);
+        return new SeekableContent() {
+            @Override
+            public long size() { return bytes.length; }
+
+            @Override
+            public InputStream newInputStream(long offset, long length) {
+                Objects.checkFromIndexSize(offset, length, bytes.length);
+                return new ByteArrayInputStream(bytes, (int) offset, (int) length);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,303 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import personal.mrxdhlxpb.server.https.error.HttpErrorIOException;
+import personal.mrxdhlxpb.server.https.error.concrete.server.ServiceUnavailableException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A service that spools data which does not fit in memory, such as the content of a request or
+ * the body of a part, into temporary files called spool files.
+ * <p> A spool file is written through a {@link FileChannel}, and then handed out as an input
+ * stream. The file is deleted as soon as that input stream is closed (for the content of a
+ * request, by {@link HTTPRequest#close()}), or as soon as the spool file is closed if it has not
+ * been handed out. No file is registered with {@link File#deleteOnExit()}.
+ * <p> The total size of the spool files not yet deleted is limited by a quota shared by all
+ * connections. A write that would exceed the quota throws an {@link HttpErrorIOException} caused
+ * by a {@link ServiceUnavailableException}.
+ * <p> Spool files are created in the spool directory, whose names begin with the file name prefix
+ * of the service, so that the files left by a previous run which has crashed can be deleted by
+ * {@link #deleteStaleFiles()}, which {@link HTTPSServer} calls on startup for any service but
+ * {@link #DEFAULT}. Therefore, the spool directory and the file name prefix of a configured
+ * service must not be shared with another server running at the same time. The spool directory
+ * may be on a memory-backed file system such as tmpfs. Additionally, spool files no larger than
+ * {@code maximumMappedSize} are read through a memory mapping rather than through read calls.
+ * <p> This class is thread-safe and lock-free.
+ *
+ * @author mrxdhlxpb
+ */
+public final class SpoolService {
+
+    public static final String DEFAULT_FILE_NAME_PREFIX = "server-https-spool-";
+
+    /**
+     * A service which spools into the default temporary-file directory, without a quota, and
+     * never maps spool files. Since that directory is shared, the file name prefix includes the
+     * process ID, and stale files are not deleted on startup, as the files of another server
+     * using this service would be in use.
+     */
+    public static final SpoolService DEFAULT = new SpoolService(
+            Path.of(System.getProperty("java.io.tmpdir")),
+            DEFAULT_FILE_NAME_PREFIX + ProcessHandle.current().pid() + "-",
+            Long.MAX_VALUE,
+            0);
+
+    private final Path directory;
+
+    private final String fileNamePrefix;
+
+    private final long quota;
+
+    private final long maximumMappedSize;
+
+    /**
+     * the total size of the spool files not yet deleted
+     */
+    private final AtomicLong usedSize = new AtomicLong();
+
+    private final AtomicInteger fileCount = new AtomicInteger();
+
+    /**
+     * @param directory the spool directory
+     * @param fileNamePrefix the prefix of the names of spool files
+     * @param quota the maximum total size of the spool files not yet deleted
+     * @param maximumMappedSize the maximum size of a spool file read through a memory mapping;
+     *                          {@code 0} to never map spool files
+     * @throws IllegalArgumentException if {@code fileNamePrefix} is empty, or {@code quota} or
+     *                                  {@code maximumMappedSize} is negative
+     */
+    public SpoolService(Path directory, String fileNamePrefix, long quota, long maximumMappedSize) {
+        if (fileNamePrefix.isEmpty() || quota < 0 || maximumMappedSize < 0)
+            throw new IllegalArgumentException();
+        this.directory = Objects.requireNonNull(directory);
+        this.fileNamePrefix = fileNamePrefix;
+        this.quota = quota;
+        this.maximumMappedSize = Math.min(maximumMappedSize, Integer.MAX_VALUE);
+    }
+
+    public Path getDirectory() { return directory; }
+
+    public String getFileNamePrefix() { return fileNamePrefix; }
+
+    public long getQuota() { return quota; }
+
+    /**
+     * @return the total size of the spool files not yet deleted
+     */
+    public long getUsedSize() { return usedSize.get(); }
+
+    /**
+     * @return the number of spool files not yet deleted
+     */
+    public int getFileCount() { return fileCount.get(); }
+
+    /**
+     * Deletes the files in the spool directory whose names begin with the file name prefix, which
+     * are left by a previous run. Must not be called while spool files are in use.
+     *
+     * @return the number of files deleted
+     * @throws IOException if an I/O error occurs
+     */
+    public int deleteStaleFiles() throws IOException {
+        if (!Files.isDirectory(directory))
+            return 0;
+        int deleted = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                path -> path.getFileName().toString().startsWith(fileNamePrefix)
+                        && Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS))) {
+            for (Path path : stream)
+                if (Files.deleteIfExists(path))
+                    deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Creates a spool file, readable and writable only by the owner where supported.
+     *
+     * @param prefix appended to the file name prefix of the service; may be {@code null}
+     * @param suffix the suffix of the file name; may be {@code null}, in which case
+     *               {@code ".tmp"} is used
+     * @param directory the directory in which the file is created, or {@code null} for the spool
+     *                  directory. Files created elsewhere are not deleted by
+     *                  {@link #deleteStaleFiles()}.
+     * @return the spool file, which should be closed by the caller, unless it is handed out
+     * @throws IOException if an I/O error occurs
+     */
+    public SpoolFile create(String prefix, String suffix, File directory) throws IOException {
+        final Path path = Files.createTempFile(
+                directory == null ? this.directory : directory.toPath(),
+                prefix == null ? fileNamePrefix : fileNamePrefix + prefix,
+                suffix);
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        fileCount.incrementAndGet();
+        return new SpoolFile(path, channel);
+    }
+
+    private boolean reserve(long n) {
+        long used;
+        do {
+            used = usedSize.get();
+            if (n > quota - used)
+                return false;
+        } while (!usedSize.compareAndSet(used, used + n));
+        return true;
+    }
+
+    /**
+     * A spool file, written as an output stream and read as the input stream handed out by
+     * {@link #toInputStream()}. An instance is not thread-safe.
+     */
+    public final class SpoolFile extends OutputStream {
+
+        private final Path path;
+
+        private final FileChannel channel;
+
+        private long size = 0;
+
+        private boolean handedOut = false;
+
+        private boolean deleted = false;
+
+        private SpoolFile(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+
+        public Path getPath() { return path; }
+
+        /**
+         * @return the number of bytes written
+         */
+        public long size() { return size; }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        /**
+         * @throws HttpErrorIOException caused by a {@code ServiceUnavailableException} if the
+         *                              quota would be exceeded
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (handedOut || deleted)
+                throw new IOException("Spool file closed");
+            if (!reserve(len))
+                throw new HttpErrorIOException(new ServiceUnavailableException());
+            size += len;
+            final ByteBuffer byteBuffer = ByteBuffer.wrap(b, off, len);
+            while (byteBuffer.hasRemaining())
+                channel.write(byteBuffer);
+        }
+
+        /**
+         * Hands out the data written as an input stream, which deletes the file when closed. The
+         * spool file can no longer be written.
+         *
+         * @return the input stream, which should be closed by the caller
+         * @throws IOException if an I/O error occurs
+         */
+        public InputStream toInputStream() throws IOException {
+            if (handedOut || deleted)
+                throw new IOException("Spool file closed");
+            handedOut = true;
+            try {
+                if (size > 0 && size <= maximumMappedSize) {
+                    final MappedByteBuffer mapped =
+                            channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    channel.close();
+                    return new SpoolInputStream(new ByteBufferInputStream(mapped));
+                }
+                channel.position(0);
+                return new SpoolInputStream(Channels.newInputStream(channel));
+            } catch (IOException | RuntimeException e) {
+                delete();
+                throw e;
+            }
+        }
+
+        /**
+         * Deletes the file, unless it has been handed out.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void close() throws IOException {
+            if (!handedOut)
+                delete();
+        }
+
+        private void delete() throws IOException {
+            if (deleted)
+                return;
+            deleted = true;
+            try {
+                channel.close();
+            } finally {
+                try {
+                    Files.deleteIfExists(path);
+                } finally {
+                    usedSize.addAndGet(-size);
+                    fileCount.decrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * the input stream handed out, which deletes the spool file when closed
+         */
+        private final class SpoolInputStream extends FilterInputStream {
+
+            private SpoolInputStream(InputStream in) { super(in); }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return in.read(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    in.close();
+                } finally {
+                    delete();
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,348 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import personal.mrxdhlxpb.server.https.error.HttpErrorException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.MethodNotAllowedException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.NotFoundException;
+import personal.mrxdhlxpb.server.https.error.concrete.server.InternalServerErrorException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * An internal resource which serves the regular files under a root directory, to be registered
+ * with a {@link RadixTreeInternalResourceMapper} under a path pattern ending with a wildcard
+ * segment, such as {@code /static/*}. The rest of the path captured by the wildcard segment is
+ * percent-decoded and resolved against the root directory; a path which has an empty,
+ * {@code "."} or {@code ".."} segment is not found.
+ * <p> Files are looked up in a {@link MappedFileCache}, so that a file which is served often is
+ * neither opened nor copied to the heap per request: its content is read from the mapping
+ * straight into the buffer of the connection. A file which is not mapped is streamed from a new
+ * channel.
+ * <p> The media type of the Content-Type header field is determined by the file name extension,
+ * with the charset parameter set to UTF-8 for textual media types. If precompressed variants are
+ * enabled and the file has a sidecar file whose name is the file name followed by ".gz", the
+ * sidecar file is served with the gzip content coding to a client which accepts it, and the Vary
+ * header field includes Accept-Encoding.
+ * <p> The validators of a file are its last modified time and a strong entity tag computed by an
+ * {@link EntityTagCache}, from its content if it is mapped or from its metadata otherwise, so that
+ * conditional requests are answered without reading a file which is not mapped. A precompressed
+ * variant has validators of its own.
+ * <p> Only GET and HEAD are allowed. Range requests are served by {@link ByteRanges}.
+ *
+ * @author mrxdhlxpb
+ */
+public class StaticFileInternalResource implements InternalResource {
+
+    public static final String DEFAULT_MEDIA_TYPE = "application/octet-stream";
+
+    private static final String PRECOMPRESSED_SUFFIX = ".gz";
+
+    /**
+     * the media types by file name extension
+     */
+    private static final Map<String, String> MEDIA_TYPES = Map.ofEntries(
+            Map.entry("html", "text/html"),
+            Map.entry("htm", "text/html"),
+            Map.entry("css", "text/css"),
+            Map.entry("js", "text/javascript"),
+            Map.entry("mjs", "text/javascript"),
+            Map.entry("json", "application/json"),
+            Map.entry("map", "application/json"),
+            Map.entry("webmanifest", "application/manifest+json"),
+            Map.entry("xml", "application/xml"),
+            Map.entry("txt", "text/plain"),
+            Map.entry("csv", "text/csv"),
+            Map.entry("md", "text/markdown"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("avif", "image/avif"),
+            Map.entry("ico", "image/vnd.microsoft.icon"),
+            Map.entry("woff", "font/woff"),
+            Map.entry("woff2", "font/woff2"),
+            Map.entry("ttf", "font/ttf"),
+            Map.entry("otf", "font/otf"),
+            Map.entry("wasm", "application/wasm"),
+            Map.entry("pdf", "application/pdf"),
+            Map.entry("zip", "application/zip"),
+            Map.entry("gz", "application/gzip"),
+            Map.entry("mp4", "video/mp4"),
+            Map.entry("webm", "video/webm"),
+            Map.entry("mp3", "audio/mpeg"),
+            Map.entry("ogg", "audio/ogg"),
+            Map.entry("wav", "audio/wav")
+    );
+
+    private final InternalResourceIdentifier internalResourceIdentifier;
+
+    private final Path root;
+
+    private final MappedFileCache mappedFileCache;
+
+    private final EntityTagCache entityTagCache;
+
+    private final boolean precompressedVariantsEnabled;
+
+    /**
+     * Constructs an instance of this class with an entity tag cache of its own.
+     *
+     * @param internalResourceIdentifier the identifier of this internal resource
+     * @param root the root directory
+     * @param mappedFileCache the cache in which files are looked up, which may be shared
+     * @param precompressedVariantsEnabled whether ".gz" sidecar files are served
+     * @throws NullPointerException if {@code root} or {@code mappedFileCache} is {@code null}
+     */
+    public StaticFileInternalResource(InternalResourceIdentifier internalResourceIdentifier,
+                                      Path root,
+                                      MappedFileCache mappedFileCache,
+                                      boolean precompressedVariantsEnabled) {
+        this(internalResourceIdentifier, root, mappedFileCache, new EntityTagCache(),
+                precompressedVariantsEnabled);
+    }
+
+    /**
+     * @param internalResourceIdentifier the identifier of this internal resource
+     * @param root the root directory
+     * @param mappedFileCache the cache in which files are looked up, which may be shared
+     * @param entityTagCache the cache of the entity tags of files, which may be shared
+     * @param precompressedVariantsEnabled whether ".gz" sidecar files are served
+     * @throws NullPointerException if {@code root}, {@code mappedFileCache} or
+     *                              {@code entityTagCache} is {@code null}
+     */
+    public StaticFileInternalResource(InternalResourceIdentifier internalResourceIdentifier,
+                                      Path root,
+                                      MappedFileCache mappedFileCache,
+                                      EntityTagCache entityTagCache,
+                                      boolean precompressedVariantsEnabled) {
+        this.internalResourceIdentifier = internalResourceIdentifier;
+        this.root = root.toAbsolutePath().normalize();
+        this.mappedFileCache = Objects.requireNonNull(mappedFileCache);
+        this.entityTagCache = Objects.requireNonNull(entityTagCache);
+        this.precompressedVariantsEnabled = precompressedVariantsEnabled;
+    }
+
+    @Override
+    public InternalResourceIdentifier getInternalResourceIdentifier() {
+        return internalResourceIdentifier;
+    }
+
+    @Override
+    public HTTPRequestHandler getHTTPRequestHandler() {
+        return this::handle;
+    }
+
+    /**
+     * @return an {@link HTTP1_1ResponseMessageBodyGeneratorImpl}, since the content length is
+     *         known unless the file is longer than {@code Integer.MAX_VALUE} octets, in which case
+     *         the response generator applies the chunked transfer coding instead
+     */
+    @Override
+    public HTTP1_1ResponseMessageBodyGenerator getHTTP1_1ResponseMessageBodyGenerator() {
+        return new HTTP1_1ResponseMessageBodyGeneratorImpl();
+    }
+
+    /**
+     * @return the last modified time and the entity tag of the file which would be served, if the
+     *         request method is GET or HEAD
+     * @throws NotFoundException if the file does not exist
+     * @throws InternalServerErrorException to wrap an {@code IOException}
+     */
+    @Override
+    public Optional<Validators> getValidators(HTTPRequest httpRequest)
+            throws HttpErrorException {
+        final RequestMethod requestMethod =
+                httpRequest.requestMessageControlData().requestMethod();
+        if (requestMethod != RequestMethod.GET && requestMethod != RequestMethod.HEAD)
+            return Optional.empty();
+        final MappedFileCache.CachedFile cachedFile = select(httpRequest).cachedFile();
+        return Optional.of(new Validators(entityTagCache.getEntityTag(cachedFile),
+                cachedFile.lastModifiedTime().toInstant()));
+    }
+
+    public Path getRoot() { return root; }
+
+    public MappedFileCache getMappedFileCache() { return mappedFileCache; }
+
+    /**
+     * @param fileName the file name
+     * @return the value of the Content-Type header field for the file name, according to its
+     *         extension, or {@link #DEFAULT_MEDIA_TYPE} if the extension is not known
+     */
+    public static String getContentType(String fileName) {
+        final int dot = fileName.lastIndexOf('.');
+        final String mediaType = dot == -1 ? null :
+                MEDIA_TYPES.get(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+        if (mediaType == null)
+            return DEFAULT_MEDIA_TYPE;
+        return mediaType.startsWith("text/") || mediaType.endsWith("+json")
+                || mediaType.endsWith("+xml") || mediaType.equals("application/json")
+                || mediaType.equals("application/xml") ?
+                mediaType + "; charset=utf-8" : mediaType;
+    }
+
+    private void handle(HTTPRequest httpRequest, HTTPResponse httpResponse)
+            throws HttpErrorException {
+        final RequestMessageControlData requestMessageControlData =
+                httpRequest.requestMessageControlData();
+        final RequestMethod requestMethod = requestMessageControlData.requestMethod();
+        if (requestMethod != RequestMethod.GET && requestMethod != RequestMethod.HEAD)
+            throw new MethodNotAllowedException();
+
+        final Variant variant = select(httpRequest);
+        final MappedFileCache.CachedFile cachedFile = variant.cachedFile();
+        final Fields headerSection = httpResponse.getHeaderSection();
+        if (variant.negotiated())
+            headerSection.append("vary", "accept-encoding");
+        if (variant.precompressed())
+            headerSection.set("content-encoding",
+                    ResponseCompressor.ContentCoding.GZIP.getToken());
+
+        httpResponse.setStatusCode((short) 200);
+        headerSection.set("content-type", getContentType(variant.path().getFileName().toString()));
+        headerSection.set("content-length", String.valueOf(cachedFile.size()));
+        httpResponse.setSeekableContent(cachedFile);
+        if (requestMethod == RequestMethod.HEAD) {
+            httpResponse.setContentLength(0);
+            return;
+        }
+        if (cachedFile.isMapped()) {
+            try {
+                httpResponse.setContentInputStream(cachedFile.newInputStream());
+            } catch (IOException ioException) {
+                throw new InternalServerErrorException(ioException);
+            }
+            httpResponse.setContentLength((int) cachedFile.size());
+        } else if (cachedFile.size() <= Integer.MAX_VALUE) {
+            // streamed from a channel which is opened on the first read and closed once the
+            // content has been read
+            httpResponse.setContentInputStream(new ByteRanges.PartInputStream(cachedFile,
+                    new ByteRanges.ByteRange(0, cachedFile.size() - 1)));
+            httpResponse.setContentLength((int) cachedFile.size());
+        } else {
+            // of unknown length to the message body generator, so it is sent in the chunked
+            // transfer coding and the Content-Length header field is removed
+            httpResponse.setContentWriter(outputStream -> {
+                try (InputStream inputStream = cachedFile.newInputStream()) {
+                    inputStream.transferTo(outputStream);
+                }
+            });
+        }
+    }
+
+    /**
+     * The file selected to be served for a request.
+     *
+     * @param path the path of the requested file
+     * @param cachedFile the requested file or its precompressed variant
+     * @param negotiated whether the file has been selected according to Accept-Encoding, since
+     *                   the requested file has a precompressed variant
+     * @param precompressed whether {@code cachedFile} is the precompressed variant
+     */
+    private record Variant(Path path,
+                           MappedFileCache.CachedFile cachedFile,
+                           boolean negotiated,
+                           boolean precompressed) {}
+
+    /**
+     * @throws NotFoundException if the requested file does not exist
+     * @throws InternalServerErrorException to wrap an {@code IOException}
+     */
+    private Variant select(HTTPRequest httpRequest) throws HttpErrorException {
+        final Path path = resolve(httpRequest.requestMessageControlData().targetResource()
+                .getPathParameters().get("*"));
+        try {
+            final MappedFileCache.CachedFile file =
+                    mappedFileCache.get(path).orElseThrow(NotFoundException::new);
+            final Optional<MappedFileCache.CachedFile> precompressed =
+                    precompressedVariantsEnabled ?
+                            mappedFileCache.get(path.resolveSibling(path.getFileName()
+                                    + PRECOMPRESSED_SUFFIX)) :
+                            Optional.empty();
+            if (precompressed.isEmpty())
+                return new Variant(path, file, false, false);
+            return ResponseCompressor.isAcceptable(httpRequest.headerSection() == null ? null :
+                            httpRequest.headerSection().getFieldValueString("accept-encoding")
+                                    .orElse(null),
+                    ResponseCompressor.ContentCoding.GZIP) ?
+                    new Variant(path, precompressed.get(), true, true) :
+                    new Variant(path, file, true, false);
+        } catch (IOException ioException) {
+            throw new InternalServerErrorException(ioException);
+        }
+    }
+
+    /**
+     * Resolves the rest of the path captured by the wildcard segment against the root directory.
+     *
+     * @throws NotFoundException if the path is absent or invalid
+     */
+    private Path resolve(String relativePath) throws NotFoundException {
+        if (relativePath == null || relativePath.isEmpty())
+            throw new NotFoundException();
+        Path path = root;
+        for (String segment : relativePath.split("/", -1)) {
+            final String decoded = percentDecode(segment);
+            if (decoded == null || decoded.isEmpty() || decoded.equals(".")
+                    || decoded.equals("..") || decoded.indexOf('/') != -1
+                    || decoded.indexOf('\\') != -1 || decoded.indexOf('\0') != -1)
+                throw new NotFoundException();
+            path = path.resolve(decoded);
+        }
+        if (!path.normalize().startsWith(root))
+            throw new NotFoundException();
+        return path;
+    }
+
+    /**
+     * @return the percent-decoded UTF-8 string, or {@code null} if a pct-encoded triplet is
+     *         invalid
+     */
+    private static String percentDecode(String str) {
+        if (str.indexOf('%') == -1)
+            return str;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            final char c = str.charAt(i);
+            if (c != '%') {
+                bytes.writeBytes(String.valueOf(c).getBytes(StandardCharsets.UTF_8));
+                continue;
+            }
+            if (i + 2 >= str.length())
+                return null;
+            final int high = Character.digit(str.charAt(i + 1), 16);
+            final int low = Character.digit(str.charAt(i + 2), 16);
+            if (high == -1 || low == -1)
+                return null;
+            bytes.write(high << 4 | low);
+            i += 2;
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * The validators of a selected representation, as defined in <em>RFC 9110: HTTP Semantics
+ * Section 8.8. Validator Fields</em>, which an {@link InternalResource} supplies by
+ * {@link InternalResource#getValidators(HTTPRequest)} so that conditional requests can be
+ * evaluated by {@link Preconditions} before the request handler is called.
+ *
+ * @param entityTag the entity tag, including the double quotes and, if weak, the {@code W/}
+ *                  prefix, or {@code null} if none
+ * @param lastModified the last modification date, or {@code null} if none; the fraction of a
+ *                     second is discarded, since an HTTP-date has a resolution of one second
+ * @author mrxdhlxpb
+ */
+@CompliantWith("RFC 9110: HTTP Semantics Section 8.8. Validator Fields")
+public record Validators(String entityTag, Instant lastModified) {
+
+    /**
+     * IMF-fixdate, the preferred format of HTTP-date
+     */
+    private static final DateTimeFormatter IMF_FIXDATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH)
+            .withZone(ZoneOffset.UTC);
+
+    /**
+     * @throws IllegalArgumentException if {@code entityTag} is not a valid entity tag
+     */
+    public Validators {
+        if (entityTag != null && !isEntityTag(entityTag))
+            throw new IllegalArgumentException(entityTag);
+        if (lastModified != null)
+            lastModified = lastModified.truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    /**
+     * @param opaqueTag the characters between the double quotes, which must be visible ASCII
+     *                  characters other than the double quote
+     * @return the strong entity tag {@code "opaqueTag"}
+     * @throws IllegalArgumentException if {@code opaqueTag} has an invalid character
+     */
+    public static String strongEntityTag(String opaqueTag) {
+        final String entityTag = '"' + opaqueTag + '"';
+        if (!isEntityTag(entityTag))
+            throw new IllegalArgumentException(opaqueTag);
+        return entityTag;
+    }
+
+    /**
+     * @param entityTag an entity tag
+     * @return the weak entity tag of the same opaque tag
+     */
+    public static String weaken(String entityTag) {
+        return entityTag.startsWith("W/") ? entityTag : "W/" + entityTag;
+    }
+
+    public Optional<String> getEntityTag() { return Optional.ofNullable(entityTag); }
+
+    public Optional<Instant> getLastModified() { return Optional.ofNullable(lastModified); }
+
+    /**
+     * @return whether the entity tag is present and strong
+     */
+    public boolean hasStrongEntityTag() {
+        return entityTag != null && !entityTag.startsWith("W/");
+    }
+
+    /**
+     * Sets the ETag and Last-Modified header fields of {@code headerSection} to these validators,
+     * unless they are absent or the header fields are already present.
+     *
+     * @param headerSection the header section of a response
+     */
+    public void setTo(Fields headerSection) {
+        if (entityTag != null && !headerSection.contains("etag"))
+            headerSection.set("etag", entityTag);
+        if (lastModified != null && !headerSection.contains("last-modified"))
+            headerSection.set("last-modified", formatHTTPDate(lastModified));
+    }
+
+    /**
+     * @param instant the instant
+     * @return the HTTP-date of {@code instant}, in the IMF-fixdate format
+     */
+    public static String formatHTTPDate(Instant instant) {
+        return IMF_FIXDATE.format(instant);
+    }
+
+    /**
+     * Parses an HTTP-date in the IMF-fixdate format. The obsolete formats are not recognized.
+     *
+     * @param httpDate the HTTP-date
+     * @return the instant, or an empty optional if {@code httpDate} is invalid
+     */
+    public static Optional<Instant> parseHTTPDate(String httpDate) {
+        try {
+            return Optional.of(ZonedDateTime.parse(httpDate.strip(),
+                    DateTimeFormatter.RFC_1123_DATE_TIME).toInstant());
+        } catch (DateTimeParseException dateTimeParseException) {
+            return Optional.empty();
+        }
+    }
+
+//    entity-tag = [ weak ] opaque-tag
+//    weak       = %s"W/"
+//    opaque-tag = DQUOTE *etagc DQUOTE
+//    etagc      = %x21 / %x23-7E / obs-text
+    static boolean isEntityTag(String str) {
+        final int start = str.startsWith("W/") ? 2 : 0;
+        if (str.length() < start + 2 || str.charAt(start) != '"'
+                || str.charAt(str.length() - 1) != '"')
+            return false;
+        for (int i = start + 1; i < str.length() - 1; i++) {
+            final char c = str.charAt(i);
+            if (c == '"' || c < 0X21 || c == 0X7F || c > 0XFF)
+                return false;
+        }
+        return true;
+    }
+
+}
@@ -16,10 +16,18 @@
  */
 package personal.mrxdhlxpb.server.https.configuration;
 
+import personal.mrxdhlxpb.server.https.BufferPool;
+import personal.mrxdhlxpb.server.https.HTTP1_1ResponseGenerator;
 import personal.mrxdhlxpb.server.https.InternalResourceMapper;
 import personal.mrxdhlxpb.server.https.HttpErrorHandlerRegistry;
+import personal.mrxdhlxpb.server.https.MemoryBudget;
+import personal.mrxdhlxpb.server.https.ResponseCache;
+import personal.mrxdhlxpb.server.https.ResponseCompressor;
+import personal.mrxdhlxpb.server.https.SpoolService;
 import personal.mrxdhlxpb.server.https.decoder.HTTPDecoderRegistry;
 
+import java.time.Duration;
+
 /**
  * @author mrxdhlxpb
  */
@@ -35,4 +43,62 @@ public interface Configuration {
 
     HTTP1_1Configuration getHTTP1_1Configuration();
 
+    /**
+     * The buffer pool from which the buffers of connections and requests are leased. A buffer is
+     * released when the request or the connection it belongs to is closed.
+     * @return the buffer pool, {@link BufferPool#UNPOOLED} by default
+     */
+    default BufferPool getBufferPool() {
+        return BufferPool.UNPOOLED;
+    }
+
+    /**
+     * The spool service with which request content and part bodies which do not fit in memory are
+     * spooled into temporary files. Its stale files are deleted when the server starts, unless it
+     * is {@link SpoolService#DEFAULT}.
+     * @return the spool service, {@link SpoolService#DEFAULT} by default
+     */
+    default SpoolService getSpoolService() {
+        return SpoolService.DEFAULT;
+    }
+
+    /**
+     * The memory budget shared by all connections, from which the memory buffers of request
+     * content and part bodies are reserved. Its {@link MemoryBudget#getUsed()} reports the memory
+     * currently used for buffering bodies.
+     * @return the memory budget, {@link MemoryBudget#UNLIMITED} by default
+     */
+    default MemoryBudget getMemoryBudget() {
+        return MemoryBudget.UNLIMITED;
+    }
+
+    /**
+     * The response compressor which compresses the content of responses of internal resources
+     * whose {@code getCompressionPolicy()} allows it. Its {@code Deflater} instances are pooled
+     * across connections.
+     * @return the response compressor, {@link ResponseCompressor#DEFAULT} by default
+     */
+    default ResponseCompressor getResponseCompressor() {
+        return ResponseCompressor.DEFAULT;
+    }
+
+    /**
+     * The response cache which stores the responses of internal resources whose
+     * {@code isResponseCacheable()} returns {@code true}, shared by all connections.
+     * @return the response cache, {@link ResponseCache#DISABLED} by default
+     */
+    default ResponseCache getResponseCache() {
+        return ResponseCache.DISABLED;
+    }
+
+    /**
+     * The time the request handler may take to complete the response, after which the request
+     * is answered with 503 (Service Unavailable).
+     * @return the response timeout, {@link HTTP1_1ResponseGenerator#DEFAULT_RESPONSE_TIMEOUT} by
+     *         default
+     */
+    default Duration getResponseTimeout() {
+        return HTTP1_1ResponseGenerator.DEFAULT_RESPONSE_TIMEOUT;
+    }
+
 }
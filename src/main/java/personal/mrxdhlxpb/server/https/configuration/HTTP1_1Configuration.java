@@ -33,4 +33,28 @@ public interface HTTP1_1Configuration {
 
     HTTP1_1ResponseMessageBodyGenerator getHttpErrorHTTP1_1ResponseMessageBodyGenerator();
 
+    /**
+     * In lazy mode, the header section of a request is read into a buffer which is reused for
+     * every request on the connection, and each field is decoded only when it is accessed.
+     * @return whether the header section of a request is parsed lazily, {@code false} by default
+     */
+    default boolean isRequestHeaderSectionLazy() {
+        return false;
+    }
+
+    /**
+     * If enabled, the content codings listed in the Content-Encoding header field of a request
+     * are decoded by the content coding decoders of the
+     * {@link personal.mrxdhlxpb.server.https.decoder.HTTPDecoderRegistry}, so that the request
+     * content input stream yields the decoded content, and the content length is that of the
+     * decoded content, or {@code -1} if unknown. A content coding which is not registered is
+     * responded to with the 415 (Unsupported Media Type) status code. The header section then
+     * describes the decoded content: the Content-Encoding header field is removed, and the
+     * Content-Length header field is set to the decoded length, or removed if it is unknown.
+     * @return whether the content codings of a request are decoded, {@code false} by default
+     */
+    default boolean isRequestContentDecoded() {
+        return false;
+    }
+
 }
\ No newline at end of file
@@ -61,4 +61,37 @@ public interface NetworkConfiguration {
 
     Set<String> getServerAliases();
 
+    /**
+     * @return the connector mode, {@link ConnectorMode#BLOCKING} by default
+     */
+    default ConnectorMode getConnectorMode() {
+        return ConnectorMode.BLOCKING;
+    }
+
+    /**
+     * Only used in {@link ConnectorMode#NON_BLOCKING} mode.
+     * @return the number of selector event loops, the number of available processors by default
+     */
+    default int getEventLoopCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Determines how connections are accepted and served.
+     */
+    enum ConnectorMode {
+        /**
+         * Each connection is served by a virtual thread blocking on an {@code SSLSocket} for the
+         * whole lifetime of the connection.
+         */
+        BLOCKING,
+
+        /**
+         * Connections are multiplexed on a small set of {@code Selector} event loops, and TLS is
+         * handled by {@code SSLEngine}. A virtual thread is only dispatched while a connection has
+         * request data to be processed, so idle persistent connections do not hold a thread.
+         */
+        NON_BLOCKING
+    }
+
 }
@@ -21,11 +21,14 @@ import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
 
 /**
  * A chain of HTTP decoders, which is an HTTP decoder.
+ * <p> The decoders are composed as stream transformers: each decoder decodes the decoded input
+ * stream of the previous one, and the decoded input stream of the chain is that of the last
+ * decoder. A decoder that decodes lazily therefore pulls from the previous one only as the
+ * decoded data is read, and the chain holds no copy of the data that its decoders do not hold.
  *
  * @author mrxdhlxpb
  */
@@ -60,35 +63,54 @@ public final class ChainDecoder implements HTTPDecoder {
     }
 
     /**
-     * Applies each decoder in the order of iteration. Intermediate input streams will be closed.
-     * {@code encoded} will not be closed.
+     * Applies each decoder in the order of iteration, with the length of the encoded data
+     * unknown.
+     *
      * @param encoded the input stream to be decoded
      * @return {@code this}
      * @throws IOException if an i/o error occurs
      * @throws BadRequestException if {@code encoded} cannot be decoded
      */
     @Override
-    public HTTPDecoder decode(InputStream encoded) throws IOException, BadRequestException {
-        InputStream previous, next;
-        int len;
-        final Iterator<? extends HTTPDecoder> iterator = decoders.iterator();
-        final HTTPDecoder firstDecoder = iterator.next();
-
-        previous = firstDecoder.decode(encoded).getDecodedInputStream();
-        len = firstDecoder.getDecodedLength();
+    public ChainDecoder decode(InputStream encoded) throws IOException, BadRequestException {
+        return decode(encoded, -1);
+    }
 
-        while (iterator.hasNext()) {
+    /**
+     * Applies each decoder in the order of iteration, passing each one the decoded length of the
+     * previous one. Closing the decoded input stream closes the intermediate input streams, but
+     * not {@code encoded}. If a decoder fails, the intermediate input streams created so far are
+     * closed.
+     *
+     * @param encoded the input stream to be decoded
+     * @param encodedLength the length of the encoded data, in bytes, or {@code -1} if unknown
+     * @return {@code this}
+     * @throws IOException if an i/o error occurs
+     * @throws BadRequestException if {@code encoded} cannot be decoded
+     */
+    @Override
+    public ChainDecoder decode(InputStream encoded, int encodedLength)
+            throws IOException, BadRequestException {
+        final InputStream[] stages = new InputStream[decoders.size()];
+        InputStream previous = encoded;
+        int len = encodedLength;
+        int count = 0;
+        try {
+            for (HTTPDecoder decoder : decoders) {
+                previous = decoder.decode(previous, len).getDecodedInputStream();
+                stages[count++] = previous;
+                len = decoder.getDecodedLength();
+            }
+        } catch (IOException | BadRequestException | RuntimeException e) {
             try {
-                final HTTPDecoder currentDecoder = iterator.next();
-                next = currentDecoder.decode(previous).getDecodedInputStream();
-                len = currentDecoder.getDecodedLength();
-            } finally {
-                previous.close();
+                ChainedInputStream.closeAll(stages, count);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
             }
-            previous = next;
+            throw e;
         }
 
-        this.decodedInputStream = previous;
+        this.decodedInputStream = new ChainedInputStream(stages);
         this.decodedLength = len;
         return this;
     }
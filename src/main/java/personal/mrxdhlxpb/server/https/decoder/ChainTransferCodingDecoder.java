@@ -37,6 +37,12 @@ public final class ChainTransferCodingDecoder implements TransferCodingDecoder {
 
     private final ChainDecoder nonChunkedChain;
 
+    /**
+     * the decoded input stream of {@code nonChunkedChain}, which also closes the decoded input
+     * stream of {@code chunked} when closed
+     */
+    private InputStream contentInputStream;
+
     public ChainTransferCodingDecoder(ChunkedTransferCodingDecoder chunked,
                                       NonChunkedTransferCodingDecoder...
                                               nonChunkedTransferCodingDecoders) {
@@ -69,14 +75,24 @@ public final class ChainTransferCodingDecoder implements TransferCodingDecoder {
 
     public ChainTransferCodingDecoder decode(HttpRequestInputStream encoded)
             throws IOException, BadRequestException {
-        if (nonChunkedChain == null) {
-            chunked.decode(encoded);
+        chunked.decode(encoded);
+        if (nonChunkedChain == null)
             return this;
-        }
 
-        try (var chunkedDecoded = chunked.decode(encoded).getDecodedInputStream()) {
-            nonChunkedChain.decode(chunkedDecoded);
+        final InputStream chunkedDecoded = chunked.getContentInputStream();
+        try {
+            nonChunkedChain.decode(chunkedDecoded, chunked.getContentLength());
+        } catch (IOException | BadRequestException | RuntimeException e) {
+            try {
+                chunkedDecoded.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
         }
+        contentInputStream = new ChainedInputStream(
+                chunkedDecoded,
+                nonChunkedChain.getDecodedInputStream());
         return this;
     }
 
@@ -87,15 +103,19 @@ public final class ChainTransferCodingDecoder implements TransferCodingDecoder {
         return chunked.getTrailerFields();
     }
 
+    /**
+     * @return the decoded length of the last decoder, or {@code -1} if it is not known until the
+     *         content has been read
+     */
     @Override
     public int getContentLength() {
-        return chunked.getContentLength();
+        return nonChunkedChain == null ?
+                chunked.getContentLength() :
+                nonChunkedChain.getDecodedLength();
     }
 
     @Override
     public InputStream getContentInputStream() {
-        return nonChunkedChain == null ?
-                chunked.getContentInputStream() :
-                nonChunkedChain.getDecodedInputStream();
+        return nonChunkedChain == null ? chunked.getContentInputStream() : contentInputStream;
     }
 }
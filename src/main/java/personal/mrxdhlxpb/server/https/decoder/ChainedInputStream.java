@@ -0,0 +1,77 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https.decoder;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The input stream of the last stage of a chain of HTTP decoders, from which the decoded data is
+ * read. Also used to tie the input stream framing a message body to its decoded input stream.
+ * Each stage pulls from the previous one only as much as it is asked for, so no stage holds more
+ * than its own buffer.
+ * <p> Closing this input stream closes every stage, from the last to the first, even if closing
+ * one of them fails. The input stream the first stage decodes is not closed.
+ *
+ * @author mrxdhlxpb
+ */
+public final class ChainedInputStream extends FilterInputStream {
+
+    private final InputStream[] stages;
+
+    private boolean closed;
+
+    /**
+     * @param stages the decoded input streams of the stages, in the order of decoding; not empty
+     */
+    public ChainedInputStream(InputStream... stages) {
+        super(stages[stages.length - 1]);
+        this.stages = stages;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        closeAll(stages, stages.length);
+    }
+
+    /**
+     * Closes {@code streams[0..count)}, from the last to the first. The first exception thrown is
+     * rethrown once all of them have been closed, with any subsequent exceptions suppressed.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    static void closeAll(InputStream[] streams, int count) throws IOException {
+        IOException exception = null;
+        for (int i = count - 1; i >= 0; i--) {
+            try {
+                streams[i].close();
+            } catch (IOException e) {
+                if (exception == null)
+                    exception = e;
+                else
+                    exception.addSuppressed(e);
+            }
+        }
+        if (exception != null)
+            throw exception;
+    }
+
+}
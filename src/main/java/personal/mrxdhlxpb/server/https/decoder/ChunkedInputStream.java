@@ -0,0 +1,228 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https.decoder;
+
+import personal.mrxdhlxpb.server.https.CompliantWith;
+import personal.mrxdhlxpb.server.https.Fields;
+import personal.mrxdhlxpb.server.https.HttpRequestInputStream;
+import personal.mrxdhlxpb.server.https.error.HttpErrorException;
+import personal.mrxdhlxpb.server.https.error.HttpErrorIOException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that decodes the chunked transfer coding on the fly while the content is read
+ * from it.
+ * <p> Unlike {@link ChunkedTransferCodingDecoderImpl}, which stores the whole content before it
+ * can be read, this input stream reads a chunk line only when the data of the previous chunk has
+ * been consumed, and passes chunk data through without copying it into an intermediate buffer.
+ * The memory used is therefore independent of the length of the content.
+ * <p> The trailer section is read when the last chunk is reached. Its fields are appended to the
+ * {@code Fields} object given at the time of construction, which stays empty until end of stream
+ * has been detected.
+ * <p> Errors in the chunked transfer coding are reported as an {@link HttpErrorIOException}
+ * wrapping a {@link BadRequestException}. Once an error has been reported, every subsequent read
+ * reports the same error.
+ * <p> Closing this input stream discards the unread part of the message body, including the
+ * trailer section, instead of closing the underlying input stream, so that the next request
+ * message on the same connection can be read from the underlying input stream afterwards. The
+ * chunk data is discarded within the discard limit of the underlying input stream; nothing is
+ * discarded if the limit is {@code 0}.
+ *
+ * @author mrxdhlxpb
+ */
+@CompliantWith("RFC 9112: HTTP/1.1 Section 7.1. Chunked Transfer Coding")
+final class ChunkedInputStream extends InputStream {
+
+    private final HttpRequestInputStream in;
+
+    private final int maximumChunkLineLength;
+
+    private final int maximumChunkSize;
+
+    private final int maximumTrailerFieldLineLength;
+
+    private final int maximumTrailerSectionSize;
+
+    private final Fields trailerSection;
+
+    /**
+     * reused for every chunk line; leased from the buffer pool of {@code in} and released when
+     * this input stream is closed
+     */
+    private final byte[] chunkLineBuffer;
+
+    /**
+     * count of bytes of the current chunk data which have not been read yet
+     */
+    private int remaining;
+
+    /**
+     * whether the CRLF following the current chunk data has to be read before the next chunk line
+     */
+    private boolean chunkDataCRLFPending;
+
+    private boolean endOfStream;
+
+    private boolean closed;
+
+    private HttpErrorIOException error;
+
+    ChunkedInputStream(HttpRequestInputStream in,
+                       int maximumChunkLineLength,
+                       int maximumChunkSize,
+                       int maximumTrailerFieldLineLength,
+                       int maximumTrailerSectionSize,
+                       Fields trailerSection) {
+        this.in = in;
+        this.maximumChunkLineLength = maximumChunkLineLength;
+        this.maximumChunkSize = maximumChunkSize;
+        this.maximumTrailerFieldLineLength = maximumTrailerFieldLineLength;
+        this.maximumTrailerSectionSize = maximumTrailerSectionSize;
+        this.trailerSection = trailerSection;
+        this.chunkLineBuffer = in.getBufferPool().acquire(maximumChunkLineLength);
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (!ensureChunkData())
+            return -1;
+        final int data = in.read();
+        if (data == -1)
+            throw fail(new BadRequestException("unable to parse the chunked transfer coding"));
+        remaining--;
+        return data;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0)
+            return 0;
+        if (!ensureChunkData())
+            return -1;
+        final int read = in.read(b, off, Math.min(len, remaining));
+        if (read == -1)
+            throw fail(new BadRequestException("unable to parse the chunked transfer coding"));
+        remaining -= read;
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return error != null || endOfStream ? 0 : Math.min(remaining, in.available());
+    }
+
+    /**
+     * Discards the unread part of the message body. The underlying input stream is not closed.
+     * The chunk line buffer is released to the buffer pool it has been leased from.
+     *
+     * @throws IOException if an I/O error occurs, the unread part of the message body cannot be
+     *                     decoded, or it is not discarded as it exceeds the discard limit of the
+     *                     underlying input stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            // a new exception, since the one thrown by a read would otherwise be suppressed by
+            // itself when this input stream is closed by a try-with-resources statement
+            if (error != null)
+                throw new HttpErrorIOException(error.getCause());
+            if (!endOfStream && in.getDiscardLimit() == 0)
+                throw new IOException("the unread part of the message body is not discarded");
+            while (ensureChunkData()) {
+                if (in.discard(remaining) < remaining)
+                    throw fail(new BadRequestException("unable to parse the chunked " +
+                            "transfer coding"));
+                remaining = 0;
+            }
+        } finally {
+            in.getBufferPool().release(chunkLineBuffer);
+        }
+    }
+
+    /**
+     * Makes sure that the current chunk has data which has not been read yet, by reading the next
+     * chunk line if necessary. Reads the trailer section if the last chunk is reached.
+     *
+     * @return {@code false} if end of stream has been detected
+     * @throws IOException if an I/O error occurs, or the message body cannot be decoded
+     */
+    private boolean ensureChunkData() throws IOException {
+        if (error != null)
+            throw error;
+        if (endOfStream)
+            return false;
+        if (remaining > 0)
+            return true;
+
+        //  chunked-body   = *chunk
+        //                   last-chunk
+        //                   trailer-section
+        //                   CRLF
+
+        try {
+            if (chunkDataCRLFPending) {
+                in.requireCRLF(() ->
+                        new BadRequestException("unable to parse the chunked transfer coding"));
+                chunkDataCRLFPending = false;
+            }
+
+            final int len;
+            try {
+                len = in.readLine(chunkLineBuffer, 0, maximumChunkLineLength,
+                        HttpRequestInputStream.CannotContainException::new);
+            } catch (HttpRequestInputStream.CannotContainException e) {
+                throw new BadRequestException("unable to parse the chunked transfer coding");
+            }
+            final int chunkSize = ChunkedTransferCodingDecoderImpl
+                    .parseChunkSize(chunkLineBuffer, len, maximumChunkSize);
+
+            if (chunkSize == 0) {
+                // last-chunk
+                for (Fields.Field field : in.readFields(maximumTrailerFieldLineLength,
+                        maximumTrailerSectionSize).toList())
+                    trailerSection.append(field.fieldName(), field.fieldValueString());
+                endOfStream = true;
+                return false;
+            }
+
+            remaining = chunkSize;
+            chunkDataCRLFPending = true;
+            return true;
+        } catch (HttpErrorException httpErrorException) {
+            throw fail(httpErrorException);
+        }
+    }
+
+    private HttpErrorIOException fail(HttpErrorException httpErrorException) {
+        error = new HttpErrorIOException(httpErrorException);
+        return error;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+    }
+}
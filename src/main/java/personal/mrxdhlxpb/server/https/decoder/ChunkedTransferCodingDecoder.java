@@ -23,35 +23,43 @@ import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Objects;
 import java.util.Optional;
 
 /**
  * Decodes the chunked transfer coding.
+ * <p> A decoder works in one of two modes, determined by the constructor used:
+ * <ul>
+ *     <li>
+ *         <em>spooling</em>: the decode method reads the whole message body and stores the
+ *         content in memory, or in a temporary file if it exceeds {@code memoryBufferSize}. The
+ *         content length and the trailer fields are known as soon as the decode method returns.
+ *     </li>
+ *     <li>
+ *         <em>streaming</em>: the decode method only reads the message body as the content is
+ *         read from {@code getContentInputStream()}, which enforces {@code maximumChunkSize} as
+ *         it goes. The content length is unknown, for which {@code getContentLength()} returns
+ *         {@code -1}. The trailer fields are appended to the {@code Fields} object returned by
+ *         {@code getTrailerFieldsDirectly()} once end of stream has been detected. Errors
+ *         detected while the content is read are reported as
+ *         {@link personal.mrxdhlxpb.server.https.error.HttpErrorIOException}.
+ *     </li>
+ * </ul>
+ * <p> A decoder holds the result of the last decoding, so it decodes one message at a time and
+ * must not be shared between connections. Decoders sharing the same {@link Settings} are
+ * obtained from the settings, which is an {@link HTTPDecoderFactory}.
  *
  * @author mrxdhlxpb
  */
 public final class ChunkedTransferCodingDecoder implements TransferCodingDecoder {
 
-    private final int memoryBufferSize;
-
-    private final int maximumTempFileSize;
-
-    private final int maximumChunkLineLength;
-
-    private final int maximumChunkSize;
-
-    private final int maximumTrailerFieldLineLength;
-
-    private final int maximumTrailerSectionSize;
-
-    private final String tempFilePrefix;
-
-    private final String tempFileSuffix;
-
-    private final File tempFileDirectory;
+    private final Settings settings;
 
     private ChunkedTransferCodingDecoderImpl.DecodeResult currentResult;
 
+    /**
+     * Constructs a decoder working in the spooling mode.
+     */
     public ChunkedTransferCodingDecoder(int memoryBufferSize,
                                         int maximumTempFileSize,
                                         int maximumChunkLineLength,
@@ -61,17 +69,45 @@ public final class ChunkedTransferCodingDecoder implements TransferCodingDecoder
                                         String tempFilePrefix,
                                         String tempFileSuffix,
                                         File tempFileDirectory) {
-        this.memoryBufferSize = memoryBufferSize;
-        this.maximumTempFileSize = maximumTempFileSize;
-        this.maximumChunkLineLength = maximumChunkLineLength;
-        this.maximumChunkSize = maximumChunkSize;
-        this.maximumTrailerFieldLineLength = maximumTrailerFieldLineLength;
-        this.maximumTrailerSectionSize = maximumTrailerSectionSize;
-        this.tempFilePrefix = tempFilePrefix;
-        this.tempFileSuffix = tempFileSuffix;
-        this.tempFileDirectory = tempFileDirectory;
+        this(Settings.spooling(
+                memoryBufferSize,
+                maximumTempFileSize,
+                maximumChunkLineLength,
+                maximumChunkSize,
+                maximumTrailerFieldLineLength,
+                maximumTrailerSectionSize,
+                tempFilePrefix,
+                tempFileSuffix,
+                tempFileDirectory));
+    }
+
+    /**
+     * Constructs a decoder working in the streaming mode.
+     */
+    public ChunkedTransferCodingDecoder(int maximumChunkLineLength,
+                                        int maximumChunkSize,
+                                        int maximumTrailerFieldLineLength,
+                                        int maximumTrailerSectionSize) {
+        this(Settings.streaming(
+                maximumChunkLineLength,
+                maximumChunkSize,
+                maximumTrailerFieldLineLength,
+                maximumTrailerSectionSize));
     }
 
+    /**
+     * Constructs a decoder working in the mode given by {@code settings}.
+     *
+     * @param settings non-null required
+     */
+    public ChunkedTransferCodingDecoder(Settings settings) {
+        this.settings = Objects.requireNonNull(settings);
+    }
+
+    public Settings getSettings() { return settings; }
+
+    public boolean isStreaming() { return settings.streaming(); }
+
     /**
      * This method throws {@code IllegalStateException}.
      *
@@ -86,16 +122,30 @@ public final class ChunkedTransferCodingDecoder implements TransferCodingDecoder
 
     public ChunkedTransferCodingDecoder decode(HttpRequestInputStream encoded)
             throws IOException, BadRequestException {
+        if (settings.streaming()) {
+            final Fields trailerSection = new Fields();
+            currentResult = new ChunkedTransferCodingDecoderImpl.DecodeResult(
+                    new ChunkedInputStream(
+                            encoded,
+                            settings.maximumChunkLineLength(),
+                            settings.maximumChunkSize(),
+                            settings.maximumTrailerFieldLineLength(),
+                            settings.maximumTrailerSectionSize(),
+                            trailerSection),
+                    trailerSection,
+                    -1);
+            return this;
+        }
         currentResult = ChunkedTransferCodingDecoderImpl.decode(
-                memoryBufferSize,
-                maximumTempFileSize,
-                maximumChunkLineLength,
-                maximumChunkSize,
-                maximumTrailerFieldLineLength,
-                maximumTrailerSectionSize,
-                tempFilePrefix,
-                tempFileSuffix,
-                tempFileDirectory,
+                settings.memoryBufferSize(),
+                settings.maximumTempFileSize(),
+                settings.maximumChunkLineLength(),
+                settings.maximumChunkSize(),
+                settings.maximumTrailerFieldLineLength(),
+                settings.maximumTrailerSectionSize(),
+                settings.tempFilePrefix(),
+                settings.tempFileSuffix(),
+                settings.tempFileDirectory(),
                 encoded
         );
         return this;
@@ -106,6 +156,9 @@ public final class ChunkedTransferCodingDecoder implements TransferCodingDecoder
         return currentResult.inputStream();
     }
 
+    /**
+     * @return the content length, or {@code -1} in the streaming mode
+     */
     @Override
     public int getContentLength() {
         return currentResult.contentLength();
@@ -117,4 +170,72 @@ public final class ChunkedTransferCodingDecoder implements TransferCodingDecoder
     public Optional<Fields> getTrailerFields() {
         return Optional.of(getTrailerFieldsDirectly());
     }
+
+    /**
+     * The immutable settings of a {@code ChunkedTransferCodingDecoder}, which serve as a factory of
+     * decoders sharing them. Unlike a decoder, an instance can be shared by all connections.
+     *
+     * @param memoryBufferSize not used in the streaming mode
+     * @param maximumTempFileSize not used in the streaming mode
+     * @param tempFilePrefix not used in the streaming mode
+     * @param tempFileSuffix not used in the streaming mode
+     * @param tempFileDirectory not used in the streaming mode
+     * @param streaming whether decoders work in the streaming mode
+     */
+    public record Settings(int memoryBufferSize,
+                           int maximumTempFileSize,
+                           int maximumChunkLineLength,
+                           int maximumChunkSize,
+                           int maximumTrailerFieldLineLength,
+                           int maximumTrailerSectionSize,
+                           String tempFilePrefix,
+                           String tempFileSuffix,
+                           File tempFileDirectory,
+                           boolean streaming)
+            implements HTTPDecoderFactory<ChunkedTransferCodingDecoder> {
+
+        public static Settings spooling(int memoryBufferSize,
+                                        int maximumTempFileSize,
+                                        int maximumChunkLineLength,
+                                        int maximumChunkSize,
+                                        int maximumTrailerFieldLineLength,
+                                        int maximumTrailerSectionSize,
+                                        String tempFilePrefix,
+                                        String tempFileSuffix,
+                                        File tempFileDirectory) {
+            return new Settings(
+                    memoryBufferSize,
+                    maximumTempFileSize,
+                    maximumChunkLineLength,
+                    maximumChunkSize,
+                    maximumTrailerFieldLineLength,
+                    maximumTrailerSectionSize,
+                    tempFilePrefix,
+                    tempFileSuffix,
+                    tempFileDirectory,
+                    false);
+        }
+
+        public static Settings streaming(int maximumChunkLineLength,
+                                         int maximumChunkSize,
+                                         int maximumTrailerFieldLineLength,
+                                         int maximumTrailerSectionSize) {
+            return new Settings(
+                    0,
+                    0,
+                    maximumChunkLineLength,
+                    maximumChunkSize,
+                    maximumTrailerFieldLineLength,
+                    maximumTrailerSectionSize,
+                    null,
+                    null,
+                    null,
+                    true);
+        }
+
+        @Override
+        public ChunkedTransferCodingDecoder newDecoder() {
+            return new ChunkedTransferCodingDecoder(this);
+        }
+    }
 }
@@ -17,11 +17,12 @@
 package personal.mrxdhlxpb.server.https.decoder;
 
 import personal.mrxdhlxpb.server.https.*;
+import personal.mrxdhlxpb.server.https.error.HttpErrorIOException;
 import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException;
+import personal.mrxdhlxpb.server.https.error.concrete.server.ServiceUnavailableException;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.util.regex.Pattern;
 
 /**
@@ -40,6 +41,9 @@ class ChunkedTransferCodingDecoderImpl implements Closeable {
     private static final Pattern CHUNK_SIZE_CHUNK_EXT_DELIMITER_PATTERN = Pattern
             .compile(CHUNK_SIZE_CHUNK_EXT_DELIMITER_REGEX);
 
+    /**
+     * {@code 0} if the memory budget is exhausted and its policy is to spool
+     */
     private final int memoryBufferSize;
 
     private final int maximumTempFileSize;
@@ -60,16 +64,36 @@ class ChunkedTransferCodingDecoderImpl implements Closeable {
 
     private final HttpRequestInputStream httpRequestInputStream;
 
-    private final byte[] buf;
+    private final BufferPool bufferPool;
+
+    private final MemoryBudget memoryBudget;
+
+    /**
+     * the number of bytes reserved from {@code memoryBudget} for {@code buf}, and not released or
+     * handed out yet
+     */
+    private long reservedMemory;
+
+    /**
+     * leased from {@code bufferPool}; {@code null} if not leased, or once released or handed out
+     */
+    private byte[] buf;
+
+    /**
+     * reused for every chunk line; leased from {@code bufferPool}
+     */
+    private byte[] chunkLineBuffer;
 
     /**
      * count of bytes stored (in buf or in temp file)
      */
     private int count;
 
-    private BufferedOutputStream outputStreamToTempFile;
-
-    private FileInputStream inputStreamFromTempFile;
+    /**
+     * created from {@code httpRequestInputStream.getSpoolService()} once {@code buf} is filled;
+     * {@code null} once handed out
+     */
+    private SpoolService.SpoolFile spoolFile;
 
     private Fields trailerSection;
 
@@ -84,8 +108,15 @@ class ChunkedTransferCodingDecoderImpl implements Closeable {
                                      String tempFilePrefix,
                                      String tempFileSuffix,
                                      File tempFileDirectory,
-                                     HttpRequestInputStream httpRequestInputStream) {
-        this.memoryBufferSize = memoryBufferSize;
+                                     HttpRequestInputStream httpRequestInputStream)
+            throws HttpErrorIOException {
+        this.memoryBudget = httpRequestInputStream.getMemoryBudget();
+        try {
+            this.memoryBufferSize = memoryBudget.reserve(memoryBufferSize) ? memoryBufferSize : 0;
+        } catch (ServiceUnavailableException e) {
+            throw new HttpErrorIOException(e);
+        }
+        this.reservedMemory = this.memoryBufferSize;
         this.maximumTempFileSize = maximumTempFileSize;
         this.maximumChunkLineLength = maximumChunkLineLength;
         this.maximumChunkSize = maximumChunkSize;
@@ -95,13 +126,15 @@ class ChunkedTransferCodingDecoderImpl implements Closeable {
         this.tempFilePrefix = tempFilePrefix;
         this.tempFileSuffix = tempFileSuffix;
         this.tempFileDirectory = tempFileDirectory;
-        this.buf = new byte[memoryBufferSize];
+        this.bufferPool = httpRequestInputStream.getBufferPool();
+        this.buf = this.memoryBufferSize == 0 ? null : bufferPool.acquire(this.memoryBufferSize);
+        this.chunkLineBuffer = bufferPool.acquire(maximumChunkLineLength);
     }
 
 
     /**
      * Reads from {@code httpRequestInputStream} and decodes the chunked transfer coding. The result
-     * can be obtained from subsequent calls to {@code getEitherBufOrInputStreamFromTempFile()},
+     * can be obtained from subsequent calls to {@code takeInputStream()},
      * {@code getTrailerSection()} and {@code getContentLength()}.
      *
      * @throws IOException if an i/o error occurs
@@ -134,9 +167,6 @@ class ChunkedTransferCodingDecoderImpl implements Closeable {
         }
         trailerSection = httpRequestInputStream
                 .readFields(maximumTrailerFieldLineLength, maximumTrailerSectionSize);
-
-        if (outputStreamToTempFile != null)
-            outputStreamToTempFile.flush();
     }
 
 
@@ -149,13 +179,29 @@ class ChunkedTransferCodingDecoderImpl implements Closeable {
      * @throws BadRequestException if we want to respond with a 400 status code
      */
     private int readChunkLine() throws IOException, BadRequestException {
-        byte[] bytes = new byte[maximumChunkLineLength];
         int len;
         try {
-            len = httpRequestInputStream.readLine(bytes);
+            len = httpRequestInputStream.readLine(chunkLineBuffer, 0, maximumChunkLineLength,
+                    HttpRequestInputStream.CannotContainException::new);
         } catch (HttpRequestInputStream.CannotContainException e) {
             throw new BadRequestException("unable to parse the chunked transfer coding");
         }
+        return parseChunkSize(chunkLineBuffer, len, maximumChunkSize);
+    }
+
+
+    /**
+     * Parses a chunk line, excluding the trailing CRLF. Any chunk extension is ignored.
+     *
+     * @param bytes the array that holds the chunk line
+     * @param len the length of the chunk line
+     * @param maximumChunkSize maximum chunk size
+     * @return chunk size
+     * @throws BadRequestException if the chunk line cannot be parsed, or chunk size exceeds
+     *                             {@code maximumChunkSize}
+     */
+    static int parseChunkSize(byte[] bytes, int len, int maximumChunkSize)
+            throws BadRequestException {
         String chunkLine = new String(bytes, 0, len, StandardCharsets.US_ASCII);
 
         // chunk-line = chunk-size [ chunk-ext ] CRLF
@@ -197,9 +243,9 @@ class ChunkedTransferCodingDecoderImpl implements Closeable {
 
     /**
      * Stores the given byte array, either in {@code buf}, if {@code buf} can hold all the data,
-     * or in a temporary file.
+     * or in a spool file.
      * @param b the given byte array
-     * @throws IOException if an i/o error occurs
+     * @throws IOException if an i/o error occurs, or the spool service is out of quota
      * @throws BadRequestException if we cannot parse the chunked transfer coding
      */
     private void store(byte[] b) throws IOException, BadRequestException {
@@ -210,30 +256,53 @@ class ChunkedTransferCodingDecoderImpl implements Closeable {
             System.arraycopy(b, 0, buf, count, b.length);
             count += b.length;
         } else if (preventOverflow > memoryBufferSize && preventOverflow <= maximumTempFileSize) {
-            if (inputStreamFromTempFile == null) {
-                // TODO: temp file security
-                File tempFile = File.createTempFile(
-                        tempFilePrefix,
-                        tempFileSuffix,
-                        tempFileDirectory);
-                tempFile.deleteOnExit();
-                inputStreamFromTempFile = new FileInputStream(tempFile);
-                outputStreamToTempFile = new BufferedOutputStream(new FileOutputStream(tempFile));
-                outputStreamToTempFile.write(buf, 0, count);
-
-                // TODO: buf = new byte[0] ?
+            if (spoolFile == null) {
+                spoolFile = httpRequestInputStream
+                        .getSpoolService()
+                        .create(tempFilePrefix, tempFileSuffix, tempFileDirectory);
+                if (buf != null) {
+                    spoolFile.write(buf, 0, count);
+
+                    bufferPool.release(buf);
+                    buf = null;
+                    releaseReservedMemory();
+                }
             }
-            outputStreamToTempFile.write(b);
+            spoolFile.write(b);
             count += b.length;
         } else {
             throw new BadRequestException("unable to parse the chunked transfer coding");
         }
     }
 
-    Either<byte[], FileInputStream> getEitherBufOrInputStreamFromTempFile() {
-        return inputStreamFromTempFile == null ?
-                Either.of(Arrays.copyOf(buf, count), null) :
-                Either.of(null, inputStreamFromTempFile);
+    /**
+     * Hands out the stored content, either as an input stream reading {@code buf}, which releases
+     * {@code buf} and the memory reserved for it when closed, or as the input stream from the spool
+     * file, which deletes the spool file when closed.
+     *
+     * @return the input stream from which the stored content can be read
+     * @throws IOException if an I/O error occurs
+     */
+    InputStream takeInputStream() throws IOException {
+        if (spoolFile != null) {
+            final InputStream inputStream = spoolFile.toInputStream();
+            spoolFile = null;
+            return inputStream;
+        }
+        if (buf == null)
+            return InputStream.nullInputStream();
+        final InputStream inputStream = memoryBudget
+                .releasingOnClose(bufferPool.newInputStream(buf, count), reservedMemory);
+        buf = null;
+        reservedMemory = 0;
+        return inputStream;
+    }
+
+    private void releaseReservedMemory() {
+        if (reservedMemory > 0) {
+            memoryBudget.release(reservedMemory);
+            reservedMemory = 0;
+        }
     }
 
 
@@ -247,14 +316,27 @@ class ChunkedTransferCodingDecoderImpl implements Closeable {
     }
 
     /**
-     * closes {@code outputStreamToTempFile}
+     * deletes the spool file, and releases the buffers and the memory reserved, which have not
+     * been handed out
      *
      * @throws IOException if an I/O error occurs
      */
     @Override
     public void close() throws IOException {
-        if (outputStreamToTempFile != null)
-            outputStreamToTempFile.close();
+        try {
+            if (spoolFile != null)
+                spoolFile.close();
+        } finally {
+            if (buf != null) {
+                bufferPool.release(buf);
+                buf = null;
+            }
+            releaseReservedMemory();
+            if (chunkLineBuffer != null) {
+                bufferPool.release(chunkLineBuffer);
+                chunkLineBuffer = null;
+            }
+        }
     }
 
     static DecodeResult decode(int memoryBufferSize,
@@ -280,10 +362,7 @@ class ChunkedTransferCodingDecoderImpl implements Closeable {
                 tempFileDirectory,
                 httpRequestInputStream)) {
             chunkedDecoder.decode();
-            InputStream inputStream = (InputStream) chunkedDecoder
-                    .getEitherBufOrInputStreamFromTempFile()
-                    .map(ByteArrayInputStream::new, null)
-                    .get();
+            InputStream inputStream = chunkedDecoder.takeInputStream();
             Fields trailerSection = chunkedDecoder.getTrailerSection();
             int contentLength = chunkedDecoder.getContentLength();
             return new DecodeResult(inputStream, trailerSection, contentLength);
@@ -16,8 +16,37 @@
  */
 package personal.mrxdhlxpb.server.https.decoder;
 
+import personal.mrxdhlxpb.server.https.error.concrete.client.UnsupportedMediaTypeException;
+
+import java.util.ArrayList;
+import java.util.List;
+
 /**
+ * A decoder for a content coding.
+ *
  * @author mrxdhlxpb
  */
 public non-sealed interface ContentCodingDecoder extends HTTPDecoder {
+
+    /**
+     * Creates a chain of decoders for the content codings listed in a Content-Encoding field
+     * value, which are listed in the order in which they were applied, and are therefore decoded
+     * in the reverse order.
+     *
+     * @param httpDecoderRegistry the registry
+     * @param contentEncodingFieldValueMembers the content codings; not empty
+     * @return the chain of decoders
+     * @throws UnsupportedMediaTypeException if a content coding is not registered
+     */
+    static ChainDecoder of(HTTPDecoderRegistry httpDecoderRegistry,
+                           String[] contentEncodingFieldValueMembers)
+            throws UnsupportedMediaTypeException {
+        final List<ContentCodingDecoder> contentCodingDecoders = new ArrayList<>();
+        for (int i = contentEncodingFieldValueMembers.length - 1; i >= 0; i--)
+            contentCodingDecoders.add(httpDecoderRegistry
+                    .getContentCodingDecoder(contentEncodingFieldValueMembers[i])
+                    .orElseThrow(UnsupportedMediaTypeException::new));
+        return HTTPDecoder.chain(contentCodingDecoders);
+    }
+
 }
@@ -21,6 +21,7 @@ import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.OptionalInt;
 
 /**
  * An HTTP decoder that performs a decoding transformation on the data read from the given input
@@ -46,7 +47,11 @@ public sealed interface HTTPDecoder
     /**
      * Decodes the data read from {@code encoded}. The result can be obtained from subsequent calls
      * to {@code getDecodedInputStream()} and {@code getDecodedLength()}.
-     * <p> This method does not close {@code encoded}.
+     * <p> A decoder may read and decode all the data before this method returns, or return an
+     * input stream that reads and decodes {@code encoded} as the decoded data is read from it. In
+     * the latter case {@code encoded} must not be read by anyone else until the decoded input
+     * stream has been closed.
+     * <p> Neither this method nor closing the decoded input stream closes {@code encoded}.
      *
      * @param encoded the input stream to be decoded
      * @return {@code this}
@@ -56,30 +61,61 @@ public sealed interface HTTPDecoder
      */
     HTTPDecoder decode(InputStream encoded) throws IOException, BadRequestException;
 
+    /**
+     * Decodes the data read from {@code encoded}, the length of which is {@code encodedLength}.
+     * A decoder whose decoded length follows from the encoded length, such as the identity
+     * decoding, can report it without reading the data.
+     * <p> The default implementation ignores {@code encodedLength} and calls
+     * {@code decode(encoded)}.
+     *
+     * @param encoded the input stream to be decoded
+     * @param encodedLength the length of the encoded data, in bytes, or {@code -1} if unknown
+     * @return {@code this}
+     * @throws IOException         if an i/o error occurs
+     * @throws BadRequestException if {@code encoded} cannot be decoded
+     */
+    default HTTPDecoder decode(InputStream encoded, int encodedLength)
+            throws IOException, BadRequestException {
+        return decode(encoded);
+    }
+
     /**
      * Returns an {@code InputStream} from which the decoded data can be read. Calling this method
      * prior to calling the decode method has undefined behaviour.
      * <p> The decoded data is determined by reading a certain number of bytes from the returned
      * input stream. The number of bytes is the return value of {@code getDecodedLength()}. The
      * situation where end of stream has been detected before the specified number of bytes can be
-     * read is unexpected and should be taken as an error.
-     * <p> The returned input stream is usually either an instance of {@code ByteArrayInputStream}
-     * if we want to keep the data in memory or an instance of {@code FileInputStream} that reads
-     * from a temporary file.
+     * read is unexpected and should be taken as an error. If {@code getDecodedLength()} returns
+     * {@code -1}, the decoded data is determined by reading until end of stream is detected.
+     * <p> The returned input stream either reads data decoded in advance, kept in memory or in a
+     * temporary file, or decodes the encoded data as it is read.
      * <p> The returned input stream is usually not wrapped with {@code BufferedInputStream}.
+     * Closing it releases what the decoder holds, but does not close the encoded input stream.
      *
      * @return as described above
      */
     InputStream getDecodedInputStream();
 
     /**
-     * Returns the length of the decoded data, in bytes. Calling this method prior to calling the
-     * decode method has undefined behaviour.
+     * Returns the length of the decoded data, in bytes, or {@code -1} if the length is not known
+     * until the decoded data has been read. Calling this method prior to calling the decode method
+     * has undefined behaviour.
      *
      * @return as described above
      */
     int getDecodedLength();
 
+    /**
+     * Returns the length of the decoded data if it is known before the decoded data has been
+     * read. Calling this method prior to calling the decode method has undefined behaviour.
+     *
+     * @return the length of the decoded data, in bytes, or empty if it is not known
+     */
+    default OptionalInt getKnownDecodedLength() {
+        final int decodedLength = getDecodedLength();
+        return decodedLength == -1 ? OptionalInt.empty() : OptionalInt.of(decodedLength);
+    }
+
     /**
      * Combines multiple HTTP decoders into a {@code ChainDecoder}.
      *
@@ -0,0 +1,40 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https.decoder;
+
+/**
+ * A factory that creates an HTTP decoder for each message to be decoded.
+ * <p> An HTTP decoder holds the state of one decoding, so it must not be shared between messages
+ * decoded concurrently. A factory, on the other hand, is shared by all connections, so it must be
+ * thread-safe; usually it holds nothing but immutable settings, as
+ * {@link ChunkedTransferCodingDecoder.Settings} does.
+ *
+ * @param <D> type of the HTTP decoder
+ * @author mrxdhlxpb
+ */
+@FunctionalInterface
+public interface HTTPDecoderFactory<D extends HTTPDecoder> {
+
+    /**
+     * Creates a decoder, which is used to decode one message only. A factory may return a
+     * previously created decoder only if that decoder is no longer in use.
+     *
+     * @return a decoder that is not in use
+     */
+    D newDecoder();
+
+}
@@ -16,15 +16,74 @@
  */
 package personal.mrxdhlxpb.server.https.decoder;
 
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 
 /**
+ * Maps coding names to the factories of their decoders.
+ * <p> A registry is shared by all connections, so it must be thread-safe. A decoder is obtained
+ * from a factory for every message, so that no decoding state is shared between messages.
+ *
  * @author mrxdhlxpb
  */
 public interface HTTPDecoderRegistry {
 
-    Optional<TransferCodingDecoder> getTransferCodingDecoder(String name);
+    Optional<HTTPDecoderFactory<? extends TransferCodingDecoder>>
+    getTransferCodingDecoderFactory(String name);
+
+    Optional<HTTPDecoderFactory<? extends ContentCodingDecoder>>
+    getContentCodingDecoderFactory(String name);
+
+    /**
+     * @return a new decoder for the transfer coding named {@code name}, if registered
+     */
+    default Optional<TransferCodingDecoder> getTransferCodingDecoder(String name) {
+        return getTransferCodingDecoderFactory(name).map(HTTPDecoderFactory::newDecoder);
+    }
+
+    /**
+     * @return a new decoder for the content coding named {@code name}, if registered
+     */
+    default Optional<ContentCodingDecoder> getContentCodingDecoder(String name) {
+        return getContentCodingDecoderFactory(name).map(HTTPDecoderFactory::newDecoder);
+    }
+
+    /**
+     * Creates an immutable registry. Coding names are matched case-insensitively, as they are
+     * case-insensitive tokens; keys of the given maps must therefore be in lower case.
+     *
+     * @param transferCodingDecoderFactories the factories of transfer coding decoders, keyed by
+     *                                       lower case coding names
+     * @param contentCodingDecoderFactories the factories of content coding decoders, keyed by
+     *                                      lower case coding names
+     * @return the registry
+     * @throws NullPointerException if either map, or any of their keys or values, is
+     *                              {@code null}
+     */
+    static HTTPDecoderRegistry of(Map<String, ? extends HTTPDecoderFactory<
+                                          ? extends TransferCodingDecoder>>
+                                          transferCodingDecoderFactories,
+                                  Map<String, ? extends HTTPDecoderFactory<
+                                          ? extends ContentCodingDecoder>>
+                                          contentCodingDecoderFactories) {
+        final Map<String, HTTPDecoderFactory<? extends TransferCodingDecoder>> transfer =
+                Map.copyOf(transferCodingDecoderFactories);
+        final Map<String, HTTPDecoderFactory<? extends ContentCodingDecoder>> content =
+                Map.copyOf(contentCodingDecoderFactories);
+        return new HTTPDecoderRegistry() {
+            @Override
+            public Optional<HTTPDecoderFactory<? extends TransferCodingDecoder>>
+            getTransferCodingDecoderFactory(String name) {
+                return Optional.ofNullable(transfer.get(name.toLowerCase(Locale.ROOT)));
+            }
 
-    Optional<ContentCodingDecoder> getContentCodingDecoder(String name);
+            @Override
+            public Optional<HTTPDecoderFactory<? extends ContentCodingDecoder>>
+            getContentCodingDecoderFactory(String name) {
+                return Optional.ofNullable(content.get(name.toLowerCase(Locale.ROOT)));
+            }
+        };
+    }
 
 }
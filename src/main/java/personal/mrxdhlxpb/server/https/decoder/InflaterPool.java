@@ -0,0 +1,90 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https.decoder;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+/**
+ * A pool of {@code Inflater} instances created with the {@code nowrap} option, that is, for raw
+ * deflate data without zlib header or checksum fields.
+ * <p> An {@code Inflater} holds native memory which is freed only when {@code end()} is called,
+ * so reusing instances saves both the allocation and the cleanup per message. At most
+ * {@code maximumRetained} instances are retained; any instance released beyond that is ended.
+ * <p> This class is lock-free, so that a virtual thread never blocks or gets pinned in it.
+ *
+ * @author mrxdhlxpb
+ */
+public final class InflaterPool {
+
+    private final ConcurrentLinkedQueue<Inflater> retained = new ConcurrentLinkedQueue<>();
+
+    /**
+     * the number of instances in {@code retained}, as {@code ConcurrentLinkedQueue.size()} is not
+     * a constant-time operation
+     */
+    private final AtomicInteger retainedCount = new AtomicInteger();
+
+    private final int maximumRetained;
+
+    /**
+     * @param maximumRetained the maximum number of instances retained
+     * @throws IllegalArgumentException if {@code maximumRetained} is negative
+     */
+    public InflaterPool(int maximumRetained) {
+        if (maximumRetained < 0)
+            throw new IllegalArgumentException();
+        this.maximumRetained = maximumRetained;
+    }
+
+    /**
+     * @return an {@code Inflater} created with the {@code nowrap} option, ready to inflate a new
+     *         data stream
+     */
+    public Inflater acquire() {
+        final Inflater inflater = retained.poll();
+        if (inflater == null)
+            return new Inflater(true);
+        retainedCount.decrementAndGet();
+        return inflater;
+    }
+
+    /**
+     * Returns an {@code Inflater} acquired from this pool. It must not be used afterwards.
+     *
+     * @param inflater non-null required
+     * @throws NullPointerException if {@code inflater} is {@code null}
+     */
+    public void release(Inflater inflater) {
+        Objects.requireNonNull(inflater);
+        if (retainedCount.incrementAndGet() > maximumRetained) {
+            retainedCount.decrementAndGet();
+            inflater.end();
+            return;
+        }
+        inflater.reset();
+        retained.offer(inflater);
+    }
+
+    /**
+     * @return the number of instances retained, for monitoring
+     */
+    public int getRetainedCount() { return retainedCount.get(); }
+
+}
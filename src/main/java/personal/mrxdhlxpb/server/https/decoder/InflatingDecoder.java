@@ -0,0 +1,131 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https.decoder;
+
+import personal.mrxdhlxpb.server.https.BufferPool;
+import personal.mrxdhlxpb.server.https.Fields;
+
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Decodes the gzip or the deflate coding, registered as both a content coding and a transfer
+ * coding.
+ * <p> The decoded input stream inflates the encoded data as it is read, so the decoded data is
+ * never held as a whole and its length is unknown. It enforces {@code maximumDecodedLength} and
+ * {@code maximumCompressionRatio}, reporting a violation as an
+ * {@link personal.mrxdhlxpb.server.https.error.HttpErrorIOException} wrapping a
+ * {@link personal.mrxdhlxpb.server.https.error.concrete.client.ContentTooLargeException}, so
+ * that a small message cannot expand into an arbitrarily large amount of data.
+ * <p> For the deflate coding, data without a zlib header is taken as raw deflate data, which some
+ * clients send instead.
+ * <p> A decoder holds the result of the last decoding, so it must not be shared between
+ * messages. Decoders are obtained from {@link Settings#gzip()} and {@link Settings#deflate()}.
+ *
+ * @author mrxdhlxpb
+ */
+public final class InflatingDecoder
+        implements ContentCodingDecoder, NonChunkedTransferCodingDecoder {
+
+    public enum Format { GZIP, DEFLATE }
+
+    private final Format format;
+
+    private final Settings settings;
+
+    private InputStream contentInputStream;
+
+    /**
+     * @param format non-null required
+     * @param settings non-null required
+     */
+    public InflatingDecoder(Format format, Settings settings) {
+        this.format = Objects.requireNonNull(format);
+        this.settings = Objects.requireNonNull(settings);
+    }
+
+    public Format getFormat() { return format; }
+
+    @Override
+    public InflatingDecoder decode(InputStream encoded) {
+        contentInputStream = new InflatingInputStream(encoded, format, settings);
+        return this;
+    }
+
+    @Override
+    public Optional<Fields> getTrailerFields() {
+        return Optional.empty();
+    }
+
+    /**
+     * @return {@code -1}, as the decoded length is not known until the decoded data has been read
+     */
+    @Override
+    public int getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public InputStream getContentInputStream() {
+        return contentInputStream;
+    }
+
+    /**
+     * The immutable settings shared by {@code InflatingDecoder} instances.
+     *
+     * @param maximumDecodedLength the maximum length of the decoded data, in bytes
+     * @param maximumCompressionRatio the maximum ratio of the length of the decoded data to that
+     *                                of the encoded data read, checked once more than
+     *                                64 KiB has been decoded; {@code 0} for no limit
+     * @param inflaterPool the pool from which {@code Inflater} instances are leased
+     * @param bufferPool the pool from which input buffers are leased
+     */
+    public record Settings(long maximumDecodedLength,
+                           int maximumCompressionRatio,
+                           InflaterPool inflaterPool,
+                           BufferPool bufferPool) {
+
+        /**
+         * @throws IllegalArgumentException if {@code maximumDecodedLength} or
+         *                                  {@code maximumCompressionRatio} is negative
+         * @throws NullPointerException if {@code inflaterPool} or {@code bufferPool} is
+         *                              {@code null}
+         */
+        public Settings {
+            if (maximumDecodedLength < 0 || maximumCompressionRatio < 0)
+                throw new IllegalArgumentException();
+            Objects.requireNonNull(inflaterPool);
+            Objects.requireNonNull(bufferPool);
+        }
+
+        /**
+         * @return a factory of decoders for the gzip coding
+         */
+        public HTTPDecoderFactory<InflatingDecoder> gzip() {
+            return () -> new InflatingDecoder(Format.GZIP, this);
+        }
+
+        /**
+         * @return a factory of decoders for the deflate coding
+         */
+        public HTTPDecoderFactory<InflatingDecoder> deflate() {
+            return () -> new InflatingDecoder(Format.DEFLATE, this);
+        }
+    }
+
+}
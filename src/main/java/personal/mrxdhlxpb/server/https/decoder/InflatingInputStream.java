@@ -0,0 +1,352 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https.decoder;
+
+import personal.mrxdhlxpb.server.https.CompliantWith;
+import personal.mrxdhlxpb.server.https.error.HttpErrorException;
+import personal.mrxdhlxpb.server.https.error.HttpErrorIOException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.ContentTooLargeException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * An input stream that inflates the data read from the encoded input stream as it is read from.
+ * <p> The gzip and zlib header and trailer fields are parsed here rather than by the
+ * {@code Inflater}, so that a single kind of {@code Inflater}, created with the {@code nowrap}
+ * option, can be pooled for all formats. The checksum in the trailer is verified.
+ * <p> Errors are reported as an {@link HttpErrorIOException} wrapping a
+ * {@link BadRequestException} if the data cannot be inflated, or a
+ * {@link ContentTooLargeException} if a limit is exceeded. Once an error has been reported,
+ * every subsequent read reports the same error.
+ * <p> Closing this input stream releases the {@code Inflater} and the input buffer, but does not
+ * close the encoded input stream.
+ *
+ * @author mrxdhlxpb
+ */
+@CompliantWith("RFC 1950: ZLIB Compressed Data Format Specification version 3.3")
+@CompliantWith("RFC 1952: GZIP file format specification version 4.3")
+final class InflatingInputStream extends InputStream {
+
+    /**
+     * the number of decoded bytes below which the compression ratio is not checked, as short
+     * data can have a high ratio legitimately
+     */
+    static final int COMPRESSION_RATIO_CHECK_THRESHOLD = 1 << 16;
+
+    private static final int INPUT_BUFFER_SIZE = 8192;
+
+    private static final int GZIP_ID1 = 0X1F, GZIP_ID2 = 0X8B, CM_DEFLATE = 8;
+
+    private static final int FHCRC = 0X02, FEXTRA = 0X04, FNAME = 0X08, FCOMMENT = 0X10,
+            GZIP_RESERVED_FLAGS = 0XE0;
+
+    private static final int FDICT = 0X20;
+
+    private enum State { HEADER, OPTIONAL_HEADER, DATA, END }
+
+    private final InputStream encoded;
+
+    private final InflatingDecoder.Format format;
+
+    private final InflatingDecoder.Settings settings;
+
+    private final Inflater inflater;
+
+    private final byte[] inputBuffer;
+
+    /**
+     * {@code inputBuffer[inputPosition..inputLimit)} holds encoded data which has not been
+     * consumed yet
+     */
+    private int inputPosition, inputLimit;
+
+    /**
+     * {@code null} for the raw deflate format, whose data is checked by nothing but the
+     * {@code Inflater}
+     */
+    private Checksum checksum;
+
+    private State state = State.HEADER;
+
+    private long encodedCount;
+
+    private long decodedCount;
+
+    /**
+     * decoded bytes of the current gzip member, modulo 2^32
+     */
+    private int memberDecodedCount;
+
+    private final byte[] singleByte = new byte[1];
+
+    private boolean closed;
+
+    private HttpErrorIOException error;
+
+    InflatingInputStream(InputStream encoded,
+                         InflatingDecoder.Format format,
+                         InflatingDecoder.Settings settings) {
+        this.encoded = encoded;
+        this.format = format;
+        this.settings = settings;
+        this.inflater = settings.inflaterPool().acquire();
+        this.inputBuffer = settings.bufferPool().acquire(INPUT_BUFFER_SIZE);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0XFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (error != null)
+            throw error;
+        if (len == 0)
+            return 0;
+        try {
+            while (true) {
+                switch (state) {
+                    case HEADER -> readHeader();
+                    case OPTIONAL_HEADER -> {
+                        // another gzip member may follow
+                        if (!ensureInput(1)) {
+                            state = State.END;
+                            return -1;
+                        }
+                        readHeader();
+                    }
+                    case END -> {
+                        return -1;
+                    }
+                    case DATA -> {
+                        final int n = inflate(b, off, len);
+                        if (n > 0)
+                            return n;
+                    }
+                }
+            }
+        } catch (HttpErrorException httpErrorException) {
+            throw fail(httpErrorException);
+        }
+    }
+
+    /**
+     * Inflates into {@code b[off..off+len)}, reading the trailer once the deflate data is
+     * complete.
+     *
+     * @return the number of bytes inflated, which is {@code 0} if the deflate data is complete
+     */
+    private int inflate(byte[] b, int off, int len) throws IOException, HttpErrorException {
+        while (true) {
+            final int n;
+            try {
+                n = inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new BadRequestException("unable to inflate the content");
+            }
+            if (n > 0) {
+                count(b, off, n);
+                return n;
+            }
+            if (inflater.finished()) {
+                inputPosition = inputLimit - inflater.getRemaining();
+                readTrailer();
+                return 0;
+            }
+            if (inflater.needsDictionary())
+                throw new BadRequestException("unable to inflate the content");
+            if (inflater.needsInput()) {
+                inputPosition = inputLimit;
+                if (!ensureInput(1))
+                    throw new BadRequestException("unexpected end of the content");
+                inflater.setInput(inputBuffer, inputPosition, inputLimit - inputPosition);
+            }
+        }
+    }
+
+    private void count(byte[] b, int off, int n) throws ContentTooLargeException {
+        decodedCount += n;
+        memberDecodedCount += n;
+        if (decodedCount > settings.maximumDecodedLength())
+            throw new ContentTooLargeException();
+        final int maximumCompressionRatio = settings.maximumCompressionRatio();
+        if (maximumCompressionRatio > 0
+                && decodedCount > COMPRESSION_RATIO_CHECK_THRESHOLD
+                && decodedCount / maximumCompressionRatio > encodedCount)
+            throw new ContentTooLargeException();
+        if (checksum != null)
+            checksum.update(b, off, n);
+    }
+
+    private void readHeader() throws IOException, BadRequestException {
+        switch (format) {
+            case GZIP -> readGzipHeader();
+            case DEFLATE -> readZlibHeader();
+        }
+        inflater.reset();
+        inflater.setInput(inputBuffer, inputPosition, inputLimit - inputPosition);
+        state = State.DATA;
+    }
+
+    private void readGzipHeader() throws IOException, BadRequestException {
+        if (readUnsignedByte() != GZIP_ID1 || readUnsignedByte() != GZIP_ID2
+                || readUnsignedByte() != CM_DEFLATE)
+            throw new BadRequestException("invalid gzip header");
+        final int flags = readUnsignedByte();
+        if ((flags & GZIP_RESERVED_FLAGS) != 0)
+            throw new BadRequestException("invalid gzip header");
+        // MTIME, XFL and OS
+        skipBytes(6);
+        if ((flags & FEXTRA) != 0)
+            skipBytes(readUnsignedByte() | readUnsignedByte() << 8);
+        if ((flags & FNAME) != 0)
+            skipZeroTerminated();
+        if ((flags & FCOMMENT) != 0)
+            skipZeroTerminated();
+        if ((flags & FHCRC) != 0)
+            skipBytes(2);
+        if (checksum == null)
+            checksum = new CRC32();
+        else
+            checksum.reset();
+        memberDecodedCount = 0;
+    }
+
+    /**
+     * Reads the zlib header if present. Some clients send raw deflate data for the deflate
+     * content coding, which is recognized by the absence of a valid zlib header.
+     */
+    private void readZlibHeader() throws IOException, BadRequestException {
+        if (!ensureInput(2))
+            throw new BadRequestException("unexpected end of the content");
+        final int cmf = inputBuffer[inputPosition] & 0XFF;
+        final int flg = inputBuffer[inputPosition + 1] & 0XFF;
+        if ((cmf & 0X0F) != CM_DEFLATE || (cmf >>> 4) > 7 || ((cmf << 8) | flg) % 31 != 0)
+            return; // raw deflate
+        if ((flg & FDICT) != 0)
+            throw new BadRequestException("preset dictionary not supported");
+        inputPosition += 2;
+        checksum = new Adler32();
+    }
+
+    private void readTrailer() throws IOException, BadRequestException {
+        switch (format) {
+            case GZIP -> {
+                final long crc = readIntLittleEndian() & 0XFFFFFFFFL;
+                final int size = readIntLittleEndian();
+                if (crc != checksum.getValue() || size != memberDecodedCount)
+                    throw new BadRequestException("corrupt gzip trailer");
+                state = State.OPTIONAL_HEADER;
+            }
+            case DEFLATE -> {
+                if (checksum != null) {
+                    long adler = 0;
+                    for (int i = 0; i < 4; i++)
+                        adler = adler << 8 | readUnsignedByte();
+                    if (adler != checksum.getValue())
+                        throw new BadRequestException("corrupt zlib trailer");
+                }
+                state = State.END;
+            }
+        }
+    }
+
+    private int readIntLittleEndian() throws IOException, BadRequestException {
+        return readUnsignedByte()
+                | readUnsignedByte() << 8
+                | readUnsignedByte() << 16
+                | readUnsignedByte() << 24;
+    }
+
+    private int readUnsignedByte() throws IOException, BadRequestException {
+        if (!ensureInput(1))
+            throw new BadRequestException("unexpected end of the content");
+        return inputBuffer[inputPosition++] & 0XFF;
+    }
+
+    private void skipBytes(int n) throws IOException, BadRequestException {
+        while (n > 0) {
+            if (!ensureInput(1))
+                throw new BadRequestException("unexpected end of the content");
+            final int skipped = Math.min(n, inputLimit - inputPosition);
+            inputPosition += skipped;
+            n -= skipped;
+        }
+    }
+
+    private void skipZeroTerminated() throws IOException, BadRequestException {
+        while (readUnsignedByte() != 0);
+    }
+
+    /**
+     * Reads from the encoded input stream until {@code inputBuffer} holds at least {@code n}
+     * unconsumed bytes, or end of stream is detected.
+     *
+     * @param n not greater than the length of {@code inputBuffer}
+     * @return whether {@code n} unconsumed bytes are available
+     */
+    private boolean ensureInput(int n) throws IOException {
+        if (inputLimit - inputPosition >= n)
+            return true;
+        if (inputBuffer.length - inputPosition < n) {
+            System.arraycopy(inputBuffer, inputPosition, inputBuffer, 0,
+                    inputLimit - inputPosition);
+            inputLimit -= inputPosition;
+            inputPosition = 0;
+        }
+        while (inputLimit - inputPosition < n) {
+            final int read = encoded.read(inputBuffer, inputLimit, inputBuffer.length - inputLimit);
+            if (read == -1)
+                return false;
+            inputLimit += read;
+            encodedCount += read;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the {@code Inflater} and the input buffer. The encoded input stream is not closed.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        settings.inflaterPool().release(inflater);
+        settings.bufferPool().release(inputBuffer);
+    }
+
+    private HttpErrorIOException fail(HttpErrorException httpErrorException) {
+        error = new HttpErrorIOException(httpErrorException);
+        return error;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+    }
+
+}
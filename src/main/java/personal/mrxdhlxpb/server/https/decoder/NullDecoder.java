@@ -17,24 +17,38 @@
 package personal.mrxdhlxpb.server.https.decoder;
 
 import personal.mrxdhlxpb.server.https.Fields;
-import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
+import java.io.FilterInputStream;
 import java.io.InputStream;
 import java.util.Optional;
 
 /**
+ * A decoder that leaves the data unchanged.
+ * <p> The decoded input stream reads straight from the encoded input stream, which it does not
+ * close when closed. The decoded length is known only if the encoded length has been given.
+ * <p> A decoder holds the result of the last decoding, so it must not be shared between
+ * messages; {@code NullDecoder::new} serves as its {@link HTTPDecoderFactory}.
+ *
  * @author mrxdhlxpb
  */
 public final class NullDecoder implements ContentCodingDecoder, NonChunkedTransferCodingDecoder {
 
-    private ByteArrayInputStream contentInputStream;
+    private InputStream contentInputStream;
+
+    private int contentLength;
+
+    @Override
+    public NullDecoder decode(InputStream encoded) {
+        return decode(encoded, -1);
+    }
 
     @Override
-    public NullDecoder decode(InputStream encoded)
-            throws IOException, BadRequestException {
-        contentInputStream = new ByteArrayInputStream(encoded.readAllBytes());
+    public NullDecoder decode(InputStream encoded, int encodedLength) {
+        contentInputStream = new FilterInputStream(encoded) {
+            @Override
+            public void close() {}
+        };
+        contentLength = encodedLength;
         return this;
     }
 
@@ -45,7 +59,7 @@ public final class NullDecoder implements ContentCodingDecoder, NonChunkedTransf
 
     @Override
     public int getContentLength() {
-        return contentInputStream.available();
+        return contentLength;
     }
 
     @Override
@@ -0,0 +1,42 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https.error;
+
+import java.io.IOException;
+
+/**
+ * An {@code IOException} that carries an {@link HttpErrorException}.
+ * <p> Input streams from which the content of a request message is read while it is still
+ * arriving, such as the one returned by a streaming chunked decoder, detect errors of the
+ * request message only when the content is read. Since the methods of {@code InputStream} can
+ * only throw an {@code IOException}, the error is wrapped in an {@code HttpErrorIOException}.
+ * A request handler may unwrap it with {@link #getCause()} and rethrow it so that the response
+ * reflects the actual error.
+ *
+ * @author mrxdhlxpb
+ */
+public class HttpErrorIOException extends IOException {
+
+    public HttpErrorIOException(HttpErrorException cause) {
+        super(cause);
+    }
+
+    @Override
+    public synchronized HttpErrorException getCause() {
+        return (HttpErrorException) super.getCause();
+    }
+}
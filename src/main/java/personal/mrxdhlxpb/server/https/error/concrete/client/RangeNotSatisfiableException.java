@@ -22,4 +22,34 @@ import personal.mrxdhlxpb.server.https.error.ClientErrorException;
  * @author mrxdhlxpb
  */
 public class RangeNotSatisfiableException extends ClientErrorException {
+
+    /**
+     * the number of octets in the selected representation, or -1 if unknown
+     */
+    private final long completeLength;
+
+    public RangeNotSatisfiableException() {
+        this.completeLength = -1;
+    }
+
+    /**
+     * Constructs an instance of this class which does not close the connection, for a range
+     * request whose ranges are all beyond the end of the selected representation. The response
+     * message generator sets the Content-Range header field to {@code bytes *}{@code /}
+     * {@code completeLength}, as recommended by <em>RFC 9110: HTTP Semantics Section 15.5.17.
+     * 416 Range Not Satisfiable</em>.
+     *
+     * @param completeLength the number of octets in the selected representation
+     */
+    public RangeNotSatisfiableException(long completeLength) {
+        super(false);
+        this.completeLength = completeLength;
+    }
+
+    /**
+     * @return the number of octets in the selected representation, or -1 if unknown
+     */
+    public long getCompleteLength() {
+        return completeLength;
+    }
 }
@@ -0,0 +1,156 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import org.junit.jupiter.api.Test;
+import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests {@link BufferPool}.
+ *
+ * @author mrxdhlxpb
+ */
+public class BufferPoolTest {
+
+    @Test
+    void testSizeClasses() {
+        final BufferPool bufferPool = new BufferPool(16, 1024, 4, false);
+        assertEquals(16, bufferPool.acquire(0).length);
+        assertEquals(16, bufferPool.acquire(1).length);
+        assertEquals(16, bufferPool.acquire(16).length);
+        assertEquals(32, bufferPool.acquire(17).length);
+        assertEquals(1024, bufferPool.acquire(1000).length);
+        // larger than the largest size class
+        assertEquals(1025, bufferPool.acquire(1025).length);
+        assertThrows(IllegalArgumentException.class, () -> bufferPool.acquire(-1));
+    }
+
+    @Test
+    void testConstructor() {
+        assertThrows(IllegalArgumentException.class, () -> new BufferPool(0, 16, 1, false));
+        assertThrows(IllegalArgumentException.class, () -> new BufferPool(32, 16, 1, false));
+        assertThrows(IllegalArgumentException.class, () -> new BufferPool(16, 16, -1, false));
+        assertThrows(IllegalArgumentException.class,
+                () -> new BufferPool(16, (1 << 30) + 1, 1, false));
+    }
+
+    @Test
+    void testReuse() {
+        final BufferPool bufferPool = new BufferPool(16, 1024, 4, false);
+        final byte[] buffer = bufferPool.acquire(100);
+        assertEquals(1, bufferPool.getOutstandingLeaseCount());
+        bufferPool.release(buffer);
+        assertEquals(0, bufferPool.getOutstandingLeaseCount());
+        assertSame(buffer, bufferPool.acquire(128));
+        assertEquals(2, bufferPool.getAcquisitionCount());
+        assertEquals(1, bufferPool.getHitCount());
+        assertEquals(0.5, bufferPool.getHitRate());
+
+        // a byte array whose length is not the size of a size class is dropped
+        bufferPool.release(new byte[100]);
+        assertEquals(128, bufferPool.acquire(100).length);
+        assertEquals(1, bufferPool.getHitCount());
+
+        // a byte array larger than the largest size class is dropped
+        bufferPool.release(bufferPool.acquire(2048));
+        assertNotEquals(2048, bufferPool.acquire(1024).length);
+    }
+
+    @Test
+    void testMaximumRetainedPerSizeClass() {
+        final BufferPool bufferPool = new BufferPool(16, 16, 2, false);
+        final byte[] a = bufferPool.acquire(16), b = bufferPool.acquire(16),
+                c = bufferPool.acquire(16);
+        bufferPool.release(a);
+        bufferPool.release(b);
+        bufferPool.release(c);
+        assertSame(a, bufferPool.acquire(16));
+        assertSame(b, bufferPool.acquire(16));
+        assertNotSame(c, bufferPool.acquire(16));
+        assertEquals(2, bufferPool.getHitCount());
+    }
+
+    @Test
+    void testUnpooled() {
+        final long hitCount = BufferPool.UNPOOLED.getHitCount();
+        final byte[] buffer = BufferPool.UNPOOLED.acquire(1);
+        BufferPool.UNPOOLED.release(buffer);
+        assertNotSame(buffer, BufferPool.UNPOOLED.acquire(1));
+        assertEquals(hitCount, BufferPool.UNPOOLED.getHitCount());
+        assertEquals(100, BufferPool.UNPOOLED.acquire(100).length);
+    }
+
+    @Test
+    void testDirect() {
+        final BufferPool pooled = new BufferPool(16, 1024, 4, true);
+        final ByteBuffer buffer = pooled.acquireDirect(100);
+        assertTrue(buffer.isDirect());
+        assertEquals(128, buffer.capacity());
+        buffer.put((byte) 1);
+        pooled.releaseDirect(buffer);
+        final ByteBuffer reused = pooled.acquireDirect(128);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(128, reused.limit());
+
+        final BufferPool unpooled = new BufferPool(16, 1024, 4, false);
+        final ByteBuffer allocated = unpooled.acquireDirect(100);
+        assertEquals(100, allocated.capacity());
+        unpooled.releaseDirect(allocated);
+        assertNotSame(allocated, unpooled.acquireDirect(100));
+        assertEquals(1, unpooled.getOutstandingLeaseCount());
+    }
+
+    @Test
+    void testNewInputStream() throws IOException {
+        final BufferPool bufferPool = new BufferPool(16, 16, 4, false);
+        final byte[] buffer = bufferPool.acquire(16);
+        System.arraycopy("abc".getBytes(StandardCharsets.US_ASCII), 0, buffer, 0, 3);
+        final InputStream inputStream = bufferPool.newInputStream(buffer, 3);
+        assertEquals('a', inputStream.read());
+        assertEquals(2, inputStream.available());
+        inputStream.close();
+        assertEquals(0, bufferPool.getOutstandingLeaseCount());
+        assertEquals(-1, inputStream.read());
+        inputStream.close();
+        assertEquals(0, bufferPool.getOutstandingLeaseCount());
+        assertSame(buffer, bufferPool.acquire(16));
+        assertThrows(IndexOutOfBoundsException.class, () -> bufferPool.newInputStream(buffer, 17));
+    }
+
+    @Test
+    void testHttpRequestInputStream() throws IOException, BadRequestException {
+        final BufferPool bufferPool = new BufferPool(16, 1 << 16, 4, false);
+        final HttpRequestInputStream httpRequestInputStream = new HttpRequestInputStream(
+                new ByteArrayInputStream("a: b\r\nc: d\r\n\r\n".getBytes(StandardCharsets.US_ASCII)),
+                bufferPool);
+        assertSame(bufferPool, httpRequestInputStream.getBufferPool());
+        final Fields fields = httpRequestInputStream.readFields(64, 1024);
+        assertEquals(2, fields.size());
+        assertEquals(1, bufferPool.getOutstandingLeaseCount());
+        httpRequestInputStream.close();
+        assertEquals(0, bufferPool.getOutstandingLeaseCount());
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import org.junit.jupiter.api.Test;
+import personal.mrxdhlxpb.server.https.ByteRanges.ByteRange;
+import personal.mrxdhlxpb.server.https.error.HttpErrorException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.RangeNotSatisfiableException;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author mrxdhlxpb
+ */
+public class ByteRangesTest {
+
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void testParse() {
+        assertEquals(Optional.of(List.of(new ByteRange(0, 4))), ByteRanges.parse("bytes=0-4", 10));
+        assertEquals(Optional.of(List.of(new ByteRange(5, 9))), ByteRanges.parse("bytes=5-", 10));
+        assertEquals(Optional.of(List.of(new ByteRange(7, 9))), ByteRanges.parse("bytes=-3", 10));
+        assertEquals(Optional.of(List.of(new ByteRange(0, 9))), ByteRanges.parse("Bytes=-30", 10));
+        assertEquals(Optional.of(List.of(new ByteRange(8, 9))),
+                ByteRanges.parse("bytes=8-99999999999999999999", 10));
+        assertEquals(Optional.of(List.of(new ByteRange(0, 2), new ByteRange(5, 6),
+                        new ByteRange(8, 9))),
+                ByteRanges.parse("bytes = 5-6, ,8-, 0-1,1-2", 10));
+        assertEquals(Optional.of(List.of(new ByteRange(0, 5))),
+                ByteRanges.parse("bytes=3-5,0-2", 10));
+
+        // not satisfiable
+        assertEquals(Optional.of(List.of()), ByteRanges.parse("bytes=10-", 10));
+        assertEquals(Optional.of(List.of()), ByteRanges.parse("bytes=-0", 10));
+        assertEquals(Optional.of(List.of()), ByteRanges.parse("bytes=0-0", 0));
+
+        // ignored
+        for (String range : new String[]{"bytes=5-4", "bytes=", "bytes=,", "bytes=a-b",
+                "bytes=1", "bytes=--1", "bytes=1 - 2", "items=0-1", "0-1",
+                "bytes=" + "0-0,".repeat(ByteRanges.MAXIMUM_RANGE_COUNT) + "0-0"})
+            assertEquals(Optional.empty(), ByteRanges.parse(range, 10), range);
+    }
+
+    @Test
+    void testSingleRange() throws Exception {
+        HTTPResponse httpResponse = apply(RequestMethod.GET, "bytes=-4", null);
+        assertEquals(206, httpResponse.getStatusCode());
+        assertEquals("bytes", field(httpResponse, "accept-ranges"));
+        assertEquals("bytes 6-9/10", field(httpResponse, "content-range"));
+        assertEquals("4", field(httpResponse, "content-length"));
+        assertEquals(4, httpResponse.getContentLength());
+        assertEquals("6789", content(httpResponse));
+
+        // not a range request
+        for (HTTPResponse notRanged : new HTTPResponse[]{
+                apply(RequestMethod.GET, null, null),
+                apply(RequestMethod.HEAD, "bytes=0-1", null),
+                apply(RequestMethod.GET, "bytes=1-0", null)}) {
+            assertEquals(200, notRanged.getStatusCode());
+            assertEquals("bytes", field(notRanged, "accept-ranges"));
+            assertFalse(notRanged.getHeaderSection().contains("content-range"));
+            assertEquals("0123456789", content(notRanged));
+        }
+    }
+
+    @Test
+    void testIfRange() throws Exception {
+        assertEquals(206, apply(RequestMethod.GET, "bytes=0-0", "\"v1\"").getStatusCode());
+        assertEquals(206, apply(RequestMethod.GET, "bytes=0-0",
+                "Thu, 01 Jan 2015 00:00:00 GMT").getStatusCode());
+        for (String ifRange : new String[]{"\"v2\"", "W/\"v1\"",
+                "Fri, 02 Jan 2015 00:00:00 GMT", "yesterday"})
+            assertEquals(200, apply(RequestMethod.GET, "bytes=0-0", ifRange).getStatusCode(),
+                    ifRange);
+    }
+
+    @Test
+    void testMultipleRanges() throws Exception {
+        final HTTPResponse httpResponse = apply(RequestMethod.GET, "bytes=7-,0-1", null);
+        assertEquals(206, httpResponse.getStatusCode());
+        final String contentType = field(httpResponse, "content-type");
+        assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+        final String boundary = contentType.substring(contentType.indexOf('=') + 1);
+        final String expected = "--" + boundary + "\r\n"
+                + "content-type: text/plain\r\n"
+                + "content-range: bytes 0-1/10\r\n"
+                + "\r\n"
+                + "01\r\n"
+                + "--" + boundary + "\r\n"
+                + "content-type: text/plain\r\n"
+                + "content-range: bytes 7-9/10\r\n"
+                + "\r\n"
+                + "789\r\n"
+                + "--" + boundary + "--\r\n";
+        assertEquals(String.valueOf(expected.length()), field(httpResponse, "content-length"));
+        assertEquals(expected.length(), httpResponse.getContentLength());
+        assertEquals(expected, content(httpResponse));
+    }
+
+    @Test
+    void testPartsOpenedLazily() throws Exception {
+        final int[] open = new int[1];
+        final int[] maximumOpen = new int[1];
+        final SeekableContent counting = new SeekableContent() {
+            @Override
+            public long size() { return CONTENT.length; }
+
+            @Override
+            public InputStream newInputStream(long offset, long length) {
+                maximumOpen[0] = Math.max(maximumOpen[0], ++open[0]);
+                return new FilterInputStream(new ByteArrayInputStream(
+                        CONTENT, (int) offset, (int) length)) {
+                    @Override
+                    public void close() { open[0]--; }
+                };
+            }
+        };
+        HTTPResponse httpResponse = apply(RequestMethod.GET, "bytes=0-1,4-5,8-9", null, counting);
+        assertEquals(0, maximumOpen[0]);
+        assertTrue(content(httpResponse).contains("\r\n\r\n45\r\n"));
+        httpResponse.getContentInputStream().close();
+        assertEquals(0, open[0]);
+        assertEquals(1, maximumOpen[0]);
+
+        // a response which is not sent opens none of its parts
+        maximumOpen[0] = 0;
+        httpResponse = apply(RequestMethod.GET, "bytes=0-1,4-5,8-9", null, counting);
+        httpResponse.getContentInputStream().close();
+        assertEquals(0, maximumOpen[0]);
+    }
+
+    @Test
+    void testNotSatisfiable() throws Exception {
+        final RangeNotSatisfiableException rangeNotSatisfiableException = assertThrowsExactly(
+                RangeNotSatisfiableException.class,
+                () -> apply(RequestMethod.GET, "bytes=10-,20-30", null));
+        assertEquals(10, rangeNotSatisfiableException.getCompleteLength());
+        assertFalse(rangeNotSatisfiableException.isCloseConnection());
+    }
+
+    private static HTTPResponse apply(RequestMethod requestMethod, String range, String ifRange)
+            throws HttpErrorException {
+        return apply(requestMethod, range, ifRange, SeekableContent.of(CONTENT));
+    }
+
+    private static HTTPResponse apply(RequestMethod requestMethod,
+                                      String range,
+                                      String ifRange,
+                                      SeekableContent seekableContent)
+            throws HttpErrorException {
+        final Fields requestHeaderSection = new Fields();
+        if (range != null)
+            requestHeaderSection.set("range", range);
+        if (ifRange != null)
+            requestHeaderSection.set("if-range", ifRange);
+        final HTTPRequest httpRequest = new HTTPRequest(
+                new RequestMessageControlData(requestMethod, null, null),
+                requestHeaderSection,
+                Optional.empty(),
+                Optional.empty(),
+                0);
+        final HTTPResponse httpResponse = new HTTPResponse(ProtocolVersion.HTTP__1_1);
+        httpResponse.setStatusCode((short) 200);
+        httpResponse.getHeaderSection().set("content-type", "text/plain");
+        httpResponse.getHeaderSection().set("content-length", "10");
+        httpResponse.getHeaderSection().set("etag", "\"v1\"");
+        httpResponse.getHeaderSection().set("last-modified", "Thu, 01 Jan 2015 00:00:00 GMT");
+        httpResponse.setContentInputStream(new ByteArrayInputStream(CONTENT));
+        httpResponse.setContentLength(CONTENT.length);
+        httpResponse.setSeekableContent(seekableContent);
+        ByteRanges.apply(httpRequest, httpResponse);
+        return httpResponse;
+    }
+
+    private static String field(HTTPResponse httpResponse, String fieldName) {
+        return httpResponse.getHeaderSection().getFieldValueString(fieldName).orElseThrow();
+    }
+
+    private static String content(HTTPResponse httpResponse) throws Exception {
+        return new String(httpResponse.getContentInputStream()
+                .readNBytes(httpResponse.getContentLength()), StandardCharsets.US_ASCII);
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author mrxdhlxpb
+ */
+public class EntityTagCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testGetEntityTag() throws Exception {
+        final Path a = Files.writeString(directory.resolve("a"), "content");
+        final Path b = Files.writeString(directory.resolve("b"), "content");
+        final EntityTagCache instance = new EntityTagCache(2);
+        // a file which is mapped, and one which is not
+        try (MappedFileCache mapped = new MappedFileCache(1024, 1024);
+             MappedFileCache unmapped = new MappedFileCache(1024, 0)) {
+            final String entityTag = instance.getEntityTag(mapped.get(a).orElseThrow());
+            assertTrue(Validators.isEntityTag(entityTag));
+            assertFalse(entityTag.startsWith("W/"));
+            // 128 bits in unpadded base64url, between the double quotes
+            assertEquals(24, entityTag.length());
+            assertSame(entityTag, instance.getEntityTag(mapped.get(a).orElseThrow()));
+            // the entity tag of a file which is not mapped is derived from its metadata
+            final String unmappedEntityTag = instance.getEntityTag(unmapped.get(b).orElseThrow());
+            assertTrue(Validators.isEntityTag(unmappedEntityTag));
+            assertNotEquals(entityTag, unmappedEntityTag);
+            assertSame(unmappedEntityTag, instance.getEntityTag(unmapped.get(b).orElseThrow()));
+            assertEquals(2, instance.getEntryCount());
+            Files.setLastModifiedTime(b, FileTime.fromMillis(0));
+            unmapped.invalidate(b);
+            assertNotEquals(unmappedEntityTag,
+                    instance.getEntityTag(unmapped.get(b).orElseThrow()));
+
+            Files.writeString(a, "changed");
+            Files.setLastModifiedTime(a, FileTime.fromMillis(0));
+            mapped.invalidate(a);
+            assertNotEquals(entityTag, instance.getEntityTag(mapped.get(a).orElseThrow()));
+            assertEquals(2, instance.getEntryCount());
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import org.junit.jupiter.api.Test;
+import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests {@link Fields}.
+ *
+ * @author mrxdhlxpb
+ */
+public class FieldsTest {
+
+    @Test
+    void testCaseInsensitiveLookup() throws BadRequestException {
+        final Fields fields = new Fields(new String[]{
+                "Host: example.com",
+                "X-Custom-Header:   value",
+                "CONTENT-LENGTH: 3"
+        });
+        assertEquals(3, fields.size());
+        assertEquals(0, fields.indexOf("host"));
+        assertEquals(0, fields.indexOf("HOST"));
+        assertEquals(1, fields.indexOf("x-CUSTOM-header"));
+        assertEquals(2, fields.indexOf("Content-Length"));
+        assertEquals(-1, fields.indexOf("content-type"));
+        assertEquals("value", fields.getFieldValueString("X-Custom-Header").orElseThrow());
+        assertEquals("x-custom-header", fields.getField(1).fieldName());
+    }
+
+    @Test
+    void testWellKnownFieldNamesAreShared() throws BadRequestException {
+        final Fields first = new Fields(new String[]{"Content-Type: text/plain"});
+        final Fields second = new Fields();
+        final byte[] fieldLine = "CONTENT-TYPE: text/html".getBytes(StandardCharsets.US_ASCII);
+        second.appendFieldLine(fieldLine, 0, fieldLine.length);
+        assertSame(first.getField(0).fieldName(), second.getField(0).fieldName());
+        assertEquals("content-type", second.getField(0).fieldName());
+        assertEquals("text/html", second.getFieldValueString(0));
+    }
+
+    @Test
+    void testAppendAndSet() {
+        final Fields fields = new Fields();
+        fields.append("Accept", "text/html");
+        fields.append("accept", "application/json");
+        assertEquals(1, fields.size());
+        assertEquals("text/html, application/json", fields.getFieldValueString(0));
+
+        fields.set("ACCEPT", "*/*");
+        assertEquals("*/*", fields.getFieldValueString("accept").orElseThrow());
+
+        fields.getFieldValue(0).append(";q=0.5");
+        assertEquals("*/*;q=0.5", fields.getFieldValueString(0));
+        fields.set("accept", "text/plain");
+        assertEquals("text/plain", fields.getFieldValueString(0));
+    }
+
+    @Test
+    void testRemove() throws BadRequestException {
+        final Fields fields = new Fields();
+        final byte[] fieldLines = "Content-Length: 5Vary: accept".getBytes(StandardCharsets.US_ASCII);
+        fields.appendFieldLine(fieldLines, 0, 17);
+        fields.appendFieldLine(fieldLines, 17, fieldLines.length - 17);
+        fields.set("ETag", "\"1\"");
+        assertFalse(fields.remove("content-type"));
+        assertTrue(fields.remove("CONTENT-LENGTH"));
+        assertEquals(2, fields.size());
+        assertFalse(fields.contains("content-length"));
+        assertEquals("accept", fields.getFieldValueString("vary").orElseThrow());
+        assertEquals("\"1\"", fields.getFieldValueString(1));
+        fields.set("content-length", "3");
+        assertEquals(2, fields.indexOf("content-length"));
+    }
+
+    @Test
+    void testGrowth() {
+        final Fields fields = new Fields();
+        for (int i = 0; i < 100; i++)
+            fields.append("X-Field-" + i, Integer.toString(i));
+        assertEquals(100, fields.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, fields.indexOf("x-field-" + i));
+            assertEquals(Integer.toString(i), fields.getFieldValueString(i));
+        }
+    }
+
+    @Test
+    void testFieldValueMembers() {
+        final Fields fields = new Fields();
+        fields.append("te", " gzip ,\tchunked,, ,deflate ");
+        assertArrayEquals(new String[]{" gzip", "chunked", "deflate "},
+                fields.getFieldValueMembers(0));
+        fields.set("te", "");
+        assertArrayEquals(new String[0], fields.getFieldValueMembers(0));
+    }
+
+    @Test
+    void testAppendFieldLineBytes() throws BadRequestException {
+        final Fields fields = new Fields();
+        final byte[] bytes = "??Name: value??".getBytes(StandardCharsets.US_ASCII);
+        fields.appendFieldLine(bytes, 2, bytes.length - 4);
+        assertEquals("name", fields.getField(0).fieldName());
+        assertEquals("value", fields.getFieldValueString(0));
+
+        final byte[] invalid = "no colon".getBytes(StandardCharsets.US_ASCII);
+        assertThrows(BadRequestException.class,
+                () -> fields.appendFieldLine(invalid, 0, invalid.length));
+    }
+
+    @Test
+    void testAppendFieldLineLazily() throws BadRequestException {
+        final Fields fields = new Fields();
+        final byte[] bytes = "Host: a.example\0Accept: text/html\0ACCEPT:  */*\0X-Y: z"
+                .getBytes(StandardCharsets.US_ASCII);
+        int start = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i == bytes.length || bytes[i] == 0) {
+                fields.appendFieldLineLazily(bytes, start, i - start);
+                start = i + 1;
+            }
+        }
+        assertEquals(3, fields.size());
+        assertEquals(1, fields.indexOf("accept"));
+        assertTrue(fields.contains("x-y"));
+        assertEquals("text/html, */*", fields.getFieldValueString("Accept").orElseThrow());
+
+        fields.detach();
+        Arrays.fill(bytes, (byte) '!');
+        assertEquals(0, fields.indexOf("HOST"));
+        assertEquals(new Fields(List.of("host: a.example", "accept: text/html, */*", "x-y: z")),
+                fields);
+        assertSame(new Fields(new String[]{"Host: b"}).getField(0).fieldName(),
+                fields.getField(0).fieldName());
+    }
+
+    @Test
+    void testAppendAndSetLazily() throws BadRequestException {
+        final Fields fields = new Fields();
+        final byte[] bytes =
+                "Accept: text/html\0Host: a.example".getBytes(StandardCharsets.US_ASCII);
+        fields.appendFieldLineLazily(bytes, 0, 17);
+        fields.appendFieldLineLazily(bytes, 18, bytes.length - 18);
+
+        // fields which have not been decoded yet are decoded before they are modified
+        fields.append("ACCEPT", "*/*");
+        fields.set("host", "b.example");
+        assertEquals("text/html, */*", fields.getFieldValueString("accept").orElseThrow());
+        assertEquals("b.example", fields.getFieldValueString("host").orElseThrow());
+        assertEquals(2, fields.size());
+    }
+
+    @Test
+    void testEqualsAndHashCode() throws BadRequestException {
+        final Fields fields = new Fields(new String[]{"Host: a", "Accept: b"});
+        final List<Fields.Field> expected = List.of(
+                new Fields.Field("host", new StringBuilder("a")),
+                new Fields.Field("accept", new StringBuilder("b"))
+        );
+        assertEquals(expected, fields.toList());
+        assertEquals(expected.hashCode(), fields.hashCode());
+        assertEquals("host: a".hashCode(), fields.getField(0).hashCode());
+        assertEquals(new Fields(List.of("host: a", "accept: b")), fields);
+        assertEquals("[host: a, accept: b]", fields.toString());
+    }
+
+}
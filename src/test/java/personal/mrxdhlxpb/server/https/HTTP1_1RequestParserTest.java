@@ -24,14 +24,21 @@ import personal.mrxdhlxpb.server.https.configuration.HTTP1_1Configuration;
 import personal.mrxdhlxpb.server.https.configuration.NetworkConfiguration;
 import personal.mrxdhlxpb.server.https.decoder.ChunkedTransferCodingDecoder;
 import personal.mrxdhlxpb.server.https.decoder.ContentCodingDecoder;
+import personal.mrxdhlxpb.server.https.decoder.HTTPDecoderFactory;
 import personal.mrxdhlxpb.server.https.decoder.HTTPDecoderRegistry;
+import personal.mrxdhlxpb.server.https.decoder.InflaterPool;
+import personal.mrxdhlxpb.server.https.decoder.InflatingDecoder;
 import personal.mrxdhlxpb.server.https.decoder.TransferCodingDecoder;
 import personal.mrxdhlxpb.server.https.error.HttpErrorException;
 import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException;
 import personal.mrxdhlxpb.server.https.error.concrete.client.ContentTooLargeException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.MethodNotAllowedException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.UnsupportedMediaTypeException;
+import personal.mrxdhlxpb.server.https.error.concrete.server.HTTPVersionNotSupportedException;
 import personal.mrxdhlxpb.server.https.test.TestConstants;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
@@ -40,8 +47,11 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * @author mrxdhlxpb
@@ -124,12 +134,14 @@ public class HTTP1_1RequestParserTest {
         public HTTPDecoderRegistry getHTTPDecoderRegistry() {
             return new HTTPDecoderRegistry() {
                 @Override
-                public Optional<TransferCodingDecoder> getTransferCodingDecoder(String name) {
+                public Optional<HTTPDecoderFactory<? extends TransferCodingDecoder>>
+                getTransferCodingDecoderFactory(String name) {
                     return Optional.empty();
                 }
 
                 @Override
-                public Optional<ContentCodingDecoder> getContentCodingDecoder(String name) {
+                public Optional<HTTPDecoderFactory<? extends ContentCodingDecoder>>
+                getContentCodingDecoderFactory(String name) {
                     return Optional.empty();
                 }
             };
@@ -221,6 +233,243 @@ public class HTTP1_1RequestParserTest {
         }
     }
 
+    @Test
+    void testParseRequestLazyHeaderSection() throws Exception {
+        final Configuration config = configWith(
+                CONFIG.getHTTPDecoderRegistry(),
+                CONFIG.getHTTP1_1Configuration().getMaximumRequestContentLength(),
+                true,
+                false);
+        final String requestMessages = """
+                GET /first HTTP/1.1\r
+                Host: localhost\r
+                Accept: text/html\r
+                X-First: 1\r
+                \r
+                GET /second HTTP/1.1\r
+                Host: localhost\r
+                Accept: */*\r
+                \r
+                GET /third HTTP/1.1\r
+                Host: localhost\r
+                X-Long: """ + "x".repeat(500) + """
+                \r
+                \r
+                """;
+        final HTTP1_1RequestParser http1_1RequestParser = new HTTP1_1RequestParser(
+                config,
+                new ByteArrayInputStream(requestMessages.getBytes(StandardCharsets.US_ASCII)));
+
+        final Fields expectedFirstHeaderSection = new Fields(
+                new String[]{"host: localhost", "accept: text/html", "x-first: 1"});
+        final Fields expectedSecondHeaderSection = new Fields(
+                new String[]{"host: localhost", "accept: */*"});
+
+        final HTTPRequest first = http1_1RequestParser.parseRequest();
+        Assertions.assertEquals("localhost",
+                first.headerSection().getFieldValueString("HOST").orElseThrow());
+        final HTTPRequest second = http1_1RequestParser.parseRequest();
+        // the header section of the first request survives reuse of the buffer
+        Assertions.assertEquals(expectedFirstHeaderSection, first.headerSection());
+        Assertions.assertEquals(expectedSecondHeaderSection, second.headerSection());
+
+        Assertions.assertThrowsExactly(BadRequestException.class,
+                http1_1RequestParser::parseRequest);
+        Assertions.assertEquals(expectedSecondHeaderSection, second.headerSection());
+    }
+
+    /**
+     * @return a configuration the same as {@code CONFIG} except for the given options
+     */
+    private static Configuration configWith(HTTPDecoderRegistry httpDecoderRegistry,
+                                            int maximumRequestContentLength,
+                                            boolean requestHeaderSectionLazy,
+                                            boolean requestContentDecoded) {
+        final HTTP1_1Configuration http1_1Configuration = CONFIG.getHTTP1_1Configuration();
+        return new Configuration() {
+            @Override
+            public NetworkConfiguration getNetworkConfiguration() {
+                return CONFIG.getNetworkConfiguration();
+            }
+
+            @Override
+            public InternalResourceMapper getInternalResourceMapper() {
+                return CONFIG.getInternalResourceMapper();
+            }
+
+            @Override
+            public HTTPDecoderRegistry getHTTPDecoderRegistry() {
+                return httpDecoderRegistry;
+            }
+
+            @Override
+            public HttpErrorHandlerRegistry getHttpErrorHandlerRegistry() {
+                return CONFIG.getHttpErrorHandlerRegistry();
+            }
+
+            @Override
+            public HTTP1_1Configuration getHTTP1_1Configuration() {
+                return new HTTP1_1Configuration() {
+                    @Override
+                    public int getMaximumRequestLineLength() {
+                        return http1_1Configuration.getMaximumRequestLineLength();
+                    }
+
+                    @Override
+                    public int getMaximumRequestFieldLineLength() {
+                        return http1_1Configuration.getMaximumRequestFieldLineLength();
+                    }
+
+                    @Override
+                    public int getMaximumRequestHeaderSectionLength() {
+                        return http1_1Configuration.getMaximumRequestHeaderSectionLength();
+                    }
+
+                    @Override
+                    public int getMaximumRequestContentLength() {
+                        return maximumRequestContentLength;
+                    }
+
+                    @Override
+                    public HTTP1_1ResponseMessageBodyGenerator
+                    getHttpErrorHTTP1_1ResponseMessageBodyGenerator() {
+                        return null;
+                    }
+
+                    @Override
+                    public boolean isRequestHeaderSectionLazy() {
+                        return requestHeaderSectionLazy;
+                    }
+
+                    @Override
+                    public boolean isRequestContentDecoded() {
+                        return requestContentDecoded;
+                    }
+                };
+            }
+        };
+    }
+
+    @Test
+    void testParseRequestContentDecoded() throws Exception {
+        final InflatingDecoder.Settings settings = new InflatingDecoder.Settings(
+                1 << 20, 0, new InflaterPool(4), BufferPool.UNPOOLED);
+        final HTTPDecoderRegistry httpDecoderRegistry = HTTPDecoderRegistry.of(
+                Map.<String, HTTPDecoderFactory<? extends TransferCodingDecoder>>of(),
+                Map.<String, HTTPDecoderFactory<? extends ContentCodingDecoder>>of(
+                        "gzip", settings.gzip(),
+                        "deflate", settings.deflate()));
+        final byte[] content = "{\"message\": \"hello\"}".repeat(100)
+                .getBytes(StandardCharsets.US_ASCII);
+
+        // deflate applied first, then gzip
+        final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(deflated)) {
+            deflaterOutputStream.write(content);
+        }
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(gzipped)) {
+            gzipOutputStream.write(deflated.toByteArray());
+        }
+        final ByteArrayOutputStream requestMessages = new ByteArrayOutputStream();
+        requestMessages.writeBytes(("POST / HTTP/1.1\r\nHost: localhost\r\n" +
+                "Content-Encoding: deflate, gzip\r\nContent-Length: " + gzipped.size() +
+                "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        requestMessages.writeBytes(gzipped.toByteArray());
+        requestMessages.writeBytes(("POST / HTTP/1.1\r\nHost: localhost\r\n" +
+                "Content-Encoding: br\r\nContent-Length: 1\r\n\r\nx")
+                .getBytes(StandardCharsets.US_ASCII));
+
+        final HTTP1_1RequestParser http1_1RequestParser = new HTTP1_1RequestParser(
+                configWith(httpDecoderRegistry, 1000, false, true),
+                new ByteArrayInputStream(requestMessages.toByteArray()));
+        try (HTTPRequest httpRequest = http1_1RequestParser.parseRequest()) {
+            Assertions.assertEquals(-1, httpRequest.contentLength());
+            // the header section describes the decoded content
+            Assertions.assertFalse(httpRequest.headerSection().contains("content-encoding"));
+            Assertions.assertFalse(httpRequest.headerSection().contains("content-length"));
+            Assertions.assertArrayEquals(content,
+                    httpRequest.requestContentInputStream().orElseThrow().readAllBytes());
+        }
+        Assertions.assertThrowsExactly(UnsupportedMediaTypeException.class,
+                http1_1RequestParser::parseRequest);
+
+        // also when the header section is lazy
+        final HTTP1_1RequestParser lazy = new HTTP1_1RequestParser(
+                configWith(httpDecoderRegistry, 1000, true, true),
+                new ByteArrayInputStream(requestMessages.toByteArray()));
+        try (HTTPRequest httpRequest = lazy.parseRequest()) {
+            Assertions.assertFalse(httpRequest.headerSection().contains("content-encoding"));
+            Assertions.assertFalse(httpRequest.headerSection().contains("content-length"));
+            Assertions.assertEquals("localhost",
+                    httpRequest.headerSection().getFieldValueString("host").orElseThrow());
+        }
+
+        // not decoded unless enabled
+        final HTTP1_1RequestParser notDecoding = new HTTP1_1RequestParser(
+                configWith(httpDecoderRegistry, 1000, false, false),
+                new ByteArrayInputStream(requestMessages.toByteArray()));
+        try (HTTPRequest httpRequest = notDecoding.parseRequest()) {
+            Assertions.assertEquals(gzipped.size(), httpRequest.contentLength());
+            Assertions.assertEquals("deflate, gzip", httpRequest.headerSection()
+                    .getFieldValueString("content-encoding").orElseThrow());
+            Assertions.assertArrayEquals(gzipped.toByteArray(),
+                    httpRequest.requestContentInputStream().orElseThrow().readAllBytes());
+        }
+    }
+
+    @Test
+    void testParseRequestLine() throws Exception {
+        final Object[][] requestLinesAndExpectedProtocolVersions = {
+                {"GET / HTTP/1.1", ProtocolVersion.HTTP__1_1},
+                {"GET / HTTP/1.0", ProtocolVersion.HTTP__1_0},
+        };
+        for (Object[] pair : requestLinesAndExpectedProtocolVersions) {
+            final HTTP1_1RequestParser http1_1RequestParser = new HTTP1_1RequestParser(
+                    CONFIG,
+                    new ByteArrayInputStream((pair[0] + "\r\nHost: localhost\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII)));
+            try (HTTPRequest httpRequest = http1_1RequestParser.parseRequest()) {
+                Assertions.assertEquals(
+                        pair[1],
+                        httpRequest.requestMessageControlData().protocolVersion()
+                );
+            }
+        }
+
+        final String[] requestLinesWithUnsupportedVersion = {
+                "GET / HTTP/2.0",
+                "GET / HTTP/1.2",
+                "GET / HTTP/1.10",
+                "GET / http/1.1",
+                "GET /",
+                "GET",
+                "",
+                "get / HTTP/1.1",
+                " / HTTP/1.1",
+        };
+        for (String requestLine : requestLinesWithUnsupportedVersion) {
+            final HTTP1_1RequestParser http1_1RequestParser = new HTTP1_1RequestParser(
+                    CONFIG,
+                    new ByteArrayInputStream((requestLine + "\r\nHost: localhost\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII)));
+            Assertions.assertThrows(
+                    HTTPVersionNotSupportedException.class,
+                    http1_1RequestParser::parseRequest,
+                    requestLine
+            );
+        }
+
+        final HTTP1_1RequestParser http1_1RequestParser = new HTTP1_1RequestParser(
+                CONFIG,
+                new ByteArrayInputStream("PUT / HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII)));
+        Assertions.assertThrows(
+                MethodNotAllowedException.class,
+                http1_1RequestParser::parseRequest
+        );
+    }
+
     @Test
     void testParseRequest1() throws Exception {
         final String requestMessage = """
@@ -607,11 +856,12 @@ public class HTTP1_1RequestParserTest {
         final InputStream inputStream = new ByteArrayInputStream(TestConstants.CHUNKED_TEST_FILE_1_BYTES);
         final HTTPDecoderRegistry httpDecoderRegistry = new HTTPDecoderRegistry() {
             @Override
-            public Optional<TransferCodingDecoder> getTransferCodingDecoder(String name) {
+            public Optional<HTTPDecoderFactory<? extends TransferCodingDecoder>>
+            getTransferCodingDecoderFactory(String name) {
                 if (!"chunked".equals(name))
                     return Optional.empty();
 
-                return Optional.of(new ChunkedTransferCodingDecoder(
+                return Optional.of(ChunkedTransferCodingDecoder.Settings.spooling(
                         TestConstants.TEST_FILE_1_BYTES_LENGTH,
                         0,
                         100,
@@ -625,7 +875,8 @@ public class HTTP1_1RequestParserTest {
             }
 
             @Override
-            public Optional<ContentCodingDecoder> getContentCodingDecoder(String name) {
+            public Optional<HTTPDecoderFactory<? extends ContentCodingDecoder>>
+            getContentCodingDecoderFactory(String name) {
                 return Optional.empty();
             }
         };
@@ -25,11 +25,17 @@ import personal.mrxdhlxpb.server.https.decoder.HTTPDecoderRegistry;
 import personal.mrxdhlxpb.server.https.error.HttpErrorException;
 import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException;
 import personal.mrxdhlxpb.server.https.error.concrete.server.InternalServerErrorException;
+import personal.mrxdhlxpb.server.https.error.concrete.server.ServiceUnavailableException;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author mrxdhlxpb
@@ -226,4 +232,384 @@ public class HTTP1_1ResponseGeneratorTest {
         );
     }
 
+    @Test
+    void testChunked() throws Exception {
+        final HTTPRequest httpRequest = new HTTPRequest(
+                new RequestMessageControlData(
+                        null,
+                        new InternalResource() {
+                            @Override
+                            public InternalResourceIdentifier getInternalResourceIdentifier() {
+                                return null;
+                            }
+
+                            @Override
+                            public HTTPRequestHandler getHTTPRequestHandler() {
+                                return (request, response) -> {
+                                    response.getHeaderSection().set("connection", "keep-alive");
+                                    response.setContentWriter(outputStream -> {
+                                        outputStream.write("hello"
+                                                .getBytes(StandardCharsets.US_ASCII));
+                                        outputStream.flush();
+                                        outputStream.write(", world"
+                                                .getBytes(StandardCharsets.US_ASCII));
+                                    });
+                                    final Fields trailerSection = new Fields();
+                                    trailerSection.set("checksum", "1234");
+                                    response.setTrailerSection(trailerSection);
+                                    response.setStatusCode((short) 200);
+                                };
+                            }
+
+                            @Override
+                            public HTTP1_1ResponseMessageBodyGenerator
+                            getHTTP1_1ResponseMessageBodyGenerator() {
+                                return new ChunkedHTTP1_1ResponseMessageBodyGenerator();
+                            }
+                        },
+                        null
+                ),
+                null,
+                Optional.empty(),
+                Optional.empty(),
+                0
+        );
+        final String expectedResponseMessage = """
+                HTTP/1.1 200\r
+                connection: keep-alive\r
+                transfer-encoding: chunked\r
+                trailer: checksum\r
+                \r
+                5\r
+                hello\r
+                7\r
+                , world\r
+                0\r
+                checksum: 1234\r
+                \r
+                """;
+
+        final ByteArrayOutputStream responseOutputStream = new ByteArrayOutputStream();
+        final HTTP1_1ResponseGenerator http1_1ResponseGenerator = new HTTP1_1ResponseGenerator(
+                null,
+                responseOutputStream);
+
+        http1_1ResponseGenerator.generateResponse(Either.of(httpRequest, null));
+
+        Assertions.assertEquals(
+                expectedResponseMessage,
+                responseOutputStream.toString()
+        );
+    }
+
+    @Test
+    void testConditional() throws Exception {
+        final InternalResource internalResource = new InternalResource() {
+            @Override
+            public InternalResourceIdentifier getInternalResourceIdentifier() {
+                return null;
+            }
+
+            @Override
+            public HTTPRequestHandler getHTTPRequestHandler() {
+                return (request, response) -> {
+                    response.setStatusCode((short) 200);
+                    response.getHeaderSection().set("content-length", "5");
+                    response.setContentInputStream(new ByteArrayInputStream(
+                            "hello".getBytes(StandardCharsets.US_ASCII)));
+                    response.setContentLength(5);
+                };
+            }
+
+            @Override
+            public HTTP1_1ResponseMessageBodyGenerator getHTTP1_1ResponseMessageBodyGenerator() {
+                return new HTTP1_1ResponseMessageBodyGeneratorImpl();
+            }
+
+            @Override
+            public Optional<Validators> getValidators(HTTPRequest httpRequest) {
+                return Optional.of(new Validators("\"v1\"", Instant.ofEpochSecond(0)));
+            }
+        };
+
+        // the validators are sent with the content
+        Assertions.assertEquals("""
+                HTTP/1.1 200\r
+                content-length: 5\r
+                etag: "v1"\r
+                last-modified: Thu, 01 Jan 1970 00:00:00 GMT\r
+                \r
+                hello""", generateResponse(internalResource, "if-none-match", "\"v0\""));
+
+        // the request handler is not called
+        final String expectedNotModified = """
+                HTTP/1.1 304\r
+                etag: "v1"\r
+                last-modified: Thu, 01 Jan 1970 00:00:00 GMT\r
+                \r
+                """;
+        Assertions.assertEquals(expectedNotModified,
+                generateResponse(internalResource, "if-none-match", "\"v0\", W/\"v1\""));
+        Assertions.assertEquals(expectedNotModified, generateResponse(internalResource,
+                "if-modified-since", "Thu, 01 Jan 1970 00:00:00 GMT"));
+    }
+
+    @Test
+    void testUnknownLength() throws Exception {
+        final InternalResource internalResource = new InternalResource() {
+            @Override
+            public InternalResourceIdentifier getInternalResourceIdentifier() {
+                return null;
+            }
+
+            @Override
+            public HTTPRequestHandler getHTTPRequestHandler() {
+                return (request, response) -> {
+                    response.setStatusCode((short) 200);
+                    response.setContentWriter(outputStream -> outputStream.write(
+                            "hello".getBytes(StandardCharsets.US_ASCII)));
+                };
+            }
+
+            @Override
+            public HTTP1_1ResponseMessageBodyGenerator getHTTP1_1ResponseMessageBodyGenerator() {
+                return new HTTP1_1ResponseMessageBodyGeneratorImpl();
+            }
+        };
+
+        // the chunked transfer coding is applied although the generator applies none
+        ByteArrayOutputStream responseOutputStream = new ByteArrayOutputStream();
+        HTTP1_1ResponseGenerator instance =
+                new HTTP1_1ResponseGenerator(null, responseOutputStream);
+        instance.generateResponse(Either.of(new HTTPRequest(
+                new RequestMessageControlData(RequestMethod.GET, internalResource,
+                        ProtocolVersion.HTTP__1_1),
+                new Fields(), Optional.empty(), Optional.empty(), 0), null));
+        Assertions.assertEquals("""
+                HTTP/1.1 200\r
+                transfer-encoding: chunked\r
+                \r
+                5\r
+                hello\r
+                0\r
+                \r
+                """, responseOutputStream.toString(StandardCharsets.US_ASCII));
+        Assertions.assertFalse(instance.isCloseDelimited());
+
+        // an HTTP/1.0 client cannot decode it, so the connection is closed instead
+        responseOutputStream = new ByteArrayOutputStream();
+        instance = new HTTP1_1ResponseGenerator(null, responseOutputStream);
+        instance.generateResponse(Either.of(new HTTPRequest(
+                new RequestMessageControlData(RequestMethod.GET, internalResource,
+                        ProtocolVersion.HTTP__1_0),
+                new Fields(), Optional.empty(), Optional.empty(), 0), null));
+        Assertions.assertEquals("""
+                HTTP/1.1 200\r
+                connection: close\r
+                \r
+                hello""", responseOutputStream.toString(StandardCharsets.US_ASCII));
+        Assertions.assertTrue(instance.isCloseDelimited());
+    }
+
+    @Test
+    void testChunkedWithoutContentLength() throws Exception {
+        final InternalResource internalResource = new InternalResource() {
+            @Override
+            public InternalResourceIdentifier getInternalResourceIdentifier() {
+                return null;
+            }
+
+            @Override
+            public HTTPRequestHandler getHTTPRequestHandler() {
+                return (request, response) -> {
+                    response.setStatusCode((short) 200);
+                    response.getHeaderSection().set("content-length", "5");
+                    if (request.headerSection().contains("x-writer"))
+                        response.setContentWriter(outputStream -> outputStream.write(
+                                "hello".getBytes(StandardCharsets.US_ASCII)));
+                    else {
+                        response.setContentInputStream(new ByteArrayInputStream(
+                                "hello".getBytes(StandardCharsets.US_ASCII)));
+                        response.setContentLength(-1);
+                    }
+                };
+            }
+
+            @Override
+            public HTTP1_1ResponseMessageBodyGenerator getHTTP1_1ResponseMessageBodyGenerator() {
+                return new HTTP1_1ResponseMessageBodyGeneratorImpl();
+            }
+        };
+        final String expectedResponseMessage = """
+                HTTP/1.1 200\r
+                transfer-encoding: chunked\r
+                \r
+                5\r
+                hello\r
+                0\r
+                \r
+                """;
+
+        // the Content-Length header field set by the handler is not sent with the chunked
+        // transfer coding, whether the content is written or read
+        for (String fieldName : new String[] { "x-writer", "x-input-stream" }) {
+            final Fields headerSection = new Fields();
+            headerSection.set(fieldName, "1");
+            final ByteArrayOutputStream responseOutputStream = new ByteArrayOutputStream();
+            new HTTP1_1ResponseGenerator(null, responseOutputStream)
+                    .generateResponse(Either.of(new HTTPRequest(
+                            new RequestMessageControlData(RequestMethod.GET, internalResource,
+                                    ProtocolVersion.HTTP__1_1),
+                            headerSection, Optional.empty(), Optional.empty(), 0), null));
+            final String responseMessage =
+                    responseOutputStream.toString(StandardCharsets.US_ASCII);
+            Assertions.assertEquals(expectedResponseMessage, responseMessage);
+            Assertions.assertFalse(responseMessage.contains("content-length")
+                    && responseMessage.contains("transfer-encoding"));
+        }
+    }
+
+    @Test
+    void testAsync() throws Exception {
+        final CompletableFuture<HTTPResponse> pending = new CompletableFuture<>();
+        final InternalResource internalResource = asyncInternalResource((request, response) ->
+                pending.thenApply(ignored -> {
+                    response.setStatusCode((short) 200);
+                    response.getHeaderSection().set("content-length", "5");
+                    response.setContentInputStream(new ByteArrayInputStream(
+                            "async".getBytes(StandardCharsets.US_ASCII)));
+                    response.setContentLength(5);
+                    return response;
+                }));
+        final HTTPRequest httpRequest = new HTTPRequest(
+                new RequestMessageControlData(RequestMethod.GET, internalResource, null),
+                null,
+                Optional.empty(),
+                Optional.empty(),
+                0
+        );
+        final ByteArrayOutputStream responseOutputStream = new ByteArrayOutputStream();
+
+        // the response is generated by the thread which completes the stage
+        final CompletionStage<Void> stage = new HTTP1_1ResponseGenerator(null, responseOutputStream)
+                .generateResponseAsync(Either.of(httpRequest, null));
+        Assertions.assertFalse(stage.toCompletableFuture().isDone());
+        Assertions.assertEquals(0, responseOutputStream.size());
+        Thread.ofVirtual().start(() -> pending.complete(null));
+        stage.toCompletableFuture().get(10, TimeUnit.SECONDS);
+        Assertions.assertEquals("""
+                HTTP/1.1 200\r
+                content-length: 5\r
+                \r
+                async""", responseOutputStream.toString(StandardCharsets.US_ASCII));
+
+        // an exceptionally completed stage is thrown by the blocking method
+        final InternalResource failing = asyncInternalResource((request, response) ->
+                CompletableFuture.runAsync(() -> {}).thenCompose(ignored ->
+                        CompletableFuture.failedStage(new BadRequestException("async"))));
+        Assertions.assertThrowsExactly(BadRequestException.class,
+                () -> generateResponse(failing, "accept", "*/*"));
+
+        // a stage which does not complete in time is bounded by the response timeout
+        final CompletableFuture<HTTPResponse> stalled = new CompletableFuture<>();
+        final InternalResource stalling = asyncInternalResource((request, response) -> stalled);
+        final Configuration configuration = new Configuration() {
+            @Override
+            public NetworkConfiguration getNetworkConfiguration() {
+                return null;
+            }
+
+            @Override
+            public InternalResourceMapper getInternalResourceMapper() {
+                return null;
+            }
+
+            @Override
+            public HTTPDecoderRegistry getHTTPDecoderRegistry() {
+                return null;
+            }
+
+            @Override
+            public HttpErrorHandlerRegistry getHttpErrorHandlerRegistry() {
+                return null;
+            }
+
+            @Override
+            public HTTP1_1Configuration getHTTP1_1Configuration() {
+                return null;
+            }
+
+            @Override
+            public Duration getResponseTimeout() {
+                return Duration.ofMillis(50);
+            }
+        };
+        final ByteArrayOutputStream timedOutOutputStream = new ByteArrayOutputStream();
+        final HTTP1_1ResponseGenerator timedOut =
+                new HTTP1_1ResponseGenerator(configuration, timedOutOutputStream);
+        Assertions.assertThrowsExactly(ServiceUnavailableException.class,
+                () -> timedOut
+                        .generateResponse(Either.of(new HTTPRequest(
+                                new RequestMessageControlData(RequestMethod.GET,
+                                        stalling, null),
+                                null,
+                                Optional.empty(),
+                                Optional.empty(),
+                                0
+                        ), null)));
+        // the abandoned stage is reported until it completes
+        final CompletionStage<HTTPResponse> abandonedStage = timedOut.getAbandonedStage();
+        Assertions.assertNotNull(abandonedStage);
+        Assertions.assertFalse(abandonedStage.toCompletableFuture().isDone());
+        // the response is not written once the stage completes late
+        final HTTPResponse lateResponse = new HTTPResponse(ProtocolVersion.HTTP__1_1);
+        lateResponse.setStatusCode((short) 204);
+        stalled.complete(lateResponse);
+        Assertions.assertTrue(abandonedStage.toCompletableFuture().isDone());
+        Assertions.assertEquals(0, timedOutOutputStream.size());
+    }
+
+    private static InternalResource asyncInternalResource(
+            AsyncHTTPRequestHandler asyncHTTPRequestHandler) {
+        return new InternalResource() {
+            @Override
+            public InternalResourceIdentifier getInternalResourceIdentifier() {
+                return null;
+            }
+
+            @Override
+            public HTTPRequestHandler getHTTPRequestHandler() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public AsyncHTTPRequestHandler getAsyncHTTPRequestHandler() {
+                return asyncHTTPRequestHandler;
+            }
+
+            @Override
+            public HTTP1_1ResponseMessageBodyGenerator getHTTP1_1ResponseMessageBodyGenerator() {
+                return new HTTP1_1ResponseMessageBodyGeneratorImpl();
+            }
+        };
+    }
+
+    private static String generateResponse(InternalResource internalResource,
+                                           String fieldName,
+                                           String fieldValue) throws Exception {
+        final Fields headerSection = new Fields();
+        headerSection.set(fieldName, fieldValue);
+        final HTTPRequest httpRequest = new HTTPRequest(
+                new RequestMessageControlData(RequestMethod.GET, internalResource, null),
+                headerSection,
+                Optional.empty(),
+                Optional.empty(),
+                0
+        );
+        final ByteArrayOutputStream responseOutputStream = new ByteArrayOutputStream();
+        new HTTP1_1ResponseGenerator(null, responseOutputStream)
+                .generateResponse(Either.of(httpRequest, null));
+        return responseOutputStream.toString(StandardCharsets.US_ASCII);
+    }
+
 }
@@ -0,0 +1,185 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import personal.mrxdhlxpb.server.https.decoder.ChunkedTransferCodingDecoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests {@link HTTP1_1ResponseOutputStream}.
+ *
+ * @author mrxdhlxpb
+ */
+public class HTTP1_1ResponseOutputStreamTest {
+
+    /**
+     * records every invocation of {@code write(byte[], int, int)}
+     */
+    private static class WriteRecordingOutputStream extends OutputStream {
+        private final List<String> writes = new ArrayList<>();
+
+        @Override
+        public void write(int b) {
+            writes.add(new String(new byte[]{(byte) b}, StandardCharsets.ISO_8859_1));
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes.add(new String(b, off, len, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    @Test
+    void testSingleWrite() throws IOException {
+        final WriteRecordingOutputStream destination = new WriteRecordingOutputStream();
+        final HTTP1_1ResponseOutputStream instance = new HTTP1_1ResponseOutputStream(destination);
+        final Fields fields = new Fields();
+        fields.append("content-type", "application/json");
+        fields.append("content-length", "2");
+
+        instance.writeASCII("HTTP/1.1");
+        instance.writeSP();
+        instance.writeDecimal(200);
+        instance.writeCRLF();
+        fields.write(instance);
+        instance.writeCRLF();
+        instance.write("{}".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(destination.writes.isEmpty());
+
+        instance.flush();
+        assertEquals(List.of("HTTP/1.1 200\r\ncontent-type: application/json\r\n" +
+                "content-length: 2\r\n\r\n{}"), destination.writes);
+    }
+
+    @Test
+    void testBufferBoundary() throws IOException {
+        final ByteArrayOutputStream destination = new ByteArrayOutputStream();
+        final HTTP1_1ResponseOutputStream instance = new HTTP1_1ResponseOutputStream(
+                destination,
+                HTTP1_1ResponseOutputStream.MINIMUM_BUFFER_SIZE);
+        final String text = "a field value longer than the buffer size";
+
+        instance.writeASCII(text);
+        instance.writeDecimal(Integer.MAX_VALUE);
+        instance.writeDecimal(0);
+        instance.writeASCII("\u00e9");
+        instance.writeCRLF();
+        instance.flush();
+
+        assertEquals(text + Integer.MAX_VALUE + "0?\r\n",
+                destination.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void testIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new HTTP1_1ResponseOutputStream(
+                OutputStream.nullOutputStream(),
+                HTTP1_1ResponseOutputStream.MINIMUM_BUFFER_SIZE - 1));
+        assertThrows(IllegalArgumentException.class, () -> new HTTP1_1ResponseOutputStream(
+                OutputStream.nullOutputStream()).writeDecimal(-1));
+    }
+
+
+    /**
+     * decodes a chunked message body with a streaming {@link ChunkedTransferCodingDecoder}
+     */
+    private static byte[] decodeChunked(byte[] messageBody, Fields trailerSection)
+            throws Exception {
+        final ChunkedTransferCodingDecoder decoder = ChunkedTransferCodingDecoder.Settings
+                .streaming(64, Integer.MAX_VALUE, 1024, 4096)
+                .newDecoder()
+                .decode(new HttpRequestInputStream(new ByteArrayInputStream(messageBody)));
+        final byte[] content = decoder.getContentInputStream().readAllBytes();
+        assertEquals(trailerSection == null ? new Fields() : trailerSection,
+                decoder.getTrailerFieldsDirectly());
+        return content;
+    }
+
+    @RepeatedTest(8)
+    void testTransferChunkedFrom() throws Exception {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final byte[] content = new byte[random.nextInt(0, 100000)];
+        random.nextBytes(content);
+        final Fields trailerSection = new Fields();
+        trailerSection.append("checksum", "1234");
+        for (int size : new int[]{HTTP1_1ResponseOutputStream.MINIMUM_BUFFER_SIZE, 100, 8192}) {
+            final ByteArrayOutputStream destination = new ByteArrayOutputStream();
+            final HTTP1_1ResponseOutputStream instance =
+                    new HTTP1_1ResponseOutputStream(destination, size);
+            instance.transferChunkedFrom(new ByteArrayInputStream(content) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    return super.read(b, off, Math.min(len, random.nextInt(1, 5000)));
+                }
+            });
+            instance.writeLastChunk(trailerSection);
+            instance.flush();
+            assertArrayEquals(content, decodeChunked(destination.toByteArray(), trailerSection));
+        }
+    }
+
+    @Test
+    void testChunkedOutputStream() throws Exception {
+        final WriteRecordingOutputStream destination = new WriteRecordingOutputStream();
+        final HTTP1_1ResponseOutputStream instance = new HTTP1_1ResponseOutputStream(destination, 32);
+        try (OutputStream chunked = instance.newChunkedOutputStream()) {
+            chunked.write('a');
+            chunked.write("bc".getBytes(StandardCharsets.US_ASCII));
+            chunked.flush();
+            chunked.write(new byte[0]);
+            chunked.write("d".repeat(40).getBytes(StandardCharsets.US_ASCII));
+            chunked.write("e".repeat(25).getBytes(StandardCharsets.US_ASCII));
+        }
+        instance.writeLastChunk(null);
+        instance.flush();
+        final String messageBody = String.join("", destination.writes);
+        assertEquals("3\r\nabc\r\n"
+                + "28\r\n" + "d".repeat(40) + "\r\n"
+                + "12\r\n" + "e".repeat(18) + "\r\n"
+                + "7\r\n" + "e".repeat(7) + "\r\n"
+                + "0\r\n\r\n", messageBody);
+        // the first flush sends the first chunk
+        assertEquals("3\r\nabc\r\n", destination.writes.getFirst());
+        assertArrayEquals(("abc" + "d".repeat(40) + "e".repeat(25))
+                        .getBytes(StandardCharsets.US_ASCII),
+                decodeChunked(messageBody.getBytes(StandardCharsets.ISO_8859_1), null));
+    }
+
+    @Test
+    void testTransferFrom() throws IOException {
+        final ByteArrayOutputStream destination = new ByteArrayOutputStream();
+        final HTTP1_1ResponseOutputStream instance = new HTTP1_1ResponseOutputStream(destination, 16);
+        final byte[] content = "0123456789".repeat(10).getBytes(StandardCharsets.US_ASCII);
+        assertEquals(95, instance.transferFrom(new ByteArrayInputStream(content), 95));
+        assertEquals(5, instance.transferFrom(new ByteArrayInputStream(content, 95, 5), 10));
+        instance.flush();
+        assertArrayEquals(content, destination.toByteArray());
+    }
+
+}
@@ -26,6 +26,9 @@ import personal.mrxdhlxpb.server.https.test.extension.RandomIntParameterResolver
 
 import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -142,7 +145,64 @@ public class HttpRequestInputStreamTest {
                 3,
                 new byte[]{0x69, SP, 0x67}
         );
+        assertReadLine(
+                new byte[]{CR, CR, 0x67, CR, CR, LF},
+                emptyByteArrayWithLength(5),
+                4,
+                new byte[]{SP, SP, 0x67, SP, 0}
+        );
+        assertReadLine(
+                new byte[]{0x69, 0x68, CR}, // trailing bare CR cannot be contained
+                emptyByteArrayWithLength(2),
+                HttpRequestInputStream.CannotContainException.class
+        );
+
+    }
+
+    @Test
+    void testReadLineAcrossBufferBoundaries() throws Exception {
+        // the underlying input stream supplies one byte per read
+        final byte[] dataSource = "ab\rcd\nef\r\nghi".getBytes(StandardCharsets.US_ASCII);
+        final InputStream trickle = new InputStream() {
+            private int position;
+
+            @Override
+            public int read() {
+                return position < dataSource.length ? dataSource[position++] : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (position == dataSource.length)
+                    return -1;
+                b[off] = dataSource[position++];
+                return 1;
+            }
+        };
+        try (var httpRequestInputStream = new HttpRequestInputStream(trickle, true)) {
+            final byte[] bytes = new byte[10];
+            assertEquals(8, httpRequestInputStream.readLine(bytes, 1, 9,
+                    AssertionFailedError::new));
+            assertArrayEquals("\0ab cd\nef\0".getBytes(StandardCharsets.US_ASCII), bytes);
+            assertArrayEquals("ab\rcd\nef\r\n".getBytes(StandardCharsets.US_ASCII),
+                    httpRequestInputStream.getRecordingByteArray());
+            assertEquals('g', httpRequestInputStream.read());
+        }
+    }
 
+    @Test
+    void testReadLineWithLimit() throws Exception {
+        try (var httpRequestInputStream = createHttpRequestInputStreamWithDataSource(
+                "abc\r\ndef\r\n".getBytes(StandardCharsets.US_ASCII), true)) {
+            httpRequestInputStream.enableLimit(7);
+            assertEquals(3, httpRequestInputStream.readLine(new byte[3]));
+            assertThrowsExactly(LimitedRecordingBufferedInputStream.TryToReadOutOfLimitException.class,
+                    () -> httpRequestInputStream.readLine(new byte[3]));
+            httpRequestInputStream.disableLimit();
+            assertArrayEquals("abc\r\nde".getBytes(StandardCharsets.US_ASCII),
+                    httpRequestInputStream.getRecordingByteArray());
+            assertEquals('f', httpRequestInputStream.read());
+        }
     }
 
     @Nested
@@ -186,6 +246,35 @@ public class HttpRequestInputStreamTest {
                     TestConstants.TEST_FILE_2_LONGEST_FILED_LINE_LENGTH,
                     TestConstants.TEST_FILE_2_SECTION_SIZE - 1));
         }
+
+        @RepeatedTest(1)
+        void readFieldsLazilyTest0() throws Exception {
+            final byte[] sectionBuffer = new byte[TestConstants.TEST_FILE_2_SECTION_SIZE];
+            Fields fields = ins.readFieldsLazily(
+                    sectionBuffer,
+                    TestConstants.TEST_FILE_2_LONGEST_FILED_LINE_LENGTH,
+                    TestConstants.TEST_FILE_2_SECTION_SIZE);
+
+            fields.detach();
+            Arrays.fill(sectionBuffer, (byte) 0);
+            assertEquals(TestConstants.TEST_FILE_2_FIELDS, fields);
+        }
+
+        @RepeatedTest(1)
+        void readFieldsLazilyTest1() {
+            assertThrowsExactly(BadRequestException.class, () -> ins.readFieldsLazily(
+                    new byte[TestConstants.TEST_FILE_2_SECTION_SIZE],
+                    TestConstants.TEST_FILE_2_LONGEST_FILED_LINE_LENGTH - 1,
+                    TestConstants.TEST_FILE_2_SECTION_SIZE));
+        }
+
+        @RepeatedTest(1)
+        void readFieldsLazilyTest2() {
+            assertThrowsExactly(BadRequestException.class, () -> ins.readFieldsLazily(
+                    new byte[TestConstants.TEST_FILE_2_SECTION_SIZE],
+                    TestConstants.TEST_FILE_2_LONGEST_FILED_LINE_LENGTH,
+                    TestConstants.TEST_FILE_2_SECTION_SIZE - 1));
+        }
     }
 
     @Test
@@ -243,4 +332,21 @@ public class HttpRequestInputStreamTest {
         }
     }
 
+    @Test
+    void testDiscard() throws Exception {
+        try (final HttpRequestInputStream httpRequestInputStream =
+                     createHttpRequestInputStreamWithDataSource(new byte[10])) {
+            httpRequestInputStream.setDiscardLimit(8);
+            assertEquals(5, httpRequestInputStream.discard(5));
+            assertEquals(3, httpRequestInputStream.getDiscardLimit());
+            // the limit is exceeded before anything is read
+            assertThrowsExactly(IOException.class, () -> httpRequestInputStream.discard(4));
+            assertEquals(0, httpRequestInputStream.getDiscardLimit());
+
+            httpRequestInputStream.setDiscardLimit(Long.MAX_VALUE);
+            // end of stream is detected
+            assertEquals(5, httpRequestInputStream.discard(6));
+        }
+    }
+
 }
@@ -19,6 +19,10 @@ package personal.mrxdhlxpb.server.https;
 import org.junit.jupiter.api.Test;
 import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException;
 
+import java.util.Optional;
+import java.util.Random;
+import java.util.regex.Matcher;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -79,4 +83,78 @@ public class HttpsURITest {
                 "", "/", null).recombine());
     }
 
+    /**
+     * parses {@code str} with {@link HttpsURI#HTTPS_URI_PATTERN} as the reference
+     */
+    private static Optional<String> parseWithPattern(String str) {
+        final Matcher matcher = HttpsURI.HTTPS_URI_PATTERN.matcher(str);
+        if (!matcher.matches())
+            return Optional.empty();
+        return Optional.of(matcher.group("URIHOST") + "|" + matcher.group("PORT") + "|" +
+                matcher.group("PATHABEMPTY") + "|" + matcher.group("QUERY"));
+    }
+
+    private static Optional<String> parse(String str) {
+        try {
+            return HttpsURI.fromString(str).map((uri) -> uri.getHost() + "|" + uri.getPort() + "|" +
+                    uri.getPath() + "|" + uri.getQuery());
+        } catch (BadRequestException e) {
+            return Optional.of("|empty host");
+        }
+    }
+
+    @Test
+    void testFromStringAgainstPattern() {
+        final String[] fixed = {
+                "https://a", "HTTPS://a:", "https://a:80/", "https://a/b/c?d/e?f", "https://[::1]:8/",
+                "https://[::1", "https://a%2", "https://a%zz/", "https://a/%41?%4", "https://a b",
+                "https://a#f", "https://a/b;c=d@e:f", "https://:1", "https://a:b", "httpx://a",
+                "https:/a", "https://a//b", "https://a?", "https://[v1.x]/",
+        };
+        for (String str : fixed) {
+            final Optional<String> expected = parseWithPattern(str);
+            assertEquals(expected.isEmpty() || !expected.get().startsWith("|") ?
+                    expected : Optional.of("|empty host"), parse(str), str);
+        }
+
+        final String alphabet = "aZ09-._~!$&'()*+,;=:@/?%[]# fF";
+        final Random random = new Random(0);
+        for (int n = 0; n < 20000; n++) {
+            final StringBuilder builder = new StringBuilder("https://");
+            final int length = random.nextInt(12);
+            for (int i = 0; i < length; i++)
+                builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            final String str = builder.toString();
+            final Optional<String> expected = parseWithPattern(str);
+            assertEquals(expected.isEmpty() || !expected.get().startsWith("|") ?
+                    expected : Optional.of("|empty host"), parse(str), str);
+        }
+    }
+
+    @Test
+    void testNormalizeFastPath() throws Exception {
+        final HttpsURI normal = HttpsURI.fromString("https://www.example.org/a/%C3%A9?q=%2F")
+                .orElseThrow();
+        assertSame(normal, normal.normalize());
+
+        final HttpsURI variant = HttpsURI.fromString("https://www.example.org/a/%c3%a9?q=%2f")
+                .orElseThrow();
+        assertEquals(normal.recombine(), variant.normalize().recombine());
+    }
+
+    @Test
+    void testPercentEncodingNormalization() {
+        assertEquals("abc", HttpsURI.percentEncodingNormalization("abc"));
+        assertEquals("A-b%2F%", HttpsURI.percentEncodingNormalization("%41%2d%62%2f%"));
+        assertEquals("%zz%E9x", HttpsURI.percentEncodingNormalization("%zz%e9x"));
+    }
+
+    @Test
+    void testHasDotSegment() {
+        assertFalse(HttpsURI.hasDotSegment(""));
+        assertFalse(HttpsURI.hasDotSegment("/a/.b/...c/"));
+        assertTrue(HttpsURI.hasDotSegment("/a/."));
+        assertTrue(HttpsURI.hasDotSegment("/a/../b"));
+        assertTrue(HttpsURI.hasDotSegment("./a"));
+    }
 }
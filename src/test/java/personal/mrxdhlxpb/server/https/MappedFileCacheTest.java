@@ -0,0 +1,124 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author mrxdhlxpb
+ */
+public class MappedFileCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testGet() throws Exception {
+        final Path a = Files.writeString(directory.resolve("a.txt"), "0123456789");
+        try (MappedFileCache instance = new MappedFileCache(100, 50)) {
+            final MappedFileCache.CachedFile cachedFile = instance.get(a).orElseThrow();
+            assertTrue(cachedFile.isMapped());
+            assertEquals(10, cachedFile.size());
+            assertEquals(10, instance.getMappedSize());
+            assertSame(cachedFile, instance.get(directory.resolve("./a.txt")).orElseThrow());
+            // each input stream reads the mapping from the start
+            for (int i = 0; i < 2; i++)
+                try (InputStream inputStream = cachedFile.newInputStream()) {
+                    assertEquals("0123456789",
+                            new String(inputStream.readAllBytes(), StandardCharsets.US_ASCII));
+                }
+
+            // a file larger than maximumFileSize is not mapped
+            final Path large = Files.write(directory.resolve("large"), new byte[51]);
+            final MappedFileCache.CachedFile unmapped = instance.get(large).orElseThrow();
+            assertFalse(unmapped.isMapped());
+            try (InputStream inputStream = unmapped.newInputStream()) {
+                assertEquals(51, inputStream.readAllBytes().length);
+            }
+            assertEquals(10, instance.getMappedSize());
+
+            assertEquals(Optional.empty(), instance.get(directory.resolve("absent")));
+            assertEquals(Optional.empty(), instance.get(directory));
+        }
+    }
+
+    @Test
+    void testEviction() throws Exception {
+        try (MappedFileCache instance = new MappedFileCache(100, 100, 3,
+                FileSystems.getDefault())) {
+            final Path a = Files.write(directory.resolve("a"), new byte[40]);
+            final Path b = Files.write(directory.resolve("b"), new byte[40]);
+            final Path c = Files.write(directory.resolve("c"), new byte[40]);
+            final MappedFileCache.CachedFile cachedA = instance.get(a).orElseThrow();
+            instance.get(b);
+            // a is used more recently than b
+            instance.get(a);
+            instance.get(c);
+            assertEquals(80, instance.getMappedSize());
+            assertSame(cachedA, instance.get(a).orElseThrow());
+            assertEquals(2, instance.getEntryCount());
+
+            // the number of entries is bounded as well
+            instance.get(directory.resolve("absent1"));
+            instance.get(directory.resolve("absent2"));
+            assertEquals(3, instance.getEntryCount());
+            assertEquals(40, instance.getMappedSize());
+        }
+    }
+
+    @Test
+    void testInvalidation() throws Exception {
+        final Path a = Files.writeString(directory.resolve("a.txt"), "old");
+        final Path absent = directory.resolve("b.txt");
+        try (MappedFileCache instance = new MappedFileCache(100, 100)) {
+            final MappedFileCache.CachedFile old = instance.get(a).orElseThrow();
+            assertEquals(Optional.empty(), instance.get(absent));
+
+            final Path temporary = Files.writeString(directory.resolve("a.tmp"), "newer");
+            Files.move(temporary, a, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.writeString(absent, "created");
+
+            // the entries are invalidated by the watcher thread
+            final long deadline = System.nanoTime() + 10_000_000_000L;
+            while (instance.get(a).orElseThrow() == old || instance.get(absent).isEmpty()) {
+                assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(10);
+            }
+            try (InputStream inputStream = instance.get(a).orElseThrow().newInputStream()) {
+                assertEquals("newer",
+                        new String(inputStream.readAllBytes(), StandardCharsets.US_ASCII));
+            }
+
+            instance.invalidateAll();
+            assertEquals(0, instance.getEntryCount());
+            assertEquals(0, instance.getMappedSize());
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import personal.mrxdhlxpb.server.https.error.HttpErrorIOException;
+import personal.mrxdhlxpb.server.https.error.concrete.server.ServiceUnavailableException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author mrxdhlxpb
+ */
+public class MemoryBudgetTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testReserve() throws Exception {
+        final MemoryBudget spool = new MemoryBudget(100, MemoryBudget.ExhaustionPolicy.SPOOL,
+                Duration.ZERO);
+        assertTrue(spool.reserve(60));
+        assertFalse(spool.reserve(41));
+        assertTrue(spool.reserve(40));
+        assertEquals(100, spool.getUsed());
+        assertEquals(0, spool.getAvailable());
+        spool.release(100);
+        assertEquals(0, spool.getUsed());
+
+        final MemoryBudget reject = new MemoryBudget(100, MemoryBudget.ExhaustionPolicy.REJECT,
+                Duration.ZERO);
+        assertTrue(reject.reserve(100));
+        assertThrowsExactly(ServiceUnavailableException.class, () -> reject.reserve(1));
+        assertEquals(100, reject.getUsed());
+
+        assertThrows(IllegalArgumentException.class, () -> reject.reserve(-1));
+        assertThrows(IllegalArgumentException.class, () -> new MemoryBudget(-1,
+                MemoryBudget.ExhaustionPolicy.SPOOL, Duration.ZERO));
+    }
+
+    @Test
+    void testWait() throws Exception {
+        final MemoryBudget budget = new MemoryBudget(100, MemoryBudget.ExhaustionPolicy.WAIT,
+                Duration.ofMillis(50));
+        assertTrue(budget.reserve(100));
+        assertThrowsExactly(ServiceUnavailableException.class, () -> budget.reserve(1));
+
+        final MemoryBudget patient = new MemoryBudget(100, MemoryBudget.ExhaustionPolicy.WAIT,
+                Duration.ofSeconds(30));
+        assertTrue(patient.reserve(100));
+        final Thread releaser = Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            patient.release(30);
+        });
+        assertTrue(patient.reserve(30));
+        releaser.join();
+        assertEquals(100, patient.getUsed());
+    }
+
+    @Test
+    void testReleasingOnClose() throws Exception {
+        final MemoryBudget budget = MemoryBudget.UNLIMITED;
+        final long used = budget.getUsed();
+        assertTrue(budget.reserve(10));
+        final InputStream inputStream =
+                budget.releasingOnClose(new ByteArrayInputStream(new byte[]{1, 2}), 10);
+        assertArrayEquals(new byte[]{1, 2}, inputStream.readAllBytes());
+        inputStream.close();
+        inputStream.close();
+        assertEquals(used, budget.getUsed());
+    }
+
+    private MultipartFormDataParser.Part parsePart(HttpRequestInputStream httpRequestInputStream,
+                                                   String boundary) throws Exception {
+        final MultipartFormDataParser parser = new MultipartFormDataParser(
+                httpRequestInputStream,
+                MultipartFormDataParser.Mode.LAZY,
+                1024,
+                4096,
+                100,
+                Integer.MAX_VALUE,
+                "multipart",
+                null,
+                null,
+                boundary.getBytes(StandardCharsets.US_ASCII));
+        parser.readFirstLine();
+        return parser.nextPart();
+    }
+
+    @Test
+    void testMultipartFormDataParser() throws Exception {
+        final String boundary = "boundary";
+        final byte[] message = ("--" + boundary + "\r\n\r\nbody\r\n--" + boundary + "--\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        final SpoolService spoolService =
+                new SpoolService(directory, "budget-test-", Long.MAX_VALUE, 0);
+
+        // the part body is buffered in memory, which is reserved until the body is closed
+        final MemoryBudget budget = new MemoryBudget(100, MemoryBudget.ExhaustionPolicy.SPOOL,
+                Duration.ZERO);
+        try (var httpRequestInputStream = new HttpRequestInputStream(
+                new ByteArrayInputStream(message), BufferPool.UNPOOLED, spoolService, budget);
+             var part = (MultipartFormDataParser.LazyModePart)
+                     parsePart(httpRequestInputStream, boundary)) {
+            assertEquals(100, budget.getUsed());
+            assertEquals(0, spoolService.getFileCount());
+            assertEquals("body", new String(part.bodyInputStream().readAllBytes(),
+                    StandardCharsets.US_ASCII));
+        }
+        assertEquals(0, budget.getUsed());
+
+        // the budget is exhausted, so the part body overflows to disk
+        assertTrue(budget.reserve(100));
+        try (var httpRequestInputStream = new HttpRequestInputStream(
+                new ByteArrayInputStream(message), BufferPool.UNPOOLED, spoolService, budget);
+             var part = (MultipartFormDataParser.LazyModePart)
+                     parsePart(httpRequestInputStream, boundary)) {
+            assertEquals(1, spoolService.getFileCount());
+            assertEquals("body", new String(part.bodyInputStream().readAllBytes(),
+                    StandardCharsets.US_ASCII));
+        }
+        assertEquals(0, spoolService.getFileCount());
+        assertEquals(100, budget.getUsed());
+
+        // the budget is exhausted, and the request is rejected
+        final MemoryBudget reject = new MemoryBudget(99, MemoryBudget.ExhaustionPolicy.REJECT,
+                Duration.ZERO);
+        try (var httpRequestInputStream = new HttpRequestInputStream(
+                new ByteArrayInputStream(message), BufferPool.UNPOOLED, spoolService, reject)) {
+            final HttpErrorIOException e = assertThrowsExactly(HttpErrorIOException.class,
+                    () -> parsePart(httpRequestInputStream, boundary));
+            assertInstanceOf(ServiceUnavailableException.class, e.getCause());
+        }
+        assertEquals(0, reject.getUsed());
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import personal.mrxdhlxpb.server.https.error.HttpErrorException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.ContentTooLargeException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author mrxdhlxpb
+ */
+public class MultipartFormDataParserTest {
+
+    private static final String BOUNDARY = "----boundary7MA4YWxk";
+
+    /**
+     * an input stream that returns at most a few bytes per read, so that delimiters are split
+     * across reads
+     */
+    private static InputStream trickle(byte[] bytes) {
+        return new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, ThreadLocalRandom.current().nextInt(1, 8)));
+            }
+        };
+    }
+
+    private static byte[] message(byte[]... bodies) {
+        final ByteArrayOutputStream message = new ByteArrayOutputStream();
+        message.writeBytes(("--" + BOUNDARY + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        for (int i = 0; i < bodies.length; i++) {
+            message.writeBytes(("Content-Disposition: form-data; name=\"part" + i + "\"\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            message.writeBytes(bodies[i]);
+            message.writeBytes(("\r\n--" + BOUNDARY + (i == bodies.length - 1 ? "-- \t" : ""))
+                    .getBytes(StandardCharsets.US_ASCII));
+            message.writeBytes("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        message.writeBytes("epilogue".getBytes(StandardCharsets.US_ASCII));
+        return message.toByteArray();
+    }
+
+    private static List<byte[]> parse(HttpRequestInputStream httpRequestInputStream,
+                                      int memoryBufferSize,
+                                      int maximumTemporaryFileSize) throws Exception {
+        final MultipartFormDataParser parser = new MultipartFormDataParser(
+                httpRequestInputStream,
+                MultipartFormDataParser.Mode.LAZY,
+                1024,
+                4096,
+                memoryBufferSize,
+                maximumTemporaryFileSize,
+                "multipart-test",
+                null,
+                null,
+                BOUNDARY.getBytes(StandardCharsets.US_ASCII));
+        parser.readFirstLine();
+        final List<byte[]> bodies = new ArrayList<>();
+        MultipartFormDataParser.Part nextPart;
+        while ((nextPart = parser.nextPart()) != null) {
+            try (var part = nextPart) {
+                bodies.add(((MultipartFormDataParser.LazyModePart) part)
+                        .bodyInputStream().readAllBytes());
+            }
+        }
+        return bodies;
+    }
+
+    private static void assertParse(byte[][] expectedBodies,
+                                    HttpRequestInputStream httpRequestInputStream,
+                                    int memoryBufferSize) throws Exception {
+        try (httpRequestInputStream) {
+            final List<byte[]> actualBodies =
+                    parse(httpRequestInputStream, memoryBufferSize, Integer.MAX_VALUE);
+            assertEquals(expectedBodies.length, actualBodies.size());
+            for (int i = 0; i < expectedBodies.length; i++)
+                assertArrayEquals(expectedBodies[i], actualBodies.get(i));
+        }
+    }
+
+    @Test
+    public void testParseNearMisses() throws Exception {
+        final byte[][] bodies = {
+                "".getBytes(StandardCharsets.US_ASCII),
+                ("line 1\r\nline 2\r\n--" + BOUNDARY.substring(0, 10) + "\r\r\n-\r")
+                        .getBytes(StandardCharsets.US_ASCII),
+                ("\r\n\r\n-" + BOUNDARY + "\n--" + BOUNDARY).getBytes(StandardCharsets.US_ASCII)
+        };
+        final byte[] message = message(bodies);
+        assertParse(bodies, new HttpRequestInputStream(new ByteArrayInputStream(message)), 64);
+        assertParse(bodies, new HttpRequestInputStream(trickle(message)), 64);
+        // the internal buffer is smaller than the delimiter
+        assertParse(bodies, new HttpRequestInputStream(trickle(message), 8), 64);
+        assertParse(bodies, new HttpRequestInputStream(trickle(message),
+                new BufferPool(16, 1 << 16, 4, false)), 64);
+    }
+
+    @RepeatedTest(8)
+    public void testParseRandomBodies() throws Exception {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final byte[][] bodies = new byte[random.nextInt(1, 5)][];
+        for (int i = 0; i < bodies.length; i++) {
+            bodies[i] = new byte[random.nextInt(0, 50000)];
+            random.nextBytes(bodies[i]);
+        }
+        final byte[] message = message(bodies);
+        // both bodies kept in memory and bodies spilled to temporary files
+        assertParse(bodies, new HttpRequestInputStream(trickle(message), 32), 1 << 16);
+        assertParse(bodies, new HttpRequestInputStream(new ByteArrayInputStream(message)), 100);
+    }
+
+    @Test
+    public void testParseContentTooLarge() throws Exception {
+        final byte[] message = message(new byte[1000]);
+        try (var httpRequestInputStream =
+                     new HttpRequestInputStream(new ByteArrayInputStream(message))) {
+            assertThrowsExactly(ContentTooLargeException.class,
+                    () -> parse(httpRequestInputStream, 100, 999));
+        }
+        try (var httpRequestInputStream =
+                     new HttpRequestInputStream(new ByteArrayInputStream(message))) {
+            assertEquals(1000, parse(httpRequestInputStream, 100, 1000).getFirst().length);
+        }
+    }
+
+    @RepeatedTest(4)
+    public void testVisitRemaining() throws Exception {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final byte[][] bodies = new byte[3][];
+        for (int i = 0; i < bodies.length; i++) {
+            bodies[i] = new byte[random.nextInt(0, 20000)];
+            random.nextBytes(bodies[i]);
+        }
+        final List<String> events = new ArrayList<>();
+        final List<byte[]> actualBodies = new ArrayList<>();
+        try (var httpRequestInputStream = new HttpRequestInputStream(trickle(message(bodies)))) {
+            final MultipartFormDataParser parser = new MultipartFormDataParser(
+                    httpRequestInputStream,
+                    MultipartFormDataParser.Mode.DILIGENT,
+                    1024,
+                    4096,
+                    100,
+                    Integer.MAX_VALUE,
+                    "multipart-test",
+                    null,
+                    null,
+                    BOUNDARY.getBytes(StandardCharsets.US_ASCII));
+            parser.readFirstLine();
+            parser.visitRemaining(new MultipartFormDataParser.PartVisitor() {
+                @Override
+                public void onPartStart(Fields headerSection) {
+                    events.add("start " + headerSection
+                            .getFieldValueString("Content-Disposition").orElseThrow());
+                }
+
+                @Override
+                public void onPartBody(MultipartFormDataParser.PartBodyInputStream bodyInputStream)
+                        throws IOException, HttpErrorException {
+                    switch (actualBodies.size()) {
+                        // read in small pieces
+                        case 0 -> {
+                            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                            final byte[] piece = new byte[7];
+                            int n;
+                            while ((n = bodyInputStream.read(piece)) != -1)
+                                body.write(piece, 0, n);
+                            assertEquals(-1, bodyInputStream.read());
+                            actualBodies.add(body.toByteArray());
+                        }
+                        // left unread
+                        case 1 -> actualBodies.add(null);
+                        // spooled after a partial read
+                        default -> {
+                            final byte[] head = bodyInputStream.readNBytes(10);
+                            try (var rest = bodyInputStream.spool()) {
+                                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                                body.writeBytes(head);
+                                body.writeBytes(rest.readAllBytes());
+                                actualBodies.add(body.toByteArray());
+                            }
+                            assertEquals(-1, bodyInputStream.read());
+                        }
+                    }
+                }
+
+                @Override
+                public void onPartEnd() { events.add("end"); }
+            });
+        }
+        assertEquals(List.of(
+                "start form-data; name=\"part0\"", "end",
+                "start form-data; name=\"part1\"", "end",
+                "start form-data; name=\"part2\"", "end"), events);
+        assertArrayEquals(bodies[0], actualBodies.get(0));
+        assertNull(actualBodies.get(1));
+        assertArrayEquals(bodies[2], actualBodies.get(2));
+    }
+
+    @Test
+    public void testParseUnexpectedBoundary() throws IOException {
+        final byte[] message = ("--" + BOUNDARY + "\r\n\r\nbody\r\n--" + BOUNDARY + "-x\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        try (var httpRequestInputStream =
+                     new HttpRequestInputStream(new ByteArrayInputStream(message))) {
+            assertThrowsExactly(BadRequestException.class,
+                    () -> parse(httpRequestInputStream, 100, 100));
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import org.junit.jupiter.api.Test;
+import personal.mrxdhlxpb.server.https.error.concrete.client.PreconditionFailedException;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author mrxdhlxpb
+ */
+public class PreconditionsTest {
+
+    private static final Validators VALIDATORS =
+            new Validators("\"a,b\"", Instant.parse("2015-01-01T00:00:00.500Z"));
+
+    private static final String LAST_MODIFIED = "Thu, 01 Jan 2015 00:00:00 GMT";
+
+    private static final String EARLIER = "Wed, 31 Dec 2014 23:59:59 GMT";
+
+    @Test
+    void testIfNoneMatch() throws Exception {
+        for (String ifNoneMatch : new String[]{"\"a,b\"", "W/\"a,b\"", "\"x\", \"a,b\"", "*"})
+            assertTrue(evaluate(RequestMethod.GET, "if-none-match", ifNoneMatch), ifNoneMatch);
+        for (String ifNoneMatch : new String[]{"\"a\"", "\"x\", invalid, \"a,b\"", ""})
+            assertFalse(evaluate(RequestMethod.GET, "if-none-match", ifNoneMatch), ifNoneMatch);
+        assertThrowsExactly(PreconditionFailedException.class,
+                () -> evaluate(RequestMethod.PUT, "if-none-match", "*"));
+
+        final HTTPResponse httpResponse = new HTTPResponse(ProtocolVersion.HTTP__1_1);
+        assertTrue(Preconditions.evaluate(request(RequestMethod.HEAD, "if-none-match",
+                "\"a,b\""), VALIDATORS, httpResponse));
+        assertEquals(304, httpResponse.getStatusCode());
+        assertEquals("\"a,b\"",
+                httpResponse.getHeaderSection().getFieldValueString("etag").orElseThrow());
+        assertEquals(LAST_MODIFIED,
+                httpResponse.getHeaderSection().getFieldValueString("last-modified").orElseThrow());
+    }
+
+    @Test
+    void testIfModifiedSince() throws Exception {
+        assertTrue(evaluate(RequestMethod.GET, "if-modified-since", LAST_MODIFIED));
+        assertFalse(evaluate(RequestMethod.GET, "if-modified-since", EARLIER));
+        assertFalse(evaluate(RequestMethod.GET, "if-modified-since", "yesterday"));
+        // ignored for methods other than GET and HEAD
+        assertFalse(evaluate(RequestMethod.POST, "if-modified-since", LAST_MODIFIED));
+        // ignored in the presence of If-None-Match
+        assertFalse(Preconditions.evaluate(request(RequestMethod.GET,
+                "if-modified-since", LAST_MODIFIED, "if-none-match", "\"x\""),
+                VALIDATORS, new HTTPResponse(ProtocolVersion.HTTP__1_1)));
+    }
+
+    @Test
+    void testIfMatch() throws Exception {
+        assertFalse(evaluate(RequestMethod.PUT, "if-match", "\"x\", \"a,b\""));
+        assertFalse(evaluate(RequestMethod.PUT, "if-match", "*"));
+        for (String ifMatch : new String[]{"\"x\"", "W/\"a,b\""})
+            assertThrowsExactly(PreconditionFailedException.class,
+                    () -> evaluate(RequestMethod.PUT, "if-match", ifMatch), ifMatch);
+        // a weak entity tag never matches
+        assertThrowsExactly(PreconditionFailedException.class,
+                () -> Preconditions.evaluate(request(RequestMethod.PUT, "if-match", "W/\"a\""),
+                        new Validators("W/\"a\"", null),
+                        new HTTPResponse(ProtocolVersion.HTTP__1_1)));
+
+        assertFalse(evaluate(RequestMethod.PUT, "if-unmodified-since", LAST_MODIFIED));
+        assertThrowsExactly(PreconditionFailedException.class,
+                () -> evaluate(RequestMethod.PUT, "if-unmodified-since", EARLIER));
+        // ignored in the presence of If-Match
+        assertFalse(Preconditions.evaluate(request(RequestMethod.PUT,
+                "if-unmodified-since", EARLIER, "if-match", "*"),
+                VALIDATORS, new HTTPResponse(ProtocolVersion.HTTP__1_1)));
+    }
+
+    @Test
+    void testParseEntityTags() {
+        assertEquals(List.of("\"a\"", "W/\"b,c\"", "\"\""),
+                Preconditions.parseEntityTags(" \"a\" ,, W/\"b,c\",\"\""));
+        assertEquals(List.of("\"a\""), Preconditions.parseEntityTags("\"a\", b, \"c\""));
+        assertEquals(List.of(), Preconditions.parseEntityTags("\"a"));
+    }
+
+    private static boolean evaluate(RequestMethod requestMethod,
+                                    String fieldName,
+                                    String fieldValue) throws PreconditionFailedException {
+        return Preconditions.evaluate(request(requestMethod, fieldName, fieldValue), VALIDATORS,
+                new HTTPResponse(ProtocolVersion.HTTP__1_1));
+    }
+
+    private static HTTPRequest request(RequestMethod requestMethod, String... fields) {
+        final Fields headerSection = new Fields();
+        for (int i = 0; i < fields.length; i += 2)
+            headerSection.set(fields[i], fields[i + 1]);
+        return new HTTPRequest(
+                new RequestMessageControlData(requestMethod, null, null),
+                headerSection,
+                Optional.empty(),
+                Optional.empty(),
+                0);
+    }
+
+}
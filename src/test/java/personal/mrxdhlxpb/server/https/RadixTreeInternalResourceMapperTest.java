@@ -0,0 +1,151 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import org.junit.jupiter.api.Test;
+import personal.mrxdhlxpb.server.https.error.concrete.client.NotFoundException;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests {@link RadixTreeInternalResourceMapper}.
+ *
+ * @author mrxdhlxpb
+ */
+public class RadixTreeInternalResourceMapperTest {
+
+    private record NamedInternalResource(String name) implements InternalResource {
+
+        @Override
+        public InternalResourceIdentifier getInternalResourceIdentifier() {
+            return new InternalResourceIdentifier(name, null);
+        }
+
+        @Override
+        public HTTPRequestHandler getHTTPRequestHandler() {
+            return null;
+        }
+
+        @Override
+        public HTTP1_1ResponseMessageBodyGenerator getHTTP1_1ResponseMessageBodyGenerator() {
+            return null;
+        }
+    }
+
+    private static final InternalResource ROOT = new NamedInternalResource("root");
+    private static final InternalResource USERS = new NamedInternalResource("users");
+    private static final InternalResource USERS_ME = new NamedInternalResource("users/me");
+    private static final InternalResource USER = new NamedInternalResource("user");
+    private static final InternalResource USER_FILE = new NamedInternalResource("user file");
+    private static final InternalResource USER_ME_FILE = new NamedInternalResource("me file");
+    private static final InternalResource STATIC = new NamedInternalResource("static");
+
+    private static RadixTreeInternalResourceMapper newInstance(int matchCacheCapacity) {
+        return new RadixTreeInternalResourceMapper(matchCacheCapacity)
+                .register("/", ROOT)
+                .register("/users", USERS)
+                .register("/users/me", USERS_ME)
+                .register("/users/{id}", USER)
+                .register("/users/{id}/files/{file}", USER_FILE)
+                .register("/users/me/files/latest", USER_ME_FILE)
+                .register("/static/*", STATIC);
+    }
+
+    private static InternalResource lookup(RadixTreeInternalResourceMapper mapper, String path)
+            throws NotFoundException {
+        return mapper.getInternalResource(new InternalResourceIdentifier(path, null));
+    }
+
+    private static void assertMatch(InternalResource expected,
+                                    Map<String, String> expectedPathParameters,
+                                    InternalResource actual) {
+        assertEquals(
+                expected.getInternalResourceIdentifier(),
+                actual.getInternalResourceIdentifier()
+        );
+        assertEquals(expectedPathParameters, actual.getPathParameters());
+    }
+
+    @Test
+    void testLiteral() throws Exception {
+        for (int capacity : new int[]{0, 2}) {
+            final RadixTreeInternalResourceMapper instance = newInstance(capacity);
+            assertSame(ROOT, lookup(instance, "/"));
+            assertSame(ROOT, lookup(instance, ""));
+            assertSame(USERS, lookup(instance, "/users"));
+            assertSame(USERS_ME, lookup(instance, "/users/me"));
+            assertSame(USERS_ME, lookup(instance, "/users/me"));
+            assertThrows(NotFoundException.class, () -> lookup(instance, "/unknown"));
+            assertThrows(NotFoundException.class, () -> lookup(instance, "/users/me/files"));
+        }
+    }
+
+    @Test
+    void testParameter() throws Exception {
+        final RadixTreeInternalResourceMapper instance = newInstance(0);
+
+        assertMatch(USER, Map.of("id", "42"), lookup(instance, "/users/42"));
+        assertMatch(USER_FILE, Map.of("id", "42", "file", "a.txt"),
+                lookup(instance, "/users/42/files/a.txt"));
+
+        // falls back from the literal segment "me" to the parameter segment
+        assertMatch(USER_FILE, Map.of("id", "me", "file", "b.txt"),
+                lookup(instance, "/users/me/files/b.txt"));
+        assertSame(USER_ME_FILE, lookup(instance, "/users/me/files/latest"));
+
+        // a parameter segment does not match an empty path segment
+        assertThrows(NotFoundException.class, () -> lookup(instance, "/users/"));
+    }
+
+    @Test
+    void testWildcard() throws Exception {
+        final RadixTreeInternalResourceMapper instance = newInstance(0);
+
+        assertMatch(STATIC, Map.of("*", "css/site.css"), lookup(instance, "/static/css/site.css"));
+        assertMatch(STATIC, Map.of("*", ""), lookup(instance, "/static/"));
+        assertThrows(NotFoundException.class, () -> lookup(instance, "/static"));
+    }
+
+    @Test
+    void testMatchCache() throws Exception {
+        final RadixTreeInternalResourceMapper instance = newInstance(1);
+
+        assertMatch(USER, Map.of("id", "1"), lookup(instance, "/users/1"));
+        assertMatch(USER, Map.of("id", "2"), lookup(instance, "/users/2"));
+        assertMatch(USER, Map.of("id", "1"), lookup(instance, "/users/1"));
+
+        // registering a route invalidates the cache
+        final InternalResource user1 = new NamedInternalResource("user 1");
+        instance.register("/users/1", user1);
+        assertSame(user1, lookup(instance, "/users/1"));
+    }
+
+    @Test
+    void testInvalidPattern() {
+        final RadixTreeInternalResourceMapper instance = newInstance(0);
+
+        assertThrows(IllegalArgumentException.class, () -> instance.register("users", ROOT));
+        assertThrows(IllegalArgumentException.class, () -> instance.register("/*/a", ROOT));
+        assertThrows(IllegalArgumentException.class, () -> instance.register("/{a}/{a}", ROOT));
+        assertThrows(IllegalArgumentException.class, () -> instance.register("/users", ROOT));
+        assertThrows(IllegalArgumentException.class,
+                () -> instance.register("/users/{name}", ROOT));
+    }
+
+}
@@ -20,6 +20,8 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.opentest4j.AssertionFailedError;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * @author mrxdhlxpb
  */
@@ -93,4 +95,19 @@ public class RequestMethodTest {
         );
 
     }
+
+    @Test
+    void testOfBytes() {
+        final byte[] bytes = "xGET POST OPTIONS Get".getBytes(StandardCharsets.US_ASCII);
+
+        Assertions.assertEquals(RequestMethod.GET, RequestMethod.of(bytes, 1, 3));
+        Assertions.assertEquals(RequestMethod.POST, RequestMethod.of(bytes, 5, 4));
+        Assertions.assertEquals(RequestMethod.OPTIONS, RequestMethod.of(bytes, 10, 7));
+
+        Assertions.assertNull(RequestMethod.of(bytes, 0, 4));
+        Assertions.assertNull(RequestMethod.of(bytes, 1, 4));
+        Assertions.assertNull(RequestMethod.of(bytes, 1, 2));
+        Assertions.assertNull(RequestMethod.of(bytes, 18, 3));
+        Assertions.assertNull(RequestMethod.of(bytes, 0, 0));
+    }
 }
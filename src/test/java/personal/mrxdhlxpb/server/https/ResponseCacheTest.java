@@ -0,0 +1,365 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author mrxdhlxpb
+ */
+public class ResponseCacheTest {
+
+    @Test
+    void testServe() throws Exception {
+        final AtomicLong nanoTime = new AtomicLong();
+        final ResponseCache instance = new ResponseCache(4096, 1024, Duration.ofSeconds(1),
+                ResponseCache.DEFAULT_COALESCING_TIMEOUT, nanoTime::get);
+        final HTTPRequest httpRequest = request(RequestMethod.GET, "/config");
+        assertNull(serve(instance, httpRequest));
+
+        final HTTPResponse httpResponse = response("max-age=60", "hello");
+        instance.store(null, httpRequest, httpResponse,
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        assertEquals(1, instance.getEntryCount());
+        // the content of the response is still available
+        assertEquals("hello", new String(httpResponse.getContentInputStream().readAllBytes(),
+                StandardCharsets.US_ASCII));
+
+        final String head = """
+                HTTP/1.1 200\r
+                cache-control: max-age=60\r
+                content-length: 5\r
+                age: 0\r
+                \r
+                """;
+        assertEquals(head + "hello", serve(instance, httpRequest));
+        assertEquals(head, serve(instance, request(RequestMethod.HEAD, "/config")));
+        assertNull(serve(instance, request(RequestMethod.GET, "/config", "if-none-match", "*")));
+        assertNull(serve(instance,
+                request(RequestMethod.GET, "/config", "cache-control", "no-cache")));
+        assertNull(serve(instance, request(RequestMethod.GET, "/config?page=1")));
+        assertNull(serve(instance, request(RequestMethod.POST, "/config")));
+
+        // the time to live is bounded by maximumTimeToLive
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1100));
+        assertNull(serve(instance, httpRequest));
+    }
+
+    @Test
+    void testStore() throws Exception {
+        final ResponseCache instance = new ResponseCache(4096, 16, Duration.ofMinutes(1));
+        final HTTPRequest httpRequest = request(RequestMethod.GET, "/");
+        for (HTTPResponse httpResponse : new HTTPResponse[]{
+                response(null, "hello"),
+                response("max-age=0", "hello"),
+                response("max-age=60, no-store", "hello"),
+                response("private, s-maxage=60", "hello"),
+                response("max-age=60", "hello, world! hello, world!")}) {
+            instance.store(null, httpRequest, httpResponse,
+                    new HTTP1_1ResponseMessageBodyGeneratorImpl());
+            assertEquals(0, instance.getEntryCount());
+        }
+
+        final HTTPResponse withCookie = response("max-age=60", "hello");
+        withCookie.getHeaderSection().set("set-cookie", "a=b");
+        instance.store(null, httpRequest, withCookie,
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        final HTTPResponse notOK = response("max-age=60", "hello");
+        notOK.setStatusCode((short) 201);
+        instance.store(null, httpRequest, notOK, new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        // content of unknown length
+        instance.store(null, httpRequest, response("max-age=60", "hello"),
+                new ChunkedHTTP1_1ResponseMessageBodyGenerator() {
+                    @Override
+                    public String[] getTransferEncodingChain(int contentLength) {
+                        return getTransferEncodingChain();
+                    }
+                });
+        assertEquals(0, instance.getEntryCount());
+
+        // an entry larger than the capacity is rejected before its content is read
+        final HTTPResponse tooLarge = response("max-age=60", "hello");
+        final InputStream contentInputStream = tooLarge.getContentInputStream();
+        new ResponseCache(128, 16, Duration.ofMinutes(1)).store(null, httpRequest, tooLarge,
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        assertSame(contentInputStream, tooLarge.getContentInputStream());
+        assertEquals(5, contentInputStream.available());
+        // nothing is fresh if the time to live is capped at zero
+        final ResponseCache neverFresh = new ResponseCache(4096, 16, Duration.ZERO);
+        neverFresh.store(null, httpRequest, response("max-age=60", "hello"),
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        assertEquals(0, neverFresh.getEntryCount());
+    }
+
+    @Test
+    void testAuthorization() throws Exception {
+        final ResponseCache instance = new ResponseCache(4096, 1024, Duration.ofMinutes(1));
+        final HTTPRequest authorized =
+                request(RequestMethod.GET, "/account", "authorization", "Bearer a");
+
+        // a response to an authenticated request is not stored without explicit permission
+        instance.store(null, authorized, response("max-age=60", "a"),
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        assertEquals(0, instance.getEntryCount());
+        assertNull(serve(instance, request(RequestMethod.GET, "/account")));
+        assertNull(serve(instance,
+                request(RequestMethod.GET, "/account", "authorization", "Bearer b")));
+
+        for (String cacheControl : new String[]{"public, max-age=60", "s-maxage=60",
+                "max-age=60, must-revalidate"}) {
+            final HTTPRequest httpRequest = request(RequestMethod.GET, "/" + cacheControl,
+                    "authorization", "Bearer a");
+            instance.store(null, httpRequest, response(cacheControl, "shared"),
+                    new HTTP1_1ResponseMessageBodyGeneratorImpl());
+            assertTrue(serve(instance, request(RequestMethod.GET, "/" + cacheControl))
+                    .endsWith("\r\n\r\nshared"), cacheControl);
+        }
+        assertEquals(3, instance.getEntryCount());
+    }
+
+    @Test
+    void testVary() throws Exception {
+        final ResponseCache instance = new ResponseCache(4096, 1024, Duration.ofMinutes(1));
+        final HTTPResponse gzip = response("max-age=60", "gzip");
+        gzip.getHeaderSection().set("vary", "Accept-Encoding");
+        instance.store(null, request(RequestMethod.GET, "/", "accept-encoding", "gzip"), gzip,
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        final HTTPResponse identity = response("max-age=60", "identity");
+        identity.getHeaderSection().set("vary", "Accept-Encoding");
+        instance.store(null, request(RequestMethod.GET, "/"), identity,
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+
+        assertTrue(serve(instance, request(RequestMethod.GET, "/", "accept-encoding", "gzip"))
+                .endsWith("\r\n\r\ngzip"));
+        assertTrue(serve(instance, request(RequestMethod.GET, "/")).endsWith("\r\n\r\nidentity"));
+        assertNull(serve(instance, request(RequestMethod.GET, "/", "accept-encoding", "br")));
+
+        final HTTPResponse varyAny = response("max-age=60", "any");
+        varyAny.getHeaderSection().set("vary", "*");
+        instance.store(null, request(RequestMethod.GET, "/any"), varyAny,
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        assertNull(serve(instance, request(RequestMethod.GET, "/any")));
+    }
+
+    @Test
+    void testEviction() throws Exception {
+        // each entry takes up about 200 bytes
+        final ResponseCache instance = new ResponseCache(1000, 1024, Duration.ofMinutes(1));
+        for (int i = 0; i < 4; i++)
+            instance.store(null, request(RequestMethod.GET, "/" + i), response("max-age=60", "x"),
+                    new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        // the hit entry is protected
+        assertNotNull(serve(instance, request(RequestMethod.GET, "/0")));
+        for (int i = 4; i < 10; i++)
+            instance.store(null, request(RequestMethod.GET, "/" + i), response("max-age=60", "x"),
+                    new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        assertTrue(instance.getSize() <= 1000);
+        assertNotNull(serve(instance, request(RequestMethod.GET, "/0")));
+        assertNull(serve(instance, request(RequestMethod.GET, "/1")));
+        assertNotNull(serve(instance, request(RequestMethod.GET, "/9")));
+
+        instance.invalidateAll();
+        assertEquals(0, instance.getEntryCount());
+        assertEquals(0, instance.getSize());
+        assertNull(serve(instance, request(RequestMethod.GET, "/0")));
+    }
+
+    @Test
+    void testCoalescing() throws Exception {
+        final ResponseCache instance = new ResponseCache(4096, 1024, Duration.ofMinutes(1));
+        final HTTPRequest httpRequest = request(RequestMethod.GET, "/slow");
+        final ByteArrayOutputStream leaderOutputStream = new ByteArrayOutputStream();
+        final ResponseCache.Flight leader =
+                lookUp(instance, httpRequest, leaderOutputStream, request -> fail());
+        assertFalse(leader.isServed());
+
+        final int followerCount = 4;
+        final ByteArrayOutputStream[] followerOutputStreams =
+                new ByteArrayOutputStream[followerCount];
+        final List<CompletableFuture<ResponseCache.Flight>> followers = new ArrayList<>();
+        for (int i = 0; i < followerCount; i++) {
+            followerOutputStreams[i] = new ByteArrayOutputStream();
+            followers.add(instance.lookUp(httpRequest,
+                    new HTTP1_1ResponseOutputStream(followerOutputStreams[i]), request -> fail())
+                    .toCompletableFuture());
+        }
+        // the followers wait for the leader without blocking the calling thread
+        for (CompletableFuture<ResponseCache.Flight> follower : followers)
+            assertFalse(follower.isDone());
+
+        instance.store(leader, httpRequest, response("max-age=60", "slow"),
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        leader.close();
+        for (int i = 0; i < followerCount; i++) {
+            try (ResponseCache.Flight flight = followers.get(i).get(10, TimeUnit.SECONDS)) {
+                assertTrue(flight.isServed());
+            }
+            assertTrue(followerOutputStreams[i].toString(StandardCharsets.US_ASCII)
+                    .endsWith("\r\n\r\nslow"));
+        }
+        assertEquals(0, leaderOutputStream.size());
+
+        // the followers of a leader whose response is not stored are not served
+        final HTTPRequest uncacheable = request(RequestMethod.GET, "/uncacheable");
+        final ResponseCache.Flight uncacheableLeader = lookUp(instance, uncacheable,
+                new ByteArrayOutputStream(), request -> fail());
+        final CompletableFuture<ResponseCache.Flight> follower = instance.lookUp(uncacheable,
+                new HTTP1_1ResponseOutputStream(new ByteArrayOutputStream()), request -> fail())
+                .toCompletableFuture();
+        assertFalse(follower.isDone());
+        instance.store(uncacheableLeader, uncacheable, response(null, "no"),
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        uncacheableLeader.close();
+        try (ResponseCache.Flight flight = follower.get(10, TimeUnit.SECONDS)) {
+            assertFalse(flight.isServed());
+        }
+
+        // a follower stops waiting once the coalescing timeout has elapsed
+        final ResponseCache impatient = new ResponseCache(4096, 1024, Duration.ofMinutes(1),
+                Duration.ofMillis(50));
+        try (ResponseCache.Flight flight = lookUp(impatient, httpRequest,
+                new ByteArrayOutputStream(), request -> fail())) {
+            assertFalse(flight.isServed());
+            assertNull(serve(impatient, httpRequest));
+        }
+    }
+
+    @Test
+    void testStaleWhileRevalidate() throws Exception {
+        final AtomicLong nanoTime = new AtomicLong();
+        final ResponseCache instance = new ResponseCache(4096, 1024, Duration.ofMinutes(1),
+                ResponseCache.DEFAULT_COALESCING_TIMEOUT, nanoTime::get);
+        final HTTPRequest httpRequest = request(RequestMethod.GET, "/feed");
+        instance.store(null, httpRequest,
+                response("max-age=1, stale-while-revalidate=60", "old"),
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1100));
+
+        final AtomicInteger refreshCount = new AtomicInteger();
+        final CountDownLatch refreshing = new CountDownLatch(1);
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        final AtomicReference<HTTPRequest> refreshedRequest = new AtomicReference<>();
+        final Consumer<HTTPRequest> refresher = request -> {
+            refreshCount.incrementAndGet();
+            refreshedRequest.set(request);
+            try {
+                assertTrue(refreshing.await(10, TimeUnit.SECONDS));
+                instance.store(null, request, response("max-age=60", "new"),
+                        new HTTP1_1ResponseMessageBodyGeneratorImpl());
+            } catch (Exception exception) {
+                throw new RuntimeException(exception);
+            }
+            refreshed.countDown();
+        };
+        // the stale response is served while one refresh runs in the background
+        final HTTPRequest headRequest = request(RequestMethod.HEAD, "/feed", "accept", "*/*");
+        assertTrue(lookUp(instance, headRequest, new ByteArrayOutputStream(), refresher)
+                .isServed());
+        for (int i = 0; i < 3; i++) {
+            final ByteArrayOutputStream responseOutputStream = new ByteArrayOutputStream();
+            assertTrue(lookUp(instance, httpRequest, responseOutputStream, refresher).isServed());
+            assertTrue(responseOutputStream.toString(StandardCharsets.US_ASCII)
+                    .endsWith("\r\n\r\nold"));
+        }
+        refreshing.countDown();
+        assertTrue(refreshed.await(10, TimeUnit.SECONDS));
+        assertEquals(1, refreshCount.get());
+        // the refresh is given a snapshot of the request
+        final HTTPRequest snapshot = refreshedRequest.get();
+        assertEquals(RequestMethod.GET, snapshot.requestMessageControlData().requestMethod());
+        assertEquals(headRequest.requestMessageControlData().internalResourceIdentifier(),
+                snapshot.requestMessageControlData().internalResourceIdentifier());
+        assertNotSame(headRequest.headerSection(), snapshot.headerSection());
+        assertEquals(headRequest.headerSection(), snapshot.headerSection());
+        assertTrue(snapshot.requestContentInputStream().isEmpty());
+        assertTrue(serve(instance, httpRequest).endsWith("\r\n\r\nnew"));
+    }
+
+    private static String serve(ResponseCache instance, HTTPRequest httpRequest)
+            throws Exception {
+        final ByteArrayOutputStream responseOutputStream = new ByteArrayOutputStream();
+        try (ResponseCache.Flight flight =
+                     lookUp(instance, httpRequest, responseOutputStream, request -> {})) {
+            if (!flight.isServed())
+                return null;
+        }
+        return responseOutputStream.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static ResponseCache.Flight lookUp(ResponseCache instance,
+                                               HTTPRequest httpRequest,
+                                               ByteArrayOutputStream responseOutputStream,
+                                               Consumer<HTTPRequest> refresher)
+            throws Exception {
+        return instance
+                .lookUp(httpRequest, new HTTP1_1ResponseOutputStream(responseOutputStream),
+                        refresher)
+                .toCompletableFuture()
+                .get(10, TimeUnit.SECONDS);
+    }
+
+    private static HTTPRequest request(RequestMethod requestMethod,
+                                       String target,
+                                       String... fields) {
+        final int questionMark = target.indexOf('?');
+        final InternalResourceIdentifier internalResourceIdentifier = questionMark == -1 ?
+                new InternalResourceIdentifier(target, null) :
+                new InternalResourceIdentifier(target.substring(0, questionMark),
+                        target.substring(questionMark + 1));
+        final Fields headerSection = new Fields();
+        for (int i = 0; i < fields.length; i += 2)
+            headerSection.set(fields[i], fields[i + 1]);
+        return new HTTPRequest(
+                new RequestMessageControlData(requestMethod, null, null,
+                        internalResourceIdentifier),
+                headerSection,
+                Optional.empty(),
+                Optional.empty(),
+                0);
+    }
+
+    private static HTTPResponse response(String cacheControl, String content) {
+        final HTTPResponse httpResponse = new HTTPResponse(ProtocolVersion.HTTP__1_1);
+        httpResponse.setStatusCode((short) 200);
+        if (cacheControl != null)
+            httpResponse.getHeaderSection().set("cache-control", cacheControl);
+        final byte[] bytes = content.getBytes(StandardCharsets.US_ASCII);
+        httpResponse.getHeaderSection().set("content-length", String.valueOf(bytes.length));
+        httpResponse.setContentInputStream(new ByteArrayInputStream(bytes));
+        httpResponse.setContentLength(bytes.length);
+        return httpResponse;
+    }
+
+}
@@ -0,0 +1,281 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author mrxdhlxpb
+ */
+public class ResponseCompressorTest {
+
+    private static final byte[] CONTENT = "{\"message\": \"hello, world\"}\n".repeat(200)
+            .getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void testNegotiate() {
+        assertEquals(Optional.empty(), ResponseCompressor.negotiate(null));
+        assertEquals(Optional.empty(), ResponseCompressor.negotiate(""));
+        assertEquals(Optional.of(ResponseCompressor.ContentCoding.GZIP),
+                ResponseCompressor.negotiate("gzip, deflate, br"));
+        assertEquals(Optional.of(ResponseCompressor.ContentCoding.DEFLATE),
+                ResponseCompressor.negotiate("gzip;q=0.5, deflate"));
+        assertEquals(Optional.of(ResponseCompressor.ContentCoding.GZIP),
+                ResponseCompressor.negotiate("*"));
+        assertEquals(Optional.of(ResponseCompressor.ContentCoding.GZIP),
+                ResponseCompressor.negotiate("X-GZIP ; Q=0.8"));
+        assertEquals(Optional.empty(), ResponseCompressor.negotiate("gzip;q=0, deflate;q=0"));
+        assertEquals(Optional.empty(), ResponseCompressor.negotiate("*;q=0, identity"));
+        assertEquals(Optional.empty(), ResponseCompressor.negotiate("gzip;q=0.5, identity"));
+        assertEquals(Optional.of(ResponseCompressor.ContentCoding.DEFLATE),
+                ResponseCompressor.negotiate("deflate;q=0.5, identity;q=0.1"));
+        // an invalid qvalue is ignored
+        assertEquals(Optional.empty(), ResponseCompressor.negotiate("gzip;q=2"));
+        assertEquals(Optional.of(ResponseCompressor.ContentCoding.GZIP),
+                ResponseCompressor.negotiate("br;q=1.0, gzip;q=0.001, identity;q=0"));
+    }
+
+    @Test
+    void testCompressionPolicy() {
+        final CompressionPolicy policy = CompressionPolicy.TEXT;
+        assertTrue(policy.isCompressible("text/html; charset=utf-8"));
+        assertTrue(policy.isCompressible("Application/JSON"));
+        assertTrue(policy.isCompressible("application/problem+json"));
+        assertFalse(policy.isCompressible("image/png"));
+        assertFalse(policy.isCompressible("texts/plain"));
+        assertFalse(policy.isCompressible("nonsense"));
+        assertFalse(policy.isCompressible(null));
+        assertTrue(policy.isLongEnough(-1));
+        assertFalse(policy.isLongEnough(1023));
+        assertTrue(policy.isLongEnough(1024));
+        assertFalse(CompressionPolicy.DISABLED.isEnabled());
+        assertFalse(CompressionPolicy.DISABLED.isCompressible("text/plain"));
+    }
+
+    @Test
+    void testCurrentLevel() {
+        final double[] load = {0};
+        final ResponseCompressor instance =
+                new ResponseCompressor(new DeflaterPool(1), 9, () -> load[0]);
+        assertEquals(9, instance.getCurrentLevel());
+        for (double value : new double[]{-1, 0.59, 0.75, 0.9, 1})
+            assertEquals(
+                    value < ResponseCompressor.LOW_LOAD ? 9 :
+                            value >= ResponseCompressor.HIGH_LOAD ? Deflater.BEST_SPEED : 5,
+                    new ResponseCompressor(new DeflaterPool(1), 9, () -> value)
+                            .getCurrentLevel());
+        // the CPU load is sampled at most once per second
+        load[0] = 1;
+        assertEquals(9, instance.getCurrentLevel());
+        assertThrows(IllegalArgumentException.class,
+                () -> new ResponseCompressor(new DeflaterPool(1), 0));
+    }
+
+    @Test
+    void testCompressInMemory() throws Exception {
+        final DeflaterPool deflaterPool = new DeflaterPool(1);
+        final ResponseCompressor instance = new ResponseCompressor(deflaterPool, 6, () -> 0);
+        final HTTPResponse httpResponse = newResponse("\"v1\"");
+        instance.compress(newRequest("gzip"), httpResponse, CompressionPolicy.TEXT,
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+
+        final Fields headerSection = httpResponse.getHeaderSection();
+        assertEquals("gzip", headerSection.getFieldValueString("content-encoding").orElseThrow());
+        assertEquals("accept-encoding", headerSection.getFieldValueString("vary").orElseThrow());
+        assertEquals("W/\"v1\"", headerSection.getFieldValueString("etag").orElseThrow());
+        final int contentLength = httpResponse.getContentLength();
+        assertTrue(contentLength < CONTENT.length);
+        assertEquals(String.valueOf(contentLength),
+                headerSection.getFieldValueString("content-length").orElseThrow());
+        final byte[] deflated = httpResponse.getContentInputStream().readAllBytes();
+        assertEquals(contentLength, deflated.length);
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(deflated))) {
+            assertArrayEquals(CONTENT, inputStream.readAllBytes());
+        }
+        assertEquals(1, deflaterPool.getRetainedCount());
+    }
+
+    @Test
+    void testCompressStreaming() throws Exception {
+        final ResponseCompressor instance =
+                new ResponseCompressor(new DeflaterPool(1), 6, () -> 0);
+        final HTTPResponse httpResponse = newResponse(null);
+        httpResponse.getHeaderSection().set("vary", "origin");
+        instance.compress(newRequest("deflate, gzip;q=0.5"), httpResponse,
+                CompressionPolicy.TEXT, new ChunkedHTTP1_1ResponseMessageBodyGenerator());
+
+        final Fields headerSection = httpResponse.getHeaderSection();
+        assertEquals("deflate",
+                headerSection.getFieldValueString("content-encoding").orElseThrow());
+        assertEquals("origin, accept-encoding",
+                headerSection.getFieldValueString("vary").orElseThrow());
+        assertFalse(headerSection.contains("content-length"));
+        final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        httpResponse.getContentWriter().orElseThrow().writeTo(deflated);
+        try (InputStream inputStream =
+                     new InflaterInputStream(new ByteArrayInputStream(deflated.toByteArray()))) {
+            assertArrayEquals(CONTENT, inputStream.readAllBytes());
+        }
+    }
+
+    @Test
+    void testFlushedContentCanBeInflated() throws Exception {
+        final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        final DeflatingOutputStream deflatingOutputStream = new DeflatingOutputStream(deflated,
+                ResponseCompressor.ContentCoding.GZIP, new DeflaterPool(0), 6);
+        deflatingOutputStream.write(CONTENT);
+        deflatingOutputStream.flush();
+        final InputStream inputStream =
+                new GZIPInputStream(new ByteArrayInputStream(deflated.toByteArray()));
+        assertArrayEquals(CONTENT, inputStream.readNBytes(CONTENT.length));
+        deflatingOutputStream.close();
+    }
+
+    @Test
+    void testNotCompressed() throws Exception {
+        final ResponseCompressor instance =
+                new ResponseCompressor(new DeflaterPool(1), 6, () -> 0);
+
+        // not accepted, but the response varies
+        HTTPResponse httpResponse = newResponse(null);
+        instance.compress(newRequest(null), httpResponse, CompressionPolicy.TEXT,
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        assertFalse(httpResponse.getHeaderSection().contains("content-encoding"));
+        assertTrue(httpResponse.getHeaderSection().contains("vary"));
+        assertArrayEquals(CONTENT, httpResponse.getContentInputStream().readAllBytes());
+
+        // too short
+        httpResponse = newResponse(null);
+        instance.compress(newRequest("gzip"), httpResponse,
+                new CompressionPolicy(List.of("text/*"), CONTENT.length + 1),
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        assertFalse(httpResponse.getHeaderSection().contains("content-encoding"));
+        assertFalse(httpResponse.getHeaderSection().contains("vary"));
+
+        // not compressible
+        httpResponse = newResponse(null);
+        httpResponse.getHeaderSection().set("content-type", "image/png");
+        instance.compress(newRequest("gzip"), httpResponse, CompressionPolicy.TEXT,
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        assertFalse(httpResponse.getHeaderSection().contains("content-encoding"));
+
+        // incompressible content of known length is sent as is
+        final byte[] random = new byte[4096];
+        new Random(0).nextBytes(random);
+        httpResponse = newResponse(null);
+        httpResponse.getHeaderSection().set("accept-ranges", "bytes");
+        httpResponse.setContentInputStream(new ByteArrayInputStream(random));
+        httpResponse.setContentLength(random.length);
+        instance.compress(newRequest("gzip"), httpResponse, CompressionPolicy.TEXT,
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        assertFalse(httpResponse.getHeaderSection().contains("content-encoding"));
+        assertTrue(httpResponse.getHeaderSection().contains("accept-ranges"));
+        assertEquals(random.length, httpResponse.getContentLength());
+        assertArrayEquals(random, httpResponse.getContentInputStream().readAllBytes());
+
+        // too long to be deflated in memory, unless the message body generator can stream it
+        final ResponseCompressor bounded =
+                new ResponseCompressor(new DeflaterPool(1), 6, CONTENT.length - 1, () -> 0);
+        httpResponse = newResponse(null);
+        httpResponse.getHeaderSection().set("accept-ranges", "bytes");
+        bounded.compress(newRequest("gzip"), httpResponse, CompressionPolicy.TEXT,
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        assertFalse(httpResponse.getHeaderSection().contains("content-encoding"));
+        assertTrue(httpResponse.getHeaderSection().contains("accept-ranges"));
+        assertArrayEquals(CONTENT, httpResponse.getContentInputStream().readAllBytes());
+        httpResponse = newResponse(null);
+        bounded.compress(newRequest("gzip"), httpResponse, CompressionPolicy.TEXT,
+                new ChunkedHTTP1_1ResponseMessageBodyGenerator());
+        assertTrue(httpResponse.getHeaderSection().contains("content-encoding"));
+    }
+
+    @Test
+    void testNotModified() throws Exception {
+        final ResponseCompressor instance =
+                new ResponseCompressor(new DeflaterPool(1), 6, () -> 0);
+
+        // the client has validated the weak entity tag of the compressed content
+        HTTPRequest httpRequest = newRequest("gzip");
+        httpRequest.headerSection().set("if-none-match", "W/\"v1\"");
+        HTTPResponse httpResponse = newNotModifiedResponse();
+        instance.compress(httpRequest, httpResponse, CompressionPolicy.TEXT,
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        assertEquals("W/\"v1\"",
+                httpResponse.getHeaderSection().getFieldValueString("etag").orElseThrow());
+        assertEquals("accept-encoding",
+                httpResponse.getHeaderSection().getFieldValueString("vary").orElseThrow());
+        assertFalse(httpResponse.getHeaderSection().contains("content-encoding"));
+
+        // the client has validated the strong entity tag of content which is not compressed
+        httpRequest = newRequest("gzip");
+        httpRequest.headerSection().set("if-none-match", "\"v1\"");
+        httpResponse = newNotModifiedResponse();
+        instance.compress(httpRequest, httpResponse, CompressionPolicy.TEXT,
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        assertEquals("\"v1\"",
+                httpResponse.getHeaderSection().getFieldValueString("etag").orElseThrow());
+        assertTrue(httpResponse.getHeaderSection().contains("vary"));
+
+        // no content coding is accepted
+        httpResponse = newNotModifiedResponse();
+        instance.compress(newRequest(null), httpResponse, CompressionPolicy.TEXT,
+                new HTTP1_1ResponseMessageBodyGeneratorImpl());
+        assertEquals("\"v1\"",
+                httpResponse.getHeaderSection().getFieldValueString("etag").orElseThrow());
+        assertTrue(httpResponse.getHeaderSection().contains("vary"));
+    }
+
+    private static HTTPResponse newNotModifiedResponse() {
+        final HTTPResponse httpResponse = new HTTPResponse(ProtocolVersion.HTTP__1_1);
+        httpResponse.setStatusCode((short) 304);
+        httpResponse.getHeaderSection().set("etag", "\"v1\"");
+        return httpResponse;
+    }
+
+    private static HTTPRequest newRequest(String acceptEncoding) {
+        final Fields headerSection = new Fields();
+        if (acceptEncoding != null)
+            headerSection.set("accept-encoding", acceptEncoding);
+        return new HTTPRequest(null, headerSection, Optional.empty(), Optional.empty(), 0);
+    }
+
+    private static HTTPResponse newResponse(String entityTag) {
+        final HTTPResponse httpResponse = new HTTPResponse(ProtocolVersion.HTTP__1_1);
+        httpResponse.setStatusCode((short) 200);
+        httpResponse.getHeaderSection().set("content-type", "application/json");
+        httpResponse.getHeaderSection().set("content-length", String.valueOf(CONTENT.length));
+        if (entityTag != null)
+            httpResponse.getHeaderSection().set("etag", entityTag);
+        httpResponse.setContentInputStream(new ByteArrayInputStream(CONTENT));
+        httpResponse.setContentLength(CONTENT.length);
+        return httpResponse;
+    }
+
+}
@@ -0,0 +1,279 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import personal.mrxdhlxpb.server.https.configuration.Configuration;
+import personal.mrxdhlxpb.server.https.configuration.HTTP1_1Configuration;
+import personal.mrxdhlxpb.server.https.configuration.NetworkConfiguration;
+import personal.mrxdhlxpb.server.https.decoder.HTTPDecoderRegistry;
+import personal.mrxdhlxpb.server.https.error.concrete.client.NotFoundException;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author mrxdhlxpb
+ */
+public class SSLEngineConnectorTest {
+
+    private static final char[] PASSWORD = "password".toCharArray();
+
+    private static SSLContext clientContext;
+
+    private static int port;
+
+    private static Thread connectorThread;
+
+    @BeforeAll
+    static void startConnector() throws Exception {
+        // a self-signed certificate, trusted by the client
+        final Path keyStoreFile = Files.createTempDirectory("connector").resolve("keystore.p12");
+        final Process keytool = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "server", "-keyalg", "EC", "-dname", "CN=localhost",
+                "-validity", "1", "-storetype", "PKCS12", "-keystore", keyStoreFile.toString(),
+                "-storepass", new String(PASSWORD))
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        assertTrue(keytool.waitFor(60, TimeUnit.SECONDS));
+        assertEquals(0, keytool.exitValue());
+        final KeyStore keyStore = KeyStore.getInstance(keyStoreFile.toFile(), PASSWORD);
+        Files.delete(keyStoreFile);
+        Files.delete(keyStoreFile.getParent());
+
+        final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance("PKIX");
+        keyManagerFactory.init(keyStore, PASSWORD);
+        final SSLContext serverContext = SSLContext.getInstance("TLSv1.3");
+        serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        final TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance("PKIX");
+        trustManagerFactory.init(keyStore);
+        clientContext = SSLContext.getInstance("TLSv1.3");
+        clientContext.init(null, trustManagerFactory.getTrustManagers(), null);
+
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        final SSLEngineConnector connector = new SSLEngineConnector(configuration(), serverContext);
+        connectorThread = Thread.ofPlatform()
+                .daemon()
+                .uncaughtExceptionHandler((thread, throwable) -> {})
+                .start(connector);
+        // wait for the server socket channel to be bound
+        for (int i = 0; ; i++) {
+            try (Socket ignored = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                break;
+            } catch (ConnectException connectException) {
+                if (i == 100)
+                    throw connectException;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    @AfterAll
+    static void stopConnector() throws Exception {
+        // accepting is interruptible, after which the event loops are shut down
+        connectorThread.interrupt();
+        connectorThread.join(10_000);
+    }
+
+    @Test
+    void testRequest() throws Exception {
+        try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory()
+                .createSocket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setSoTimeout(10_000);
+            socket.startHandshake();
+            final OutputStream outputStream = socket.getOutputStream();
+            outputStream.write("""
+                    GET /test HTTP/1.1\r
+                    Host: localhost\r
+                    \r
+                    """.getBytes(StandardCharsets.US_ASCII));
+            outputStream.flush();
+            // the connection is closed after the response, as requested by the error handler
+            assertEquals("""
+                    HTTP/1.1 404\r
+                    connection: close\r
+                    content-length: 9\r
+                    \r
+                    not found""", new String(socket.getInputStream().readAllBytes(),
+                    StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    void testClosedDuringHandshake() throws Exception {
+        final SSLEngine sslEngine = clientContext.createSSLEngine();
+        sslEngine.setUseClientMode(true);
+        final ByteBuffer clientHello = ByteBuffer.allocate(
+                sslEngine.getSession().getPacketBufferSize());
+        sslEngine.wrap(ByteBuffer.allocate(0), clientHello);
+        clientHello.flip();
+        final byte[] halfClientHello = Arrays.copyOf(clientHello.array(),
+                clientHello.remaining() / 2);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setSoTimeout(10_000);
+            socket.getOutputStream().write(halfClientHello);
+            socket.shutdownOutput();
+            // the server closes the connection, at most after sending an alert
+            final InputStream inputStream = socket.getInputStream();
+            while (inputStream.read() != -1) {}
+        }
+    }
+
+    private static Configuration configuration() {
+        return new Configuration() {
+            @Override
+            public NetworkConfiguration getNetworkConfiguration() {
+                return new NetworkConfiguration() {
+                    @Override
+                    public int getPort() {
+                        return port;
+                    }
+
+                    @Override
+                    public int getServerSocketBacklog() {
+                        return 0;
+                    }
+
+                    @Override
+                    public InetAddress getServerSocketBindAddress() {
+                        return InetAddress.getLoopbackAddress();
+                    }
+
+                    @Override
+                    public File getKeyStoreFile() {
+                        return null;
+                    }
+
+                    @Override
+                    public char[] getKeyStorePassword() {
+                        return PASSWORD;
+                    }
+
+                    @Override
+                    public int getSocketSoTimeout() {
+                        // idle connections are never closed, so only the connector closes them
+                        return 0;
+                    }
+
+                    @Override
+                    public String getServerName() {
+                        return "localhost";
+                    }
+
+                    @Override
+                    public Set<String> getServerAliases() {
+                        return Set.of();
+                    }
+
+                    @Override
+                    public ConnectorMode getConnectorMode() {
+                        return ConnectorMode.NON_BLOCKING;
+                    }
+
+                    @Override
+                    public int getEventLoopCount() {
+                        return 1;
+                    }
+                };
+            }
+
+            @Override
+            public InternalResourceMapper getInternalResourceMapper() {
+                return internalResourceIdentifier -> {
+                    throw new NotFoundException();
+                };
+            }
+
+            @Override
+            public HTTPDecoderRegistry getHTTPDecoderRegistry() {
+                return null;
+            }
+
+            @Override
+            public HttpErrorHandlerRegistry getHttpErrorHandlerRegistry() {
+                return httpErrorExceptionClass -> (error, response) -> {
+                    response.setStatusCode((short) 404);
+                    response.getHeaderSection().set("connection", "close");
+                    response.getHeaderSection().set("content-length", "9");
+                    response.setContentInputStream(new ByteArrayInputStream(
+                            "not found".getBytes(StandardCharsets.US_ASCII)));
+                    response.setContentLength(9);
+                };
+            }
+
+            @Override
+            public HTTP1_1Configuration getHTTP1_1Configuration() {
+                return new HTTP1_1Configuration() {
+                    @Override
+                    public int getMaximumRequestLineLength() {
+                        return 100;
+                    }
+
+                    @Override
+                    public int getMaximumRequestFieldLineLength() {
+                        return 100;
+                    }
+
+                    @Override
+                    public int getMaximumRequestHeaderSectionLength() {
+                        return 1000;
+                    }
+
+                    @Override
+                    public int getMaximumRequestContentLength() {
+                        return 100;
+                    }
+
+                    @Override
+                    public HTTP1_1ResponseMessageBodyGenerator
+                    getHttpErrorHTTP1_1ResponseMessageBodyGenerator() {
+                        return new HTTP1_1ResponseMessageBodyGeneratorImpl();
+                    }
+                };
+            }
+        };
+    }
+
+}
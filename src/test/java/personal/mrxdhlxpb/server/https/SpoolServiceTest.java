@@ -0,0 +1,149 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import personal.mrxdhlxpb.server.https.error.HttpErrorIOException;
+import personal.mrxdhlxpb.server.https.error.concrete.server.ServiceUnavailableException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author mrxdhlxpb
+ */
+public class SpoolServiceTest {
+
+    private static final String PREFIX = "spool-test-";
+
+    @TempDir
+    Path directory;
+
+    private void assertSpool(SpoolService spoolService, byte[] data) throws Exception {
+        final SpoolService.SpoolFile spoolFile = spoolService.create("part", null, null);
+        final Path path = spoolFile.getPath();
+        assertEquals(directory, path.getParent());
+        assertTrue(path.getFileName().toString().startsWith(PREFIX + "part"));
+        for (int off = 0; off < data.length; off += 1000)
+            spoolFile.write(data, off, Math.min(1000, data.length - off));
+        assertEquals(data.length, spoolService.getUsedSize());
+        assertEquals(1, spoolService.getFileCount());
+        try (InputStream inputStream = spoolFile.toInputStream()) {
+            assertArrayEquals(data, inputStream.readAllBytes());
+            assertTrue(Files.exists(path));
+        }
+        assertFalse(Files.exists(path));
+        assertEquals(0, spoolService.getUsedSize());
+        assertEquals(0, spoolService.getFileCount());
+    }
+
+    @Test
+    void testSpool() throws Exception {
+        final byte[] data = new byte[12345];
+        ThreadLocalRandom.current().nextBytes(data);
+        assertSpool(new SpoolService(directory, PREFIX, Long.MAX_VALUE, 0), data);
+        assertSpool(new SpoolService(directory, PREFIX, Long.MAX_VALUE, 1 << 20), data);
+        assertSpool(new SpoolService(directory, PREFIX, Long.MAX_VALUE, 1 << 20), new byte[0]);
+    }
+
+    @Test
+    void testCloseWithoutHandingOut() throws Exception {
+        final SpoolService spoolService = new SpoolService(directory, PREFIX, 100, 0);
+        final Path path;
+        try (var spoolFile = spoolService.create(null, ".bin", null)) {
+            path = spoolFile.getPath();
+            spoolFile.write(new byte[60]);
+        }
+        assertFalse(Files.exists(path));
+        assertEquals(0, spoolService.getUsedSize());
+        assertEquals(0, spoolService.getFileCount());
+    }
+
+    @Test
+    void testQuota() throws Exception {
+        final SpoolService spoolService = new SpoolService(directory, PREFIX, 100, 0);
+        try (var first = spoolService.create(null, null, null);
+             var second = spoolService.create(null, null, null)) {
+            first.write(new byte[60]);
+            final HttpErrorIOException e = assertThrowsExactly(HttpErrorIOException.class,
+                    () -> second.write(new byte[41]));
+            assertInstanceOf(ServiceUnavailableException.class, e.getCause());
+            assertEquals(60, spoolService.getUsedSize());
+            second.write(new byte[40]);
+            assertEquals(100, spoolService.getUsedSize());
+        }
+        assertEquals(0, spoolService.getUsedSize());
+    }
+
+    @Test
+    void testDeleteStaleFiles() throws Exception {
+        final SpoolService spoolService = new SpoolService(directory, PREFIX, Long.MAX_VALUE, 0);
+        Files.createFile(directory.resolve(PREFIX + "1.tmp"));
+        Files.createFile(directory.resolve(PREFIX + "2.tmp"));
+        final Path other = Files.createFile(directory.resolve("other.tmp"));
+        assertEquals(2, spoolService.deleteStaleFiles());
+        try (var files = Files.list(directory)) {
+            assertEquals(List.of(other), files.toList());
+        }
+        assertEquals(0, new SpoolService(directory.resolve("missing"), PREFIX, 0, 0)
+                .deleteStaleFiles());
+    }
+
+    @Test
+    void testMultipartFormDataParser() throws Exception {
+        final SpoolService spoolService = new SpoolService(directory, PREFIX, Long.MAX_VALUE, 0);
+        final String boundary = "boundary";
+        final byte[] body = new byte[5000];
+        final byte[] message = ("--" + boundary + "\r\n\r\n" + new String(body,
+                StandardCharsets.ISO_8859_1) + "\r\n--" + boundary + "--\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        try (var httpRequestInputStream = new HttpRequestInputStream(
+                new ByteArrayInputStream(message), BufferPool.UNPOOLED, spoolService)) {
+            final MultipartFormDataParser parser = new MultipartFormDataParser(
+                    httpRequestInputStream,
+                    MultipartFormDataParser.Mode.LAZY,
+                    1024,
+                    4096,
+                    100,
+                    Integer.MAX_VALUE,
+                    "multipart",
+                    null,
+                    null,
+                    boundary.getBytes(StandardCharsets.US_ASCII));
+            parser.readFirstLine();
+            try (var part = (MultipartFormDataParser.LazyModePart) parser.nextPart()) {
+                assertEquals(1, spoolService.getFileCount());
+                assertArrayEquals(body, part.bodyInputStream().readAllBytes());
+            }
+            assertNull(parser.nextPart());
+        }
+        assertEquals(0, spoolService.getFileCount());
+        assertEquals(0, spoolService.getUsedSize());
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import personal.mrxdhlxpb.server.https.error.HttpErrorException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.MethodNotAllowedException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.NotFoundException;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author mrxdhlxpb
+ */
+public class StaticFileInternalResourceTest {
+
+    @TempDir
+    Path directory;
+
+    private MappedFileCache mappedFileCache;
+
+    private RadixTreeInternalResourceMapper mapper;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        final Path root = Files.createDirectory(directory.resolve("root"));
+        Files.writeString(directory.resolve("secret.txt"), "secret");
+        Files.createDirectories(root.resolve("js"));
+        Files.writeString(root.resolve("js/app.js"), "console.log(1);");
+        Files.write(root.resolve("js/app.js.gz"), new byte[]{0X1F, (byte) 0X8B});
+        Files.writeString(root.resolve("a b.txt"), "space");
+        Files.write(root.resolve("large.bin"), new byte[100]);
+        mappedFileCache = new MappedFileCache(1024, 64);
+        mapper = new RadixTreeInternalResourceMapper().register("/static/*",
+                new StaticFileInternalResource(null, root, mappedFileCache, true));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        mappedFileCache.close();
+    }
+
+    @Test
+    void testGet() throws Exception {
+        HTTPResponse httpResponse = handle(RequestMethod.GET, "/static/js/app.js", null);
+        assertEquals(200, httpResponse.getStatusCode());
+        assertEquals("text/javascript; charset=utf-8",
+                httpResponse.getHeaderSection().getFieldValueString("content-type").orElseThrow());
+        assertEquals("15",
+                httpResponse.getHeaderSection().getFieldValueString("content-length").orElseThrow());
+        assertEquals("accept-encoding",
+                httpResponse.getHeaderSection().getFieldValueString("vary").orElseThrow());
+        assertFalse(httpResponse.getHeaderSection().contains("content-encoding"));
+        assertEquals(15, httpResponse.getContentLength());
+        assertEquals("console.log(1);", new String(httpResponse.getContentInputStream()
+                .readAllBytes(), StandardCharsets.US_ASCII));
+
+        httpResponse = handle(RequestMethod.GET, "/static/a%20b.txt", null);
+        assertEquals("text/plain; charset=utf-8",
+                httpResponse.getHeaderSection().getFieldValueString("content-type").orElseThrow());
+        assertFalse(httpResponse.getHeaderSection().contains("vary"));
+        assertEquals("space", new String(httpResponse.getContentInputStream()
+                .readAllBytes(), StandardCharsets.US_ASCII));
+
+        // a file which is not mapped is streamed, with its length known to the generator
+        httpResponse = handle(RequestMethod.GET, "/static/large.bin", null);
+        assertEquals(StaticFileInternalResource.DEFAULT_MEDIA_TYPE,
+                httpResponse.getHeaderSection().getFieldValueString("content-type").orElseThrow());
+        assertEquals("100",
+                httpResponse.getHeaderSection().getFieldValueString("content-length").orElseThrow());
+        assertTrue(httpResponse.getContentWriter().isEmpty());
+        assertEquals(100, httpResponse.getContentLength());
+        assertEquals(100, httpResponse.getContentInputStream().readAllBytes().length);
+
+        assertEquals(100, httpResponse.getSeekableContent().orElseThrow().size());
+        // a part of a file which is not mapped is read from a new channel
+        try (InputStream inputStream =
+                     httpResponse.getSeekableContent().orElseThrow().newInputStream(90, 10)) {
+            assertEquals(10, inputStream.readAllBytes().length);
+        }
+
+        httpResponse = handle(RequestMethod.HEAD, "/static/js/app.js", null);
+        assertEquals("15",
+                httpResponse.getHeaderSection().getFieldValueString("content-length").orElseThrow());
+        assertEquals(0, httpResponse.getContentLength());
+    }
+
+    @Test
+    void testPrecompressed() throws Exception {
+        final HTTPResponse httpResponse =
+                handle(RequestMethod.GET, "/static/js/app.js", "br, gzip");
+        assertEquals("gzip",
+                httpResponse.getHeaderSection().getFieldValueString("content-encoding")
+                        .orElseThrow());
+        assertEquals("text/javascript; charset=utf-8",
+                httpResponse.getHeaderSection().getFieldValueString("content-type").orElseThrow());
+        assertEquals("2",
+                httpResponse.getHeaderSection().getFieldValueString("content-length").orElseThrow());
+        assertArrayEquals(new byte[]{0X1F, (byte) 0X8B},
+                httpResponse.getContentInputStream().readAllBytes());
+
+        assertFalse(handle(RequestMethod.GET, "/static/js/app.js", "gzip;q=0")
+                .getHeaderSection().contains("content-encoding"));
+    }
+
+    @Test
+    void testValidators() throws Exception {
+        final Validators validators = validators(RequestMethod.GET, "/static/js/app.js", null)
+                .orElseThrow();
+        assertTrue(validators.hasStrongEntityTag());
+        assertEquals(Files.getLastModifiedTime(directory.resolve("root/js/app.js")).toInstant()
+                .getEpochSecond(), validators.lastModified().getEpochSecond());
+        assertEquals(validators,
+                validators(RequestMethod.HEAD, "/static/js/app.js", null).orElseThrow());
+        // the precompressed variant has an entity tag of its own
+        assertNotEquals(validators.entityTag(),
+                validators(RequestMethod.GET, "/static/js/app.js", "gzip").orElseThrow()
+                        .entityTag());
+        assertEquals(Optional.empty(), validators(RequestMethod.POST, "/static/js/app.js", null));
+        assertThrowsExactly(NotFoundException.class,
+                () -> validators(RequestMethod.GET, "/static/absent", null));
+    }
+
+    @Test
+    void testNotFound() {
+        for (String path : new String[]{"/static/absent", "/static/js", "/static/js/",
+                "/static/../secret.txt", "/static/js/%2E%2E/%2E%2E/secret.txt",
+                "/static/js%2F..%2F..%2Fsecret.txt", "/static/%zz", "/static//js/app.js"})
+            assertThrowsExactly(NotFoundException.class,
+                    () -> handle(RequestMethod.GET, path, null), path);
+        assertThrowsExactly(MethodNotAllowedException.class,
+                () -> handle(RequestMethod.POST, "/static/js/app.js", null));
+    }
+
+    private HTTPResponse handle(RequestMethod requestMethod, String path, String acceptEncoding)
+            throws HttpErrorException {
+        final HTTPRequest httpRequest = request(requestMethod, path, acceptEncoding);
+        final HTTPResponse httpResponse = new HTTPResponse(ProtocolVersion.HTTP__1_1);
+        httpRequest.requestMessageControlData().targetResource().getHTTPRequestHandler()
+                .handle(httpRequest, httpResponse);
+        return httpResponse;
+    }
+
+    private Optional<Validators> validators(RequestMethod requestMethod,
+                                            String path,
+                                            String acceptEncoding) throws HttpErrorException {
+        final HTTPRequest httpRequest = request(requestMethod, path, acceptEncoding);
+        return httpRequest.requestMessageControlData().targetResource()
+                .getValidators(httpRequest);
+    }
+
+    private HTTPRequest request(RequestMethod requestMethod, String path, String acceptEncoding)
+            throws HttpErrorException {
+        final InternalResource internalResource =
+                mapper.getInternalResource(new InternalResourceIdentifier(path, null));
+        final Fields headerSection = new Fields();
+        if (acceptEncoding != null)
+            headerSection.set("accept-encoding", acceptEncoding);
+        return new HTTPRequest(
+                new RequestMessageControlData(requestMethod, internalResource, null),
+                headerSection,
+                Optional.empty(),
+                Optional.empty(),
+                0);
+    }
+
+}
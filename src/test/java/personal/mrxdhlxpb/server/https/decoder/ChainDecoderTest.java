@@ -23,6 +23,10 @@ import personal.mrxdhlxpb.server.https.test.extension.RandomByteArray;
 import personal.mrxdhlxpb.server.https.test.extension.RandomByteArrayParameterResolver;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author mrxdhlxpb
@@ -43,7 +47,7 @@ public class ChainDecoderTest {
         final ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(byteArray);
 
         try (var decodedInputStream = instance
-                .decode(byteArrayInputStream)
+                .decode(byteArrayInputStream, 1024)
                 .getDecodedInputStream()) {
             Assertions.assertEquals(1024, instance.getDecodedLength());
 
@@ -54,4 +58,39 @@ public class ChainDecoderTest {
         }
     }
 
+    @Test
+    void testLazy(@RandomByteArray(len = 1024) byte[] byteArray) throws Exception {
+        final AtomicInteger read = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+        final InputStream encoded = new ByteArrayInputStream(byteArray) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                final int n = super.read(b, off, len);
+                if (n > 0)
+                    read.addAndGet(n);
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                closed.incrementAndGet();
+                super.close();
+            }
+        };
+        final ChainDecoder instance = new ChainDecoder(new NullDecoder(), new NullDecoder());
+
+        try (var decodedInputStream = instance.decode(encoded).getDecodedInputStream()) {
+            Assertions.assertTrue(instance.getKnownDecodedLength().isEmpty());
+            Assertions.assertEquals(-1, instance.getDecodedLength());
+            // nothing has been read before the decoded data is read
+            Assertions.assertEquals(0, read.get());
+
+            final byte[] head = decodedInputStream.readNBytes(100);
+            Assertions.assertArrayEquals(Arrays.copyOf(byteArray, 100), head);
+            Assertions.assertEquals(100, read.get());
+        }
+        // the encoded input stream is not closed
+        Assertions.assertEquals(0, closed.get());
+    }
+
 }
@@ -20,10 +20,13 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import personal.mrxdhlxpb.server.https.Fields;
 import personal.mrxdhlxpb.server.https.HttpRequestInputStream;
+import personal.mrxdhlxpb.server.https.error.HttpErrorIOException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException;
 import personal.mrxdhlxpb.server.https.test.TestConstants;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
 /**
@@ -71,4 +74,139 @@ public class ChunkedTransferCodingDecoderTest {
         }
     }
 
+    @Test
+    void testStreaming() throws Exception {
+        final ChunkedTransferCodingDecoder instance = new ChunkedTransferCodingDecoder(
+                10,
+                100,
+                100,
+                1000
+        );
+
+        try (final HttpRequestInputStream httpRequestInputStream = new HttpRequestInputStream(new
+                FileInputStream(CHUNKED_TEST_FILE));
+             final InputStream contentInputStream = instance
+                     .decode(httpRequestInputStream)
+                     .getContentInputStream()) {
+
+            Assertions.assertEquals(-1, instance.getContentLength());
+            Assertions.assertEquals(new Fields(), instance.getTrailerFieldsDirectly());
+            Assertions.assertArrayEquals(
+                    TEST_FILE_BYTES,
+                    contentInputStream.readAllBytes()
+            );
+            Assertions.assertEquals(
+                    TRAILER_FIELDS,
+                    instance.getTrailerFieldsDirectly()
+            );
+            Assertions.assertEquals(-1, httpRequestInputStream.read());
+        }
+    }
+
+    @Test
+    void testStreamingClose() throws Exception {
+        final ChunkedTransferCodingDecoder instance = new ChunkedTransferCodingDecoder(
+                10,
+                100,
+                100,
+                1000
+        );
+
+        try (final HttpRequestInputStream httpRequestInputStream = new HttpRequestInputStream(new
+                FileInputStream(CHUNKED_TEST_FILE))) {
+            final InputStream contentInputStream = instance
+                    .decode(httpRequestInputStream)
+                    .getContentInputStream();
+
+            Assertions.assertEquals(TEST_FILE_BYTES[0], (byte) contentInputStream.read());
+
+            // closing discards the rest of the message body but not the underlying stream
+            contentInputStream.close();
+            Assertions.assertEquals(-1, httpRequestInputStream.read());
+            Assertions.assertEquals(
+                    TRAILER_FIELDS,
+                    instance.getTrailerFieldsDirectly()
+            );
+        }
+    }
+
+    @Test
+    void testStreamingCloseWithDiscardLimit() throws Exception {
+        final ChunkedTransferCodingDecoder instance = new ChunkedTransferCodingDecoder(
+                10,
+                100,
+                100,
+                1000
+        );
+
+        // nothing is discarded if the limit is 0
+        try (final HttpRequestInputStream httpRequestInputStream = new HttpRequestInputStream(new
+                FileInputStream(CHUNKED_TEST_FILE))) {
+            final InputStream contentInputStream = instance
+                    .decode(httpRequestInputStream)
+                    .getContentInputStream();
+            httpRequestInputStream.setDiscardLimit(0);
+            Assertions.assertThrows(IOException.class, contentInputStream::close);
+            Assertions.assertNotEquals(-1, httpRequestInputStream.read());
+        }
+
+        // the limit applies to the chunk data discarded
+        try (final HttpRequestInputStream httpRequestInputStream = new HttpRequestInputStream(new
+                FileInputStream(CHUNKED_TEST_FILE))) {
+            final InputStream contentInputStream = instance
+                    .decode(httpRequestInputStream)
+                    .getContentInputStream();
+            httpRequestInputStream.setDiscardLimit(TEST_FILE_BYTES_LENGTH - 1);
+            Assertions.assertThrows(IOException.class, contentInputStream::close);
+        }
+    }
+
+    @Test
+    void testStreamingMaximumChunkSize() throws Exception {
+        final ChunkedTransferCodingDecoder instance = new ChunkedTransferCodingDecoder(
+                10,
+                0,
+                100,
+                1000
+        );
+
+        try (final HttpRequestInputStream httpRequestInputStream = new HttpRequestInputStream(new
+                FileInputStream(CHUNKED_TEST_FILE))) {
+            final InputStream contentInputStream = instance
+                    .decode(httpRequestInputStream)
+                    .getContentInputStream();
+
+            final HttpErrorIOException exception = Assertions.assertThrows(
+                    HttpErrorIOException.class,
+                    contentInputStream::read
+            );
+            Assertions.assertInstanceOf(BadRequestException.class, exception.getCause());
+            Assertions.assertSame(
+                    exception,
+                    Assertions.assertThrows(HttpErrorIOException.class, contentInputStream::read)
+            );
+            Assertions.assertSame(
+                    exception.getCause(),
+                    Assertions.assertThrows(HttpErrorIOException.class, contentInputStream::close)
+                            .getCause()
+            );
+        }
+
+        // the error is not suppressed by itself when the input stream is closed
+        try (final HttpRequestInputStream httpRequestInputStream = new HttpRequestInputStream(new
+                FileInputStream(CHUNKED_TEST_FILE))) {
+            final HttpErrorIOException exception = Assertions.assertThrows(
+                    HttpErrorIOException.class,
+                    () -> {
+                        try (InputStream contentInputStream = instance
+                                .decode(httpRequestInputStream)
+                                .getContentInputStream()) {
+                            contentInputStream.read();
+                        }
+                    }
+            );
+            Assertions.assertEquals(1, exception.getSuppressed().length);
+        }
+    }
+
 }
@@ -0,0 +1,152 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https.decoder;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import personal.mrxdhlxpb.server.https.BufferPool;
+import personal.mrxdhlxpb.server.https.HttpRequestInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author mrxdhlxpb
+ */
+public class HTTPDecoderRegistryTest {
+
+    private static final InflatingDecoder.Settings INFLATING_DECODER_SETTINGS =
+            new InflatingDecoder.Settings(1 << 20, 0, new InflaterPool(4), BufferPool.UNPOOLED);
+
+    /**
+     * the gzip decoders created by {@link #REGISTRY}, in order
+     */
+    private static final List<InflatingDecoder> GZIP_DECODERS =
+            Collections.synchronizedList(new ArrayList<>());
+
+    private static final HTTPDecoderRegistry REGISTRY = HTTPDecoderRegistry.of(
+            Map.<String, HTTPDecoderFactory<? extends TransferCodingDecoder>>of(
+                    "chunked", ChunkedTransferCodingDecoder.Settings.spooling(
+                            1024,
+                            1048576,
+                            10,
+                            100,
+                            100,
+                            1000,
+                            HTTPDecoderRegistryTest.class.getCanonicalName(),
+                            null,
+                            null),
+                    "gzip", () -> {
+                        final InflatingDecoder decoder =
+                                INFLATING_DECODER_SETTINGS.gzip().newDecoder();
+                        GZIP_DECODERS.add(decoder);
+                        return decoder;
+                    },
+                    "identity", NullDecoder::new),
+            Map.<String, HTTPDecoderFactory<? extends ContentCodingDecoder>>of(
+                    "identity", NullDecoder::new));
+
+    @Test
+    void testNewDecoderForEveryCall() {
+        final TransferCodingDecoder chunked = REGISTRY.getTransferCodingDecoder("chunked")
+                .orElseThrow();
+        Assertions.assertInstanceOf(ChunkedTransferCodingDecoder.class, chunked);
+        Assertions.assertNotSame(chunked,
+                REGISTRY.getTransferCodingDecoder("Chunked").orElseThrow());
+        Assertions.assertNotSame(REGISTRY.getContentCodingDecoder("identity").orElseThrow(),
+                REGISTRY.getContentCodingDecoder("IDENTITY").orElseThrow());
+        Assertions.assertTrue(REGISTRY.getTransferCodingDecoder("compress").isEmpty());
+        Assertions.assertTrue(REGISTRY.getContentCodingDecoder("chunked").isEmpty());
+    }
+
+    @Test
+    void testChainOfDistinctDecoders() throws Exception {
+        final byte[] content = "{\"message\": \"hello\"}".repeat(100)
+                .getBytes(StandardCharsets.US_ASCII);
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(gzipped)) {
+            gzipOutputStream.write(content);
+        }
+        final ByteArrayOutputStream chunked = new ByteArrayOutputStream();
+        chunked.writeBytes((Integer.toHexString(gzipped.size()) + "\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        chunked.writeBytes(gzipped.toByteArray());
+        chunked.writeBytes("\r\n0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+        // Transfer-Encoding: gzip, chunked, decoded by two chains at the same time
+        final String[] transferCodings = {"identity", "gzip", "chunked"};
+        final int created = GZIP_DECODERS.size();
+        final ChainTransferCodingDecoder first = TransferCodingDecoder.of(REGISTRY,
+                transferCodings);
+        final ChainTransferCodingDecoder second = TransferCodingDecoder.of(REGISTRY,
+                transferCodings);
+        Assertions.assertEquals(created + 2, GZIP_DECODERS.size());
+        Assertions.assertNotSame(GZIP_DECODERS.get(created), GZIP_DECODERS.get(created + 1));
+        try (HttpRequestInputStream firstEncoded =
+                     new HttpRequestInputStream(new ByteArrayInputStream(chunked.toByteArray()));
+             HttpRequestInputStream secondEncoded =
+                     new HttpRequestInputStream(new ByteArrayInputStream(chunked.toByteArray()));
+             InputStream firstDecoded = first.decode(firstEncoded).getContentInputStream();
+             InputStream secondDecoded = second.decode(secondEncoded).getContentInputStream()) {
+            final byte[] firstHalf = firstDecoded.readNBytes(content.length / 2);
+            Assertions.assertArrayEquals(content, secondDecoded.readAllBytes());
+            final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            decoded.writeBytes(firstHalf);
+            decoded.writeBytes(firstDecoded.readAllBytes());
+            Assertions.assertArrayEquals(content, decoded.toByteArray());
+        }
+    }
+
+    @Test
+    void testConcurrentDecoding() throws Exception {
+        final List<Callable<String>> tasks = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            final String content = "request-" + i;
+            tasks.add(() -> {
+                final byte[] chunked = (Integer.toHexString(content.length()) + "\r\n" +
+                        content + "\r\n0\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+                final ChainTransferCodingDecoder decoder = TransferCodingDecoder.of(
+                        REGISTRY,
+                        new String[]{"identity", "chunked"});
+                try (HttpRequestInputStream httpRequestInputStream =
+                             new HttpRequestInputStream(new ByteArrayInputStream(chunked));
+                     InputStream contentInputStream = decoder
+                             .decode(httpRequestInputStream)
+                             .getContentInputStream()) {
+                    return new String(contentInputStream.readAllBytes(),
+                            StandardCharsets.US_ASCII);
+                }
+            });
+        }
+        try (ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor()) {
+            final List<Future<String>> futures = executorService.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++)
+                Assertions.assertEquals("request-" + i, futures.get(i).get());
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ *  Copyright (C) 2024 mrxdhlxpb
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package personal.mrxdhlxpb.server.https.decoder;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import personal.mrxdhlxpb.server.https.BufferPool;
+import personal.mrxdhlxpb.server.https.error.HttpErrorIOException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.BadRequestException;
+import personal.mrxdhlxpb.server.https.error.concrete.client.ContentTooLargeException;
+import personal.mrxdhlxpb.server.https.test.extension.RandomByteArray;
+import personal.mrxdhlxpb.server.https.test.extension.RandomByteArrayParameterResolver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author mrxdhlxpb
+ */
+@ExtendWith(RandomByteArrayParameterResolver.class)
+public class InflatingDecoderTest {
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream)) {
+            gzipOutputStream.write(data);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data, boolean nowrap) throws IOException {
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+        try (DeflaterOutputStream deflaterOutputStream =
+                     new DeflaterOutputStream(byteArrayOutputStream, deflater)) {
+            deflaterOutputStream.write(data);
+        } finally {
+            deflater.end();
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * @return an input stream that returns at most one byte per read
+     */
+    private static InputStream trickle(byte[] data) {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+    }
+
+    private static byte[] decode(HTTPDecoderFactory<InflatingDecoder> factory, InputStream encoded)
+            throws IOException {
+        try (InputStream decoded = factory.newDecoder().decode(encoded).getDecodedInputStream()) {
+            return decoded.readAllBytes();
+        }
+    }
+
+    private static Class<?> causeOfFailure(HTTPDecoderFactory<InflatingDecoder> factory,
+                                           byte[] encoded) {
+        return Assertions.assertThrows(HttpErrorIOException.class,
+                () -> decode(factory, new ByteArrayInputStream(encoded))).getCause().getClass();
+    }
+
+    @Test
+    void testGzip(@RandomByteArray(len = 100000) byte[] byteArray) throws Exception {
+        final InflatingDecoder.Settings settings = new InflatingDecoder.Settings(
+                1 << 20, 0, new InflaterPool(1), BufferPool.UNPOOLED);
+        final byte[] gzipped = gzip(byteArray);
+        Assertions.assertArrayEquals(byteArray,
+                decode(settings.gzip(), new ByteArrayInputStream(gzipped)));
+        Assertions.assertArrayEquals(byteArray, decode(settings.gzip(), trickle(gzipped)));
+        Assertions.assertEquals(1, settings.inflaterPool().getRetainedCount());
+
+        // multiple members
+        final byte[] first = Arrays.copyOf(byteArray, 10), second = new byte[]{1, 2, 3};
+        final ByteArrayOutputStream members = new ByteArrayOutputStream();
+        members.writeBytes(gzip(first));
+        members.writeBytes(gzip(second));
+        Assertions.assertArrayEquals(new byte[]{first[0], first[1], first[2], first[3], first[4],
+                        first[5], first[6], first[7], first[8], first[9], 1, 2, 3},
+                decode(settings.gzip(), new ByteArrayInputStream(members.toByteArray())));
+    }
+
+    @Test
+    void testGzipHeaderFields() throws Exception {
+        final InflatingDecoder.Settings settings = new InflatingDecoder.Settings(
+                1 << 20, 0, new InflaterPool(1), BufferPool.UNPOOLED);
+        final byte[] gzipped = gzip(new byte[]{'a', 'b', 'c'});
+        // set FEXTRA, FNAME and FCOMMENT
+        final ByteArrayOutputStream withFields = new ByteArrayOutputStream();
+        withFields.write(gzipped, 0, 3);
+        withFields.write(0X04 | 0X08 | 0X10);
+        withFields.write(gzipped, 4, 6);
+        withFields.writeBytes(new byte[]{2, 0, 'x', 'y'});
+        withFields.writeBytes(new byte[]{'n', 'a', 'm', 'e', 0});
+        withFields.writeBytes(new byte[]{'c', 0});
+        withFields.write(gzipped, 10, gzipped.length - 10);
+        Assertions.assertArrayEquals(new byte[]{'a', 'b', 'c'},
+                decode(settings.gzip(), trickle(withFields.toByteArray())));
+    }
+
+    @Test
+    void testDeflate(@RandomByteArray(len = 10000) byte[] byteArray) throws Exception {
+        final InflatingDecoder.Settings settings = new InflatingDecoder.Settings(
+                1 << 20, 0, new InflaterPool(1), BufferPool.UNPOOLED);
+        // zlib format
+        Assertions.assertArrayEquals(byteArray,
+                decode(settings.deflate(), trickle(deflate(byteArray, false))));
+        // raw deflate
+        Assertions.assertArrayEquals(byteArray,
+                decode(settings.deflate(), new ByteArrayInputStream(deflate(byteArray, true))));
+    }
+
+    @Test
+    void testCorrupt(@RandomByteArray(len = 1000) byte[] byteArray) throws Exception {
+        final InflatingDecoder.Settings settings = new InflatingDecoder.Settings(
+                1 << 20, 0, new InflaterPool(1), BufferPool.UNPOOLED);
+        final byte[] gzipped = gzip(byteArray);
+
+        final byte[] badChecksum = gzipped.clone();
+        badChecksum[badChecksum.length - 8] ^= 1;
+        Assertions.assertEquals(BadRequestException.class,
+                causeOfFailure(settings.gzip(), badChecksum));
+
+        Assertions.assertEquals(BadRequestException.class,
+                causeOfFailure(settings.gzip(), Arrays.copyOf(gzipped, gzipped.length - 1)));
+        Assertions.assertEquals(BadRequestException.class,
+                causeOfFailure(settings.gzip(), new byte[]{'n', 'o', 't', ' ', 'g', 'z'}));
+        Assertions.assertEquals(BadRequestException.class,
+                causeOfFailure(settings.gzip(), new byte[0]));
+
+        final byte[] zlib = deflate(byteArray, false);
+        zlib[zlib.length - 1] ^= 1;
+        Assertions.assertEquals(BadRequestException.class,
+                causeOfFailure(settings.deflate(), zlib));
+    }
+
+    @Test
+    void testLimits() throws Exception {
+        final byte[] zeros = new byte[1 << 20];
+        final byte[] gzipped = gzip(zeros);
+
+        final InflatingDecoder.Settings lengthLimited = new InflatingDecoder.Settings(
+                zeros.length - 1, 0, new InflaterPool(1), BufferPool.UNPOOLED);
+        Assertions.assertEquals(ContentTooLargeException.class,
+                causeOfFailure(lengthLimited.gzip(), gzipped));
+
+        final InflatingDecoder.Settings ratioLimited = new InflatingDecoder.Settings(
+                Long.MAX_VALUE, 100, new InflaterPool(1), BufferPool.UNPOOLED);
+        Assertions.assertEquals(ContentTooLargeException.class,
+                causeOfFailure(ratioLimited.gzip(), gzipped));
+
+        // short data is not subject to the ratio limit
+        final byte[] shortZeros = new byte[InflatingInputStream.COMPRESSION_RATIO_CHECK_THRESHOLD];
+        Assertions.assertArrayEquals(shortZeros,
+                decode(ratioLimited.gzip(), new ByteArrayInputStream(gzip(shortZeros))));
+
+        final InflatingDecoder.Settings unlimited = new InflatingDecoder.Settings(
+                zeros.length, 0, new InflaterPool(1), BufferPool.UNPOOLED);
+        Assertions.assertArrayEquals(zeros,
+                decode(unlimited.gzip(), new ByteArrayInputStream(gzipped)));
+    }
+
+    @Test
+    void testClose() throws Exception {
+        final BufferPool bufferPool = new BufferPool(16, 1 << 16, 4, false);
+        final InflatingDecoder.Settings settings = new InflatingDecoder.Settings(
+                1 << 20, 0, new InflaterPool(1), bufferPool);
+        final boolean[] closed = new boolean[1];
+        final InputStream encoded = new ByteArrayInputStream(gzip(new byte[100])) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        final InputStream decoded = settings.gzip().newDecoder().decode(encoded)
+                .getDecodedInputStream();
+        Assertions.assertEquals(0, decoded.read());
+        Assertions.assertEquals(1, bufferPool.getOutstandingLeaseCount());
+        decoded.close();
+        decoded.close();
+        Assertions.assertFalse(closed[0]);
+        Assertions.assertEquals(0, bufferPool.getOutstandingLeaseCount());
+        Assertions.assertEquals(1, settings.inflaterPool().getRetainedCount());
+        Assertions.assertThrows(IOException.class, decoded::read);
+    }
+}
@@ -45,7 +45,9 @@ public class NullDecoderTest {
         final NullDecoder instance = new NullDecoder();
 
         try (var in = new HttpRequestInputStream(new FileInputStream(TEST_FILE));
-             var contentInputStream = instance.decode(in).getContentInputStream()) {
+             var contentInputStream = instance
+                     .decode(in, TEST_FILE_BYTES_LENGTH)
+                     .getContentInputStream()) {
             Assertions.assertEquals(Optional.empty(), instance.getTrailerFields());
             Assertions.assertEquals(TEST_FILE_BYTES_LENGTH, instance.getContentLength());
             Assertions.assertArrayEquals(TEST_FILE_BYTES,
@@ -61,7 +63,9 @@ public class NullDecoderTest {
         final ChainDecoder chainDecoder = new ChainDecoder(nullDecoders);
 
         try (var in = new HttpRequestInputStream(new FileInputStream(TEST_FILE));
-             var decodedInputStream = chainDecoder.decode(in).getDecodedInputStream()) {
+             var decodedInputStream = chainDecoder
+                     .decode(in, TEST_FILE_BYTES_LENGTH)
+                     .getDecodedInputStream()) {
             Assertions.assertEquals(
                     TEST_FILE_BYTES_LENGTH,
                     chainDecoder.getDecodedLength()